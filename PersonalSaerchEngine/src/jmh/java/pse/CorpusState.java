@@ -0,0 +1,205 @@
+package pse;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Benchmark corpus shared by the benchmarks in this package.
+ *
+ * With corpus=zipf (the default) a synthetic corpus is written to a temporary directory: documents
+ * of words drawn from a vocabulary of made-up words with Zipfian frequencies, so a few terms are in nearly
+ * every document and most terms are rare, like in natural text. Some words are capitalized or followed by
+ * punctuation so that the keyword rules do real work. Size and shape are set with the documents,
+ * wordsPerDocument, vocabulary and zipfExponent parameters, and the corpus only depends on these and the
+ * seed, so runs are comparable.
+ *
+ * With corpus=bundled the corpus is the two chapters shipped with the project (AliceCh1.txt and WowCh1.txt),
+ * read from the directory given by the pse.dir system property, src/main/java/pse by default. It is small,
+ * but it is real text, as a sanity check for the synthetic numbers.
+ *
+ * Example, from the module directory:
+ *   java -cp ... org.openjdk.jmh.Main SearchBenchmark -p documents=10000 -p zipfExponent=1.2
+ */
+@State(Scope.Benchmark)
+public class CorpusState {
+
+    @Param({"zipf"})
+    public String corpus;
+
+    @Param({"1000"})
+    public int documents;
+
+    @Param({"1000"})
+    public int wordsPerDocument;
+
+    @Param({"20000"})
+    public int vocabulary;
+
+    @Param({"1.0"})
+    public double zipfExponent;
+
+    @Param({"42"})
+    public long seed;
+
+    /**
+     * Paths of the corpus documents.
+     */
+    public List<String> documentFiles;
+
+    /**
+     * Path of the noise words file.
+     */
+    public String noiseWordsFile;
+
+    /**
+     * Vocabulary, most frequent word first. For the bundled corpus, the keywords of its documents.
+     */
+    public String[] words;
+
+    /**
+     * Total size of the corpus documents in bytes.
+     */
+    public long bytes;
+
+    private File directory;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        String dir = System.getProperty("pse.dir", "src/main/java/pse");
+        noiseWordsFile = new File(dir, "noisewords.txt").getPath();
+        documentFiles = new ArrayList<String>();
+        if (corpus.equals("bundled")) {
+            documentFiles.add(new File(dir, "AliceCh1.txt").getPath());
+            documentFiles.add(new File(dir, "WowCh1.txt").getPath());
+            TreeSet<String> keywords = new TreeSet<String>();
+            PersonalSearchEngine engine = newEngine();
+            for (String doc : documentFiles) {
+                keywords.addAll(engine.loadKeywordsFromDocument(doc).keySet());
+            }
+            words = keywords.toArray(new String[keywords.size()]);
+        } else if (corpus.equals("zipf")) {
+            generate();
+        } else {
+            throw new IllegalArgumentException("Unknown corpus " + corpus + ", use zipf or bundled");
+        }
+        for (String doc : documentFiles) {
+            bytes += new File(doc).length();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (directory != null) {
+            for (File file : directory.listFiles()) {
+                file.delete();
+            }
+            directory.delete();
+        }
+    }
+
+    /**
+     * @return A new engine with the noise words loaded, and nothing indexed
+     */
+    public PersonalSearchEngine newEngine() throws FileNotFoundException {
+        PersonalSearchEngine engine = new PersonalSearchEngine();
+        Scanner sc = new Scanner(new File(noiseWordsFile));
+        while (sc.hasNext()) {
+            engine.noiseWords.add(sc.next());
+        }
+        sc.close();
+        return engine;
+    }
+
+    /**
+     * @return A new engine that has the whole corpus indexed
+     */
+    public PersonalSearchEngine newIndexedEngine() throws FileNotFoundException {
+        PersonalSearchEngine engine = newEngine();
+        for (String doc : documentFiles) {
+            engine.mergeKeywords(engine.loadKeywordsFromDocument(doc));
+        }
+        return engine;
+    }
+
+    /**
+     * @return A sampler of vocabulary ranks following the corpus' Zipf distribution
+     */
+    public Zipf zipf(long seed) {
+        return new Zipf(words.length, corpus.equals("zipf") ? zipfExponent : 0, seed);
+    }
+
+    private void generate() throws IOException {
+        Random random = new Random(seed);
+        words = new String[vocabulary];
+        HashSet<String> seen = new HashSet<String>();
+        for (int i = 0; i < vocabulary; i++) {
+            String word;
+            do {
+                // Zipf-like word lengths: frequent words are short
+                int length = 2 + Math.min(10, (int) Math.log10(i + 1) * 2 + random.nextInt(4));
+                char[] chars = new char[length];
+                for (int j = 0; j < length; j++) {
+                    chars[j] = (char) ('a' + random.nextInt(26));
+                }
+                word = new String(chars);
+            } while (!seen.add(word));
+            words[i] = word;
+        }
+
+        directory = File.createTempFile("pse-corpus", "");
+        directory.delete();
+        directory.mkdirs();
+        Zipf zipf = new Zipf(vocabulary, zipfExponent, seed);
+        for (int d = 0; d < documents; d++) {
+            File file = new File(directory, "doc" + d + ".txt");
+            Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+            try {
+                for (int w = 0; w < wordsPerDocument; w++) {
+                    String word = words[zipf.next()];
+                    int shape = random.nextInt(20);
+                    if (shape == 0) {
+                        word = Character.toUpperCase(word.charAt(0)) + word.substring(1);
+                    } else if (shape == 1) {
+                        word = word + ",";
+                    } else if (shape == 2) {
+                        word = word + ".";
+                    }
+                    out.write(word);
+                    out.write(w % 12 == 11 ? '\n' : ' ');
+                }
+            } finally {
+                out.close();
+            }
+            documentFiles.add(file.getPath());
+        }
+    }
+
+    /**
+     * Samples ranks 0..n-1 with probability proportional to 1 / (rank + 1)^exponent. An exponent of 0 is
+     * the uniform distribution.
+     */
+    public static class Zipf {
+
+        private final double[] cumulative;
+
+        private final Random random;
+
+        public Zipf(int n, double exponent, long seed) {
+            cumulative = new double[n];
+            double sum = 0;
+            for (int i = 0; i < n; i++) {
+                sum += 1 / Math.pow(i + 1, exponent);
+                cumulative[i] = sum;
+            }
+            random = new Random(seed);
+        }
+
+        public int next() {
+            double u = random.nextDouble() * cumulative[cumulative.length - 1];
+            int i = Arrays.binarySearch(cumulative, u);
+            return i >= 0 ? i : Math.min(-i - 1, cumulative.length - 1);
+        }
+    }
+}
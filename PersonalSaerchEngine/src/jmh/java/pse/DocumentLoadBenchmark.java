@@ -0,0 +1,115 @@
+package pse;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures loadKeywordsFromDocument, one corpus document per operation. Besides documents per second,
+ * the bytes counter reports the read rate in bytes per second.
+ *
+ * loadLargeDocument reads a single document of largeDocumentMegabytes, the corpus documents written over
+ * and over, to measure streaming a multi-gigabyte text dump. Run it with a small heap (e.g. -jvmArgs
+ * -Xmx64m) to check that memory does not grow with the document.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DocumentLoadBenchmark {
+
+    @State(Scope.Thread)
+    public static class Documents {
+
+        PersonalSearchEngine engine;
+
+        String[] files;
+
+        long[] sizes;
+
+        int next;
+
+        @Setup(Level.Trial)
+        public void setup(CorpusState corpus) throws FileNotFoundException {
+            engine = corpus.newEngine();
+            files = corpus.documentFiles.toArray(new String[corpus.documentFiles.size()]);
+            sizes = new long[files.length];
+            for (int i = 0; i < files.length; i++) {
+                sizes[i] = new File(files[i]).length();
+            }
+        }
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Bytes {
+
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class LargeDocument {
+
+        @Param({"256"})
+        public int largeDocumentMegabytes;
+
+        PersonalSearchEngine engine;
+
+        File file;
+
+        @Setup(Level.Trial)
+        public void setup(CorpusState corpus) throws IOException {
+            engine = corpus.newEngine();
+            file = File.createTempFile("pse-large", ".txt");
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+            try {
+                byte[] buffer = new byte[1 << 16];
+                long size = 0;
+                while (size < largeDocumentMegabytes * (1L << 20)) {
+                    for (String doc : corpus.documentFiles) {
+                        InputStream in = new FileInputStream(doc);
+                        try {
+                            int n;
+                            while ((n = in.read(buffer)) > 0) {
+                                out.write(buffer, 0, n);
+                                size += n;
+                            }
+                        } finally {
+                            in.close();
+                        }
+                    }
+                }
+            } finally {
+                out.close();
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            file.delete();
+        }
+    }
+
+    @Benchmark
+    public HashMap<String,Occurrence> loadKeywordsFromDocument(Documents d, Bytes counter)
+            throws FileNotFoundException {
+        int doc = d.next;
+        d.next = d.next + 1 == d.files.length ? 0 : d.next + 1;
+        counter.bytes += d.sizes[doc];
+        return d.engine.loadKeywordsFromDocument(d.files[doc]);
+    }
+
+    @Benchmark
+    public HashMap<String,Occurrence> loadLargeDocument(LargeDocument d, Bytes counter) throws FileNotFoundException {
+        counter.bytes += d.file.length();
+        return d.engine.loadKeywordsFromDocument(d.file.getPath());
+    }
+}
@@ -0,0 +1,52 @@
+package pse;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures getKeyword on its own, one raw corpus word per operation, so the score is words per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeywordBenchmark {
+
+    private static final int MAX_WORDS = 1 << 20;
+
+    @State(Scope.Thread)
+    public static class Words {
+
+        PersonalSearchEngine engine;
+
+        String[] words;
+
+        int next;
+
+        @Setup(Level.Trial)
+        public void setup(CorpusState corpus) throws IOException {
+            engine = corpus.newEngine();
+            ArrayList<String> raw = new ArrayList<String>();
+            for (String doc : corpus.documentFiles) {
+                Scanner sc = new Scanner(new File(doc), "UTF-8");
+                while (sc.hasNext() && raw.size() < MAX_WORDS) {
+                    raw.add(sc.next());
+                }
+                sc.close();
+            }
+            words = raw.toArray(new String[raw.size()]);
+        }
+    }
+
+    @Benchmark
+    public String getKeyword(Words w) {
+        String word = w.words[w.next];
+        w.next = w.next + 1 == w.words.length ? 0 : w.next + 1;
+        return w.engine.getKeyword(word);
+    }
+}
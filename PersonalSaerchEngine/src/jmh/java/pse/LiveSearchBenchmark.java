@@ -0,0 +1,91 @@
+package pse;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures search latency of a LiveSearchEngine while documents are being added. In the live group, three
+ * threads search and one thread adds the documents of the corpus one at a time; the search benchmark alone
+ * is the baseline without indexing. The engine starts with half of the corpus, and once the other half is
+ * added, the ingesting thread starts over with a new engine, which the searching threads then switch to.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LiveSearchBenchmark {
+
+    private static final int QUERIES = 1024;
+
+    @State(Scope.Group)
+    public static class Index {
+
+        @Param({"OR", "AND"})
+        public Query.Operator operator;
+
+        volatile LiveSearchEngine engine;
+
+        CorpusState corpus;
+
+        int next;
+
+        Query[] queries;
+
+        @Setup(Level.Trial)
+        public void setup(CorpusState corpus) throws FileNotFoundException {
+            this.corpus = corpus;
+            restart();
+            CorpusState.Zipf zipf = corpus.zipf(11);
+            queries = new Query[QUERIES];
+            for (int i = 0; i < QUERIES; i++) {
+                queries[i] = new Query(operator, 10, corpus.words[zipf.next()], corpus.words[zipf.next()],
+                        corpus.words[zipf.next()]);
+            }
+        }
+
+        void restart() throws FileNotFoundException {
+            LiveSearchEngine fresh = new LiveSearchEngine(corpus.noiseWordsFile);
+            List<String> docs = corpus.documentFiles;
+            next = docs.size() / 2;
+            fresh.addDocuments(docs.subList(0, next));
+            engine = fresh;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Benchmark
+    @Group("live")
+    @GroupThreads(3)
+    public ArrayList<SearchResult> search(Index index, Cursor cursor) {
+        int q = cursor.next;
+        cursor.next = (q + 1) & (QUERIES - 1);
+        return index.engine.search(index.queries[q]);
+    }
+
+    @Benchmark
+    @Group("live")
+    @GroupThreads(1)
+    public int ingest(Index index) throws FileNotFoundException {
+        if (index.next == index.corpus.documentFiles.size()) {
+            index.restart();
+        }
+        index.engine.addDocument(index.corpus.documentFiles.get(index.next++));
+        return index.engine.documentCount();
+    }
+
+    @Benchmark
+    @Group("idle")
+    @GroupThreads(3)
+    public ArrayList<SearchResult> searchIdle(Index index, Cursor cursor) {
+        return search(index, cursor);
+    }
+}
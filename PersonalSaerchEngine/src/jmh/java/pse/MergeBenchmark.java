@@ -0,0 +1,108 @@
+package pse;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures merging keywords into the index.
+ *
+ * mergeCorpus merges the keyword tables of every corpus document into an empty index one document at a
+ * time through mergeKeywords. indexCorpus is the whole serial makeIndex of the corpus, reading and counting
+ * every document by term id and appending its postings, which is what the -prof gc profiler should be
+ * pointed at for indexing allocations. postingListAdd and insertLastOccurrence build a single long posting list for
+ * a term that occurs in every document, which is where keeping lists in frequency order by inserting gets
+ * quadratic, and postingListAppendSort builds the same list the way makeIndex does, appending every posting
+ * and sorting once. Their list length is set with the postings parameter.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MergeBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Keywords {
+
+        ArrayList<HashMap<String,Occurrence>> documents;
+
+        @Setup(Level.Trial)
+        public void setup(CorpusState corpus) throws FileNotFoundException {
+            PersonalSearchEngine engine = corpus.newEngine();
+            documents = new ArrayList<HashMap<String,Occurrence>>();
+            for (String doc : corpus.documentFiles) {
+                documents.add(engine.loadKeywordsFromDocument(doc));
+            }
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Postings {
+
+        @Param({"1000", "10000", "50000"})
+        public int postings;
+
+        int[] frequencies;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            // frequencies of a common term: mostly low, with a long tail of high ones
+            Random random = new Random(42);
+            frequencies = new int[postings];
+            for (int i = 0; i < postings; i++) {
+                frequencies[i] = 1 + (int) (100 * Math.pow(random.nextDouble(), 4));
+            }
+        }
+    }
+
+    @Benchmark
+    public PersonalSearchEngine indexCorpus(CorpusState corpus) throws FileNotFoundException {
+        PersonalSearchEngine engine = new PersonalSearchEngine();
+        engine.makeIndex(corpus.documentFiles, corpus.noiseWordsFile);
+        return engine;
+    }
+
+    @Benchmark
+    public PersonalSearchEngine mergeCorpus(Keywords k) {
+        PersonalSearchEngine engine = new PersonalSearchEngine();
+        for (HashMap<String,Occurrence> kws : k.documents) {
+            engine.mergeKeywords(kws);
+        }
+        return engine;
+    }
+
+    @Benchmark
+    public PostingList postingListAdd(Postings p) {
+        PostingList list = new PostingList();
+        for (int i = 0; i < p.frequencies.length; i++) {
+            list.add(i, p.frequencies[i]);
+        }
+        return list;
+    }
+
+    @Benchmark
+    public PostingList postingListAppendSort(Postings p) {
+        PostingList list = new PostingList();
+        for (int i = 0; i < p.frequencies.length; i++) {
+            list.append(i, p.frequencies[i]);
+        }
+        list.sort();
+        return list;
+    }
+
+    @Benchmark
+    public ArrayList<Occurrence> insertLastOccurrence(Postings p) {
+        PersonalSearchEngine engine = new PersonalSearchEngine();
+        ArrayList<Occurrence> occs = new ArrayList<Occurrence>();
+        for (int i = 0; i < p.frequencies.length; i++) {
+            occs.add(new Occurrence("doc" + (i & 1023), p.frequencies[i]));
+            engine.insertLastOccurrence(occs);
+        }
+        return occs;
+    }
+}
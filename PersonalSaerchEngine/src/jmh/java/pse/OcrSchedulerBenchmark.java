@@ -0,0 +1,105 @@
+package pse;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures OCR of a multi-page document through OcrScheduler, against a local stub backend that
+ * simulates the round trip latency of a remote OCR service and fails a fraction of the requests. inFlight=1
+ * is the old one-page-after-the-other behavior.
+ *
+ * Example: -p pages=64 -p latencyMillis=100 -p failureRate=0.1
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OcrSchedulerBenchmark {
+
+    @Param({"1", "8"})
+    public int inFlight;
+
+    @Param({"16"})
+    public int pages;
+
+    @Param({"20"})
+    public int latencyMillis;
+
+    @Param({"0.05"})
+    public double failureRate;
+
+    private OcrScheduler scheduler;
+
+    private List<String> pageFiles;
+
+    private File directory;
+
+    /**
+     * Stub backend: sleeps for the latency, then fails with the failure rate or echoes the image as text.
+     */
+    static class StubOcrEngine implements OcrEngine {
+
+        private final int latencyMillis;
+
+        private final double failureRate;
+
+        StubOcrEngine(int latencyMillis, double failureRate) {
+            this.latencyMillis = latencyMillis;
+            this.failureRate = failureRate;
+        }
+
+        public String recognize(String name, byte[] image) throws IOException {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            if (new Random().nextDouble() < failureRate) {
+                throw new IOException("Simulated OCR failure");
+            }
+            return new String(image, "UTF-8");
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        scheduler = new OcrScheduler(new StubOcrEngine(latencyMillis, failureRate), inFlight, 4, 5);
+        directory = File.createTempFile("pse-ocr", "");
+        directory.delete();
+        directory.mkdirs();
+        pageFiles = new ArrayList<String>();
+        for (int page = 1; page <= pages; page++) {
+            File file = new File(directory, "page-" + page + ".png");
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                out.write(("text of page " + page).getBytes("UTF-8"));
+            } finally {
+                out.close();
+            }
+            pageFiles.add(file.getPath());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Benchmark
+    public List<String> recognizeDocument() throws IOException {
+        return scheduler.recognizeFiles(pageFiles);
+    }
+}
@@ -0,0 +1,165 @@
+package pse;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures top5search and top-K search latency over the indexed corpus. Query keywords are drawn with the
+ * corpus' own Zipf distribution, so frequent terms with long posting lists are queried most, as with real
+ * users. Sample time mode reports latency percentiles.
+ *
+ * The search benchmark takes the operator, the number of keywords per query, K and the scorer (bm25, tfidf
+ * or frequency) as parameters, e.g.
+ *   -p operator=AND -p keywords=4 -p k=100 -p scorer=tfidf
+ *
+ * The expand and patternSearch benchmarks measure keyword patterns (see KeywordPattern) made from the same
+ * Zipfian words: expand the expansion of a pattern alone, patternSearch a top5search with a pattern as its
+ * first keyword. The pattern parameter is prefix (the first 3 letters and *), wildcard (a middle letter
+ * replaced with ?) or fuzzy (word~).
+ *
+ * searchBatch runs all the search queries as one batch (see PersonalSearchEngine.search(List)), and reports
+ * the time per query, to compare with search.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchBenchmark {
+
+    private static final int QUERIES = 1024;
+
+    @State(Scope.Benchmark)
+    public static class Index {
+
+        PersonalSearchEngine engine;
+
+        String[] kw1;
+
+        String[] kw2;
+
+        @Setup(Level.Trial)
+        public void setup(CorpusState corpus) throws FileNotFoundException {
+            engine = corpus.newIndexedEngine();
+            CorpusState.Zipf zipf = corpus.zipf(7);
+            kw1 = new String[QUERIES];
+            kw2 = new String[QUERIES];
+            for (int i = 0; i < QUERIES; i++) {
+                kw1[i] = corpus.words[zipf.next()];
+                kw2[i] = corpus.words[zipf.next()];
+            }
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Queries {
+
+        @Param({"OR", "AND"})
+        public Query.Operator operator;
+
+        @Param({"3"})
+        public int keywords;
+
+        @Param({"10"})
+        public int k;
+
+        @Param({"bm25"})
+        public String scorer;
+
+        Query[] queries;
+
+        @Setup(Level.Trial)
+        public void setup(CorpusState corpus, Index index) {
+            if (scorer.equals("bm25")) {
+                index.engine.setScorer(Scorer.BM25);
+            } else if (scorer.equals("tfidf")) {
+                index.engine.setScorer(Scorer.TF_IDF);
+            } else if (scorer.equals("frequency")) {
+                index.engine.setScorer(Scorer.FREQUENCY);
+            } else {
+                throw new IllegalArgumentException("Unknown scorer " + scorer + ", use bm25, tfidf or frequency");
+            }
+            CorpusState.Zipf zipf = corpus.zipf(11);
+            queries = new Query[QUERIES];
+            for (int i = 0; i < QUERIES; i++) {
+                String[] words = new String[keywords];
+                for (int j = 0; j < keywords; j++) {
+                    words[j] = corpus.words[zipf.next()];
+                }
+                queries[i] = new Query(operator, k, words);
+            }
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Patterns {
+
+        @Param({"prefix", "wildcard", "fuzzy"})
+        public String pattern;
+
+        String[] patterns;
+
+        @Setup(Level.Trial)
+        public void setup(CorpusState corpus) {
+            CorpusState.Zipf zipf = corpus.zipf(13);
+            patterns = new String[QUERIES];
+            for (int i = 0; i < QUERIES; i++) {
+                String word = corpus.words[zipf.next()];
+                if (pattern.equals("prefix")) {
+                    patterns[i] = word.substring(0, Math.min(3, word.length())) + "*";
+                } else if (pattern.equals("wildcard")) {
+                    int middle = word.length() / 2;
+                    patterns[i] = word.substring(0, middle) + "?" + word.substring(middle + 1);
+                } else if (pattern.equals("fuzzy")) {
+                    patterns[i] = word + "~";
+                } else {
+                    throw new IllegalArgumentException("Unknown pattern " + pattern + ", use prefix, wildcard or fuzzy");
+                }
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Benchmark
+    public ArrayList<String> top5search(Index index, Cursor cursor) {
+        int q = cursor.next;
+        cursor.next = (q + 1) & (QUERIES - 1);
+        return index.engine.top5search(index.kw1[q], index.kw2[q]);
+    }
+
+    @Benchmark
+    public ArrayList<SearchResult> search(Index index, Queries queries, Cursor cursor) {
+        int q = cursor.next;
+        cursor.next = (q + 1) & (QUERIES - 1);
+        return index.engine.search(queries.queries[q]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OperationsPerInvocation(QUERIES)
+    public ArrayList<ArrayList<SearchResult>> searchBatch(Index index, Queries queries) {
+        return index.engine.search(Arrays.asList(queries.queries));
+    }
+
+    @Benchmark
+    public String[][] expand(Index index, Patterns patterns, Cursor cursor) {
+        int q = cursor.next;
+        cursor.next = (q + 1) & (QUERIES - 1);
+        return index.engine.expand(patterns.patterns[q]);
+    }
+
+    @Benchmark
+    public ArrayList<String> patternSearch(Index index, Patterns patterns, Cursor cursor) {
+        int q = cursor.next;
+        cursor.next = (q + 1) & (QUERIES - 1);
+        return index.engine.top5search(patterns.patterns[q], index.kw2[q]);
+    }
+}
@@ -0,0 +1,70 @@
+package pse;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures top-K search latency of a ShardedSearchEngine as the number of shards grows. Queries are drawn
+ * like in SearchBenchmark, so shards=1 is comparable to its search benchmark plus the cost of handing a
+ * query to the shard, and larger shard counts show how latency scales down with cores, e.g.
+ *   -p shards=1,2,4,8 -p documents=20000
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShardedSearchBenchmark {
+
+    private static final int QUERIES = 1024;
+
+    @State(Scope.Benchmark)
+    public static class Index {
+
+        @Param({"1", "2", "4"})
+        public int shards;
+
+        @Param({"OR", "AND"})
+        public Query.Operator operator;
+
+        @Param({"3"})
+        public int keywords;
+
+        @Param({"10"})
+        public int k;
+
+        ShardedSearchEngine engine;
+
+        Query[] queries;
+
+        @Setup(Level.Trial)
+        public void setup(CorpusState corpus) throws FileNotFoundException {
+            engine = new ShardedSearchEngine(shards);
+            engine.makeIndex(corpus.documentFiles, corpus.noiseWordsFile);
+            CorpusState.Zipf zipf = corpus.zipf(11);
+            queries = new Query[QUERIES];
+            for (int i = 0; i < QUERIES; i++) {
+                String[] words = new String[keywords];
+                for (int j = 0; j < keywords; j++) {
+                    words[j] = corpus.words[zipf.next()];
+                }
+                queries[i] = new Query(operator, k, words);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Benchmark
+    public ArrayList<SearchResult> search(Index index, Cursor cursor) {
+        int q = cursor.next;
+        cursor.next = (q + 1) & (QUERIES - 1);
+        return index.engine.search(index.queries[q]);
+    }
+}
@@ -0,0 +1,105 @@
+package pse;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures result snippets from the document store (see DocumentStore). The corpus is indexed with its text
+ * stored in a temporary file, and queries of two Zipfian keywords are searched once up front for the
+ * documents they match.
+ *
+ * snippet cuts the snippet of one matching document per operation, so the score is the latency per hit.
+ * search and searchWithSnippets run the same top-K OR queries on indexes without and with a store, the
+ * difference is the cost of the snippets of K results.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SnippetBenchmark {
+
+    private static final int QUERIES = 1024;
+
+    @State(Scope.Benchmark)
+    public static class Index {
+
+        @Param({"10"})
+        public int k;
+
+        PersonalSearchEngine plain;
+
+        PersonalSearchEngine stored;
+
+        File storeFile;
+
+        Query[] queries;
+
+        /**
+         * Matching document and keywords of every hit of the queries.
+         */
+        String[] hitDocuments;
+
+        String[][] hitKeywords;
+
+        @Setup(Level.Trial)
+        public void setup(CorpusState corpus) throws IOException {
+            plain = corpus.newIndexedEngine();
+            storeFile = File.createTempFile("pse-bench", ".docs");
+            storeFile.delete();
+            stored = new PersonalSearchEngine();
+            stored.setDocumentStore(storeFile.getPath());
+            stored.makeIndex(corpus.documentFiles, corpus.noiseWordsFile);
+            CorpusState.Zipf zipf = corpus.zipf(11);
+            queries = new Query[QUERIES];
+            ArrayList<String> documents = new ArrayList<String>();
+            ArrayList<String[]> keywords = new ArrayList<String[]>();
+            for (int i = 0; i < QUERIES; i++) {
+                String[] query = {corpus.words[zipf.next()], corpus.words[zipf.next()]};
+                queries[i] = new Query(Query.Operator.OR, k, query);
+                for (SearchResult result : plain.search(queries[i])) {
+                    documents.add(result.document);
+                    keywords.add(query);
+                }
+            }
+            hitDocuments = documents.toArray(new String[documents.size()]);
+            hitKeywords = keywords.toArray(new String[keywords.size()][]);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            stored.setDocumentStore(null);
+            storeFile.delete();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        int next;
+    }
+
+    @Benchmark
+    public Snippet snippet(Index index, Cursor cursor) {
+        int i = cursor.next;
+        cursor.next = i + 1 == index.hitDocuments.length ? 0 : i + 1;
+        return index.stored.store.snippet(index.hitDocuments[i], index.hitKeywords[i]);
+    }
+
+    @Benchmark
+    public ArrayList<SearchResult> search(Index index, Cursor cursor) {
+        int i = cursor.next;
+        cursor.next = i + 1 == index.queries.length ? 0 : i + 1;
+        return index.plain.search(index.queries[i]);
+    }
+
+    @Benchmark
+    public ArrayList<SearchResult> searchWithSnippets(Index index, Cursor cursor) {
+        int i = cursor.next;
+        cursor.next = i + 1 == index.queries.length ? 0 : i + 1;
+        return index.stored.search(index.queries[i]);
+    }
+}
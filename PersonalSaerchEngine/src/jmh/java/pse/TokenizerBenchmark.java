@@ -0,0 +1,63 @@
+package pse;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the original keyword scanning path (java.util.Scanner plus getKeyword on every word) against
+ * KeywordTokenizer on the same in-memory text, so that only tokenizing is measured and not disk reads.
+ *
+ * The documents are read from the directory given by the pse.dir system property, src/main/java/pse by default.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenizerBenchmark {
+
+    @Param({"AliceCh1.txt", "WowCh1.txt"})
+    String document;
+
+    PersonalSearchEngine engine;
+
+    String text;
+
+    @Setup
+    public void setup() throws IOException {
+        String dir = System.getProperty("pse.dir", "src/main/java/pse");
+        engine = new PersonalSearchEngine();
+        Scanner sc = new Scanner(new File(dir, "noisewords.txt"));
+        while (sc.hasNext()) {
+            engine.noiseWords.add(sc.next());
+        }
+        sc.close();
+        text = new String(Files.readAllBytes(new File(dir, document).toPath()), "UTF-8");
+    }
+
+    @Benchmark
+    public void scannerGetKeyword(Blackhole bh) {
+        Scanner sc = new Scanner(new StringReader(text));
+        while (sc.hasNext()) {
+            bh.consume(engine.getKeyword(sc.next()));
+        }
+    }
+
+    @Benchmark
+    public void keywordTokenizer(Blackhole bh) throws IOException {
+        KeywordTokenizer tokenizer = new KeywordTokenizer(engine.noiseWords);
+        tokenizer.reset(new StringReader(text));
+        String keyword;
+        while ((keyword = tokenizer.next()) != null) {
+            bh.consume(keyword);
+        }
+    }
+}
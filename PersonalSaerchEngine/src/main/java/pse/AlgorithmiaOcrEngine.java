@@ -0,0 +1,53 @@
+package pse;
+
+import com.algorithmia.Algorithmia;
+import com.algorithmia.AlgorithmException;
+import com.algorithmia.AlgorithmiaClient;
+import com.algorithmia.APIException;
+import com.algorithmia.data.DataFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * OCR through the Algorithmia API: the image is uploaded to an Algorithmia data directory and the Tesseract
+ * based RecognizeCharacters algorithm is run on it.
+ *
+ * Pages of several documents are recognized at once, and documents in different directories can have the
+ * same name, so every upload gets a name of its own, and is deleted once recognized.
+ */
+public class AlgorithmiaOcrEngine implements OcrEngine {
+
+    private static final String ALGORITHM = "ocr/RecognizeCharacters/0.3.0";
+
+    private static final String DIRECTORY = "data://salali/test";
+
+    private final AlgorithmiaClient client;
+
+    /**
+     * @param apiKey Algorithmia API key
+     */
+    public AlgorithmiaOcrEngine(String apiKey) {
+        client = Algorithmia.client(apiKey);
+    }
+
+    public String recognize(String name, byte[] image) throws IOException {
+        String file = UUID.randomUUID() + "-" + new File(name).getName();
+        DataFile upload = client.dir(DIRECTORY).file(file);
+        try {
+            upload.put(image);
+            return client.algo(ALGORITHM).pipe(DIRECTORY + "/" + file).asString();
+        } catch (APIException e) {
+            throw new IOException("Algorithmia API error for " + name + ": " + e.getMessage(), e);
+        } catch (AlgorithmException e) {
+            throw new IOException("OCR algorithm error for " + name + ": " + e.getMessage(), e);
+        } finally {
+            try {
+                upload.delete();
+            } catch (APIException e) {
+                // left behind, under a name that is never used again
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package pse;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Persistent cache of OCR results in front of another OcrEngine, keyed by the SHA-256 digest of the image
+ * bytes. Re-indexing an image or PDF page that was recognized before, under any name, then costs a digest
+ * and a small file read instead of an OCR call.
+ *
+ * Every result is a UTF-8 text file named after the digest, in a subdirectory named after its first two hex
+ * digits. Entries are written to a temporary file and renamed into place, so concurrent callers and
+ * interrupted runs never see a partial entry. Two callers that miss on the same image at the same time both
+ * recognize it, and the last one's entry stays.
+ *
+ * The cache does not know which engine produced an entry, so use a separate directory per engine (and
+ * language).
+ */
+public class CachingOcrEngine implements OcrEngine {
+
+    private final OcrEngine engine;
+
+    private final File directory;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param engine Engine that recognizes images that are not in the cache
+     * @param directory Cache directory, created when the first entry is written
+     */
+    public CachingOcrEngine(OcrEngine engine, File directory) {
+        this.engine = engine;
+        this.directory = directory;
+    }
+
+    public String recognize(String name, byte[] image) throws IOException {
+        String key = digest(image);
+        Path entry = new File(new File(directory, key.substring(0, 2)), key + ".txt").toPath();
+        try {
+            String text = new String(Files.readAllBytes(entry), StandardCharsets.UTF_8);
+            hits.incrementAndGet();
+            return text;
+        } catch (NoSuchFileException e) {
+            // not recognized before
+        }
+        misses.incrementAndGet();
+        String text = engine.recognize(name, image);
+        store(entry, text);
+        return text;
+    }
+
+    /**
+     * @return Number of images that were found in the cache
+     */
+    public long hits() {
+        return hits.get();
+    }
+
+    /**
+     * @return Number of images that had to be recognized by the engine
+     */
+    public long misses() {
+        return misses.get();
+    }
+
+    /**
+     * Writes an entry. The text was recognized already, so failing to cache it only costs another OCR call
+     * next time, and is not an error.
+     */
+    private static void store(Path entry, String text) {
+        Path temp = null;
+        try {
+            Files.createDirectories(entry.getParent());
+            temp = Files.createTempFile(entry.getParent(), entry.getFileName().toString(), ".tmp");
+            Files.write(temp, text.getBytes(StandardCharsets.UTF_8));
+            Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            if (temp != null) {
+                temp.toFile().delete();
+            }
+        }
+    }
+
+    private static String digest(byte[] image) {
+        MessageDigest sha256;
+        try {
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] digest = sha256.digest(image);
+        char[] hex = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            hex[2 * i] = Character.forDigit((digest[i] >> 4) & 0xF, 16);
+            hex[2 * i + 1] = Character.forDigit(digest[i] & 0xF, 16);
+        }
+        return new String(hex);
+    }
+}
@@ -0,0 +1,203 @@
+package pse;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Finds the documents to index under directory trees, instead of a hand-maintained docs file.
+ *
+ * Directories are listed in parallel on a fork/join pool, one task per directory, so a deep or wide tree is
+ * walked by all threads at once, and the files whose type has to be told by content (see DocumentType) are
+ * read by the thread that lists their directory. Symbolic links to files are followed, links to directories
+ * are not, so a tree with a link cycle is walked once. Hidden files and directories (names starting with a
+ * dot), excluded directories and directories that cannot be listed are skipped.
+ *
+ * A .txt file next to a PDF or image of the same name is the OCR output of that document, which is indexed
+ * under the .txt file's name already, so it is skipped too. Of several PDFs or images with the same name but
+ * different extensions, which would all be indexed under the same .txt name, only the first in path order is
+ * kept.
+ *
+ * The documents are returned sorted by path, so the same tree is always indexed in the same order, whatever
+ * the threads did.
+ */
+public class DocumentCrawler {
+
+    private final int threads;
+
+    private final Set<String> excluded = new HashSet<String>();
+
+    /**
+     * @param threads Number of threads to walk directories with
+     */
+    public DocumentCrawler(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Skips a directory and everything under it, such as an OCR cache that lives next to the documents.
+     *
+     * @param directory Directory to skip
+     */
+    public void exclude(String directory) {
+        excluded.add(new File(directory).getAbsoluteFile().toPath().normalize().toString());
+    }
+
+    /**
+     * Finds the documents under directories, see the class comment.
+     *
+     * @param roots Directories to crawl. A document file is taken as it is.
+     * @return Names of the documents, made of the roots and the paths below them, sorted by path
+     */
+    public ArrayList<String> crawl(String... roots) {
+        // the text names of the documents, told along with their types
+        final ConcurrentHashMap<String,String> found = new ConcurrentHashMap<String,String>();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            ArrayList<RecursiveAction> tasks = new ArrayList<RecursiveAction>(roots.length);
+            for (String root : roots) {
+                Path path = Paths.get(root);
+                if (Files.isDirectory(path)) {
+                    tasks.add(new DirectoryTask(path, found));
+                } else {
+                    add(path, root, found);
+                }
+            }
+            for (RecursiveAction task : tasks) {
+                pool.execute(task);
+            }
+            for (RecursiveAction task : tasks) {
+                task.join();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        ArrayList<String> docs = new ArrayList<String>(found.keySet());
+        Collections.sort(docs);
+        return unique(docs, found);
+    }
+
+    /**
+     * Called for every directory that is crawled, before it is listed, on the thread that lists it.
+     * Does nothing, DocumentWatcher uses it to watch the directories.
+     *
+     * @param directory Directory
+     * @throws IOException To skip the directory
+     */
+    void visitDirectory(Path directory) throws IOException {
+    }
+
+    /**
+     * @param file A file that is not hidden and not in an excluded directory
+     * @return Whether the file is a document to index, see the class comment
+     */
+    boolean accepts(Path file) {
+        return typeOf(file) != null;
+    }
+
+    /**
+     * @param file A file that is not hidden and not in an excluded directory
+     * @return Type of the file if it is a document to index, otherwise null
+     */
+    private DocumentType typeOf(Path file) {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        DocumentType type = DocumentType.of(file.toString());
+        return type != DocumentType.TEXT || !DocumentType.isOcrOutput(file.toFile()) ? type : null;
+    }
+
+    /**
+     * Adds a file to the documents found with its text name, if it is a document to index.
+     *
+     * @param doc Name of the file
+     */
+    private void add(Path file, String doc, Map<String,String> found) {
+        DocumentType type = typeOf(file);
+        if (type != null) {
+            found.put(doc, DocumentType.textName(doc, type));
+        }
+    }
+
+    /**
+     * @return Whether a file or directory is hidden or excluded, so it is not crawled
+     */
+    boolean skips(Path path) {
+        Path name = path.getFileName();
+        if (name != null && name.toString().startsWith(".")) {
+            return true;
+        }
+        return !excluded.isEmpty()
+                && excluded.contains(path.toAbsolutePath().normalize().toString());
+    }
+
+    /**
+     * Drops the documents whose text name is the one of a document before them.
+     *
+     * @param textNames Text names of the documents
+     */
+    private static ArrayList<String> unique(ArrayList<String> docs, Map<String,String> textNames) {
+        HashSet<String> names = new HashSet<String>(docs.size() * 2);
+        ArrayList<String> unique = new ArrayList<String>(docs.size());
+        for (String doc : docs) {
+            if (names.add(textNames.get(doc))) {
+                unique.add(doc);
+            }
+        }
+        return unique;
+    }
+
+    /**
+     * Lists a directory, forking a task for every subdirectory.
+     */
+    private final class DirectoryTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Path directory;
+
+        private final Map<String,String> found;
+
+        DirectoryTask(Path directory, Map<String,String> found) {
+            this.directory = directory;
+            this.found = found;
+        }
+
+        protected void compute() {
+            ArrayList<DirectoryTask> subdirectories = new ArrayList<DirectoryTask>();
+            try {
+                visitDirectory(directory);
+                DirectoryStream<Path> entries = Files.newDirectoryStream(directory);
+                try {
+                    for (Path entry : entries) {
+                        if (skips(entry)) {
+                            continue;
+                        }
+                        BasicFileAttributes attributes = Files.readAttributes(entry, BasicFileAttributes.class,
+                                LinkOption.NOFOLLOW_LINKS);
+                        if (attributes.isDirectory()) {
+                            DirectoryTask task = new DirectoryTask(entry, found);
+                            task.fork();
+                            subdirectories.add(task);
+                        } else {
+                            add(entry, entry.toString(), found);
+                        }
+                    }
+                } finally {
+                    entries.close();
+                }
+            } catch (IOException e) {
+                // a directory that cannot be read, or that was removed while crawling, has no documents
+            } catch (DirectoryIteratorException e) {
+                // the same, noticed while listing
+            }
+            for (DirectoryTask task : subdirectories) {
+                task.join();
+            }
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package pse;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Reader of a document file in a given charset, for streaming the text of arbitrarily large documents into
+ * a KeywordTokenizer with constant memory.
+ *
+ * The file is read through its FileChannel in large sequential reads into a byte buffer, and decoded
+ * straight into the tokenizer's char chunks. The byte buffer is reused by every document read on the same
+ * thread, so reading a document allocates next to nothing, and a thread can only have one DocumentReader
+ * open at a time. Malformed and unmappable input is replaced, like FileReader does, rather than failing the
+ * document.
+ *
+ * The file is read rather than memory-mapped: a mapping is only released when its buffer is garbage
+ * collected, so mapping every document of a large corpus would keep thousands of files mapped, and a
+ * document that is read once from start to end gains nothing from mapping it.
+ */
+final class DocumentReader extends Reader {
+
+    /**
+     * Size of the reads from the file.
+     */
+    static final int BUFFER_SIZE = 1 << 20;
+
+    /**
+     * Byte buffer of every thread. A heap buffer, since the JDK decoders only run their fast loops on
+     * arrays.
+     */
+    private static final ThreadLocal<ByteBuffer> BUFFER = new ThreadLocal<ByteBuffer>();
+
+    private final FileInputStream file;
+
+    private final FileChannel channel;
+
+    private final CharsetDecoder decoder;
+
+    private final ByteBuffer bytes;
+
+    /**
+     * Whether the whole file has been read into the buffer.
+     */
+    private boolean endOfInput;
+
+    /**
+     * Whether the decoder has been flushed after the end of the input, so nothing is left to return.
+     */
+    private boolean flushed;
+
+    /**
+     * Second half of a surrogate pair that a read only had room for the first half of, -1 if none.
+     */
+    private int pending = -1;
+
+    /**
+     * Opens a document file.
+     *
+     * @param docFile Name of the document file
+     * @param charset Charset of the file
+     * @throws FileNotFoundException If the file does not exist or cannot be read
+     */
+    DocumentReader(String docFile, Charset charset) throws FileNotFoundException {
+        file = new FileInputStream(docFile);
+        channel = file.getChannel();
+        decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer buffer = BUFFER.get();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            BUFFER.set(buffer);
+        }
+        bytes = buffer;
+        bytes.clear();
+        bytes.flip();
+    }
+
+    public int read(char[] chars, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        int start = offset;
+        if (pending >= 0) {
+            chars[offset++] = (char) pending;
+            length--;
+            pending = -1;
+        }
+        CharBuffer out = CharBuffer.wrap(chars, offset, length);
+        decode(out);
+        if (out.position() == start && !flushed) {
+            // room for one char, but the next one is a surrogate pair
+            CharBuffer pair = CharBuffer.allocate(2);
+            decode(pair);
+            chars[offset] = pair.get(0);
+            pending = pair.position() > 1 ? pair.get(1) : -1;
+            return 1;
+        }
+        int read = out.position() - start;
+        return read == 0 ? -1 : read;
+    }
+
+    /**
+     * Decodes chars into a buffer until it is full or the file ends.
+     */
+    private void decode(CharBuffer out) throws IOException {
+        while (!flushed) {
+            if (decoder.decode(bytes, out, endOfInput).isOverflow()) {
+                return;
+            }
+            // underflow: what is left in the buffer, if anything, is the start of a char
+            if (!endOfInput) {
+                fill();
+            } else if (decoder.flush(out).isOverflow()) {
+                return;
+            } else {
+                flushed = true;
+            }
+        }
+    }
+
+    /**
+     * Reads the next bytes of the file into the buffer, after the ones that are not decoded yet.
+     */
+    private void fill() throws IOException {
+        bytes.compact();
+        int read = channel.read(bytes);
+        bytes.flip();
+        endOfInput = read < 0;
+    }
+
+    public void close() throws IOException {
+        file.close();
+    }
+}
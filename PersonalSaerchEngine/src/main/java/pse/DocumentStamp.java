@@ -0,0 +1,82 @@
+package pse;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Size, modification time and content hash of a document file at the time it was indexed. Used by
+ * PersonalSearchEngine.updateIndex to tell which documents changed since the index was built.
+ */
+public class DocumentStamp {
+
+    /**
+     * File size in bytes.
+     */
+    final long size;
+
+    /**
+     * Last modification time, in milliseconds since the epoch.
+     */
+    final long lastModified;
+
+    /**
+     * First 64 bits of the SHA-1 digest of the file contents.
+     */
+    final long hash;
+
+    public DocumentStamp(long size, long lastModified, long hash) {
+        this.size = size;
+        this.lastModified = lastModified;
+        this.hash = hash;
+    }
+
+    /**
+     * Reads a file and stamps it.
+     *
+     * @param file Document file
+     * @return Stamp of the file as it is now
+     * @throws IOException If the file cannot be read
+     */
+    public static DocumentStamp of(File file) throws IOException {
+        long size = file.length();
+        long lastModified = file.lastModified();
+        MessageDigest sha1;
+        try {
+            sha1 = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[1 << 16];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                sha1.update(buffer, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        byte[] digest = sha1.digest();
+        long hash = 0;
+        for (int i = 0; i < 8; i++) {
+            hash = (hash << 8) | (digest[i] & 0xff);
+        }
+        return new DocumentStamp(size, lastModified, hash);
+    }
+
+    /**
+     * Cheap check that does not read the file: true if the file still has the stamped size and
+     * modification time, in which case it is taken to be unchanged.
+     *
+     * @param file Document file
+     * @return Whether size and modification time match
+     */
+    public boolean sameAttributes(File file) {
+        return file.length() == size && file.lastModified() == lastModified;
+    }
+
+    public String toString() {
+        return "(" + size + "," + lastModified + "," + Long.toHexString(hash) + ")";
+    }
+}
@@ -0,0 +1,721 @@
+package pse;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Read-only, memory-mapped store of the text of indexed documents, which search results take their snippets
+ * from (see PersonalSearchEngine.setDocumentStore), so that neither the documents nor their OCR output are
+ * read again to show why a document matched.
+ *
+ * The text is stored normalized, the way the tokenizer sees it: the words of the document separated by single
+ * spaces, so line breaks and runs of whitespace are gone, but every word keeps its case and punctuation. It is
+ * written while the document is indexed, from the same chars the tokenizer reads, together with the byte
+ * offset and length of every keyword occurrence in it. A snippet then only compares the query keywords with
+ * the keyword occurrences of the matching document, most of which are told apart by their length alone,
+ * picks the window where the most of them are close together, and decodes that window. The rest of the text
+ * is neither tokenized nor decoded.
+ *
+ * Layout (all fixed-size numbers big-endian):
+ *
+ *   header     magic "PSED", version, document count, unused int, directory offset (long)
+ *   records    one per stored document, in the order they were written: the length of the text in bytes and
+ *              the number of keyword occurrences as varints, the UTF-8 text, then for every keyword occurrence
+ *              in text order its byte offset from the one before it and its length in bytes, without trailing
+ *              punctuation, as varints
+ *   directory  one 16 byte entry per document, sorted by name: name bytes offset (int), record offset (long),
+ *              record length (int). One extra trailing name bytes offset closes the last name, then the UTF-8
+ *              names follow, back to back, in entry order
+ *
+ * Documents are looked up by name, with a binary search of the directory that compares raw bytes, so the
+ * store does not depend on document ids, which updates and segment merges change. A Writer that adds to an
+ * existing store appends the new records and a new directory. The records of replaced and removed documents
+ * stay behind until they take more room than the live ones, and the store is then rewritten without them.
+ */
+public class DocumentStore implements Closeable {
+
+    static final int MAGIC = 0x50534544; // "PSED"
+
+    static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 24;
+
+    private static final int ENTRY_SIZE = 16;
+
+    /**
+     * Largest store file, which is mapped as a single buffer and read with int offsets.
+     */
+    static final long MAX_SIZE = Integer.MAX_VALUE;
+
+    /**
+     * Length of the text a snippet shows, in bytes, about two lines.
+     */
+    static final int SNIPPET_BYTES = 160;
+
+    /**
+     * Most keyword occurrences of a document a snippet considers, far more than fit in one.
+     */
+    private static final int MAX_MATCHES = 4096;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final FileChannel channel;
+
+    private final MappedByteBuffer buffer;
+
+    private final int documentCount;
+
+    private final int directoryOffset;
+
+    private final int namesOffset;
+
+    private DocumentStore(FileChannel channel, MappedByteBuffer buffer) throws IOException {
+        this.channel = channel;
+        this.buffer = buffer;
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a document store file");
+        }
+        int version = buffer.getInt(4);
+        if (version != VERSION) {
+            throw new IOException("Unsupported document store version " + version);
+        }
+        documentCount = buffer.getInt(8);
+        directoryOffset = (int) buffer.getLong(16);
+        namesOffset = directoryOffset + documentCount * ENTRY_SIZE + 4;
+    }
+
+    /**
+     * Opens a store file by mapping it into memory. Nothing but the header is read until a document is
+     * looked up.
+     *
+     * @param file Store file
+     * @return The opened store
+     * @throws IOException If the file cannot be read or is not a store of a supported version
+     */
+    public static DocumentStore open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        FileChannel channel = raf.getChannel();
+        try {
+            if (channel.size() > MAX_SIZE) {
+                throw new IOException("Document store larger than 2GB: " + file);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new DocumentStore(channel, buffer);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return Number of stored documents
+     */
+    public int documentCount() {
+        return documentCount;
+    }
+
+    /**
+     * @param document Document name, as search results have it
+     * @return Normalized text of the document, see the class comment, or null if it is not stored
+     */
+    public String text(String document) {
+        int entry = find(document.getBytes(UTF8));
+        if (entry < 0) {
+            return null;
+        }
+        long read = PostingList.readVarInt(buffer, recordOffset(entry));
+        int length = (int) read;
+        read = PostingList.readVarInt(buffer, (int) (read >>> 32));
+        return decode((int) (read >>> 32), length);
+    }
+
+    /**
+     * Cuts a snippet of about SNIPPET_BYTES of a document's text around the keyword occurrences of a query.
+     * Of all windows of that size, the snippet shows the one with the most distinct query keywords, then the
+     * most occurrences, and the first of those, at word boundaries, with every occurrence in it highlighted.
+     * Keywords match the occurrences the tokenizer found regardless of case. A document without any of the
+     * keywords gets the start of its text.
+     *
+     * @param document Document name, as search results have it
+     * @param keywords Keywords to highlight (lower case), e.g. the expansions of the query keywords
+     * @return Snippet, or null if the document is not stored
+     */
+    public Snippet snippet(String document, String... keywords) {
+        int entry = find(document.getBytes(UTF8));
+        if (entry < 0) {
+            return null;
+        }
+        long read = PostingList.readVarInt(buffer, recordOffset(entry));
+        int textLength = (int) read;
+        read = PostingList.readVarInt(buffer, (int) (read >>> 32));
+        int occurrences = (int) read;
+        int text = (int) (read >>> 32);
+        byte[][] terms = new byte[keywords.length][];
+        for (int k = 0; k < terms.length; k++) {
+            terms[k] = keywords[k].getBytes(UTF8);
+        }
+        // start, end and keyword of every occurrence of a keyword, in text order
+        int[] matches = new int[48];
+        int count = 0;
+        int at = text + textLength;
+        int start = 0;
+        for (int i = 0; i < occurrences && count < MAX_MATCHES; i++) {
+            read = PostingList.readVarInt(buffer, at);
+            start += (int) read;
+            read = PostingList.readVarInt(buffer, (int) (read >>> 32));
+            int length = (int) read;
+            at = (int) (read >>> 32);
+            for (int k = 0; k < terms.length; k++) {
+                if (terms[k].length == length && matches(text + start, terms[k], keywords[k])) {
+                    if (3 * count == matches.length) {
+                        matches = Arrays.copyOf(matches, matches.length * 2);
+                    }
+                    matches[3 * count] = start;
+                    matches[3 * count + 1] = start + length;
+                    matches[3 * count + 2] = k;
+                    count++;
+                    break;
+                }
+            }
+        }
+        return cut(text, textLength, window(matches, count, terms.length, textLength), matches, count);
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Tells whether the text at a position is a keyword, ASCII letters compared regardless of case, other
+     * chars by lower-casing them as the tokenizer does.
+     *
+     * @param position Position of an occurrence as long as the keyword's bytes
+     */
+    private boolean matches(int position, byte[] term, String keyword) {
+        for (int i = 0; i < term.length; i++) {
+            int b = buffer.get(position + i);
+            if (b < 0 || term[i] < 0) {
+                return decode(position, term.length).toLowerCase().equals(keyword);
+            }
+            if (b >= 'A' && b <= 'Z') {
+                b += 'a' - 'A';
+            }
+            if (b != term[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Picks the span of text a snippet shows, see snippet.
+     *
+     * @return Start and end byte offset of the span in the text
+     */
+    private static int[] window(int[] matches, int count, int keywords, int textLength) {
+        int best = -1;
+        int bestEnd = -1;
+        int bestDistinct = 0;
+        int bestCount = 0;
+        // occurrences first to last are within SNIPPET_BYTES, with distinct different keywords
+        int[] inWindow = new int[keywords];
+        int distinct = 0;
+        int first = 0;
+        for (int last = 0; last < count; last++) {
+            if (inWindow[matches[3 * last + 2]]++ == 0) {
+                distinct++;
+            }
+            while (first < last && matches[3 * last + 1] - matches[3 * first] > SNIPPET_BYTES) {
+                if (--inWindow[matches[3 * first + 2]] == 0) {
+                    distinct--;
+                }
+                first++;
+            }
+            if (distinct > bestDistinct || distinct == bestDistinct && last - first + 1 > bestCount) {
+                best = first;
+                bestEnd = last;
+                bestDistinct = distinct;
+                bestCount = last - first + 1;
+            }
+        }
+        if (best < 0) {
+            return new int[] {0, Math.min(textLength, SNIPPET_BYTES)};
+        }
+        // the occurrences in the middle, with as much text before them as after
+        int start = matches[3 * best];
+        int end = matches[3 * bestEnd + 1];
+        start = Math.max(0, start - Math.max(0, SNIPPET_BYTES - (end - start)) / 2);
+        end = Math.min(textLength, Math.max(end, start + SNIPPET_BYTES));
+        start = Math.max(0, Math.min(start, end - SNIPPET_BYTES));
+        return new int[] {start, end};
+    }
+
+    /**
+     * Decodes the span of text a snippet shows, moved in to word boundaries, and highlights the occurrences
+     * in it.
+     */
+    private Snippet cut(int text, int textLength, int[] window, int[] matches, int count) {
+        int start = window[0];
+        int end = window[1];
+        // a window that ends with an occurrence keeps the punctuation after it, which is part of the word
+        while (end < textLength && Text.isPunctuation(buffer.get(text + end))) {
+            end++;
+        }
+        int first = 0;
+        while (first < count && matches[3 * first] < start) {
+            first++;
+        }
+        int last = first;
+        while (last < count && matches[3 * last + 1] <= end) {
+            last++;
+        }
+        byte[] bytes = new byte[end - start];
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(text + start);
+        slice.get(bytes);
+        // whole words only, unless a word is as long as the window, and never part of a char
+        int from = 0;
+        if (start > 0 && buffer.get(text + start - 1) != ' ') {
+            int limit = first < last ? matches[3 * first] - start : bytes.length;
+            int space = from;
+            while (space < limit && bytes[space] != ' ') {
+                space++;
+            }
+            from = space < limit ? space : 0;
+        }
+        while (from < bytes.length && (bytes[from] == ' ' || (bytes[from] & 0xc0) == 0x80)) {
+            from++;
+        }
+        int to = bytes.length;
+        if (end < textLength && buffer.get(text + end) != ' ') {
+            int limit = first < last ? matches[3 * (last - 1) + 1] - start : from;
+            int space = to - 1;
+            while (space > limit && bytes[space] != ' ') {
+                space--;
+            }
+            to = space >= limit && bytes[space] == ' ' ? space : to;
+        }
+        while (to > from && (bytes[to - 1] == ' '
+                || start + to < textLength && (buffer.get(text + start + to) & 0xc0) == 0x80)) {
+            to--;
+        }
+        StringBuilder snippet = new StringBuilder(to - from + 6);
+        if (start + from > 0) {
+            snippet.append("...");
+        }
+        int[] highlights = new int[2 * (last - first)];
+        int h = 0;
+        int at = from;
+        for (int m = first; m < last; m++) {
+            int matchStart = matches[3 * m] - start;
+            int matchEnd = matches[3 * m + 1] - start;
+            if (matchStart < from || matchEnd > to) {
+                continue;
+            }
+            snippet.append(new String(bytes, at, matchStart - at, UTF8));
+            highlights[h++] = snippet.length();
+            snippet.append(new String(bytes, matchStart, matchEnd - matchStart, UTF8));
+            highlights[h++] = snippet.length();
+            at = matchEnd;
+        }
+        snippet.append(new String(bytes, at, to - at, UTF8));
+        if (start + to < textLength) {
+            snippet.append("...");
+        }
+        return new Snippet(snippet.toString(), h == highlights.length ? highlights : Arrays.copyOf(highlights, h));
+    }
+
+    /**
+     * Adds the records of all documents to a table by name, see Writer.
+     */
+    private void readDirectory(Map<String,long[]> records) {
+        for (int entry = 0; entry < documentCount; entry++) {
+            int position = directoryOffset + entry * ENTRY_SIZE;
+            int nameStart = buffer.getInt(position);
+            int nameEnd = buffer.getInt(position + ENTRY_SIZE);
+            records.put(decode(namesOffset + nameStart, nameEnd - nameStart),
+                    new long[] {buffer.getLong(position + 4), buffer.getInt(position + 12)});
+        }
+    }
+
+    private int recordOffset(int entry) {
+        return (int) buffer.getLong(directoryOffset + entry * ENTRY_SIZE + 4);
+    }
+
+    /**
+     * Binary search of the directory.
+     *
+     * @return Entry of the document, or -1 if it is not in the store
+     */
+    private int find(byte[] key) {
+        int low = 0;
+        int high = documentCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int c = compareName(mid, key);
+            if (c < 0) {
+                low = mid + 1;
+            } else if (c > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int compareName(int entry, byte[] key) {
+        int start = namesOffset + buffer.getInt(directoryOffset + entry * ENTRY_SIZE);
+        int length = namesOffset + buffer.getInt(directoryOffset + (entry + 1) * ENTRY_SIZE) - start;
+        int n = Math.min(length, key.length);
+        for (int i = 0; i < n; i++) {
+            int c = (buffer.get(start + i) & 0xff) - (key[i] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return length - key.length;
+    }
+
+    private String decode(int position, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(position);
+        slice.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * Normalized text of one document and the offsets of its keyword occurrences, as a KeywordTokenizer reads
+     * them, see the class comment. One instance is reused from document to document.
+     */
+    static final class Text {
+
+        private byte[] text = new byte[1 << 12];
+
+        private int length;
+
+        /**
+         * Keyword occurrences, encoded as in a record.
+         */
+        private byte[] occurrences = new byte[1 << 10];
+
+        private int occurrencesLength;
+
+        private int count;
+
+        /**
+         * Start of the last word, and of the last keyword occurrence.
+         */
+        private int wordStart;
+
+        private int keywordStart;
+
+        void clear() {
+            length = 0;
+            occurrencesLength = 0;
+            count = 0;
+            keywordStart = 0;
+        }
+
+        /**
+         * Appends a word, after a space unless it is the first.
+         *
+         * @param word Chars of the word, as read
+         * @param n Length of the word
+         */
+        void word(char[] word, int n) {
+            ensure(n + 1);
+            if (length > 0) {
+                text[length++] = ' ';
+            }
+            wordStart = length;
+            for (int i = 0; i < n; i++) {
+                char c = word[i];
+                if (c >= 0x80) {
+                    byte[] bytes = new String(word, 0, n).getBytes(UTF8);
+                    length = wordStart;
+                    ensure(bytes.length);
+                    System.arraycopy(bytes, 0, text, length, bytes.length);
+                    length += bytes.length;
+                    return;
+                }
+                text[length++] = (byte) c;
+            }
+        }
+
+        /**
+         * Records the last word as a keyword occurrence, without its trailing punctuation.
+         */
+        void keyword() {
+            int end = length;
+            while (end > wordStart && isPunctuation(text[end - 1])) {
+                end--;
+            }
+            if (occurrencesLength + 10 > occurrences.length) {
+                occurrences = Arrays.copyOf(occurrences, occurrences.length * 2);
+            }
+            occurrencesLength = PostingList.putVarInt(occurrences, occurrencesLength, wordStart - keywordStart);
+            occurrencesLength = PostingList.putVarInt(occurrences, occurrencesLength, end - wordStart);
+            keywordStart = wordStart;
+            count++;
+        }
+
+        /**
+         * @return The text as a store record
+         */
+        byte[] record() {
+            int header = PostingList.putVarInt(null, PostingList.putVarInt(null, 0, length), count);
+            byte[] record = new byte[header + length + occurrencesLength];
+            PostingList.putVarInt(record, PostingList.putVarInt(record, 0, length), count);
+            System.arraycopy(text, 0, record, header, length);
+            System.arraycopy(occurrences, 0, record, header + length, occurrencesLength);
+            return record;
+        }
+
+        private void ensure(int n) {
+            if (length + n > text.length) {
+                text = Arrays.copyOf(text, Math.max(length + n, text.length * 2));
+            }
+        }
+
+        private static boolean isPunctuation(byte b) {
+            return b == '.' || b == ',' || b == '?' || b == ':' || b == ';' || b == '!';
+        }
+    }
+
+    /**
+     * Writes a store file, see the class comment. Records can be added from any thread, the directory is
+     * written by close. A new store is written to a temporary file next to the store, which replaces it when
+     * the writer is closed. Records that would make the store larger than MAX_SIZE are not written, so that
+     * the store can always be opened.
+     */
+    static final class Writer implements Closeable {
+
+        private final File file;
+
+        /**
+         * File the records are written to: the store itself when adding to it, otherwise the temporary file.
+         */
+        private final File target;
+
+        private final OutputStream out;
+
+        /**
+         * Offset and length of the record of every stored document, by name.
+         */
+        private final HashMap<String,long[]> records = new HashMap<String,long[]>();
+
+        /**
+         * Size of the target file, the offset of the next record.
+         */
+        private long size;
+
+        /**
+         * Total length of the records in the table, the others are dead.
+         */
+        private long liveBytes;
+
+        /**
+         * Size of the directory close is going to write for the records in the table.
+         */
+        private long directoryBytes = 4;
+
+        /**
+         * Largest store the writer writes.
+         */
+        private final long maxSize;
+
+        /**
+         * @param file Store file
+         * @param append Whether to add to the store if it exists, rather than write a new one
+         * @throws IOException If the store cannot be read or the file cannot be written
+         */
+        Writer(File file, boolean append) throws IOException {
+            this(file, append, MAX_SIZE);
+        }
+
+        /**
+         * @param maxSize Largest store to write, MAX_SIZE except in tests
+         */
+        Writer(File file, boolean append, long maxSize) throws IOException {
+            this.file = file;
+            this.maxSize = maxSize;
+            boolean appending = append && file.isFile();
+            if (appending) {
+                DocumentStore store = open(file);
+                try {
+                    store.readDirectory(records);
+                } finally {
+                    store.close();
+                }
+                for (Map.Entry<String,long[]> e : records.entrySet()) {
+                    liveBytes += e.getValue()[1];
+                    directoryBytes += ENTRY_SIZE + e.getKey().getBytes(UTF8).length;
+                }
+                target = file;
+                size = file.length();
+            } else {
+                target = new File(file.getPath() + ".tmp");
+                size = HEADER_SIZE;
+            }
+            out = new BufferedOutputStream(new FileOutputStream(target, appending), 1 << 16);
+            if (!appending) {
+                out.write(new byte[HEADER_SIZE]);
+            }
+        }
+
+        /**
+         * Stores the text of a document, in place of any text stored under the same name before. The text is
+         * not stored if the store would then be larger than MAX_SIZE, and any text stored under the name
+         * before is dropped, so that the document has no snippet rather than an outdated one. Dead records
+         * count until close drops them.
+         *
+         * @param name Document name
+         * @param record The document's text as a record, see Text.record
+         * @return Whether the text was stored
+         * @throws IOException If the record cannot be written
+         */
+        synchronized boolean add(String name, byte[] record) throws IOException {
+            long entryBytes = records.containsKey(name) ? 0 : ENTRY_SIZE + name.getBytes(UTF8).length;
+            if (size + record.length + directoryBytes + entryBytes > maxSize) {
+                remove(name);
+                return false;
+            }
+            out.write(record);
+            long[] replaced = records.put(name, new long[] {size, record.length});
+            if (replaced != null) {
+                liveBytes -= replaced[1];
+            }
+            liveBytes += record.length;
+            directoryBytes += entryBytes;
+            size += record.length;
+            return true;
+        }
+
+        /**
+         * Drops the text of a document.
+         *
+         * @param name Document name
+         */
+        synchronized void remove(String name) {
+            long[] removed = records.remove(name);
+            if (removed != null) {
+                liveBytes -= removed[1];
+                directoryBytes -= ENTRY_SIZE + name.getBytes(UTF8).length;
+            }
+        }
+
+        /**
+         * Writes the directory and the header, after rewriting the records without the dead ones if these take
+         * more room, or if the store would be larger than MAX_SIZE with them, and replaces the store with the
+         * temporary file.
+         */
+        public synchronized void close() throws IOException {
+            out.close();
+            File written = target;
+            if (size - HEADER_SIZE - liveBytes > liveBytes || size + directoryBytes > maxSize) {
+                written = compact();
+            }
+            writeDirectory(written);
+            if (written != file) {
+                Files.move(written.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+
+        /**
+         * Copies the live records to a new temporary file, in their order, and points the table at the copies.
+         *
+         * @return The new file
+         */
+        private File compact() throws IOException {
+            ArrayList<long[]> live = new ArrayList<long[]>(records.values());
+            Collections.sort(live, new Comparator<long[]>() {
+                public int compare(long[] a, long[] b) {
+                    return a[0] < b[0] ? -1 : a[0] > b[0] ? 1 : 0;
+                }
+            });
+            File compacted = new File(file.getPath() + ".compact");
+            FileChannel in = new FileInputStream(target).getChannel();
+            try {
+                FileChannel copy = new FileOutputStream(compacted).getChannel();
+                try {
+                    copy.write(ByteBuffer.allocate(HEADER_SIZE));
+                    long at = HEADER_SIZE;
+                    for (long[] record : live) {
+                        for (long done = 0; done < record[1]; ) {
+                            done += in.transferTo(record[0] + done, record[1] - done, copy);
+                        }
+                        record[0] = at;
+                        at += record[1];
+                    }
+                } finally {
+                    copy.close();
+                }
+            } finally {
+                in.close();
+            }
+            if (target != file) {
+                target.delete();
+            }
+            size = HEADER_SIZE + liveBytes;
+            return compacted;
+        }
+
+        /**
+         * Appends the directory to a file of records, and fills in its header.
+         */
+        private void writeDirectory(File records) throws IOException {
+            int count = this.records.size();
+            byte[][] names = new byte[count][];
+            long[][] entries = new long[count][];
+            Integer[] order = new Integer[count];
+            int i = 0;
+            for (Map.Entry<String,long[]> e : this.records.entrySet()) {
+                names[i] = e.getKey().getBytes(UTF8);
+                entries[i] = e.getValue();
+                order[i] = i;
+                i++;
+            }
+            final byte[][] sortedNames = names;
+            Arrays.sort(order, new Comparator<Integer>() {
+                public int compare(Integer a, Integer b) {
+                    return IndexSegment.compareBytes(sortedNames[a], sortedNames[b]);
+                }
+            });
+            DataOutputStream directory = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(records, true), 1 << 16));
+            try {
+                int nameOffset = 0;
+                for (int entry : order) {
+                    directory.writeInt(nameOffset);
+                    directory.writeLong(entries[entry][0]);
+                    directory.writeInt((int) entries[entry][1]);
+                    nameOffset += names[entry].length;
+                }
+                directory.writeInt(nameOffset);
+                for (int entry : order) {
+                    directory.write(names[entry]);
+                }
+            } finally {
+                directory.close();
+            }
+            RandomAccessFile header = new RandomAccessFile(records, "rw");
+            try {
+                header.writeInt(MAGIC);
+                header.writeInt(VERSION);
+                header.writeInt(count);
+                header.writeInt(0);
+                header.writeLong(size);
+            } finally {
+                header.close();
+            }
+        }
+    }
+}
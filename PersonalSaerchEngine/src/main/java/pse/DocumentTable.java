@@ -0,0 +1,246 @@
+package pse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/**
+ * Dictionary of indexed documents. Every document name is stored once and is given a dense integer id
+ * (0, 1, 2, ...) in the order documents are added, so posting lists only have to hold the id.
+ */
+public class DocumentTable {
+
+    /**
+     * Document names, indexed by document id.
+     */
+    private ArrayList<String> names;
+
+    /**
+     * Reverse mapping from document name to document id.
+     */
+    private HashMap<String,Integer> ids;
+
+    /**
+     * Stamps of the source files of the documents, indexed by document id. Null where unknown.
+     */
+    private ArrayList<DocumentStamp> stamps;
+
+    /**
+     * Lengths of the documents in keywords, indexed by document id. A plain array (with spare capacity at the
+     * end) because scoring reads it for every posting.
+     */
+    private int[] lengths;
+
+    /**
+     * Sum of all document lengths.
+     */
+    private long totalLength;
+
+    /**
+     * Length of the shortest document, -1 until it is asked for after the table changed.
+     */
+    private int shortestLength = -1;
+
+    /**
+     * Whether a document was added again while it was already in the table.
+     */
+    private boolean duplicatePostings;
+
+    public DocumentTable() {
+        names = new ArrayList<String>();
+        ids = new HashMap<String,Integer>();
+        stamps = new ArrayList<DocumentStamp>();
+        lengths = new int[16];
+    }
+
+    /**
+     * Returns the id of the given document, adding it to the table if it is not there yet.
+     *
+     * @param document Document name
+     * @return Document id
+     */
+    public int add(String document) {
+        Integer id = ids.get(document);
+        if (id == null) {
+            id = names.size();
+            names.add(document);
+            stamps.add(null);
+            ids.put(document, id);
+            if (id == lengths.length) {
+                lengths = Arrays.copyOf(lengths, id * 2);
+            }
+            shortestLength = -1;
+        } else {
+            duplicatePostings = true;
+        }
+        return id;
+    }
+
+    /**
+     * Estimated heap size of the table, for the index gauges of Metrics: per document its name, map entry,
+     * boxed id and stamp, and the lengths array.
+     */
+    long heapBytes() {
+        long bytes = 64 + 4L * lengths.length;
+        for (int id = 0; id < names.size(); id++) {
+            bytes += 40 + 2L * names.get(id).length() + 48 + 16 + 16 + (stamps.get(id) != null ? 40 : 0);
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the id of the given document, or -1 if the document is not in the table.
+     *
+     * @param document Document name
+     * @return Document id, or -1
+     */
+    public int idOf(String document) {
+        Integer id = ids.get(document);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Returns the name of the document with the given id.
+     *
+     * @param id Document id
+     * @return Document name
+     */
+    public String name(int id) {
+        return names.get(id);
+    }
+
+    /**
+     * @param id Document id
+     * @return Stamp of the document's source file when it was indexed, or null if unknown
+     */
+    public DocumentStamp stamp(int id) {
+        return stamps.get(id);
+    }
+
+    /**
+     * Records the stamp of the document's source file.
+     *
+     * @param id Document id
+     * @param stamp Stamp, may be null
+     */
+    public void setStamp(int id, DocumentStamp stamp) {
+        stamps.set(id, stamp);
+    }
+
+    /**
+     * @param id Document id
+     * @return Length of the document: the number of keywords in it, counting repeats
+     */
+    public int length(int id) {
+        return lengths[id];
+    }
+
+    /**
+     * Records the length of a document.
+     *
+     * @param id Document id
+     * @param length Number of keywords in the document, counting repeats
+     */
+    public void setLength(int id, int length) {
+        totalLength += length - lengths[id];
+        lengths[id] = length;
+        shortestLength = -1;
+    }
+
+    /**
+     * @return Document lengths, indexed by document id. The array may be longer than the table, and is only
+     *         valid until the next document is added or removed.
+     */
+    int[] lengths() {
+        return lengths;
+    }
+
+    /**
+     * @return Sum of all document lengths
+     */
+    public long totalLength() {
+        return totalLength;
+    }
+
+    /**
+     * @return Length of the shortest document, 0 if the table is empty
+     */
+    public int shortestLength() {
+        int shortest = shortestLength;
+        if (shortest < 0) {
+            shortest = names.isEmpty() ? 0 : Integer.MAX_VALUE;
+            for (int id = 0; id < names.size(); id++) {
+                shortest = Math.min(shortest, lengths[id]);
+            }
+            shortestLength = shortest;
+        }
+        return shortest;
+    }
+
+    /**
+     * Returns whether a document was added again while it was already in the table. Its keywords are then
+     * indexed a second time, so it can have more than one posting in a posting list, which the pruning of
+     * top K searches must know about (see QueryEvaluator.duplicatePostings).
+     *
+     * @return Whether posting lists may hold more than one posting of a document
+     */
+    public boolean duplicatePostings() {
+        return duplicatePostings;
+    }
+
+    /**
+     * Records that posting lists may hold more than one posting of a document, for a table loaded from a
+     * segment that has them.
+     */
+    void markDuplicatePostings() {
+        duplicatePostings = true;
+    }
+
+    /**
+     * @return Average document length, 0 if the table is empty
+     */
+    public double averageLength() {
+        return names.isEmpty() ? 0 : (double) totalLength / names.size();
+    }
+
+    /**
+     * Removes documents from the table. The remaining documents are renumbered so ids stay dense,
+     * keeping their relative order.
+     *
+     * @param removed Ids of the documents to remove
+     * @return Old id to new id mapping, -1 for removed documents
+     */
+    public int[] remove(BitSet removed) {
+        int[] remap = new int[names.size()];
+        ArrayList<String> keptNames = new ArrayList<String>(names.size() - removed.cardinality());
+        ArrayList<DocumentStamp> keptStamps = new ArrayList<DocumentStamp>(keptNames.size());
+        int[] keptLengths = new int[Math.max(16, lengths.length)];
+        totalLength = 0;
+        ids.clear();
+        for (int id = 0; id < names.size(); id++) {
+            if (removed.get(id)) {
+                remap[id] = -1;
+            } else {
+                remap[id] = keptNames.size();
+                keptLengths[keptNames.size()] = lengths[id];
+                totalLength += lengths[id];
+                ids.put(names.get(id), keptNames.size());
+                keptNames.add(names.get(id));
+                keptStamps.add(stamps.get(id));
+            }
+        }
+        names = keptNames;
+        stamps = keptStamps;
+        lengths = keptLengths;
+        shortestLength = -1;
+        return remap;
+    }
+
+    /**
+     * @return Number of documents in the table
+     */
+    public int size() {
+        return names.size();
+    }
+}
@@ -0,0 +1,176 @@
+package pse;
+
+import java.io.*;
+import java.util.Locale;
+
+/**
+ * Kinds of documents the engine can index, and how to tell them apart. Text documents are read directly, PDFs
+ * and images go through OCRManager, which writes their text to a .txt file next to them.
+ *
+ * A known file extension decides the type without reading the file: .txt for text, .pdf, and .png, .jpg,
+ * .jpeg, .bmp, .tif, .tiff and .img for images, in any case. A file with any other extension, or none, is
+ * recognized by its first bytes: the signatures of PDF, PNG, JPEG, BMP and TIFF files, or else text if the
+ * bytes have no NULs and hardly any other control characters.
+ */
+enum DocumentType {
+
+    TEXT, PDF, IMAGE;
+
+    /**
+     * Number of bytes read to recognize a document by content.
+     */
+    static final int SNIFF_BYTES = 4096;
+
+    private static final String[] IMAGE_EXTENSIONS = {"png", "jpg", "jpeg", "bmp", "tif", "tiff", "img"};
+
+    private static final String[] OCR_EXTENSIONS = {"pdf", "png", "jpg", "jpeg", "bmp", "tif", "tiff", "img"};
+
+    /**
+     * @param docFile Name of a document file
+     * @return Type of the document, or null if it is not a document the engine can index, or it has no
+     *         known extension and cannot be read
+     */
+    static DocumentType of(String docFile) {
+        DocumentType type = ofExtension(extension(docFile));
+        return type != null ? type : ofContent(new File(docFile));
+    }
+
+    /**
+     * @param extension File extension without the dot, in any case, or null
+     * @return Type of documents with the extension, or null if it is not a known one
+     */
+    static DocumentType ofExtension(String extension) {
+        if (extension == null) {
+            return null;
+        }
+        extension = extension.toLowerCase(Locale.ROOT);
+        if (extension.equals("txt")) {
+            return TEXT;
+        }
+        if (extension.equals("pdf")) {
+            return PDF;
+        }
+        for (String image : IMAGE_EXTENSIONS) {
+            if (extension.equals(image)) {
+                return IMAGE;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Recognizes a document by its first bytes.
+     *
+     * @return Type of the document, or null if it is neither text nor a known binary format, or cannot be read
+     */
+    static DocumentType ofContent(File file) {
+        byte[] head = new byte[SNIFF_BYTES];
+        int n = 0;
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                for (int read; n < head.length && (read = in.read(head, n, head.length - n)) > 0; ) {
+                    n += read;
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        if (startsWith(head, n, '%', 'P', 'D', 'F', '-')) {
+            return PDF;
+        }
+        if (startsWith(head, n, 0x89, 'P', 'N', 'G') || startsWith(head, n, 0xff, 0xd8, 0xff)
+                || startsWith(head, n, 'B', 'M') || startsWith(head, n, 'I', 'I', 0x2a, 0)
+                || startsWith(head, n, 'M', 'M', 0, 0x2a)) {
+            return IMAGE;
+        }
+        // text in any ASCII compatible charset, allowing for a stray control character or two
+        int control = 0;
+        for (int i = 0; i < n; i++) {
+            int b = head[i] & 0xff;
+            if (b == 0) {
+                return null;
+            }
+            if (b < 0x20 && b != '\t' && b != '\n' && b != '\r' && b != '\f' || b == 0x7f) {
+                control++;
+            }
+        }
+        return control * 100 <= n ? TEXT : null;
+    }
+
+    private static boolean startsWith(byte[] bytes, int length, int... signature) {
+        if (length < signature.length) {
+            return false;
+        }
+        for (int i = 0; i < signature.length; i++) {
+            if ((bytes[i] & 0xff) != signature[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param docFile Name of a file
+     * @return Extension of the file name without the dot, or null if it has none
+     */
+    static String extension(String docFile) {
+        int dot = docFile.lastIndexOf('.');
+        if (dot <= nameStart(docFile)) {
+            return null;
+        }
+        return docFile.substring(dot + 1);
+    }
+
+    /**
+     * @param docFile Name of a file
+     * @return The name without its extension
+     */
+    static String baseName(String docFile) {
+        int dot = docFile.lastIndexOf('.');
+        return dot <= nameStart(docFile) ? docFile : docFile.substring(0, dot);
+    }
+
+    private static int nameStart(String docFile) {
+        return Math.max(docFile.lastIndexOf('/'), docFile.lastIndexOf(File.separatorChar)) + 1;
+    }
+
+    /**
+     * Name of the text a document is indexed from, see PersonalSearchEngine.textName: its name with the
+     * extension replaced by .txt if it is a PDF or an image, otherwise the document itself. A document of no
+     * type, which is not indexed, keeps its own name too, so that a text file without an extension has the
+     * same name once it is deleted.
+     *
+     * @param docFile Name of a document file
+     * @param type Type of the document, or null
+     */
+    static String textName(String docFile, DocumentType type) {
+        return type == PDF || type == IMAGE ? baseName(docFile) + ".txt" : docFile;
+    }
+
+    /**
+     * Tells whether a text file is the OCR output of a PDF or image next to it, which is indexed under the
+     * text file's name already. Only the extensions of PDFs and images are checked, in lower and upper case,
+     * plus the name without an extension.
+     *
+     * @param textFile A .txt file
+     * @return Whether there is a PDF or image whose text is the file
+     */
+    static boolean isOcrOutput(File textFile) {
+        String base = baseName(textFile.getPath());
+        for (String extension : OCR_EXTENSIONS) {
+            if (new File(base + "." + extension).isFile()
+                    || new File(base + "." + extension.toUpperCase(Locale.ROOT)).isFile()) {
+                return true;
+            }
+        }
+        File bare = new File(base);
+        if (!bare.isFile()) {
+            return false;
+        }
+        DocumentType type = ofContent(bare);
+        return type == PDF || type == IMAGE;
+    }
+}
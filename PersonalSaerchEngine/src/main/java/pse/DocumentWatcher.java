@@ -0,0 +1,447 @@
+package pse;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps a LiveSearchEngine up to date with the documents under directory trees, as files are created,
+ * changed and deleted, without crawling the trees again.
+ *
+ * start crawls the trees once with a DocumentCrawler, indexes what it finds, and registers every directory
+ * with a WatchService on the way. From then on a thread takes the create, modify and delete events, and
+ * collects the paths they name. Editors and copies produce bursts of events for the same files, so the
+ * paths are only looked at once no event has come for QUIET_MILLIS, or once the oldest of them has waited
+ * MAX_DELAY_MILLIS, or once MAX_BATCH of them are waiting: then the whole batch goes to the engine as one
+ * LiveSearchEngine.updateDocuments, which makes it searchable at once. A document is thus searchable within
+ * MAX_DELAY_MILLIS and the time to index it.
+ *
+ * Every document indexed is remembered with its DocumentStamp, and a path that got an event is only indexed
+ * again when its size and modification time changed and its content hash did too, as updateIndex does it.
+ * A new directory is crawled (and watched), a deleted directory drops the documents under it, and when the
+ * WatchService lost events for a directory, that directory is crawled again and compared with what was
+ * indexed from it.
+ *
+ * A batch that fails is retried one document at a time, so one unreadable document does not hold the others
+ * back. Retried batches and failed documents are counted in the engine's metrics (watch.retries and
+ * watch.failures), and every failed document is handed to failed.
+ */
+public class DocumentWatcher implements Closeable {
+
+    /**
+     * Milliseconds without events after which the waiting paths are indexed.
+     */
+    static final long QUIET_MILLIS = 250;
+
+    /**
+     * Milliseconds a path waits at most before it is indexed, however many events keep coming.
+     */
+    static final long MAX_DELAY_MILLIS = 2000;
+
+    /**
+     * Number of waiting paths that are indexed without waiting any longer.
+     */
+    static final int MAX_BATCH = 1024;
+
+    private final LiveSearchEngine engine;
+
+    private final String[] roots;
+
+    private final WatchService service;
+
+    /**
+     * Watched directories by their watch keys.
+     */
+    private final Map<WatchKey,Path> directories = new ConcurrentHashMap<WatchKey,Path>();
+
+    private final DocumentCrawler crawler;
+
+    /**
+     * Indexed documents by file name. Only changed by start, and then by the watch thread.
+     */
+    private final TreeMap<String,Indexed> indexed = new TreeMap<String,Indexed>();
+
+    /**
+     * File names of the indexed documents by their names in the index.
+     */
+    private final HashMap<String,String> files = new HashMap<String,String>();
+
+    /**
+     * Paths with events that are not indexed yet, and whether they are to be crawled if they are
+     * directories: new ones and the ones that lost events are, a directory that was only modified is not.
+     * Also when the first and the last of the events came.
+     */
+    private final LinkedHashMap<Path,Boolean> pending = new LinkedHashMap<Path,Boolean>();
+
+    private long firstEvent;
+
+    private long lastEvent;
+
+    private final Object idleLock = new Object();
+
+    private final AtomicLong failures = new AtomicLong();
+
+    private final AtomicLong batches = new AtomicLong();
+
+    private Thread thread;
+
+    private volatile boolean closed;
+
+    /**
+     * @param engine Engine to index the documents in
+     * @param threads Number of threads to crawl with
+     * @param roots Directories to watch
+     * @throws IOException If the file system cannot be watched
+     */
+    public DocumentWatcher(LiveSearchEngine engine, int threads, String... roots) throws IOException {
+        this.engine = engine;
+        this.roots = roots.clone();
+        if (roots.length == 0) {
+            throw new IllegalArgumentException("No directories to watch");
+        }
+        service = FileSystems.getDefault().newWatchService();
+        crawler = new DocumentCrawler(threads) {
+            void visitDirectory(Path directory) throws IOException {
+                WatchKey key = directory.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                directories.put(key, directory);
+            }
+        };
+    }
+
+    /**
+     * Skips a directory under the watched ones, see DocumentCrawler.exclude. Must be called before start.
+     *
+     * @param directory Directory to skip
+     */
+    public void exclude(String directory) {
+        crawler.exclude(directory);
+    }
+
+    /**
+     * Crawls and indexes the directories, and starts watching them. Returns once the documents found are
+     * searchable. The documents are indexed in batches like the changes are, so one that cannot be indexed
+     * is handed to failed and left out, and the others are searchable.
+     */
+    public synchronized void start() {
+        if (thread != null) {
+            throw new IllegalStateException("Already started");
+        }
+        ArrayList<String> docs = crawler.crawl(roots);
+        for (int start = 0; start < docs.size(); start += MAX_BATCH) {
+            LinkedHashMap<String,Indexed> batch = new LinkedHashMap<String,Indexed>();
+            for (String doc : docs.subList(start, Math.min(start + MAX_BATCH, docs.size()))) {
+                batch.put(doc, stamp(doc));
+            }
+            update(batch, Collections.<String>emptySet());
+        }
+        thread = new Thread(new Runnable() {
+            public void run() {
+                watch();
+            }
+        }, "document-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops watching. Changes that are still waiting are not indexed.
+     */
+    public void close() throws IOException {
+        closed = true;
+        service.close();
+        Thread thread;
+        synchronized (this) {
+            thread = this.thread;
+        }
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Called for every document that could not be indexed, on the thread that called start for the documents
+     * found by the first crawl, and on the watch thread after that. Does nothing, Driver uses it to report the
+     * failures.
+     *
+     * @param doc Name of the document file
+     * @param e Why it failed
+     */
+    void failed(String doc, Exception e) {
+    }
+
+    /**
+     * @return Number of documents that could not be indexed since the start
+     */
+    public long failures() {
+        return failures.get();
+    }
+
+    /**
+     * @return Number of batches of changes indexed since the start
+     */
+    public long batches() {
+        return batches.get();
+    }
+
+    /**
+     * @return Number of documents indexed from the watched directories
+     */
+    public synchronized int documentCount() {
+        return indexed.size();
+    }
+
+    /**
+     * Waits until no changes are waiting. Only for measuring and testing: changes can come at any time.
+     *
+     * @param timeoutMillis Milliseconds to wait at most
+     * @return Whether no changes were waiting
+     */
+    boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (idleLock) {
+            while (!pending.isEmpty()) {
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) {
+                    return false;
+                }
+                idleLock.wait(wait);
+            }
+        }
+        return true;
+    }
+
+    private void watch() {
+        try {
+            while (!closed) {
+                WatchKey key;
+                synchronized (idleLock) {
+                    if (pending.isEmpty()) {
+                        idleLock.notifyAll();
+                    }
+                }
+                if (pending.isEmpty()) {
+                    key = service.take();
+                } else {
+                    long due = Math.min(lastEvent + QUIET_MILLIS, firstEvent + MAX_DELAY_MILLIS);
+                    key = service.poll(Math.max(0, due - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                }
+                // take every event that is there already before deciding to index
+                for (; key != null; key = service.poll()) {
+                    collect(key);
+                }
+                long now = System.currentTimeMillis();
+                if (!pending.isEmpty() && (now >= lastEvent + QUIET_MILLIS || now >= firstEvent + MAX_DELAY_MILLIS
+                        || pending.size() >= MAX_BATCH)) {
+                    index();
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            // closed
+        } catch (InterruptedException e) {
+            // stopped
+        }
+    }
+
+    /**
+     * Adds the paths named by the events of a watch key to the waiting ones.
+     */
+    private void collect(WatchKey key) {
+        Path directory = directories.get(key);
+        long now = System.currentTimeMillis();
+        synchronized (idleLock) {
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (directory == null) {
+                    continue;
+                }
+                if (pending.isEmpty()) {
+                    firstEvent = now;
+                }
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    pending.put(directory, Boolean.TRUE);
+                } else {
+                    Path path = directory.resolve((Path) event.context());
+                    Boolean crawl = pending.get(path);
+                    pending.put(path, event.kind() != StandardWatchEventKinds.ENTRY_MODIFY || crawl == Boolean.TRUE);
+                }
+                lastEvent = now;
+            }
+        }
+        if (!key.reset()) {
+            // the directory is gone, its delete event in the parent drops its documents
+            directories.remove(key);
+        }
+    }
+
+    /**
+     * Indexes the waiting paths as one batch.
+     */
+    private void index() {
+        LinkedHashMap<Path,Boolean> paths;
+        synchronized (idleLock) {
+            paths = new LinkedHashMap<Path,Boolean>(pending);
+        }
+        LinkedHashMap<String,Indexed> changed = new LinkedHashMap<String,Indexed>();
+        LinkedHashSet<String> removed = new LinkedHashSet<String>();
+        for (Map.Entry<Path,Boolean> entry : paths.entrySet()) {
+            Path path = entry.getKey();
+            String name = path.toString();
+            if (crawler.skips(path)) {
+                continue;
+            }
+            if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                if (!entry.getValue()) {
+                    continue;
+                }
+                // a new directory, or one that lost events: crawl it, and drop what is no longer there
+                HashSet<String> found = new HashSet<String>(crawler.crawl(name));
+                for (String doc : under(name)) {
+                    if (!found.contains(doc)) {
+                        removed.add(doc);
+                    }
+                }
+                for (String doc : found) {
+                    consider(doc, changed);
+                }
+            } else if (Files.exists(path)) {
+                if (crawler.accepts(path)) {
+                    consider(name, changed);
+                } else if (indexed.containsKey(name)) {
+                    removed.add(name);
+                }
+            } else {
+                if (indexed.containsKey(name)) {
+                    removed.add(name);
+                }
+                removed.addAll(under(name));
+            }
+        }
+        if (!changed.isEmpty() || !removed.isEmpty()) {
+            update(changed, removed);
+            batches.incrementAndGet();
+        }
+        synchronized (idleLock) {
+            pending.keySet().removeAll(paths.keySet());
+            if (pending.isEmpty()) {
+                idleLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return Indexed documents in a directory and below
+     */
+    private ArrayList<String> under(String directory) {
+        String prefix = directory + File.separator;
+        return new ArrayList<String>(indexed.subMap(prefix, prefix + Character.MAX_VALUE).keySet());
+    }
+
+    /**
+     * Adds a document to the changed ones, unless it is indexed already as it is, or another document is
+     * indexed under the same name.
+     */
+    private void consider(String doc, Map<String,Indexed> changed) {
+        Indexed old = indexed.get(doc);
+        File file = new File(doc);
+        if (old != null && old.stamp != null && old.stamp.sameAttributes(file)) {
+            return;
+        }
+        Indexed current = stamp(doc);
+        if (old != null && old.stamp != null && current.stamp != null && old.stamp.hash == current.stamp.hash) {
+            remember(doc, current);
+            return;
+        }
+        String owner = files.get(current.name);
+        if (owner != null && !owner.equals(doc) && new File(owner).isFile()) {
+            return;
+        }
+        changed.put(doc, current);
+    }
+
+    private void update(Map<String,Indexed> changed, Set<String> removed) {
+        ArrayList<String> removedNames = new ArrayList<String>(removed.size());
+        for (String doc : removed) {
+            removedNames.add(indexed.get(doc).name);
+        }
+        try {
+            engine.updateDocuments(new ArrayList<String>(changed.keySet()), removedNames);
+        } catch (FileNotFoundException e) {
+            retry(changed, removedNames);
+        } catch (RuntimeException e) {
+            retry(changed, removedNames);
+        }
+        synchronized (this) {
+            for (String doc : removed) {
+                Indexed gone = indexed.remove(doc);
+                if (doc.equals(files.get(gone.name))) {
+                    files.remove(gone.name);
+                }
+            }
+            for (Map.Entry<String,Indexed> entry : changed.entrySet()) {
+                if (entry.getValue() != null) {
+                    remember(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Indexes a failed batch again one document at a time. Documents that fail again are left out of the
+     * changed ones.
+     */
+    private void retry(Map<String,Indexed> changed, List<String> removedNames) {
+        Metrics metrics = engine.metrics();
+        metrics.watchRetries.increment();
+        engine.removeDocuments(removedNames);
+        for (Map.Entry<String,Indexed> entry : changed.entrySet()) {
+            try {
+                engine.updateDocuments(Collections.singletonList(entry.getKey()), Collections.<String>emptyList());
+                continue;
+            } catch (FileNotFoundException e) {
+                failed(entry.getKey(), e);
+            } catch (RuntimeException e) {
+                failed(entry.getKey(), e);
+            }
+            metrics.watchFailures.increment();
+            failures.incrementAndGet();
+            entry.setValue(null);
+        }
+    }
+
+    private synchronized void remember(String doc, Indexed stamp) {
+        indexed.put(doc, stamp);
+        files.put(stamp.name, doc);
+    }
+
+    private static Indexed stamp(String doc) {
+        DocumentStamp stamp;
+        try {
+            stamp = DocumentStamp.of(new File(doc));
+        } catch (IOException e) {
+            stamp = null;
+        }
+        return new Indexed(PersonalSearchEngine.textName(doc), stamp);
+    }
+
+    /**
+     * Name a document is indexed under, and its stamp when it was indexed, null if it could not be read.
+     */
+    private static final class Indexed {
+
+        final String name;
+
+        final DocumentStamp stamp;
+
+        Indexed(String name, DocumentStamp stamp) {
+            this.name = name;
+            this.stamp = stamp;
+        }
+    }
+}
@@ -1,49 +1,149 @@
-package pse;
-
-import java.io.*;
-import java.util.*;
-
-
-/**
- * Main driver for a personal search engine (PSE) throughout a directory, multiple directories can be processed in
- * parallel through the use of multiple instances of PSE.
- *
- * Serialization not yet implemented, but will be introduced as a future improvement as an exercise
- */
-
-
-public class Driver {
-    public static void main(String args[]) throws IOException {
-        String docsFile = "docs.txt"; // directory indicator, may source files with data mining in the future
-        String noiseWords = "noisewords.txt"; // common words to de-noise sample
-
-
-
-        PersonalSearchEngine lse = new PersonalSearchEngine();
-        lse.makeIndex(docsFile, noiseWords);
-        String kw1 = "die";
-        String kw2 = "world";
-
-        ArrayList<String> results = lse.top5search(kw1, kw2);
-        if(results == null){
-            System.out.println("null");
-        }
-
-        for(int i = 0; i < results.size(); i++){
-            System.out.println(results.get(i));
-        } // lse actual code
-
-
-//        OCRManager c = new OCRManager();
-//        c.convertPDFtoImages("multipage.pdf"); // testing code
-
-
-//        try{
-//        File file = new File(".");
-//        for(String fileNames : file.list()) System.out.println(fileNames);
-//    } catch (NullPointerException e){
-//            System.out.println("lol");
-//        } // this is the file checking code testing code
-
-}
-}
+package pse;
+
+import javax.management.JMException;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.util.*;
+
+
+/**
+ * Main driver for a personal search engine (PSE) throughout a directory, multiple directories can be processed in
+ * parallel through the use of multiple instances of PSE. ShardedSearchEngine does the same for a single corpus
+ * that is too large for one instance: it indexes parts of it on several instances at once, and merges their
+ * search results into the ones a single instance would return.
+ *
+ * The index is saved to a segment file after it is built. Later runs load that file and only re-index the
+ * documents that were added or changed since (and drop the ones that were removed from the docs file),
+ * instead of re-scanning and re-OCRing every document. Delete the file to force a rebuild. OCR results are
+ * cached by image content as well, so even a rebuild only OCRs images and pages that were never seen before.
+ *
+ * Indexing and search metrics are registered with JMX as pse:type=PersonalSearchEngine, so a long build can be
+ * watched from jconsole. With --watch they are the metrics of the LiveSearchEngine.
+ *
+ * With --serve [port] the driver keeps running once the index is up to date, and answers queries over HTTP on
+ * localhost (port 8080 by default), see SearchServer. LoadGenerator measures such a server. The text of the
+ * documents is kept in a document store next to the index, so that search results come with snippets. The
+ * server's connections are set to TCP_NODELAY (sun.net.httpserver.nodelay), unless the property is set on the
+ * command line.
+ *
+ * With --crawl dir the documents are the ones a DocumentCrawler finds under dir, instead of the ones listed
+ * in the docs file. With --watch dir the driver indexes the documents under dir into a LiveSearchEngine,
+ * keeps it up to date as files are created, changed and deleted there (see DocumentWatcher), and answers
+ * the queries it reads from standard input, two keywords per line, until the input ends.
+ */
+
+
+public class Driver {
+    public static void main(String args[]) throws IOException, JMException {
+        String docsFile = "docs.txt"; // directory indicator, may source files with data mining in the future
+        String noiseWords = "noisewords.txt"; // common words to de-noise sample
+        String indexFile = "index.pse"; // serialized index segment
+        String storeFile = "index.pse.docs"; // document text for search result snippets
+        String tessdata = "tessdata"; // Tesseract trained data, OCR goes through Algorithmia without it
+        String ocrCache = "ocr-cache"; // OCR results by image content hash
+
+
+
+        PersonalSearchEngine lse = new PersonalSearchEngine();
+        if (new File(tessdata).isDirectory()) {
+            lse.setOcrEngine(new CachingOcrEngine(new TesseractOcrEngine(tessdata, "eng"),
+                    new File(ocrCache, "tesseract-eng")));
+        } else {
+            lse.setOcrEngine(new CachingOcrEngine(OCRManager.algorithmiaEngine(), new File(ocrCache, "algorithmia")));
+        }
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (args.length > 1 && args[0].equals("--watch")) {
+            watch(args[1], noiseWords, ocrCache, lse.ocrEngine, threads);
+            return;
+        }
+        lse.metrics().register("pse:type=PersonalSearchEngine");
+        List<String> docs;
+        if (args.length > 1 && args[0].equals("--crawl")) {
+            DocumentCrawler crawler = new DocumentCrawler(threads);
+            crawler.exclude(ocrCache);
+            docs = crawler.crawl(args[1]);
+            args = Arrays.copyOfRange(args, 2, args.length);
+        } else {
+            docs = PersonalSearchEngine.readDocumentList(docsFile);
+        }
+        // an index without its document store is rebuilt, so that every result has a snippet
+        boolean rebuild = !new File(indexFile).exists() || !new File(storeFile).exists();
+        lse.setDocumentStore(storeFile);
+        if (!rebuild) {
+            // served mapped; only an index whose documents changed is loaded onto the heap to be updated
+            lse.openIndex(indexFile);
+            if (!lse.isIndexCurrent(docs)) {
+                lse.loadIndex(indexFile);
+                lse.updateIndex(docs, noiseWords);
+                lse.saveIndex(indexFile);
+            }
+        } else {
+            lse.makeIndex(docs, noiseWords, threads);
+            lse.saveIndex(indexFile);
+        }
+        if (args.length > 0 && args[0].equals("--serve")) {
+            int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+            // read once, when the first server is created
+            if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+                System.setProperty("sun.net.httpserver.nodelay", "true");
+            }
+            SearchServer server = new SearchServer(lse, new InetSocketAddress("localhost", port));
+            server.start();
+            System.out.println("Serving queries on http://localhost:" + server.address().getPort());
+            return;
+        }
+        String kw1 = "die";
+        String kw2 = "world";
+
+        ArrayList<String> results = lse.top5search(kw1, kw2);
+        if(results == null){
+            System.out.println("null");
+        }
+
+        for(int i = 0; i < results.size(); i++){
+            System.out.println(results.get(i));
+        } // lse actual code
+
+
+//        OCRManager c = new OCRManager();
+//        c.convertPDFtoImages("multipage.pdf"); // testing code
+
+
+//        try{
+//        File file = new File(".");
+//        for(String fileNames : file.list()) System.out.println(fileNames);
+//    } catch (NullPointerException e){
+//            System.out.println("lol");
+//        } // this is the file checking code testing code
+
+}
+
+    /**
+     * Watches a directory tree and answers queries from standard input, see the class comment.
+     */
+    private static void watch(String directory, String noiseWords, String ocrCache, OcrEngine ocrEngine,
+                              int threads) throws IOException, JMException {
+        LiveSearchEngine live = new LiveSearchEngine(noiseWords);
+        live.setOcrEngine(ocrEngine);
+        live.metrics().register("pse:type=PersonalSearchEngine");
+        DocumentWatcher watcher = new DocumentWatcher(live, threads, directory) {
+            void failed(String doc, Exception e) {
+                System.err.println("Failed to index " + doc + ": " + (e instanceof FileNotFoundException
+                        ? e.getMessage() : e.toString()));
+            }
+        };
+        watcher.exclude(ocrCache);
+        watcher.start();
+        System.out.println("Watching " + directory + ", " + live.documentCount() + " documents");
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+        for (String line; (line = in.readLine()) != null; ) {
+            String[] keywords = line.trim().toLowerCase().split("\\s+");
+            if (keywords.length == 0 || keywords[0].isEmpty()) {
+                continue;
+            }
+            ArrayList<String> results = live.top5search(keywords[0], keywords.length > 1 ? keywords[1] : keywords[0]);
+            System.out.println(results == null ? "null" : results);
+        }
+        watcher.close();
+    }
+}
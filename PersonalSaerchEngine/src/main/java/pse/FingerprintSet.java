@@ -0,0 +1,93 @@
+package pse;
+
+/**
+ * Set of strings that holds 64 bit fingerprints of them instead of the strings, for telling which documents
+ * of a list have been seen without keeping their names on the heap: 12 bytes per slot of an open-addressing
+ * (linear probing) table that is at most half full.
+ *
+ * Every fingerprint remembers the position, in a list the caller keeps, of the string it was first added
+ * with, so that the caller can confirm a match against that string. Different strings with the same
+ * fingerprint are rare enough for the caller to keep the later ones as strings.
+ *
+ * A set is not thread-safe.
+ */
+final class FingerprintSet {
+
+    private static final int INITIAL_SLOTS = 1024;
+
+    private long[] fingerprints;
+
+    /**
+     * Position of the string of every slot + 1, 0 for an empty slot.
+     */
+    private int[] positions;
+
+    private int size;
+
+    FingerprintSet() {
+        fingerprints = new long[INITIAL_SLOTS];
+        positions = new int[INITIAL_SLOTS];
+    }
+
+    /**
+     * Adds a string, unless a string with the same fingerprint was added before.
+     *
+     * @param string String to add
+     * @param position Position of the string in the caller's list
+     * @return Position of the string added before with the same fingerprint, which need not be an equal
+     *         string, or -1 if the string was added
+     */
+    int add(String string, int position) {
+        long fingerprint = fingerprint(string);
+        int mask = positions.length - 1;
+        int slot = (int) fingerprint & mask;
+        for (; positions[slot] != 0; slot = (slot + 1) & mask) {
+            if (fingerprints[slot] == fingerprint) {
+                return positions[slot] - 1;
+            }
+        }
+        fingerprints[slot] = fingerprint;
+        positions[slot] = position + 1;
+        size++;
+        if (2 * size > positions.length) {
+            rehash();
+        }
+        return -1;
+    }
+
+    private void rehash() {
+        long[] oldFingerprints = fingerprints;
+        int[] oldPositions = positions;
+        fingerprints = new long[2 * oldPositions.length];
+        positions = new int[fingerprints.length];
+        int mask = positions.length - 1;
+        for (int i = 0; i < oldPositions.length; i++) {
+            if (oldPositions[i] != 0) {
+                int slot = (int) oldFingerprints[i] & mask;
+                while (positions[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                fingerprints[slot] = oldFingerprints[i];
+                positions[slot] = oldPositions[i];
+            }
+        }
+    }
+
+    /**
+     * 64 bit FNV-1a hash of the chars, with the finalizer of MurmurHash3, which spreads the bits of short
+     * strings over the whole fingerprint.
+     */
+    static long fingerprint(String string) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < string.length(); i++) {
+            hash ^= string.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
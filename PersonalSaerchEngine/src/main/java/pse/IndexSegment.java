@@ -0,0 +1,1099 @@
+package pse;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Read-only, memory-mapped index segment file. A segment holds a complete index - the document table,
+ * the term dictionary and all posting lists - in a versioned binary layout that can be searched directly
+ * from the mapped file, so opening a segment costs next to nothing no matter how large the index is.
+ *
+ * Layout (all numbers big-endian):
+ *
+ *   header        magic "PSEI", version, document count, term count,
+ *                 offsets of the document table, term table, term bytes, postings, document stamp,
+ *                 document length and positions sections, flags (version 5 and up, bit 0 set if a document
+ *                 can have more than one posting in a list, see DocumentTable.duplicatePostings)
+ *   document table  document count + 1 int offsets into the name bytes that follow, then UTF-8 names
+ *   term table    one 16 byte record per term, sorted by term: term bytes offset, postings offset (long),
+ *                 postings count. One extra trailing term bytes offset closes the last term.
+ *   term bytes    UTF-8 bytes of all terms, back to back, in term table order
+ *   postings      for every term, its posting list packed into blocks (see PostingList.pack), in descending
+ *                 order of frequency (version 5 and up, (document id, frequency) int pairs before)
+ *   stamps        for every document, size, modification time and hash of its source file as three longs,
+ *                 size -1 if the stamp is unknown (version 2 and up)
+ *   lengths       for every document, its length in keywords as an int (version 3 and up, older versions
+ *                 get the lengths summed up from the postings when they are first needed)
+ *   positions     only in indexes that record word positions (version 4 and up, offset -1 otherwise): one
+ *                 long offset per term, in term table order, of the term's positions block. A block has
+ *                 postings count + 1 int offsets, relative to the end of the offsets, then the encoded
+ *                 positions of every posting (see PostingList.encodePositions), in postings order
+ *
+ * Document frequencies, which scoring needs as well, are the postings counts in the term table.
+ *
+ * Terms are sorted on their unsigned UTF-8 bytes, so a lookup is a binary search that compares raw bytes.
+ * Posting lists are decoded from the mapped file one block at a time, as queries read them, and positions
+ * are only read, one posting at a time, by queries that need them.
+ */
+public class IndexSegment implements Closeable {
+
+    static final int MAGIC = 0x50534549; // "PSEI"
+
+    static final int VERSION = 5;
+
+    private static final int HEADER_SIZE = 76;
+
+    private static final int DUPLICATE_POSTINGS = 1;
+
+    private static final int V2_HEADER_SIZE = 56;
+
+    private static final int TERM_RECORD_SIZE = 16;
+
+    /**
+     * Largest segment file, which is mapped as a single buffer and read with int offsets.
+     */
+    static final long MAX_SIZE = Integer.MAX_VALUE;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final FileChannel channel;
+
+    private final MappedByteBuffer buffer;
+
+    private final int documentCount;
+
+    private final int termCount;
+
+    private final int documentTableOffset;
+
+    private final int termTableOffset;
+
+    private final int termBytesOffset;
+
+    private final int stampsOffset;
+
+    private final int lengthsOffset;
+
+    private final int positionsOffset;
+
+    /**
+     * Whether posting lists are packed, rather than int pairs.
+     */
+    private final boolean packed;
+
+    /**
+     * Whether a document can have more than one posting in a list. Unknown, so assumed, before version 5.
+     */
+    private final boolean duplicatePostings;
+
+    private int[] lengths;
+
+    private long totalLength;
+
+    private double averageLength;
+
+    private int shortestLength;
+
+    private IndexSegment(FileChannel channel, MappedByteBuffer buffer) throws IOException {
+        this.channel = channel;
+        this.buffer = buffer;
+        if (buffer.limit() < V2_HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not an index segment file");
+        }
+        int version = buffer.getInt(4);
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported index segment version " + version);
+        }
+        documentCount = buffer.getInt(8);
+        termCount = buffer.getInt(12);
+        documentTableOffset = (int) buffer.getLong(16);
+        termTableOffset = (int) buffer.getLong(24);
+        termBytesOffset = (int) buffer.getLong(32);
+        stampsOffset = version >= 2 ? (int) buffer.getLong(48) : -1;
+        lengthsOffset = version >= 3 ? (int) buffer.getLong(56) : -1;
+        positionsOffset = version >= 4 ? (int) buffer.getLong(64) : -1;
+        packed = version >= 5;
+        duplicatePostings = version < 5 || (buffer.getInt(72) & DUPLICATE_POSTINGS) != 0;
+    }
+
+    /**
+     * Opens a segment file by mapping it into memory. Nothing but the header is read until a term is looked up.
+     *
+     * @param file Segment file
+     * @return The opened segment
+     * @throws IOException If the file cannot be read or is not a segment of a supported version
+     */
+    public static IndexSegment open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        FileChannel channel = raf.getChannel();
+        try {
+            if (channel.size() > MAX_SIZE) {
+                throw new IOException("Index segment larger than 2GB: " + file);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new IndexSegment(channel, buffer);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes an index to a segment file. Word positions are written if every posting list has them. The
+     * segment is written to a temporary file next to it, which then replaces the file, so a write that fails
+     * leaves the file as it was.
+     *
+     * @param file Segment file, replaced if it exists
+     * @param keywordsIndex Keyword to posting list table
+     * @param documents Document table the posting lists refer to
+     * @throws IOException If the file cannot be written, or the segment would be larger than 2GB, which open
+     *         does not read
+     */
+    public static void write(File file, Map<String,PostingList> keywordsIndex, DocumentTable documents)
+            throws IOException {
+        TermIndex index = new TermIndex();
+        for (Map.Entry<String,PostingList> e : keywordsIndex.entrySet()) {
+            index.put(e.getKey(), e.getValue());
+        }
+        write(file, index, documents);
+    }
+
+    /**
+     * Writes an index to a segment file, see write(file, Map, documents).
+     */
+    static void write(File file, TermIndex keywordsIndex, DocumentTable documents) throws IOException {
+        byte[][] names = new byte[documents.size()][];
+        long nameBytes = 0;
+        for (int i = 0; i < names.length; i++) {
+            names[i] = documents.name(i).getBytes(UTF8);
+            nameBytes += names[i].length;
+        }
+
+        ArrayList<byte[]> terms = new ArrayList<byte[]>(keywordsIndex.size());
+        IdentityHashMap<byte[],PostingList> postings = new IdentityHashMap<byte[],PostingList>(keywordsIndex.size());
+        long termBytes = 0;
+        for (int id = 0; id < keywordsIndex.idLimit(); id++) {
+            PostingList list = keywordsIndex.get(id);
+            if (list == null) {
+                continue;
+            }
+            byte[] term = keywordsIndex.term(id).getBytes(UTF8);
+            terms.add(term);
+            postings.put(term, list);
+            termBytes += term.length;
+        }
+        Collections.sort(terms, new Comparator<byte[]>() {
+            public int compare(byte[] a, byte[] b) {
+                return compareBytes(a, b);
+            }
+        });
+
+        long documentTable = HEADER_SIZE;
+        long termTable = documentTable + 4L * (names.length + 1) + nameBytes;
+        long termBytesStart = termTable + (long) TERM_RECORD_SIZE * terms.size() + 4;
+        long postingsStart = termBytesStart + termBytes;
+        // most lists of a built index are packed already, dense and changed ones are packed for the file only
+        ArrayList<byte[]> packedPostings = new ArrayList<byte[]>(terms.size());
+        long stampsStart = postingsStart;
+        for (byte[] term : terms) {
+            byte[] packed = postings.get(term).packed();
+            packedPostings.add(packed);
+            stampsStart += packed.length;
+        }
+        long lengthsStart = stampsStart + 24L * names.length;
+        boolean positional = !keywordsIndex.isEmpty();
+        for (PostingList list : postings.values()) {
+            positional &= list.hasPositions();
+        }
+        long positionsStart = positional ? lengthsStart + 4L * names.length : -1;
+        long size = positional ? positionsStart + 8L * terms.size() : lengthsStart + 4L * names.length;
+        if (positional) {
+            for (PostingList list : postings.values()) {
+                size += 4L * (list.size() + 1);
+                for (int i = 0; i < list.size(); i++) {
+                    size += list.encodedPositions(i).length;
+                }
+            }
+        }
+        if (size > MAX_SIZE) {
+            throw new IOException("Index segment would be larger than 2GB: " + file);
+        }
+
+        File temporary = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary),
+                1 << 16));
+        boolean written = false;
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(names.length);
+            out.writeInt(terms.size());
+            out.writeLong(documentTable);
+            out.writeLong(termTable);
+            out.writeLong(termBytesStart);
+            out.writeLong(postingsStart);
+            out.writeLong(stampsStart);
+            out.writeLong(lengthsStart);
+            out.writeLong(positionsStart);
+            out.writeInt(documents.duplicatePostings() ? DUPLICATE_POSTINGS : 0);
+
+            int offset = 0;
+            for (byte[] name : names) {
+                out.writeInt(offset);
+                offset += name.length;
+            }
+            out.writeInt(offset);
+            for (byte[] name : names) {
+                out.write(name);
+            }
+
+            offset = 0;
+            long postingsOffset = postingsStart;
+            for (int t = 0; t < terms.size(); t++) {
+                byte[] term = terms.get(t);
+                out.writeInt(offset);
+                out.writeLong(postingsOffset);
+                out.writeInt(postings.get(term).size());
+                offset += term.length;
+                postingsOffset += packedPostings.get(t).length;
+            }
+            out.writeInt(offset);
+            for (byte[] term : terms) {
+                out.write(term);
+            }
+
+            for (byte[] packed : packedPostings) {
+                out.write(packed);
+            }
+
+            for (int i = 0; i < names.length; i++) {
+                DocumentStamp stamp = documents.stamp(i);
+                out.writeLong(stamp == null ? -1 : stamp.size);
+                out.writeLong(stamp == null ? 0 : stamp.lastModified);
+                out.writeLong(stamp == null ? 0 : stamp.hash);
+            }
+
+            for (int i = 0; i < names.length; i++) {
+                out.writeInt(documents.length(i));
+            }
+
+            if (positional) {
+                long block = positionsStart + 8L * terms.size();
+                for (byte[] term : terms) {
+                    PostingList list = postings.get(term);
+                    out.writeLong(block);
+                    block += 4L * (list.size() + 1);
+                    for (int i = 0; i < list.size(); i++) {
+                        block += list.encodedPositions(i).length;
+                    }
+                }
+                for (byte[] term : terms) {
+                    PostingList list = postings.get(term);
+                    int positionsOffset = 0;
+                    for (int i = 0; i < list.size(); i++) {
+                        out.writeInt(positionsOffset);
+                        positionsOffset += list.encodedPositions(i).length;
+                    }
+                    out.writeInt(positionsOffset);
+                    for (int i = 0; i < list.size(); i++) {
+                        out.write(list.encodedPositions(i));
+                    }
+                }
+            }
+            // a full disk may only show when the last buffer is written
+            out.close();
+            written = true;
+        } finally {
+            if (!written) {
+                try {
+                    out.close();
+                } finally {
+                    temporary.delete();
+                }
+            }
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Merges segments that index consecutive parts of one corpus into a single segment file: the index one
+     * build of the whole corpus would have written. The documents of each segment follow the documents of
+     * the segments before it, and the postings of every keyword are those of all segments, renumbered, in
+     * descending order of frequency and then in document order. Word positions are kept if every segment
+     * has them.
+     *
+     * The merge streams. The term tables are merged k ways on their sorted UTF-8 bytes, twice: first only to
+     * count the keywords, which fixes where every section up to the postings starts, then to write the
+     * keyword records, keyword bytes and postings, each through its own stream into its own section of the
+     * file. Positions go through temporary files, since their section comes last. The heap only holds the
+     * postings of one keyword at a time, however large the segments are.
+     *
+     * The merged segment must not be larger than MAX_SIZE, which is checked before anything is written for
+     * the sections whose size is known up front, and after every keyword for the postings and positions, so
+     * that a merge that would be too large fails as soon as it is known, and leaves no file.
+     *
+     * @param file Segment file to write, overwritten if it exists
+     * @param segments Segments to merge, in document order, of the current version
+     * @throws IOException If a file cannot be read or written, or the merged segment would be larger than
+     *         MAX_SIZE
+     */
+    static void merge(File file, IndexSegment[] segments) throws IOException {
+        int[] bases = new int[segments.length];
+        int documentCount = 0;
+        long nameBytes = 0;
+        boolean positional = segments.length > 0;
+        boolean duplicatePostings = false;
+        for (int s = 0; s < segments.length; s++) {
+            IndexSegment segment = segments[s];
+            if (!segment.packed || segment.stampsOffset < 0 || segment.lengthsOffset < 0) {
+                throw new IOException("Only segments of version " + VERSION + " can be merged");
+            }
+            bases[s] = documentCount;
+            documentCount += segment.documentCount;
+            nameBytes += segment.nameBytes();
+            positional &= segment.hasPositions();
+            duplicatePostings |= segment.duplicatePostings;
+        }
+
+        int termCount = 0;
+        long termBytes = 0;
+        TermCursor[] group = new TermCursor[segments.length];
+        PriorityQueue<TermCursor> cursors = TermCursor.queue(segments);
+        for (int n; (n = TermCursor.next(cursors, group)) > 0; TermCursor.advance(cursors, group, n)) {
+            termCount++;
+            termBytes += group[0].bytes.length;
+        }
+
+        long documentTable = HEADER_SIZE;
+        long termTable = documentTable + 4L * (documentCount + 1) + nameBytes;
+        long termBytesStart = termTable + (long) TERM_RECORD_SIZE * termCount + 4;
+        long postingsStart = termBytesStart + termBytes;
+        // stamps and lengths, and the positions offsets, whatever the postings and positions take
+        long fixedBytes = postingsStart + 28L * documentCount + (positional ? 8L * termCount : 0);
+        if (fixedBytes > MAX_SIZE) {
+            throw new IOException("Merged index segment would be larger than 2GB: " + file);
+        }
+
+        new FileOutputStream(file).close();
+        File offsetsFile = new File(file.getPath() + ".offsets");
+        File blocksFile = new File(file.getPath() + ".positions");
+        DataOutputStream documents = section(file, documentTable);
+        DataOutputStream records = section(file, termTable);
+        DataOutputStream keywords = section(file, termBytesStart);
+        DataOutputStream postings = section(file, postingsStart);
+        DataOutputStream offsets = positional ? new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(offsetsFile), 1 << 16)) : null;
+        DataOutputStream blocks = positional ? new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(blocksFile), 1 << 16)) : null;
+        boolean written = false;
+        try {
+            // the document table, with the name offsets of every segment moved past the names before it
+            long nameOffset = 0;
+            for (IndexSegment segment : segments) {
+                for (int docId = 0; docId < segment.documentCount; docId++) {
+                    documents.writeInt((int) (nameOffset + segment.buffer.getInt(
+                            segment.documentTableOffset + 4 * docId)));
+                }
+                nameOffset += segment.nameBytes();
+            }
+            documents.writeInt((int) nameOffset);
+            for (IndexSegment segment : segments) {
+                segment.copy(segment.documentTableOffset + 4 * (segment.documentCount + 1), segment.nameBytes(),
+                        documents);
+            }
+
+            int keywordOffset = 0;
+            long postingsOffset = postingsStart;
+            long blockOffset = 0;
+            MergedPostings merged = new MergedPostings();
+            cursors = TermCursor.queue(segments);
+            for (int n; (n = TermCursor.next(cursors, group)) > 0; TermCursor.advance(cursors, group, n)) {
+                merged.merge(group, n, bases);
+                byte[] packed = PostingList.encode(merged.docIds, merged.frequencies, merged.size);
+                records.writeInt(keywordOffset);
+                records.writeLong(postingsOffset);
+                records.writeInt(merged.size);
+                keywords.write(group[0].bytes);
+                postings.write(packed);
+                keywordOffset += group[0].bytes.length;
+                postingsOffset += packed.length;
+                if (positional) {
+                    offsets.writeLong(blockOffset);
+                    blockOffset += merged.writePositions(group, blocks);
+                }
+                if (fixedBytes + (postingsOffset - postingsStart) + blockOffset > MAX_SIZE) {
+                    throw new IOException("Merged index segment would be larger than 2GB: " + file);
+                }
+            }
+            records.writeInt(keywordOffset);
+
+            // stamps and lengths follow the postings
+            long stampsStart = postingsOffset;
+            for (IndexSegment segment : segments) {
+                segment.copy(segment.stampsOffset, 24 * segment.documentCount, postings);
+            }
+            long lengthsStart = stampsStart + 24L * documentCount;
+            for (IndexSegment segment : segments) {
+                segment.copy(segment.lengthsOffset, 4 * segment.documentCount, postings);
+            }
+            long positionsStart = positional ? lengthsStart + 4L * documentCount : -1;
+            if (positional) {
+                offsets.close();
+                blocks.close();
+                DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(offsetsFile),
+                        1 << 16));
+                try {
+                    for (int term = 0; term < termCount; term++) {
+                        postings.writeLong(positionsStart + 8L * termCount + in.readLong());
+                    }
+                } finally {
+                    in.close();
+                }
+                documents.flush();
+                records.flush();
+                keywords.flush();
+                postings.flush();
+                FileChannel to = new FileOutputStream(file, true).getChannel();
+                FileChannel from = new FileInputStream(blocksFile).getChannel();
+                try {
+                    for (long at = 0, size = from.size(); at < size; ) {
+                        at += from.transferTo(at, size - at, to);
+                    }
+                } finally {
+                    from.close();
+                    to.close();
+                }
+            }
+
+            RandomAccessFile header = new RandomAccessFile(file, "rw");
+            try {
+                header.writeInt(MAGIC);
+                header.writeInt(VERSION);
+                header.writeInt(documentCount);
+                header.writeInt(termCount);
+                header.writeLong(documentTable);
+                header.writeLong(termTable);
+                header.writeLong(termBytesStart);
+                header.writeLong(postingsStart);
+                header.writeLong(stampsStart);
+                header.writeLong(lengthsStart);
+                header.writeLong(positionsStart);
+                header.writeInt(duplicatePostings ? DUPLICATE_POSTINGS : 0);
+            } finally {
+                header.close();
+            }
+            written = true;
+        } finally {
+            documents.close();
+            records.close();
+            keywords.close();
+            postings.close();
+            if (positional) {
+                offsets.close();
+                blocks.close();
+                offsetsFile.delete();
+                blocksFile.delete();
+            }
+            if (!written) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * @return A buffered stream that writes a section of a file, from the given offset on
+     */
+    private static DataOutputStream section(File file, long offset) throws IOException {
+        FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+        channel.position(offset);
+        return new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+    }
+
+    /**
+     * @return Number of bytes of the document names
+     */
+    private int nameBytes() {
+        return buffer.getInt(documentTableOffset + 4 * documentCount);
+    }
+
+    /**
+     * @return UTF-8 bytes of the keyword at the given position of the term table
+     */
+    private byte[] termBytes(int term) {
+        int start = buffer.getInt(termTableOffset + term * TERM_RECORD_SIZE);
+        byte[] bytes = new byte[buffer.getInt(termTableOffset + (term + 1) * TERM_RECORD_SIZE) - start];
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(termBytesOffset + start);
+        slice.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Copies bytes of the mapped file to a stream.
+     */
+    private void copy(int offset, int length, OutputStream out) throws IOException {
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(offset);
+        byte[] chunk = new byte[Math.min(length, 1 << 16)];
+        for (int left = length; left > 0; left -= chunk.length) {
+            int n = Math.min(left, chunk.length);
+            slice.get(chunk, 0, n);
+            out.write(chunk, 0, n);
+            if (n < chunk.length) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Position of a merge in the term table of one of the segments it merges.
+     */
+    private static final class TermCursor {
+
+        final IndexSegment segment;
+
+        /**
+         * Position of the segment among the merged ones.
+         */
+        final int index;
+
+        int term;
+
+        byte[] bytes;
+
+        TermCursor(IndexSegment segment, int index) {
+            this.segment = segment;
+            this.index = index;
+            bytes = segment.termBytes(0);
+        }
+
+        /**
+         * @return Cursors at the first keyword of every segment that has any, ordered on keyword and segment
+         */
+        static PriorityQueue<TermCursor> queue(IndexSegment[] segments) {
+            PriorityQueue<TermCursor> queue = new PriorityQueue<TermCursor>(Math.max(1, segments.length),
+                    new Comparator<TermCursor>() {
+                        public int compare(TermCursor a, TermCursor b) {
+                            int c = compareBytes(a.bytes, b.bytes);
+                            return c != 0 ? c : a.index - b.index;
+                        }
+                    });
+            for (int s = 0; s < segments.length; s++) {
+                if (segments[s].termCount > 0) {
+                    queue.add(new TermCursor(segments[s], s));
+                }
+            }
+            return queue;
+        }
+
+        /**
+         * Takes the cursors at the lowest keyword, in segment order.
+         *
+         * @return Number of cursors put in group, 0 once all keywords are merged
+         */
+        static int next(PriorityQueue<TermCursor> queue, TermCursor[] group) {
+            int n = 0;
+            while (!queue.isEmpty() && (n == 0 || compareBytes(queue.peek().bytes, group[0].bytes) == 0)) {
+                group[n++] = queue.poll();
+            }
+            return n;
+        }
+
+        /**
+         * Moves the cursors of a group to their next keyword, and puts them back in the queue.
+         */
+        static void advance(PriorityQueue<TermCursor> queue, TermCursor[] group, int n) {
+            for (int g = 0; g < n; g++) {
+                TermCursor cursor = group[g];
+                if (++cursor.term < cursor.segment.termCount) {
+                    cursor.bytes = cursor.segment.termBytes(cursor.term);
+                    queue.add(cursor);
+                }
+            }
+        }
+    }
+
+    /**
+     * Postings of one keyword merged from several segments, and where each posting came from, so that its
+     * positions can be copied. The arrays are reused from keyword to keyword.
+     */
+    private static final class MergedPostings {
+
+        int size;
+
+        int[] docIds = new int[16];
+
+        int[] frequencies = new int[16];
+
+        /**
+         * Group position of the segment, and position in its list, of every merged posting.
+         */
+        int[] groups = new int[16];
+
+        int[] postings = new int[16];
+
+        private long[] keys = new long[16];
+
+        private int[] unsortedDocIds = new int[16];
+
+        private int[] unsortedFrequencies = new int[16];
+
+        private int[] unsortedGroups = new int[16];
+
+        private int[] unsortedPostings = new int[16];
+
+        /**
+         * Merges the lists of a keyword. Every list is in order already, and the segments are in document
+         * order, so sorting on descending frequency alone, keeping the order of the lists for equal
+         * frequencies, gives the list one build would have.
+         */
+        void merge(TermCursor[] group, int n, int[] bases) {
+            size = 0;
+            for (int g = 0; g < n; g++) {
+                size += group[g].segment.buffer.getInt(
+                        group[g].segment.termTableOffset + group[g].term * TERM_RECORD_SIZE + 12);
+            }
+            if (size > keys.length) {
+                int capacity = Math.max(size, keys.length + (keys.length >> 1));
+                docIds = new int[capacity];
+                frequencies = new int[capacity];
+                groups = new int[capacity];
+                postings = new int[capacity];
+                keys = new long[capacity];
+                unsortedDocIds = new int[capacity];
+                unsortedFrequencies = new int[capacity];
+                unsortedGroups = new int[capacity];
+                unsortedPostings = new int[capacity];
+            }
+            int at = 0;
+            for (int g = 0; g < n; g++) {
+                PostingList list = group[g].segment.postingsAt(group[g].term);
+                int base = bases[group[g].index];
+                for (int i = 0; i < list.size(); i++, at++) {
+                    unsortedDocIds[at] = base + list.docId(i);
+                    unsortedFrequencies[at] = list.frequency(i);
+                    unsortedGroups[at] = g;
+                    unsortedPostings[at] = i;
+                    keys[at] = ((long) (Integer.MAX_VALUE - unsortedFrequencies[at]) << 32) | at;
+                }
+            }
+            Arrays.sort(keys, 0, size);
+            for (int i = 0; i < size; i++) {
+                int from = (int) keys[i];
+                docIds[i] = unsortedDocIds[from];
+                frequencies[i] = unsortedFrequencies[from];
+                groups[i] = unsortedGroups[from];
+                postings[i] = unsortedPostings[from];
+            }
+        }
+
+        /**
+         * Writes the positions block of the merged list, copying the encoded positions of every posting from
+         * its segment.
+         *
+         * @return Number of bytes written
+         */
+        long writePositions(TermCursor[] group, DataOutputStream out) throws IOException {
+            int offset = 0;
+            for (int i = 0; i <= size; i++) {
+                out.writeInt(offset);
+                if (i < size) {
+                    offset += positionsLength(group[groups[i]], postings[i]);
+                }
+            }
+            for (int i = 0; i < size; i++) {
+                TermCursor cursor = group[groups[i]];
+                IndexSegment segment = cursor.segment;
+                int count = segment.buffer.getInt(segment.termTableOffset + cursor.term * TERM_RECORD_SIZE + 12);
+                int block = (int) segment.buffer.getLong(segment.positionsOffset + 8 * cursor.term);
+                int start = segment.buffer.getInt(block + 4 * postings[i]);
+                segment.copy(block + 4 * (count + 1) + start, positionsLength(cursor, postings[i]), out);
+            }
+            return 4L * (size + 1) + offset;
+        }
+
+        private static int positionsLength(TermCursor cursor, int posting) {
+            IndexSegment segment = cursor.segment;
+            int block = (int) segment.buffer.getLong(segment.positionsOffset + 8 * cursor.term);
+            return segment.buffer.getInt(block + 4 * (posting + 1)) - segment.buffer.getInt(block + 4 * posting);
+        }
+    }
+
+    /**
+     * Looks up the posting list of a keyword. Only the postings of that keyword are read from the file.
+     *
+     * @param keyword Keyword (lower case)
+     * @return Posting list of the keyword, or null if the keyword is not in the segment
+     */
+    public PostingList postings(String keyword) {
+        int term = find(keyword.getBytes(UTF8));
+        return term < 0 ? null : postingsAt(term);
+    }
+
+    /**
+     * Looks up the number of documents that contain a keyword, without reading its postings.
+     *
+     * @param keyword Keyword (lower case)
+     * @return Size of the keyword's posting list, 0 if the keyword is not in the segment
+     */
+    public int documentFrequency(String keyword) {
+        int term = find(keyword.getBytes(UTF8));
+        return term < 0 ? 0 : buffer.getInt(termTableOffset + term * TERM_RECORD_SIZE + 12);
+    }
+
+    /**
+     * @return The term table as keywords in sorted order, for expanding keyword patterns. Keywords are
+     *         decoded as the expansion visits them, and document frequencies read from the term table.
+     */
+    SortedTerms sortedTerms() {
+        return new SortedTerms() {
+            int size() {
+                return termCount;
+            }
+
+            String term(int i) {
+                return IndexSegment.this.term(i);
+            }
+
+            int documentFrequency(int i) {
+                return buffer.getInt(termTableOffset + i * TERM_RECORD_SIZE + 12);
+            }
+        };
+    }
+
+    /**
+     * Takes the index gauges of Metrics from the term table, without reading any postings. On the heap, a
+     * segment only holds the document lengths once they are read.
+     */
+    synchronized void sample(Metrics.IndexSample sample) {
+        sample.documents = documentCount;
+        sample.terms = termCount;
+        sample.mappedBytes = buffer.capacity();
+        sample.heapBytes = lengths == null ? 0 : 16 + 4L * lengths.length;
+        for (int term = 0; term < termCount; term++) {
+            int count = buffer.getInt(termTableOffset + term * TERM_RECORD_SIZE + 12);
+            sample.postings += count;
+            sample.postingListLengths.record(count);
+        }
+    }
+
+    /**
+     * Reads the posting list at the given position of the term table. Its positions are left in the segment.
+     */
+    private PostingList postingsAt(int term) {
+        if (packed) {
+            int record = termTableOffset + term * TERM_RECORD_SIZE;
+            return new PostingList(buffer.getInt(record + 12), buffer, (int) buffer.getLong(record + 4), this, term);
+        }
+        int[][] postings = readPostings(term);
+        return new PostingList(postings[0], postings[1], this, term);
+    }
+
+    /**
+     * Reads the document ids and frequencies of the posting list at the given position of the term table, of
+     * a segment whose lists are not packed.
+     */
+    private int[][] readPostings(int term) {
+        int record = termTableOffset + term * TERM_RECORD_SIZE;
+        int offset = (int) buffer.getLong(record + 4);
+        int count = buffer.getInt(record + 12);
+        int[] docIds = new int[count];
+        int[] frequencies = new int[count];
+        for (int i = 0; i < count; i++) {
+            docIds[i] = buffer.getInt(offset + 8 * i);
+            frequencies[i] = buffer.getInt(offset + 8 * i + 4);
+        }
+        return new int[][] {docIds, frequencies};
+    }
+
+    /**
+     * @return Whether the segment has the word positions of all postings
+     */
+    public boolean hasPositions() {
+        return positionsOffset >= 0;
+    }
+
+    /**
+     * Decodes the positions of one posting.
+     *
+     * @param term Position of the keyword in the term table
+     * @param i Position of the posting in the keyword's posting list
+     * @param frequency Frequency of the posting, its number of positions
+     * @param decoded Array to decode into, at least as large as the posting's frequency
+     */
+    void decodePositions(int term, int i, int frequency, int[] decoded) {
+        if (positionsOffset < 0) {
+            throw new IllegalStateException("Index segment has no positions");
+        }
+        int count = buffer.getInt(termTableOffset + term * TERM_RECORD_SIZE + 12);
+        int block = (int) buffer.getLong(positionsOffset + 8 * term);
+        int at = block + 4 * (count + 1) + buffer.getInt(block + 4 * i);
+        int position = 0;
+        for (int n = 0; n < frequency; n++) {
+            int gap = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = buffer.get(at++);
+                gap |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    break;
+                }
+            }
+            position += gap;
+            decoded[n] = position;
+        }
+    }
+
+    /**
+     * Copies the encoded positions of a posting list onto the heap.
+     */
+    private byte[][] positionBytes(int term, int count) {
+        byte[][] positions = new byte[count][];
+        int block = (int) buffer.getLong(positionsOffset + 8 * term);
+        int data = block + 4 * (count + 1);
+        ByteBuffer slice = buffer.duplicate();
+        for (int i = 0; i < count; i++) {
+            int start = buffer.getInt(block + 4 * i);
+            positions[i] = new byte[buffer.getInt(block + 4 * (i + 1)) - start];
+            slice.position(data + start);
+            slice.get(positions[i]);
+        }
+        return positions;
+    }
+
+    /**
+     * @param docId Document id
+     * @return Name of the document with the given id
+     */
+    public String documentName(int docId) {
+        int start = buffer.getInt(documentTableOffset + 4 * docId);
+        int end = buffer.getInt(documentTableOffset + 4 * (docId + 1));
+        int names = documentTableOffset + 4 * (documentCount + 1);
+        return decode(names + start, end - start);
+    }
+
+    /**
+     * @param docId Document id
+     * @return Stamp of the document's source file, or null if the segment does not have one
+     */
+    public DocumentStamp documentStamp(int docId) {
+        if (stampsOffset < 0 || buffer.getLong(stampsOffset + 24 * docId) < 0) {
+            return null;
+        }
+        int offset = stampsOffset + 24 * docId;
+        return new DocumentStamp(buffer.getLong(offset), buffer.getLong(offset + 8), buffer.getLong(offset + 16));
+    }
+
+    /**
+     * Returns the lengths of all documents, read from the segment the first time they are needed.
+     *
+     * @return Document lengths in keywords, indexed by document id
+     */
+    public synchronized int[] documentLengths() {
+        if (lengths == null) {
+            int[] read = new int[documentCount];
+            long total = 0;
+            if (lengthsOffset >= 0) {
+                for (int docId = 0; docId < documentCount; docId++) {
+                    read[docId] = buffer.getInt(lengthsOffset + 4 * docId);
+                }
+            } else {
+                for (int term = 0; term < termCount; term++) {
+                    PostingList list = postingsAt(term);
+                    for (int i = 0; i < list.size(); i++) {
+                        read[list.docId(i)] += list.frequency(i);
+                    }
+                }
+            }
+            int shortest = documentCount == 0 ? 0 : Integer.MAX_VALUE;
+            for (int length : read) {
+                total += length;
+                shortest = Math.min(shortest, length);
+            }
+            totalLength = total;
+            shortestLength = shortest;
+            averageLength = documentCount == 0 ? 0 : (double) total / documentCount;
+            lengths = read;
+        }
+        return lengths;
+    }
+
+    /**
+     * @return Average document length in keywords
+     */
+    public synchronized double averageDocumentLength() {
+        documentLengths();
+        return averageLength;
+    }
+
+    /**
+     * @return Whether a document can have more than one posting in a list
+     */
+    public boolean duplicatePostings() {
+        return duplicatePostings;
+    }
+
+    /**
+     * @return Length of the shortest document in keywords
+     */
+    public synchronized int shortestDocumentLength() {
+        documentLengths();
+        return shortestLength;
+    }
+
+    /**
+     * @return Sum of all document lengths in keywords
+     */
+    public synchronized long totalDocumentLength() {
+        documentLengths();
+        return totalLength;
+    }
+
+    /**
+     * Copies the whole segment onto the heap, into an (empty) keyword table and document table that can
+     * then be updated. Positions are copied as well, still encoded.
+     *
+     * @param keywordsIndex Keyword table to fill
+     * @param documents Document table to fill
+     */
+    public void copyTo(Map<String,PostingList> keywordsIndex, DocumentTable documents) {
+        copyDocumentsTo(documents);
+        for (int term = 0; term < termCount; term++) {
+            keywordsIndex.put(term(term), heapPostings(term));
+        }
+    }
+
+    /**
+     * Copies the whole segment onto the heap, see copyTo(Map, documents).
+     */
+    void copyTo(TermIndex keywordsIndex, DocumentTable documents) {
+        copyDocumentsTo(documents);
+        for (int term = 0; term < termCount; term++) {
+            keywordsIndex.put(term(term), heapPostings(term));
+        }
+    }
+
+    private void copyDocumentsTo(DocumentTable documents) {
+        int[] lengths = documentLengths();
+        for (int docId = 0; docId < documentCount; docId++) {
+            int id = documents.add(documentName(docId));
+            documents.setStamp(id, documentStamp(docId));
+            documents.setLength(id, lengths[docId]);
+        }
+        if (duplicatePostings) {
+            documents.markDuplicatePostings();
+        }
+    }
+
+    /**
+     * Reads a posting list onto the heap. Heap copies hold their positions themselves, the segment is closed
+     * after loading.
+     */
+    private PostingList heapPostings(int term) {
+        if (packed) {
+            int record = termTableOffset + term * TERM_RECORD_SIZE;
+            int count = buffer.getInt(record + 12);
+            int start = (int) buffer.getLong(record + 4);
+            int end = term + 1 < termCount ? (int) buffer.getLong(record + TERM_RECORD_SIZE + 4) : stampsOffset;
+            byte[] bytes = new byte[end - start];
+            ByteBuffer slice = buffer.duplicate();
+            slice.position(start);
+            slice.get(bytes);
+            return new PostingList(count, bytes, positionsOffset >= 0 ? positionBytes(term, count) : null);
+        }
+        int[][] postings = readPostings(term);
+        return positionsOffset >= 0
+                ? new PostingList(postings[0], postings[1], positionBytes(term, postings[0].length))
+                : new PostingList(postings[0], postings[1]);
+    }
+
+    /**
+     * @return Number of documents in the segment
+     */
+    public int documentCount() {
+        return documentCount;
+    }
+
+    /**
+     * @return Number of distinct keywords in the segment
+     */
+    public int termCount() {
+        return termCount;
+    }
+
+    /**
+     * Returns the keyword at the given position of the sorted term table.
+     *
+     * @param term Position in the term table, 0..termCount()-1
+     * @return Keyword
+     */
+    public String term(int term) {
+        int start = buffer.getInt(termTableOffset + term * TERM_RECORD_SIZE);
+        int end = buffer.getInt(termTableOffset + (term + 1) * TERM_RECORD_SIZE);
+        return decode(termBytesOffset + start, end - start);
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Binary search of the term table.
+     *
+     * @return Position of the term, or -1 if it is not in the segment
+     */
+    private int find(byte[] key) {
+        int low = 0;
+        int high = termCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int c = compareTerm(mid, key);
+            if (c < 0) {
+                low = mid + 1;
+            } else if (c > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int compareTerm(int term, byte[] key) {
+        int start = termBytesOffset + buffer.getInt(termTableOffset + term * TERM_RECORD_SIZE);
+        int length = termBytesOffset + buffer.getInt(termTableOffset + (term + 1) * TERM_RECORD_SIZE) - start;
+        int n = Math.min(length, key.length);
+        for (int i = 0; i < n; i++) {
+            int c = (buffer.get(start + i) & 0xff) - (key[i] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return length - key.length;
+    }
+
+    private String decode(int position, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(position);
+        slice.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    static int compareBytes(byte[] a, byte[] b) {
+        int n = Math.min(a.length, b.length);
+        for (int i = 0; i < n; i++) {
+            int c = (a[i] & 0xff) - (b[i] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return a.length - b.length;
+    }
+}
@@ -0,0 +1,227 @@
+package pse;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+/**
+ * Just enough JSON for SearchServer and LoadGenerator, which exchange small documents and should not need a
+ * library for it. parse reads a JSON text into LinkedHashMaps, ArrayLists, Strings, Doubles, Booleans and
+ * nulls, and quote writes a string literal. The rest of the output is simple enough to write directly.
+ */
+final class Json {
+
+    private final String text;
+
+    private int at;
+
+    private Json(String text) {
+        this.text = text;
+    }
+
+    /**
+     * @param text JSON text
+     * @return Value of the text
+     * @throws IllegalArgumentException If the text is not valid JSON
+     */
+    static Object parse(String text) {
+        Json json = new Json(text);
+        Object value = json.value();
+        json.skipSpace();
+        if (json.at < text.length()) {
+            throw json.error("Unexpected text after the value");
+        }
+        return value;
+    }
+
+    /**
+     * Appends a string as a JSON string literal.
+     */
+    static StringBuilder quote(StringBuilder out, String s) {
+        out.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c == '\n') {
+                out.append("\\n");
+            } else if (c == '\r') {
+                out.append("\\r");
+            } else if (c == '\t') {
+                out.append("\\t");
+            } else if (c < 0x20) {
+                out.append(String.format("\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        return out.append('"');
+    }
+
+    private Object value() {
+        skipSpace();
+        if (at >= text.length()) {
+            throw error("Unexpected end of text");
+        }
+        char c = text.charAt(at);
+        switch (c) {
+            case '{':
+                return object();
+            case '[':
+                return array();
+            case '"':
+                return string();
+            case 't':
+                return literal("true", Boolean.TRUE);
+            case 'f':
+                return literal("false", Boolean.FALSE);
+            case 'n':
+                return literal("null", null);
+            default:
+                return number();
+        }
+    }
+
+    private LinkedHashMap<String,Object> object() {
+        LinkedHashMap<String,Object> object = new LinkedHashMap<String,Object>();
+        at++;
+        skipSpace();
+        if (peek() == '}') {
+            at++;
+            return object;
+        }
+        while (true) {
+            skipSpace();
+            if (peek() != '"') {
+                throw error("Expected a member name");
+            }
+            String name = string();
+            skipSpace();
+            expect(':');
+            object.put(name, value());
+            skipSpace();
+            if (peek() == '}') {
+                at++;
+                return object;
+            }
+            expect(',');
+        }
+    }
+
+    private ArrayList<Object> array() {
+        ArrayList<Object> array = new ArrayList<Object>();
+        at++;
+        skipSpace();
+        if (peek() == ']') {
+            at++;
+            return array;
+        }
+        while (true) {
+            array.add(value());
+            skipSpace();
+            if (peek() == ']') {
+                at++;
+                return array;
+            }
+            expect(',');
+        }
+    }
+
+    private String string() {
+        StringBuilder s = new StringBuilder();
+        at++;
+        while (true) {
+            if (at >= text.length()) {
+                throw error("Unterminated string");
+            }
+            char c = text.charAt(at++);
+            if (c == '"') {
+                return s.toString();
+            }
+            if (c != '\\') {
+                s.append(c);
+                continue;
+            }
+            if (at >= text.length()) {
+                throw error("Unterminated string");
+            }
+            char escaped = text.charAt(at++);
+            switch (escaped) {
+                case 'b':
+                    s.append('\b');
+                    break;
+                case 'f':
+                    s.append('\f');
+                    break;
+                case 'n':
+                    s.append('\n');
+                    break;
+                case 'r':
+                    s.append('\r');
+                    break;
+                case 't':
+                    s.append('\t');
+                    break;
+                case 'u':
+                    if (at + 4 > text.length()) {
+                        throw error("Bad unicode escape");
+                    }
+                    try {
+                        s.append((char) Integer.parseInt(text.substring(at, at + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw error("Bad unicode escape");
+                    }
+                    at += 4;
+                    break;
+                case '"':
+                case '\\':
+                case '/':
+                    s.append(escaped);
+                    break;
+                default:
+                    throw error("Bad escape \\" + escaped);
+            }
+        }
+    }
+
+    private Double number() {
+        int start = at;
+        while (at < text.length() && "+-0123456789.eE".indexOf(text.charAt(at)) >= 0) {
+            at++;
+        }
+        try {
+            return Double.valueOf(text.substring(start, at));
+        } catch (NumberFormatException e) {
+            at = start;
+            throw error("Unexpected character");
+        }
+    }
+
+    private Object literal(String literal, Object value) {
+        if (!text.startsWith(literal, at)) {
+            throw error("Unexpected character");
+        }
+        at += literal.length();
+        return value;
+    }
+
+    private void expect(char c) {
+        if (peek() != c) {
+            throw error("Expected '" + c + "'");
+        }
+        at++;
+    }
+
+    private char peek() {
+        return at < text.length() ? text.charAt(at) : 0;
+    }
+
+    private void skipSpace() {
+        while (at < text.length() && Character.isWhitespace(text.charAt(at))) {
+            at++;
+        }
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at offset " + at + " of the JSON text");
+    }
+}
@@ -0,0 +1,204 @@
+package pse;
+
+import java.util.*;
+
+/**
+ * Query keyword that stands for all the keywords of the index it matches, so that searches find documents
+ * whose keywords OCR got slightly wrong, or that use another form of a word:
+ *
+ *   wor*     prefix: keywords that start with "wor"
+ *   w?r*s    wildcard: '?' matches any one letter, '*' any number of letters, including none
+ *   word~    fuzzy: keywords at most one edit away from "word", an edit being the insertion, deletion or
+ *            substitution of a letter, which is what a misrecognized character usually amounts to
+ *   word~2   fuzzy with up to two edits
+ *
+ * A pattern is matched against a SortedTerms, the keywords of an index in sorted order, which it walks like
+ * a trie: keywords that share a prefix are next to each other, the matching state of a prefix is computed
+ * once for all of them, and as soon as no keyword with a given prefix can match anymore, they are all
+ * skipped with a binary search. Expanding a pattern therefore costs in the order of the matching keywords
+ * and their near misses, not of the size of the index.
+ *
+ * The matching state of a prefix is one row of an automaton over the pattern, row[j] telling how well the
+ * prefix matches the first j chars of the pattern: for fuzzy patterns the Levenshtein distance between the
+ * two, for wildcard patterns 0 if they match and 1 if they do not. A prefix is dead once no entry of its row
+ * is within the pattern's edit limit (0 for wildcards), and a keyword matches if the last entry of its row is.
+ */
+final class KeywordPattern {
+
+    /**
+     * Highest number of edits of a fuzzy pattern. More edits match too many unrelated keywords to be useful,
+     * and make expansion visit much more of the index.
+     */
+    static final int MAX_EDITS = 2;
+
+    /**
+     * Highest number of keywords a pattern stands for in a query: the closest ones, and among those the ones
+     * in the most documents.
+     */
+    static final int MAX_EXPANSIONS = 64;
+
+    private final String text;
+
+    /**
+     * Pattern chars, without the ~ of a fuzzy pattern.
+     */
+    private final char[] pattern;
+
+    /**
+     * Highest number of edits of a match, 0 for wildcard patterns.
+     */
+    private final int maxEdits;
+
+    private final boolean fuzzy;
+
+    private KeywordPattern(String text, char[] pattern, int maxEdits, boolean fuzzy) {
+        this.text = text;
+        this.pattern = pattern;
+        this.maxEdits = maxEdits;
+        this.fuzzy = fuzzy;
+    }
+
+    /**
+     * Parses a query keyword.
+     *
+     * @param keyword Query keyword (lower case)
+     * @return The pattern, or null if the keyword is a plain keyword
+     * @throws IllegalArgumentException If the keyword is a fuzzy pattern with wildcards or more than
+     *         MAX_EDITS edits
+     */
+    static KeywordPattern parse(String keyword) {
+        int tilde = keyword.lastIndexOf('~');
+        if (tilde > 0) {
+            int edits = 1;
+            if (tilde < keyword.length() - 1) {
+                String digits = keyword.substring(tilde + 1);
+                if (digits.length() != 1 || digits.charAt(0) < '0' || digits.charAt(0) > '0' + MAX_EDITS) {
+                    throw new IllegalArgumentException("Fuzzy keywords allow 0 to " + MAX_EDITS + " edits: " + keyword);
+                }
+                edits = digits.charAt(0) - '0';
+            }
+            String word = keyword.substring(0, tilde);
+            if (word.indexOf('*') >= 0 || word.indexOf('?') >= 0 || word.indexOf('~') >= 0) {
+                throw new IllegalArgumentException("Fuzzy keywords can not have wildcards: " + keyword);
+            }
+            return new KeywordPattern(keyword, word.toCharArray(), edits, true);
+        }
+        if (keyword.indexOf('*') >= 0 || keyword.indexOf('?') >= 0) {
+            return new KeywordPattern(keyword, keyword.toCharArray(), 0, false);
+        }
+        return null;
+    }
+
+    /**
+     * @return Row of the empty prefix
+     */
+    int[] start() {
+        int[] row = new int[pattern.length + 1];
+        for (int j = 1; j <= pattern.length; j++) {
+            if (fuzzy) {
+                row[j] = j;
+            } else {
+                row[j] = pattern[j - 1] == '*' ? row[j - 1] : 1;
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Computes the row of a prefix from the row of the prefix one char shorter.
+     *
+     * @param row Row of the shorter prefix
+     * @param c Last char of the prefix
+     * @param next Row of the prefix, filled in
+     * @return Whether the prefix is dead: no keyword that starts with it matches
+     */
+    boolean step(int[] row, char c, int[] next) {
+        int best;
+        if (fuzzy) {
+            next[0] = row[0] + 1;
+            best = next[0];
+            for (int j = 1; j <= pattern.length; j++) {
+                int substitution = row[j - 1] + (pattern[j - 1] == c ? 0 : 1);
+                next[j] = Math.min(substitution, Math.min(row[j], next[j - 1]) + 1);
+                best = Math.min(best, next[j]);
+            }
+        } else {
+            next[0] = 1;
+            best = 1;
+            for (int j = 1; j <= pattern.length; j++) {
+                char p = pattern[j - 1];
+                if (p == '*') {
+                    next[j] = Math.min(row[j], next[j - 1]);
+                } else {
+                    next[j] = p == '?' || p == c ? row[j - 1] : 1;
+                }
+                best = Math.min(best, next[j]);
+            }
+        }
+        return best > maxEdits;
+    }
+
+    /**
+     * @param row Row of a keyword
+     * @return Number of edits between the keyword and the pattern (0 for wildcard patterns), or -1 if the
+     *         keyword does not match
+     */
+    int distance(int[] row) {
+        int distance = row[pattern.length];
+        return distance <= maxEdits ? distance : -1;
+    }
+
+    public String toString() {
+        return text;
+    }
+
+    /**
+     * Keywords that a pattern matched in one or more indexes, with their number of edits and their document
+     * frequencies summed up over the indexes.
+     */
+    static final class Matches {
+
+        /**
+         * Keyword to {edits, document frequency}.
+         */
+        private final HashMap<String,int[]> matches = new HashMap<String,int[]>();
+
+        /**
+         * Adds a matching keyword of an index.
+         */
+        void add(String keyword, int distance, int documentFrequency) {
+            int[] match = matches.get(keyword);
+            if (match == null) {
+                matches.put(keyword, new int[] {distance, documentFrequency});
+            } else {
+                match[1] += documentFrequency;
+            }
+        }
+
+        /**
+         * @return The MAX_EXPANSIONS best keywords: fewest edits first, then most documents, then in
+         *         alphabetical order, so that every index of a sharded engine picks the same ones
+         */
+        String[] select() {
+            ArrayList<Map.Entry<String,int[]>> sorted = new ArrayList<Map.Entry<String,int[]>>(matches.entrySet());
+            Collections.sort(sorted, new Comparator<Map.Entry<String,int[]>>() {
+                public int compare(Map.Entry<String,int[]> a, Map.Entry<String,int[]> b) {
+                    int[] x = a.getValue();
+                    int[] y = b.getValue();
+                    if (x[0] != y[0]) {
+                        return x[0] - y[0];
+                    }
+                    if (x[1] != y[1]) {
+                        return y[1] - x[1];
+                    }
+                    return a.getKey().compareTo(b.getKey());
+                }
+            });
+            String[] keywords = new String[Math.min(MAX_EXPANSIONS, sorted.size())];
+            for (int i = 0; i < keywords.length; i++) {
+                keywords[i] = sorted.get(i).getKey();
+            }
+            return keywords;
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package pse;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Streaming keyword tokenizer, the fast equivalent of scanning a document with java.util.Scanner and
+ * passing every word to PersonalSearchEngine.getKeyword.
+ *
+ * The input is read in large char chunks and split on whitespace, exactly like Scanner's default
+ * delimiter. Each word is lower-cased and stripped of trailing punctuation in place, in a reusable char
+ * buffer. The result is then looked up in a TermDictionary that holds the noise words and every keyword
+ * seen so far, so no objects are allocated for a keyword that was already seen. nextTerm returns keywords
+ * as their term id in that dictionary, next as the same String instance every time. Words with non-ASCII
+ * characters are rare, and go through the String-based rules in keyword() so they are handled exactly like
+ * getKeyword does.
+ *
+ * A tokenizer is not thread-safe, use one per thread (or per document).
+ */
+public class KeywordTokenizer {
+
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    private final Set<String> noiseWords;
+
+    private Reader in;
+
+    private final char[] chunk = new char[CHUNK_SIZE];
+
+    private int position;
+
+    /**
+     * Whether String.toLowerCase() maps ASCII letters to ASCII letters in the default locale. It does not
+     * in e.g. the Turkish locale, where words with upper case letters then take the String-based path.
+     * Checked for every input, since the default locale can change.
+     */
+    private boolean asciiLowerCase;
+
+    private int limit;
+
+    /**
+     * Number of words read from the current input.
+     */
+    private int words;
+
+    /**
+     * Number of chars read from the current input.
+     */
+    private long chars;
+
+    /**
+     * Current word, lower-cased in place.
+     */
+    private char[] word = new char[64];
+
+    /**
+     * Noise words and keywords seen so far.
+     */
+    private final TermDictionary terms;
+
+    /**
+     * Whether a term is a noise word, by term id.
+     */
+    private boolean[] noise = new boolean[1024];
+
+    /**
+     * Where the words of the input are stored as they are read, with the keyword occurrences among them, for
+     * a DocumentStore. Null if the text is not stored.
+     */
+    DocumentStore.Text text;
+
+    /**
+     * @param noiseWords Noise words, which are never returned as keywords
+     */
+    public KeywordTokenizer(Set<String> noiseWords) {
+        this(noiseWords, new TermDictionary());
+    }
+
+    /**
+     * Tokenizer that adds the keywords it finds to a given dictionary, e.g. the one of an index, so that
+     * their term ids are those of the index.
+     *
+     * @param noiseWords Noise words, which are never returned as keywords
+     * @param terms Dictionary, the noise words are added to it too
+     */
+    KeywordTokenizer(Set<String> noiseWords, TermDictionary terms) {
+        this.noiseWords = noiseWords;
+        this.terms = terms;
+        for (String noiseWord : noiseWords) {
+            int id = terms.add(noiseWord);
+            grow(id);
+            noise[id] = true;
+        }
+    }
+
+    /**
+     * Starts tokenizing a new input. The caller remains responsible for closing it.
+     *
+     * @param in Input to read
+     */
+    public void reset(Reader in) {
+        this.in = in;
+        position = 0;
+        limit = 0;
+        words = 0;
+        chars = 0;
+        asciiLowerCase = "ABCDEFGHIJKLMNOPQRSTUVWXYZ".toLowerCase().equals("abcdefghijklmnopqrstuvwxyz");
+    }
+
+    /**
+     * Returns the next keyword in the input.
+     *
+     * @return Next keyword (lower case), or null at the end of the input
+     * @throws IOException If the input cannot be read
+     */
+    public String next() throws IOException {
+        int id = nextTerm();
+        return id < 0 ? null : terms.term(id);
+    }
+
+    /**
+     * Returns the next keyword in the input as its id in the tokenizer's dictionary.
+     *
+     * @return Term id of the next keyword, or -1 at the end of the input
+     * @throws IOException If the input cannot be read
+     */
+    int nextTerm() throws IOException {
+        int length;
+        while ((length = readWord()) >= 0) {
+            if (text != null) {
+                // before keyword() lower-cases the word in place
+                text.word(word, length);
+            }
+            int id = keyword(length);
+            if (id >= 0) {
+                if (text != null) {
+                    text.keyword();
+                }
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return Dictionary the term ids of nextTerm refer to
+     */
+    TermDictionary terms() {
+        return terms;
+    }
+
+    /**
+     * Returns the number of words read from the current input so far, keywords or not. Right after next
+     * returned a keyword, that keyword is word number wordCount() - 1 (counting from 0), which is its
+     * position in the input.
+     *
+     * @return Number of words read
+     */
+    public int wordCount() {
+        return words;
+    }
+
+    /**
+     * @return Number of chars read from the current input so far
+     */
+    public long charCount() {
+        return chars;
+    }
+
+    /**
+     * Applies the keyword rules of PersonalSearchEngine.getKeyword to a word: lower-cased, stripped of
+     * trailing '.', ',', '?', ':', ';' and '!', only alphabetic letters, not a noise word.
+     *
+     * @param word Candidate word
+     * @param noiseWords Noise words
+     * @return Keyword, or null if the word is not a keyword (the empty string is returned for words that
+     *         consist of punctuation only)
+     */
+    static String keyword(String word, Set<String> noiseWords) {
+        word = word.toLowerCase();
+        int end = word.length();
+        while (end > 0 && !Character.isLetter(word.charAt(end - 1)) && !Character.isDigit(word.charAt(end - 1))) {
+            if (!isPunctuation(word.charAt(end - 1))) {
+                return null;
+            }
+            end--;
+        }
+        word = word.substring(0, end);
+        // checks remaining letters for other characters
+        for (int n = 0; n < word.length(); n++) {
+            if (!Character.isLetter(word.charAt(n))) {
+                return null;
+            }
+        }
+        // checks if noise word
+        if (noiseWords.contains(word)) {
+            return null;
+        }
+        return word;
+    }
+
+    private static boolean isPunctuation(char c) {
+        return c == '.' || c == ',' || c == '?' || c == ':' || c == ';' || c == '!';
+    }
+
+    /**
+     * Reads the next whitespace separated word into the word buffer.
+     *
+     * @return Length of the word, or -1 at the end of the input
+     */
+    private int readWord() throws IOException {
+        int length = 0;
+        while (true) {
+            if (position == limit) {
+                limit = in.read(chunk, 0, CHUNK_SIZE);
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    if (length > 0) {
+                        words++;
+                        return length;
+                    }
+                    return -1;
+                }
+                chars += limit;
+            }
+            char c = chunk[position];
+            if (Character.isWhitespace(c)) {
+                position++;
+                if (length > 0) {
+                    words++;
+                    return length;
+                }
+            } else {
+                if (length == word.length) {
+                    char[] grown = new char[length * 2];
+                    System.arraycopy(word, 0, grown, 0, length);
+                    word = grown;
+                }
+                word[length++] = c;
+                position++;
+            }
+        }
+    }
+
+    /**
+     * Turns the word in the word buffer into a keyword.
+     *
+     * @return Term id of the keyword, or -1 if the word is not a keyword
+     */
+    private int keyword(int length) {
+        for (int i = 0; i < length; i++) {
+            char c = word[i];
+            if (c >= 0x80 || (c >= 'A' && c <= 'Z' && !asciiLowerCase)) {
+                String keyword = keyword(new String(word, 0, length), noiseWords);
+                return keyword == null || keyword.length() == 0 ? -1 : keywordId(terms.add(keyword));
+            }
+            if (c >= 'A' && c <= 'Z') {
+                word[i] = (char) (c + ('a' - 'A'));
+            }
+        }
+        int end = length;
+        while (end > 0 && !isAsciiLetterOrDigit(word[end - 1])) {
+            if (!isPunctuation(word[end - 1])) {
+                return -1;
+            }
+            end--;
+        }
+        if (end == 0) {
+            return -1;
+        }
+        for (int i = 0; i < end; i++) {
+            if (word[i] < 'a' || word[i] > 'z') {
+                return -1;
+            }
+        }
+        return keywordId(terms.add(word, end));
+    }
+
+    private static boolean isAsciiLetterOrDigit(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+    }
+
+    /**
+     * @return The term id, or -1 if the term is a noise word
+     */
+    private int keywordId(int id) {
+        return id < noise.length && noise[id] ? -1 : id;
+    }
+
+    private void grow(int id) {
+        if (id >= noise.length) {
+            noise = Arrays.copyOf(noise, Math.max(id + 1, noise.length * 2));
+        }
+    }
+}
@@ -0,0 +1,559 @@
+package pse;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Search engine that keeps indexing documents while it serves searches. The index is a list of immutable
+ * in-memory segments, each a PersonalSearchEngine that indexed a batch of documents and is never changed
+ * after it is published. Adding documents builds a new segment off to the side, and then publishes a new
+ * snapshot of the segment list with one volatile write. A search reads the snapshot once, and evaluates the
+ * query on its segments without taking any lock, so searches never wait for indexing, and always see a
+ * consistent index: a batch of documents becomes searchable all at once.
+ *
+ * Many small segments make searches slower, so a background thread merges them, and publishes a snapshot
+ * with the merged segment in their place. A segment's size class is the power of MERGE_FACTOR of its number
+ * of documents. Starting with the oldest segments, the segments up to the last one of the largest class are
+ * merged MERGE_FACTOR at a time, along with the smaller segments between them; then the same is done for the
+ * segments after them. The number of segments thus stays logarithmic in the number of documents, and every
+ * document is merged a logarithmic number of times.
+ *
+ * Segments are searched like the shards of a ShardedSearchEngine, with the statistics of the whole index,
+ * and documents keep the order they were added in. Search results are therefore exactly the same as those
+ * of a single PersonalSearchEngine that indexed the same documents in the same order, whatever the segments
+ * look like at the time.
+ *
+ * Adding a document that was added before does nothing. updateDocuments re-indexes documents that changed
+ * and removes the ones that are gone, as one batch: it publishes a snapshot in which the segments that held
+ * them are replaced by copies without them, plus a new segment with the re-indexed documents, so a search
+ * sees either the old or the new version of a document, never both or neither. Re-indexed documents go to
+ * the end of the order, as PersonalSearchEngine.updateIndex does it.
+ */
+public class LiveSearchEngine {
+
+    /**
+     * Number of segments of about the same size that are merged at once.
+     */
+    static final int MERGE_FACTOR = 4;
+
+    private final HashSet<String> noiseWords = new HashSet<String>(100, 2.0f);
+
+    /**
+     * Names of all documents added, as in the document table, so that a document is indexed once even if it
+     * is added concurrently.
+     */
+    private final Set<String> added = Collections.newSetFromMap(new ConcurrentHashMap<String,Boolean>());
+
+    private volatile Snapshot snapshot = new Snapshot(new PersonalSearchEngine[0], 0);
+
+    /**
+     * Guards publishing a snapshot, so that concurrent publishers do not lose each other's segments.
+     */
+    private final Object publishLock = new Object();
+
+    /**
+     * Serializes updateDocuments, so that a document is not re-indexed by two updates at once.
+     */
+    private final Object updateLock = new Object();
+
+    private final ExecutorService merger = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "segment-merge");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private volatile Scorer scorer = Scorer.BM25;
+
+    private volatile boolean positional;
+
+    private volatile OcrEngine ocrEngine;
+
+    private volatile Charset charset = StandardCharsets.UTF_8;
+
+    private volatile QueryCache queryCache;
+
+    /**
+     * Metrics of the whole engine, which the segments record their indexing and merges in.
+     */
+    private final Metrics metrics = new Metrics();
+
+    /**
+     * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+     * @throws FileNotFoundException If the noise words file is not found on disk
+     */
+    public LiveSearchEngine(String noiseWordsFile) throws FileNotFoundException {
+        Scanner sc = new Scanner(new File(noiseWordsFile));
+        while (sc.hasNext()) {
+            noiseWords.add(sc.next());
+        }
+        sc.close();
+        metrics.index(new Metrics.IndexGauges() {
+            public Metrics.IndexSample sample() {
+                Metrics.IndexSample sample = new Metrics.IndexSample();
+                for (PersonalSearchEngine segment : snapshot.segments) {
+                    sample.add(segment.indexSample);
+                }
+                return sample;
+            }
+        });
+    }
+
+    /**
+     * Indexes a document and makes it searchable.
+     *
+     * @param docFile Name of the document file
+     * @throws FileNotFoundException If the document is not found, or its type is not supported
+     */
+    public void addDocument(String docFile) throws FileNotFoundException {
+        addDocuments(Collections.singletonList(docFile));
+    }
+
+    /**
+     * Indexes a batch of documents into a new segment, and makes them searchable all at once. Batches can be
+     * added from several threads at the same time. Searches do not see any of the documents until the whole
+     * batch is indexed, nor any of them if it fails.
+     *
+     * @param docFiles Names of the document files
+     * @throws FileNotFoundException If a document is not found, or its type is not supported
+     */
+    public void addDocuments(List<String> docFiles) throws FileNotFoundException {
+        ArrayList<String> docs = new ArrayList<String>(docFiles.size());
+        ArrayList<DocumentType> types = new ArrayList<DocumentType>(docFiles.size());
+        ArrayList<String> names = new ArrayList<String>(docFiles.size());
+        for (String docFile : docFiles) {
+            DocumentType type = DocumentType.of(docFile);
+            String name = DocumentType.textName(docFile, type);
+            if (added.add(name)) {
+                docs.add(docFile);
+                types.add(type);
+                names.add(name);
+            }
+        }
+        if (docs.isEmpty()) {
+            return;
+        }
+        PersonalSearchEngine segment;
+        try {
+            segment = newSegment(docs, types);
+        } catch (RuntimeException e) {
+            added.removeAll(names);
+            throw e;
+        } catch (FileNotFoundException e) {
+            added.removeAll(names);
+            throw e;
+        }
+        synchronized (publishLock) {
+            PersonalSearchEngine[] segments = snapshot.segments;
+            PersonalSearchEngine[] published = Arrays.copyOf(segments, segments.length + 1);
+            published[segments.length] = segment;
+            snapshot = new Snapshot(published, snapshot.version + 1);
+        }
+        scheduleMerges();
+    }
+
+    /**
+     * Brings a batch of documents up to date, and makes the changes searchable all at once. Documents that
+     * were not added before are added, the others are indexed again, and the removed documents are dropped.
+     * Searches see the old versions until the whole batch is indexed, and keep seeing them if it fails.
+     *
+     * Removing a document copies the rest of its segment, which costs in proportion to the segment, not to
+     * the batch, so a batch of changes is much cheaper than the same changes one at a time. Updates are done
+     * one at a time; a document should not be added with addDocuments while it is being updated.
+     *
+     * @param docFiles Names of the document files that are new or changed
+     * @param removed Names of the documents to drop, as search results name them. Names that are not in the
+     *                index are ignored.
+     * @throws FileNotFoundException If a document is not found, or its type is not supported
+     */
+    public void updateDocuments(List<String> docFiles, Collection<String> removed) throws FileNotFoundException {
+        synchronized (updateLock) {
+            ArrayList<String> docs = new ArrayList<String>(docFiles.size());
+            ArrayList<DocumentType> types = new ArrayList<DocumentType>(docFiles.size());
+            HashSet<String> names = new HashSet<String>();
+            for (String docFile : docFiles) {
+                DocumentType type = DocumentType.of(docFile);
+                if (names.add(DocumentType.textName(docFile, type))) {
+                    docs.add(docFile);
+                    types.add(type);
+                }
+            }
+            HashSet<String> dropped = new HashSet<String>(removed);
+            dropped.addAll(names);
+            PersonalSearchEngine segment = docs.isEmpty() ? null : newSegment(docs, types);
+            synchronized (publishLock) {
+                PersonalSearchEngine[] segments = snapshot.segments;
+                ArrayList<PersonalSearchEngine> published = new ArrayList<PersonalSearchEngine>(segments.length + 1);
+                boolean changed = segment != null;
+                for (PersonalSearchEngine current : segments) {
+                    BitSet drop = new BitSet();
+                    for (String name : dropped) {
+                        int docId = current.documents.idOf(name);
+                        if (docId >= 0) {
+                            drop.set(docId);
+                        }
+                    }
+                    if (drop.isEmpty()) {
+                        published.add(current);
+                        continue;
+                    }
+                    changed = true;
+                    if (drop.cardinality() < current.documentCount()) {
+                        PersonalSearchEngine copy = new PersonalSearchEngine(metrics);
+                        copy.appendIndex(current, drop);
+                        published.add(copy);
+                    }
+                }
+                if (segment != null) {
+                    published.add(segment);
+                }
+                if (changed) {
+                    snapshot = new Snapshot(published.toArray(new PersonalSearchEngine[published.size()]),
+                            snapshot.version + 1);
+                }
+            }
+            added.removeAll(removed);
+            added.addAll(names);
+        }
+        scheduleMerges();
+    }
+
+    /**
+     * Removes documents, see updateDocuments.
+     *
+     * @param removed Names of the documents, as search results name them
+     */
+    public void removeDocuments(Collection<String> removed) {
+        try {
+            updateDocuments(Collections.<String>emptyList(), removed);
+        } catch (FileNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Indexes documents into a new segment, which is not published yet.
+     *
+     * @param types Types of the documents, as their names were told from
+     */
+    private PersonalSearchEngine newSegment(List<String> docs, List<DocumentType> types)
+            throws FileNotFoundException {
+        PersonalSearchEngine segment = new PersonalSearchEngine(metrics);
+        segment.noiseWords.addAll(noiseWords);
+        segment.setPositional(positional);
+        segment.setOcrEngine(ocrEngine);
+        segment.setCharset(charset);
+        segment.indexDocuments(docs, types);
+        return segment;
+    }
+
+    private void scheduleMerges() {
+        merger.execute(new Runnable() {
+            public void run() {
+                mergeSegments();
+            }
+        });
+    }
+
+    /**
+     * Merges runs of MERGE_FACTOR adjacent segments until there are none to merge, publishing
+     * a snapshot after every merge. Only ever runs on the merge thread. Adding documents only appends
+     * segments, but updateDocuments replaces or drops the segments it removes documents from, so a merge
+     * is only published if the segments it merged are still in the snapshot, and redone otherwise.
+     */
+    private void mergeSegments() {
+        while (true) {
+            PersonalSearchEngine[] segments = snapshot.segments;
+            int start = mergeableRun(segments);
+            if (start < 0) {
+                return;
+            }
+            PersonalSearchEngine merged = new PersonalSearchEngine(metrics);
+            for (int s = start; s < start + MERGE_FACTOR; s++) {
+                merged.appendIndex(segments[s]);
+            }
+            synchronized (publishLock) {
+                PersonalSearchEngine[] current = snapshot.segments;
+                int at = Arrays.asList(current).indexOf(segments[start]);
+                if (at < 0 || at + MERGE_FACTOR > current.length
+                        || !Arrays.equals(Arrays.copyOfRange(current, at, at + MERGE_FACTOR),
+                                          Arrays.copyOfRange(segments, start, start + MERGE_FACTOR))) {
+                    continue;
+                }
+                PersonalSearchEngine[] published = new PersonalSearchEngine[current.length - MERGE_FACTOR + 1];
+                System.arraycopy(current, 0, published, 0, at);
+                published[at] = merged;
+                System.arraycopy(current, at + MERGE_FACTOR, published, at + 1,
+                        current.length - at - MERGE_FACTOR);
+                // merging does not change search results, so cached ones stay valid
+                snapshot = new Snapshot(published, snapshot.version);
+            }
+        }
+    }
+
+    /**
+     * @return Position of the first run of MERGE_FACTOR adjacent segments to merge, or -1
+     */
+    private static int mergeableRun(PersonalSearchEngine[] segments) {
+        int start = 0;
+        while (start < segments.length) {
+            // the run of segments from start to the last one of the largest class among the rest
+            int largest = -1;
+            int end = start;
+            for (int s = start; s < segments.length; s++) {
+                int size = sizeClass(segments[s]);
+                if (size >= largest) {
+                    largest = size;
+                    end = s;
+                }
+            }
+            if (end - start + 1 >= MERGE_FACTOR) {
+                return start;
+            }
+            start = end + 1;
+        }
+        return -1;
+    }
+
+    private static int sizeClass(PersonalSearchEngine segment) {
+        int size = 0;
+        for (int documents = segment.documentCount(); documents >= MERGE_FACTOR; documents /= MERGE_FACTOR) {
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * Waits until the background merges that are due have been done. Searches never need to, this is for
+     * measuring and testing.
+     */
+    void awaitMerges() throws InterruptedException {
+        try {
+            merger.submit(new Runnable() {
+                public void run() {
+                    // runs after every merge queued before it
+                }
+            }).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Top-K search on the current snapshot, see PersonalSearchEngine.search.
+     *
+     * @param query Keywords, operator and number of results
+     * @return Up to K best matching documents with their scores, best first. Empty if nothing matches.
+     * @throws IllegalStateException For a PHRASE or NEAR query on an index without positions
+     */
+    public ArrayList<SearchResult> search(Query query) {
+        long start = System.nanoTime();
+        try {
+            return evaluate(query);
+        } finally {
+            metrics.search.record(System.nanoTime() - start);
+        }
+    }
+
+    private ArrayList<SearchResult> evaluate(Query query) {
+        Snapshot current = snapshot;
+        Scorer scorer = this.scorer;
+        QueryCache cache = queryCache;
+        if (cache != null) {
+            ArrayList<SearchResult> cached = cache.search(this, query, scorer, current.version);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        PersonalSearchEngine[] segments = current.segments;
+        // keyword patterns expand to the same keywords in every segment
+        String[][] terms = PersonalSearchEngine.expand(segments, query.keywords);
+        int[] documentFrequencies = new int[query.keywords.length];
+        for (PersonalSearchEngine segment : segments) {
+            for (int t = 0; t < documentFrequencies.length; t++) {
+                documentFrequencies[t] += segment.documentFrequency(terms[t]);
+            }
+        }
+        PartialResults[] results = new PartialResults[segments.length];
+        for (int s = 0; s < segments.length; s++) {
+            QueryEvaluator evaluator = segments[s].evaluator(query, terms);
+            evaluator.collectionStatistics(current.documentCount, documentFrequencies);
+            evaluator.scoreWith(scorer, segments[s].documentLengths(), current.averageLength);
+            results[s] = new PartialResults(segments[s], evaluator, current.bases[s], 1);
+        }
+        ArrayList<SearchResult> merged = PartialResults.results(results, query.k);
+        if (cache != null) {
+            cache.putSearch(this, query, scorer, current.version, merged);
+        }
+        return merged;
+    }
+
+    /**
+     * top5search on the current snapshot, see PersonalSearchEngine.top5search.
+     *
+     * @param kw1 First keyword
+     * @param kw2 Second keyword
+     * @return Up to 5 documents in which either kw1 or kw2 occurs, or null if neither is in the index
+     */
+    public ArrayList<String> top5search(String kw1, String kw2) {
+        long start = System.nanoTime();
+        try {
+            return topSearch(kw1, kw2);
+        } finally {
+            metrics.top5search.record(System.nanoTime() - start);
+        }
+    }
+
+    private ArrayList<String> topSearch(String kw1, String kw2) {
+        Snapshot current = snapshot;
+        QueryCache cache = queryCache;
+        if (cache != null) {
+            ArrayList<String> cached = cache.top5search(this, kw1, kw2, current.version);
+            if (cached != null) {
+                return cached.isEmpty() ? null : cached;
+            }
+        }
+        PersonalSearchEngine[] segments = current.segments;
+        String[][] terms = PersonalSearchEngine.expand(segments, kw1, kw2);
+        PartialResults[] results = new PartialResults[segments.length];
+        boolean found = false;
+        for (int s = 0; s < segments.length; s++) {
+            QueryEvaluator evaluator = segments[s].topEvaluator(terms);
+            if (evaluator != null) {
+                results[s] = new PartialResults(segments[s], evaluator, current.bases[s], 1);
+                found = true;
+            }
+        }
+        ArrayList<String> names = found ? PartialResults.names(results, 5) : null;
+        if (cache != null) {
+            cache.putTop5search(this, kw1, kw2, current.version, names);
+        }
+        return names;
+    }
+
+    /**
+     * Writes the current snapshot to a segment file, which PersonalSearchEngine.openIndex and loadIndex can
+     * read. Documents can be added meanwhile, they are not in the file.
+     *
+     * @param indexFile Name of the segment file to write
+     * @throws IOException If the file cannot be written
+     */
+    public void saveIndex(String indexFile) throws IOException {
+        PersonalSearchEngine whole = new PersonalSearchEngine();
+        for (PersonalSearchEngine segment : snapshot.segments) {
+            whole.appendIndex(segment);
+        }
+        whole.saveIndex(indexFile);
+    }
+
+    /**
+     * Metrics of the engine, see PersonalSearchEngine.metrics. Merges of segments count in the merge stage,
+     * and the index gauges sum up the segments searches currently see.
+     *
+     * @return Metrics, recorded from the start
+     */
+    public Metrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * @return Number of documents searches currently see
+     */
+    public int documentCount() {
+        return snapshot.documentCount;
+    }
+
+    /**
+     * @return Number of segments searches currently read
+     */
+    public int segmentCount() {
+        return snapshot.segments.length;
+    }
+
+    /**
+     * Sets the relevance scorer used by search, see PersonalSearchEngine.setScorer.
+     *
+     * @param scorer Scorer
+     */
+    public void setScorer(Scorer scorer) {
+        this.scorer = scorer;
+    }
+
+    /**
+     * Puts a cache of search results in front of search and top5search, see
+     * PersonalSearchEngine.setQueryCache. Merging segments does not change search results, so only adding,
+     * updating and removing documents makes the cache miss.
+     *
+     * @param queryCache Cache, or null for none
+     */
+    public void setQueryCache(QueryCache queryCache) {
+        this.queryCache = queryCache;
+    }
+
+    /**
+     * Makes documents added from now on record word positions, see PersonalSearchEngine.setPositional.
+     * PHRASE and NEAR queries need every document to have them.
+     *
+     * @param positional Whether to record positions
+     */
+    public void setPositional(boolean positional) {
+        this.positional = positional;
+    }
+
+    /**
+     * Sets the OCR backend for documents added from now on, see PersonalSearchEngine.setOcrEngine.
+     *
+     * @param ocrEngine OCR backend, or null for OCRManager's default
+     */
+    public void setOcrEngine(OcrEngine ocrEngine) {
+        this.ocrEngine = ocrEngine;
+    }
+
+    /**
+     * Sets the charset of text documents added from now on, see PersonalSearchEngine.setCharset.
+     *
+     * @param charset Charset of the text documents
+     */
+    public void setCharset(Charset charset) {
+        this.charset = charset;
+    }
+
+    /**
+     * Immutable list of segments, with the statistics of the whole index. Document i of segment s is
+     * document bases[s] + i of the index.
+     */
+    private static final class Snapshot {
+
+        final PersonalSearchEngine[] segments;
+
+        /**
+         * Number of changes to the documents so far, the version search results are cached with.
+         */
+        final long version;
+
+        final int[] bases;
+
+        final int documentCount;
+
+        final double averageLength;
+
+        Snapshot(PersonalSearchEngine[] segments, long version) {
+            this.segments = segments;
+            this.version = version;
+            bases = new int[segments.length];
+            int count = 0;
+            long totalLength = 0;
+            for (int s = 0; s < segments.length; s++) {
+                bases[s] = count;
+                count += segments[s].documentCount();
+                totalLength += segments[s].totalDocumentLength();
+            }
+            documentCount = count;
+            averageLength = count == 0 ? 0 : (double) totalLength / count;
+        }
+    }
+}
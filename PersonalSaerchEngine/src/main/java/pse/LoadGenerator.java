@@ -0,0 +1,245 @@
+package pse;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load generator for SearchServer, to measure queries per second and tail latency on localhost.
+ *
+ *   java pse.LoadGenerator queries.txt [-url http://localhost:8080] [-threads 8] [-seconds 30]
+ *        [-warmup 5] [-operator OR] [-k 10] [-batch 0]
+ *
+ * Every line of the queries file is the keywords of a query. Each of the threads sends queries back to back,
+ * cycling through the file from a different line, for the warmup and then for the measured seconds: a
+ * closed loop, so the offered load adapts to the server and the latencies are those of a saturated server
+ * with as many concurrent clients as threads. With -batch n, every request is a POST to /search/batch with
+ * n queries, otherwise a GET to /search. Connections are kept alive between requests.
+ *
+ * Prints the number of requests and queries, queries per second, and request latency percentiles from a
+ * Metrics.Histogram. Requests that fail or get an error status are counted and not timed.
+ */
+public class LoadGenerator {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("usage: LoadGenerator queries.txt [-url http://localhost:8080] [-threads 8]"
+                    + " [-seconds 30] [-warmup 5] [-operator OR] [-k 10] [-batch 0]");
+            System.exit(2);
+        }
+        String url = "http://localhost:8080";
+        int threads = 8;
+        int seconds = 30;
+        int warmup = 5;
+        String operator = "OR";
+        int k = 10;
+        int batch = 0;
+        for (int i = 1; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            if (args[i].equals("-url")) {
+                url = value;
+            } else if (args[i].equals("-threads")) {
+                threads = Integer.parseInt(value);
+            } else if (args[i].equals("-seconds")) {
+                seconds = Integer.parseInt(value);
+            } else if (args[i].equals("-warmup")) {
+                warmup = Integer.parseInt(value);
+            } else if (args[i].equals("-operator")) {
+                operator = value;
+            } else if (args[i].equals("-k")) {
+                k = Integer.parseInt(value);
+            } else if (args[i].equals("-batch")) {
+                batch = Integer.parseInt(value);
+            } else {
+                throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        ArrayList<String[]> queries = readQueries(args[0]);
+        if (queries.isEmpty()) {
+            throw new IllegalArgumentException("No queries in " + args[0]);
+        }
+        Result result = run(url, queries, operator, k, batch, threads, warmup, seconds);
+        System.out.println(result);
+    }
+
+    /**
+     * @return Keywords of every non-empty line of a queries file
+     */
+    static ArrayList<String[]> readQueries(String file) throws IOException {
+        ArrayList<String[]> queries = new ArrayList<String[]>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file),
+                StandardCharsets.UTF_8));
+        try {
+            for (String line; (line = reader.readLine()) != null; ) {
+                line = line.trim();
+                if (!line.isEmpty()) {
+                    queries.add(line.split("\\s+"));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return queries;
+    }
+
+    /**
+     * Runs a load test, see the class comment.
+     *
+     * @param url Base URL of the server
+     * @param queries Keywords of the queries
+     * @param operator Operator of every query
+     * @param k Number of results of every query
+     * @param batch Number of queries per batch request, 0 to send single queries
+     * @param threads Number of concurrent clients
+     * @param warmup Seconds of load before the measurement
+     * @param seconds Seconds of measured load
+     * @return Measurement
+     */
+    static Result run(final String url, final ArrayList<String[]> queries, final String operator, final int k,
+                      final int batch, int threads, int warmup, int seconds) throws InterruptedException {
+        final Result result = new Result(batch);
+        final AtomicBoolean measuring = new AtomicBoolean();
+        final AtomicBoolean stopped = new AtomicBoolean();
+        Thread[] clients = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int first = (int) ((long) t * queries.size() / threads);
+            clients[t] = new Thread(new Runnable() {
+                public void run() {
+                    int next = first;
+                    while (!stopped.get()) {
+                        long start = System.nanoTime();
+                        boolean ok;
+                        if (batch > 0) {
+                            StringBuilder body = new StringBuilder("{\"queries\":[");
+                            for (int q = 0; q < batch; q++) {
+                                appendQuery(body.append(q > 0 ? "," : ""), queries.get(next), operator, k);
+                                next = (next + 1) % queries.size();
+                            }
+                            ok = send(url + "/search/batch", body.append("]}").toString());
+                        } else {
+                            ok = send(searchUrl(url, queries.get(next), operator, k), null);
+                            next = (next + 1) % queries.size();
+                        }
+                        if (measuring.get() && !stopped.get()) {
+                            if (ok) {
+                                result.latencies.record(System.nanoTime() - start);
+                            } else {
+                                result.errors.incrementAndGet();
+                            }
+                        }
+                    }
+                }
+            }, "pse-load-" + t);
+            clients[t].start();
+        }
+        Thread.sleep(warmup * 1000L);
+        measuring.set(true);
+        long start = System.nanoTime();
+        Thread.sleep(seconds * 1000L);
+        stopped.set(true);
+        result.nanos = System.nanoTime() - start;
+        for (Thread client : clients) {
+            client.join();
+        }
+        return result;
+    }
+
+    private static String searchUrl(String url, String[] keywords, String operator, int k) {
+        StringBuilder q = new StringBuilder();
+        for (String keyword : keywords) {
+            q.append(q.length() > 0 ? " " : "").append(keyword);
+        }
+        try {
+            return url + "/search?q=" + URLEncoder.encode(q.toString(), "UTF-8") + "&operator=" + operator
+                    + "&k=" + k;
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void appendQuery(StringBuilder json, String[] keywords, String operator, int k) {
+        json.append("{\"keywords\":[");
+        for (int i = 0; i < keywords.length; i++) {
+            Json.quote(json.append(i > 0 ? "," : ""), keywords[i]);
+        }
+        Json.quote(json.append("],\"operator\":"), operator).append(",\"k\":").append(k).append('}');
+    }
+
+    /**
+     * Sends a request and reads the whole response, so that the connection can be reused.
+     *
+     * @param body Body of a POST, null for a GET
+     * @return Whether the server answered 200
+     */
+    private static boolean send(String url, String body) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+            if (body != null) {
+                byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+                connection.setRequestMethod("POST");
+                connection.setDoOutput(true);
+                connection.setFixedLengthStreamingMode(bytes.length);
+                connection.setRequestProperty("Content-Type", "application/json");
+                OutputStream out = connection.getOutputStream();
+                out.write(bytes);
+                out.close();
+            }
+            int status = connection.getResponseCode();
+            InputStream in = status == 200 ? connection.getInputStream() : connection.getErrorStream();
+            if (in != null) {
+                byte[] buffer = new byte[8192];
+                while (in.read(buffer) > 0) {
+                }
+                in.close();
+            }
+            return status == 200;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Measurement of a load test.
+     */
+    static final class Result {
+
+        /**
+         * Latencies of the successful requests, in nanoseconds.
+         */
+        final Metrics.Histogram latencies = new Metrics.Histogram();
+
+        final AtomicLong errors = new AtomicLong();
+
+        /**
+         * Queries per request.
+         */
+        final int batch;
+
+        long nanos;
+
+        Result(int batch) {
+            this.batch = batch;
+        }
+
+        /**
+         * @return Successful queries per second
+         */
+        double queriesPerSecond() {
+            return latencies.count() * (double) Math.max(batch, 1) / (nanos / 1e9);
+        }
+
+        public String toString() {
+            return String.format("requests=%d queries=%d errors=%d seconds=%.1f qps=%.0f"
+                            + " latency us: mean=%.0f p50=%.0f p90=%.0f p99=%.0f p99.9=%.0f max=%.0f",
+                    latencies.count(), latencies.count() * Math.max(batch, 1), errors.get(), nanos / 1e9,
+                    queriesPerSecond(), latencies.mean() / 1e3, latencies.percentile(0.5) / 1e3,
+                    latencies.percentile(0.9) / 1e3, latencies.percentile(0.99) / 1e3,
+                    latencies.percentile(0.999) / 1e3, latencies.max() / 1e3);
+        }
+    }
+}
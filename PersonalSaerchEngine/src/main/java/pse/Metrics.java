@@ -0,0 +1,382 @@
+package pse;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * Counters and latency histograms of indexing and search, cheap enough to always be on: recording is a
+ * System.nanoTime() call and a few uncontended atomic adds, and nothing is allocated.
+ *
+ * Indexing is split in stages: OCR of a page, rendering of a PDF page, extraction of a PDF page's text layer,
+ * tokenization of a document, and merging of documents into the index. Each stage counts its items (pages
+ * or documents), their bytes and the time spent in it, summed over all threads, so its rate is the
+ * throughput of one thread in that stage. The time to load each document (read or OCR it, and tokenize it)
+ * goes into a histogram, as do search, top5search and search batch latencies. Index gauges (size of the
+ * index, and a histogram of posting list lengths) are taken when the engine finishes building, updating or
+ * opening an index.
+ *
+ * All values can be read at once with snapshot(), which JMX (see register) and reporters (see
+ * startReporting) both use.
+ */
+public class Metrics {
+
+    /**
+     * Per-stage counters, see the class comment.
+     */
+    public final Stage ocr = new Stage();
+
+    public final Stage pdfRender = new Stage();
+
+    public final Stage pdfText = new Stage();
+
+    public final Stage tokenize = new Stage();
+
+    public final Stage merge = new Stage();
+
+    /**
+     * Snippets cut for search results from the document store, see PersonalSearchEngine.setDocumentStore.
+     */
+    public final Stage snippets = new Stage();
+
+    /**
+     * OCR attempts that failed and were retried, and pages that still failed after the last attempt.
+     */
+    final LongAdder ocrRetries = new LongAdder();
+
+    final LongAdder ocrFailures = new LongAdder();
+
+    /**
+     * Batches of changes a DocumentWatcher failed to index and retried one document at a time, and documents
+     * that failed again.
+     */
+    final LongAdder watchRetries = new LongAdder();
+
+    final LongAdder watchFailures = new LongAdder();
+
+    /**
+     * Time to load each document, in nanoseconds.
+     */
+    public final Histogram documents = new Histogram();
+
+    /**
+     * Latencies of search and top5search, in nanoseconds, cache hits included.
+     */
+    public final Histogram search = new Histogram();
+
+    public final Histogram top5search = new Histogram();
+
+    /**
+     * Latencies of whole query batches (see PersonalSearchEngine.search(List)), in nanoseconds.
+     */
+    public final Histogram searchBatch = new Histogram();
+
+    private volatile IndexGauges index;
+
+    /**
+     * Sets where the index gauges come from.
+     */
+    void index(IndexGauges index) {
+        this.index = index;
+    }
+
+    /**
+     * @return All metrics by name, e.g. "ocr.count" or "search.p99Micros"
+     */
+    public SortedMap<String,Number> snapshot() {
+        TreeMap<String,Number> values = new TreeMap<String,Number>();
+        ocr.addTo(values, "ocr");
+        pdfRender.addTo(values, "pdfRender");
+        pdfText.addTo(values, "pdfText");
+        tokenize.addTo(values, "tokenize");
+        merge.addTo(values, "merge");
+        snippets.addTo(values, "snippets");
+        values.put("ocr.retries", ocrRetries.sum());
+        values.put("ocr.failures", ocrFailures.sum());
+        values.put("watch.retries", watchRetries.sum());
+        values.put("watch.failures", watchFailures.sum());
+        documents.addTo(values, "documents", 1e6, "Millis");
+        search.addTo(values, "search", 1e3, "Micros");
+        top5search.addTo(values, "top5search", 1e3, "Micros");
+        searchBatch.addTo(values, "searchBatch", 1e3, "Micros");
+        IndexGauges source = index;
+        IndexSample sample = source != null ? source.sample() : null;
+        if (sample == null) {
+            sample = new IndexSample();
+        }
+        values.put("index.documents", sample.documents);
+        values.put("index.terms", sample.terms);
+        values.put("index.postings", sample.postings);
+        values.put("index.heapBytes", sample.heapBytes);
+        values.put("index.mappedBytes", sample.mappedBytes);
+        sample.postingListLengths.addTo(values, "index.postingListLength", 1, "");
+        return values;
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server, where JMX clients such as jconsole find them as
+     * read-only attributes named like the snapshot keys.
+     *
+     * @param name Object name, e.g. "pse:type=PersonalSearchEngine"
+     * @return Registered name
+     * @throws JMException If the name is invalid or already registered
+     */
+    public ObjectName register(String name) throws JMException {
+        ObjectName objectName = new ObjectName(name);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(this), objectName);
+        return objectName;
+    }
+
+    /**
+     * Hands a snapshot to a reporter periodically, on a daemon thread, until the returned handle is closed.
+     * A reporter that throws is not called again.
+     *
+     * @param reporter Reporter
+     * @param period Time between reports
+     * @param unit Unit of the period
+     * @return Handle that stops the reports
+     */
+    public Closeable startReporting(final MetricsReporter reporter, long period, TimeUnit unit) {
+        final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "metrics-reporter");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        timer.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                reporter.report(snapshot());
+            }
+        }, period, period, unit);
+        return new Closeable() {
+            public void close() {
+                timer.shutdownNow();
+            }
+        };
+    }
+
+    /**
+     * Items, bytes and time of an indexing stage.
+     */
+    public static final class Stage {
+
+        private final LongAdder count = new LongAdder();
+
+        private final LongAdder bytes = new LongAdder();
+
+        private final LongAdder nanos = new LongAdder();
+
+        /**
+         * Records work done in the stage.
+         *
+         * @param nanos Time spent
+         * @param count Number of items (pages or documents) done, 0 for part of an item
+         * @param bytes Number of bytes processed
+         */
+        public void record(long nanos, long count, long bytes) {
+            this.nanos.add(nanos);
+            if (count != 0) {
+                this.count.add(count);
+            }
+            if (bytes != 0) {
+                this.bytes.add(bytes);
+            }
+        }
+
+        public long count() {
+            return count.sum();
+        }
+
+        public long bytes() {
+            return bytes.sum();
+        }
+
+        public long nanos() {
+            return nanos.sum();
+        }
+
+        void addTo(SortedMap<String,Number> values, String name) {
+            long n = count.sum();
+            long b = bytes.sum();
+            double seconds = nanos.sum() / 1e9;
+            values.put(name + ".count", n);
+            values.put(name + ".bytes", b);
+            values.put(name + ".seconds", seconds);
+            values.put(name + ".perSecond", seconds == 0 ? 0 : n / seconds);
+            values.put(name + ".bytesPerSecond", seconds == 0 ? 0 : b / seconds);
+        }
+    }
+
+    /**
+     * Histogram of non-negative values, such as latencies in nanoseconds, in log-linear buckets: exact below
+     * 16, and 8 buckets per power of two above, so percentiles are within 12.5%. Recording is lock-free.
+     */
+    public static final class Histogram {
+
+        private static final int SUB_BUCKETS = 8;
+
+        private static final int LINEAR = 16;
+
+        private static final int BUCKETS = LINEAR + (63 - 4) * SUB_BUCKETS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+        private final LongAdder count = new LongAdder();
+
+        private final LongAdder sum = new LongAdder();
+
+        private final LongAccumulator max = new LongAccumulator(new LongBinaryOperator() {
+            public long applyAsLong(long left, long right) {
+                return Math.max(left, right);
+            }
+        }, 0);
+
+        /**
+         * @param value Value, negative values count as 0
+         */
+        public void record(long value) {
+            value = Math.max(value, 0);
+            buckets.incrementAndGet(bucket(value));
+            count.increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        /**
+         * Adds all values of another histogram to this one.
+         */
+        void add(Histogram other) {
+            for (int b = 0; b < BUCKETS; b++) {
+                long n = other.buckets.get(b);
+                if (n != 0) {
+                    buckets.addAndGet(b, n);
+                }
+            }
+            count.add(other.count.sum());
+            sum.add(other.sum.sum());
+            max.accumulate(other.max.get());
+        }
+
+        public long count() {
+            return count.sum();
+        }
+
+        public long max() {
+            return max.get();
+        }
+
+        public double mean() {
+            long n = count.sum();
+            return n == 0 ? 0 : (double) sum.sum() / n;
+        }
+
+        /**
+         * @param quantile Quantile, e.g. 0.99
+         * @return Upper bound of the bucket of the value at the quantile, at most the maximum; 0 if empty
+         */
+        public long percentile(double quantile) {
+            long n = 0;
+            long[] counts = new long[BUCKETS];
+            for (int b = 0; b < BUCKETS; b++) {
+                counts[b] = buckets.get(b);
+                n += counts[b];
+            }
+            if (n == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * n));
+            long seen = 0;
+            for (int b = 0; b < BUCKETS; b++) {
+                seen += counts[b];
+                if (seen >= rank) {
+                    return Math.min(upperBound(b), max.get());
+                }
+            }
+            return max.get();
+        }
+
+        private static int bucket(long value) {
+            if (value < LINEAR) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exponent - 3)) & (SUB_BUCKETS - 1);
+            return LINEAR + (exponent - 4) * SUB_BUCKETS + sub;
+        }
+
+        private static long upperBound(int bucket) {
+            if (bucket < LINEAR) {
+                return bucket;
+            }
+            int exponent = (bucket - LINEAR) / SUB_BUCKETS + 4;
+            long sub = (bucket - LINEAR) % SUB_BUCKETS;
+            long lower = (SUB_BUCKETS + sub) << (exponent - 3);
+            return lower + (1L << (exponent - 3)) - 1;
+        }
+
+        void addTo(SortedMap<String,Number> values, String name, double scale, String unit) {
+            values.put(name + ".count", count());
+            values.put(name + ".p50" + unit, percentile(0.5) / scale);
+            values.put(name + ".p90" + unit, percentile(0.9) / scale);
+            values.put(name + ".p99" + unit, percentile(0.99) / scale);
+            values.put(name + ".max" + unit, max() / scale);
+            values.put(name + ".mean" + unit, mean() / scale);
+        }
+    }
+
+    /**
+     * Source of the index gauges.
+     */
+    interface IndexGauges {
+
+        /**
+         * @return Latest sample of the index, or null if there is none yet
+         */
+        IndexSample sample();
+    }
+
+    /**
+     * Size of an index at some point. Never changed once it is published.
+     */
+    static final class IndexSample {
+
+        long documents;
+
+        long terms;
+
+        long postings;
+
+        /**
+         * Estimated heap size of the posting lists and the document table.
+         */
+        long heapBytes;
+
+        /**
+         * Size of the memory-mapped segment file, 0 for an index on the heap.
+         */
+        long mappedBytes;
+
+        final Histogram postingListLengths = new Histogram();
+
+        /**
+         * Adds another sample, e.g. of another shard, to this one.
+         */
+        void add(IndexSample other) {
+            documents += other.documents;
+            terms += other.terms;
+            postings += other.postings;
+            heapBytes += other.heapBytes;
+            mappedBytes += other.mappedBytes;
+            postingListLengths.add(other.postingListLengths);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package pse;
+
+import javax.management.*;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * Read-only MBean of Metrics, with an attribute per snapshot key. The attribute names are fixed when the
+ * MBean is made, since the snapshot always has the same keys.
+ */
+final class MetricsMBean implements DynamicMBean {
+
+    private final Metrics metrics;
+
+    private final MBeanInfo info;
+
+    MetricsMBean(Metrics metrics) {
+        this.metrics = metrics;
+        SortedMap<String,Number> snapshot = metrics.snapshot();
+        MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[snapshot.size()];
+        int a = 0;
+        for (Map.Entry<String,Number> value : snapshot.entrySet()) {
+            attributes[a++] = new MBeanAttributeInfo(value.getKey(), value.getValue().getClass().getName(),
+                    value.getKey(), true, false, false);
+        }
+        info = new MBeanInfo(Metrics.class.getName(), "Indexing and search metrics", attributes, null, null, null);
+    }
+
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Number value = metrics.snapshot().get(attribute);
+        if (value == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return value;
+    }
+
+    public AttributeList getAttributes(String[] attributes) {
+        SortedMap<String,Number> snapshot = metrics.snapshot();
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            Number value = snapshot.get(attribute);
+            if (value != null) {
+                list.add(new Attribute(attribute, value));
+            }
+        }
+        return list;
+    }
+
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+    }
+
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    public MBeanInfo getMBeanInfo() {
+        return info;
+    }
+}
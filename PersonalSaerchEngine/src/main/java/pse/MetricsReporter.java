@@ -0,0 +1,17 @@
+package pse;
+
+import java.util.SortedMap;
+
+/**
+ * Receives snapshots of Metrics periodically, see Metrics.startReporting, e.g. to log them or to send them to
+ * a monitoring system.
+ */
+public interface MetricsReporter {
+
+    /**
+     * Called on the reporting thread, never concurrently.
+     *
+     * @param metrics All metrics by name
+     */
+    void report(SortedMap<String,Number> metrics);
+}
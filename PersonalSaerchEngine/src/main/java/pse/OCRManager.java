@@ -1,217 +1,334 @@
-package pse;
-import com.algorithmia.Algorithmia;
-import com.algorithmia.AlgorithmiaClient;
-import com.algorithmia.algo.AlgoResponse;
-import com.algorithmia.algo.Algorithm;
-import com.algorithmia.data.DataDirectory;
-import org.apache.pdfbox.pdmodel.PDDocument;
-import org.apache.pdfbox.rendering.ImageType;
-import org.apache.pdfbox.rendering.PDFRenderer;
-import org.apache.pdfbox.tools.imageio.ImageIOUtil;
-
-import java.awt.image.BufferedImage;
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.PrintWriter;
-import java.util.ArrayList;
-import java.util.List;
-
-// import statements
-
-/** Encapsulation of the OCR Mechanism
- *
- *  This class utilizes the Algorithmia API to perform OCR (optical character recognition) on filetypes that normally
- *  would not be supported through the original text document search.
- *
- *  The OCR technology in use is Tesseract and open source engine originally coded in C++ and adapted for use in java
- *
- *  PDF files are processed using PDFBox to convert them page-by-page into .bmp images for use in the Tesseract engine
- *  and ultimately processing by the main search engine
- *
- *  PDFBox and Algorithmia both found on Maven (ver. 2.0.1 and 1.0.10 respectively)
- *
- */
-public class OCRManager {
-    private AlgorithmiaClient client = Algorithmia.client("simPO1tCJsDuDuhZsDpMpAT0CdA1");
-
-    /**
-     * driving function of class
-     * @param filename
-     */
-    public void manage(String filename){
-    upload(filename);
-    String input = "data://salali/test/" + filename;
-    Algorithm algo = client.algo("ocr/RecognizeCharacters/0.3.0");
-    try{
-    AlgoResponse result = algo.pipe(input);
-        //System.out.println(result);
-         try{ // System.out.println(result.asString());
-             write2File(result.asString(), filename);
-             System.out.println("success");
-             return;
-         }catch (com.algorithmia.AlgorithmException re) {
-        System.out.println(re.toString());
-    }
-        } catch (com.algorithmia.APIException e){
-        System.out.println("api exception");
-    }
-
-        System.out.println( "failure" );
-    }
-
-    /**
-     * utrilization of method overloading to manage PDF input
-     * @param PDFList
-     * @param filename
-     */
-    public void manage(List<String> PDFList, String filename){
-        StringBuilder finalwrite = new StringBuilder();
-        for(String s : PDFList){
-            upload(s);
-            Algorithm algo = client.algo("ocr/RecognizeCharacters/0.3.0");
-            try{
-                AlgoResponse result = algo.pipe("data://salali/test/" + s);
-                //System.out.println(result);
-                try{ // System.out.println(result.asString());
-                    finalwrite.append(result.asString());
-              
-                }catch (com.algorithmia.AlgorithmException re) {
-                    System.out.println(re.toString());
-                }
-            } catch (com.algorithmia.APIException e){
-                System.out.println("api exception");
-            }
-
-
-        }
-        write2File(finalwrite.toString(), filename);
-    }
-
-    /**
-     * manages exporting document into Algorithmia database for ease of access
-     * @param filename
-     */
-    private void upload(String filename){
-        DataDirectory dir = client.dir("data://salali/test");
-        try {
-            String local_file =  filename;
-            try{
-            dir.putFile(new File(local_file));
-            } catch (com.algorithmia.APIException re){
-                System.out.println("api excception");
-            }
-        } catch (FileNotFoundException  e) {
-            e.printStackTrace();
-        }
-    }
-
-    /**
-     * as implied, writes OCR text to text document to be sent back into main pse implementation
-     * @param managed
-     * @param filename
-     */
-    private void write2File(String managed, String filename) {
-        int s = filename.length();
-        if (s < 4) {
-            System.out.println("failure ");
-            return;
-        }
-
-        filename = filename.substring(0, s - 4) + ".txt";
-
-
-        try {
-            try {
-                PrintWriter writer = new PrintWriter(filename, "UTF-8");
-                writer.println(managed);
-                writer.close();
-            } catch (java.io.FileNotFoundException x) {
-                x.printStackTrace();
-            }
-        } catch (java.io.UnsupportedEncodingException u) {
-            u.printStackTrace();
-        }
-    }
-
-    /**
-     * manages incoming PDF file for use in the main function, as labelled, converts pdf to friendly file format of
-     * choice and returns file paths
-     *
-     * @param filename
-     * @return
-     */
-    public List<String> convertPDFtoImages(String filename){
-        ArrayList<String> filePaths = new ArrayList<String>();
-        try {
-            PDDocument doc = PDDocument.load(new File(filename));
-            //System.out.println(doc.getNumberOfPages());
-            //System.out.println("we got here");
-//            List<BufferedImage> images = getImagesFromPDF(doc);
-//            //System.out.println("issues?");
-//            int count = 0;
-//            // System.out.println(images.size());
-//            for(BufferedImage image : images){
-//
-//              //  System.out.println("we got here");
-//                String outputfile = filename.substring(0, filename.length() -4) + count + ".jpg";
-//                System.out.println("here?");
-//              //  ImageIO.write(image, "jpg", new File(outputfile));
-//                filePaths.add(filename + count + ".jpg");
-//              //  System.out.println(filePaths.size());
-//                count++; deprecated code
-            PDFRenderer pdfRenderer = new PDFRenderer(doc);
-            for (int page = 0; page < doc.getNumberOfPages(); ++page)
-            {
-                BufferedImage bim = pdfRenderer.renderImageWithDPI(page, 300, ImageType.RGB);
-
-                // suffix in filename will be used as the file format
-                ImageIOUtil.writeImage(bim, filename.substring(0, filename.length() - 4)
-                        + "-" + (page+1) + ".png", 300);
-                filePaths.add(filename.substring(0, filename.length() -4) + "-" + (page+1) + ".png");
-            }
-            doc.close();
-
-
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-
-            return filePaths;
-    }
-
-//    /**
-//     * recursively traces  PDF for all relevant images to write to document, order and sorting are irrelevant for
-//     * purposes of this search engine and therefore ignored
-//     *
-//     * @param document
-//     * @return
-//     * @throws IOException
-//     */
-//    private List<BufferedImage> getImagesFromPDF(PDDocument document) throws IOException {
-//       // System.out.println("works");
-//        List<BufferedImage> images = new ArrayList<BufferedImage>();
-//        for (PDPage page : document.getPages()) {
-//            images.addAll(getImagesFromResources(page.getResources()));
-//        }
-//        //System.out.println(images.size());
-//        return images;
-//    }
-//
-//    private List<BufferedImage> getImagesFromResources(PDResources resources) throws IOException {
-//        List<BufferedImage> images = new ArrayList<BufferedImage>();
-//
-//        for (COSName xObjectName : resources.getXObjectNames()) {
-//            PDXObject xObject = resources.getXObject(xObjectName);
-//
-//            if (xObject instanceof PDFormXObject) {
-//                images.addAll(getImagesFromResources(((PDFormXObject) xObject).getResources()));
-//            } else if (xObject instanceof PDImageXObject) {
-//                images.add(((PDImageXObject) xObject).getImage());
-//            }
-//        }
-//        //System.out.println(images.size());
-//
-//        return images;
-//    } deprecated code not in use
-
-}
+package pse;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.apache.pdfbox.tools.imageio.ImageIOUtil;
+
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// import statements
+
+/** Encapsulation of the OCR Mechanism
+ *
+ *  This class utilizes the Algorithmia API to perform OCR (optical character recognition) on filetypes that normally
+ *  would not be supported through the original text document search.
+ *
+ *  The OCR technology in use is Tesseract and open source engine originally coded in C++ and adapted for use in java
+ *
+ *  PDF files are processed using PDFBox to convert them page-by-page into .bmp images for use in the Tesseract engine
+ *  and ultimately processing by the main search engine
+ *
+ *  PDFBox and Algorithmia both found on Maven (ver. 2.0.1 and 1.0.10 respectively)
+ *
+ *  The OCR itself is done by an OcrEngine (Algorithmia by default, or Tesseract in process through
+ *  TesseractOcrEngine, optionally behind a CachingOcrEngine), through an OcrScheduler that recognizes
+ *  the pages of a PDF concurrently and retries failed pages
+ *
+ *  manage(filename, consumer) is the streamed form used by the search engine: PDF pages are rendered in memory,
+ *  without intermediate image files, while the pages before them are recognized, and pages that have a text
+ *  layer are not rendered at all
+ *
+ */
+public class OCRManager {
+    private static final String ALGORITHMIA_KEY = "simPO1tCJsDuDuhZsDpMpAT0CdA1";
+
+    /**
+     * Default number of pages sent to the OCR backend at the same time.
+     */
+    public static final int DEFAULT_IN_FLIGHT = 8;
+
+    private final OcrScheduler scheduler;
+
+    private final Metrics metrics;
+
+    /**
+     * OCR through Algorithmia.
+     */
+    public OCRManager() {
+        this(algorithmiaEngine(), DEFAULT_IN_FLIGHT);
+    }
+
+    /**
+     * OCR through the given backend. Failed pages are tried up to 4 times, starting with a half second backoff.
+     *
+     * @param engine OCR backend
+     * @param maxInFlight Maximum number of pages being recognized at the same time
+     */
+    public OCRManager(OcrEngine engine, int maxInFlight) {
+        this(engine, maxInFlight, new Metrics());
+    }
+
+    /**
+     * OCR through the given backend, recording the pages in the given metrics: OCR attempts, and the text
+     * extraction and rendering of PDF pages.
+     *
+     * @param engine OCR backend
+     * @param maxInFlight Maximum number of pages being recognized at the same time
+     * @param metrics Metrics to record in
+     */
+    public OCRManager(OcrEngine engine, int maxInFlight, Metrics metrics) {
+        scheduler = new OcrScheduler(engine, maxInFlight, 4, 500, metrics);
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return The default OCR backend, Algorithmia with this project's key
+     */
+    public static OcrEngine algorithmiaEngine() {
+        return new AlgorithmiaOcrEngine(ALGORITHMIA_KEY);
+    }
+
+    /**
+     * driving function of class
+     * @param filename
+     * @throws UncheckedIOException if the image cannot be read or recognized
+     */
+    public void manage(String filename){
+        manage(Collections.singletonList(filename), filename);
+    }
+
+    /**
+     * Streams the text of a PDF or image, page by page, to a consumer, and writes it to the .txt file next to
+     * the document as well. PDF pages that have a text layer are extracted with PDFBox. The other pages are
+     * rendered in memory as gray scale PNGs, and recognized concurrently while the next pages render. Only
+     * a few pages are held in memory at any time, see OcrScheduler.recognize.
+     *
+     * @param filename PDF or image file
+     * @param consumer Consumer of the page texts, in page order
+     * @throws IOException If the document cannot be read, or a page cannot be recognized
+     */
+    public void manage(String filename, final OcrScheduler.PageConsumer consumer) throws IOException {
+        File document = new File(filename);
+        if (!document.isFile()) {
+            throw new FileNotFoundException("Failed to find file: " + document.getAbsolutePath());
+        }
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(DocumentType.textName(filename, DocumentType.IMAGE)), StandardCharsets.UTF_8));
+        try {
+            OcrScheduler.PageConsumer pages = new OcrScheduler.PageConsumer() {
+                public void accept(String text) throws IOException {
+                    writer.write(text);
+                    writer.write('\n');
+                    consumer.accept(text);
+                }
+            };
+            if (DocumentType.of(filename) == DocumentType.PDF) {
+                PDDocument doc = PDDocument.load(document);
+                try {
+                    scheduler.recognize(new PdfPages(doc, filename, metrics), pages);
+                } finally {
+                    doc.close();
+                }
+            } else {
+                for (String text : scheduler.recognizeFiles(Collections.singletonList(filename))) {
+                    pages.accept(text);
+                }
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * utrilization of method overloading to manage PDF input. The pages are recognized concurrently and
+     * written out in page order
+     * @param PDFList
+     * @param filename
+     * @throws UncheckedIOException if a page cannot be read or recognized
+     */
+    public void manage(List<String> PDFList, String filename){
+        StringBuilder finalwrite = new StringBuilder();
+        try {
+            for (String page : scheduler.recognizeFiles(PDFList)) {
+                finalwrite.append(page).append('\n');
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        write2File(finalwrite.toString(), filename);
+    }
+
+    /**
+     * as implied, writes OCR text to text document to be sent back into main pse implementation
+     * @param managed
+     * @param filename
+     */
+    private void write2File(String managed, String filename) {
+        int s = filename.length();
+        if (s < 4) {
+            System.out.println("failure ");
+            return;
+        }
+
+        filename = filename.substring(0, s - 4) + ".txt";
+
+
+        try {
+            try {
+                PrintWriter writer = new PrintWriter(filename, "UTF-8");
+                writer.println(managed);
+                writer.close();
+            } catch (java.io.FileNotFoundException x) {
+                x.printStackTrace();
+            }
+        } catch (java.io.UnsupportedEncodingException u) {
+            u.printStackTrace();
+        }
+    }
+
+    /**
+     * manages incoming PDF file for use in the main function, as labelled, converts pdf to friendly file format of
+     * choice and returns file paths
+     *
+     * @param filename
+     * @return
+     */
+    public List<String> convertPDFtoImages(String filename){
+        ArrayList<String> filePaths = new ArrayList<String>();
+        try {
+            PDDocument doc = PDDocument.load(new File(filename));
+            //System.out.println(doc.getNumberOfPages());
+            //System.out.println("we got here");
+//            List<BufferedImage> images = getImagesFromPDF(doc);
+//            //System.out.println("issues?");
+//            int count = 0;
+//            // System.out.println(images.size());
+//            for(BufferedImage image : images){
+//
+//              //  System.out.println("we got here");
+//                String outputfile = filename.substring(0, filename.length() -4) + count + ".jpg";
+//                System.out.println("here?");
+//              //  ImageIO.write(image, "jpg", new File(outputfile));
+//                filePaths.add(filename + count + ".jpg");
+//              //  System.out.println(filePaths.size());
+//                count++; deprecated code
+            PDFRenderer pdfRenderer = new PDFRenderer(doc);
+            for (int page = 0; page < doc.getNumberOfPages(); ++page)
+            {
+                BufferedImage bim = pdfRenderer.renderImageWithDPI(page, 300, ImageType.RGB);
+
+                // suffix in filename will be used as the file format
+                ImageIOUtil.writeImage(bim, filename.substring(0, filename.length() - 4)
+                        + "-" + (page+1) + ".png", 300);
+                filePaths.add(filename.substring(0, filename.length() -4) + "-" + (page+1) + ".png");
+            }
+            doc.close();
+
+
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+            return filePaths;
+    }
+
+//    /**
+//     * recursively traces  PDF for all relevant images to write to document, order and sorting are irrelevant for
+//     * purposes of this search engine and therefore ignored
+//     *
+//     * @param document
+//     * @return
+//     * @throws IOException
+//     */
+//    private List<BufferedImage> getImagesFromPDF(PDDocument document) throws IOException {
+//       // System.out.println("works");
+//        List<BufferedImage> images = new ArrayList<BufferedImage>();
+//        for (PDPage page : document.getPages()) {
+//            images.addAll(getImagesFromResources(page.getResources()));
+//        }
+//        //System.out.println(images.size());
+//        return images;
+//    }
+//
+//    private List<BufferedImage> getImagesFromResources(PDResources resources) throws IOException {
+//        List<BufferedImage> images = new ArrayList<BufferedImage>();
+//
+//        for (COSName xObjectName : resources.getXObjectNames()) {
+//            PDXObject xObject = resources.getXObject(xObjectName);
+//
+//            if (xObject instanceof PDFormXObject) {
+//                images.addAll(getImagesFromResources(((PDFormXObject) xObject).getResources()));
+//            } else if (xObject instanceof PDImageXObject) {
+//                images.add(((PDImageXObject) xObject).getImage());
+//            }
+//        }
+//        //System.out.println(images.size());
+//
+//        return images;
+//    } deprecated code not in use
+
+    /**
+     * Pages of a PDF for OcrScheduler: the text layer of pages that have one, rendered images of the others.
+     */
+    private static class PdfPages implements OcrScheduler.Pages {
+
+        /**
+         * Resolution pages are rendered at.
+         */
+        private static final int DPI = 300;
+
+        /**
+         * Number of letters a page's text layer needs to be used instead of OCR. Scanned pages may carry a
+         * few words of text, such as a page number or a stamp, that should not stop them from being OCR'd.
+         */
+        private static final int MIN_TEXT_LAYER_LETTERS = 32;
+
+        private final PDDocument document;
+
+        private final String baseName;
+
+        private final PDFRenderer renderer;
+
+        private final PDFTextStripper stripper;
+
+        private final Metrics metrics;
+
+        PdfPages(PDDocument document, String filename, Metrics metrics) throws IOException {
+            this.document = document;
+            this.metrics = metrics;
+            baseName = DocumentType.baseName(filename);
+            renderer = new PDFRenderer(document);
+            stripper = new PDFTextStripper();
+        }
+
+        public int count() {
+            return document.getNumberOfPages();
+        }
+
+        public String name(int page) {
+            return baseName + "-" + (page + 1) + ".png";
+        }
+
+        public String text(int page) throws IOException {
+            long start = System.nanoTime();
+            stripper.setStartPage(page + 1);
+            stripper.setEndPage(page + 1);
+            String text = stripper.getText(document);
+            int letters = 0;
+            for (int i = 0; i < text.length() && letters < MIN_TEXT_LAYER_LETTERS; i++) {
+                if (Character.isLetter(text.charAt(i))) {
+                    letters++;
+                }
+            }
+            metrics.pdfText.record(System.nanoTime() - start, 1, text.length());
+            return letters >= MIN_TEXT_LAYER_LETTERS ? text : null;
+        }
+
+        public byte[] image(int page) throws IOException {
+            // gray scale is all OCR needs, and a third of the pixels to encode and send
+            long start = System.nanoTime();
+            BufferedImage bim = renderer.renderImageWithDPI(page, DPI, ImageType.GRAY);
+            ByteArrayOutputStream png = new ByteArrayOutputStream(1 << 20);
+            ImageIOUtil.writeImage(bim, "png", png, DPI);
+            byte[] image = png.toByteArray();
+            metrics.pdfRender.record(System.nanoTime() - start, 1, image.length);
+            return image;
+        }
+    }
+}
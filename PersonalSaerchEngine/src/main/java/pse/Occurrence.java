@@ -1,42 +1,48 @@
-package pse;
-
-/**
-
-        * This class encapsulates an occurrences of a keyword in a document. It stores the
-        * document name, and the frequency of occurrence in that document. Occurrences are
-        * associated with keywords in an index hash table.
-        *
-        *
-        *
-        */
-public class Occurrence {
-
-    /**
-     * Document in which a keyword occurs.
-     */
-    String document;
-
-    /**
-     * The frequency (number of times) the keyword occurs in the above document.
-     */
-    int frequency;
-
-    /**
-     * Initializes this occurrence with the given document,frequency pair.
-     *
-     * @param doc Document name
-     * @param freq Frequency
-     */
-    public Occurrence(String doc, int freq) {
-        document = doc;
-        frequency = freq;
-    }
-
-    /* (non-Javadoc)
-     * @see java.lang.Object#toString()
-     */
-    public String toString() {
-        return "(" + document + "," + frequency + ")";
-    }
-}
-
+package pse;
+
+/**
+
+        * This class encapsulates an occurrences of a keyword in a document. It stores the
+        * document name, and the frequency of occurrence in that document. Occurrences are
+        * associated with keywords in an index hash table.
+        *
+        *
+        *
+        */
+public class Occurrence {
+
+    /**
+     * Document in which a keyword occurs.
+     */
+    String document;
+
+    /**
+     * The frequency (number of times) the keyword occurs in the above document.
+     */
+    int frequency;
+
+    /**
+     * Word positions of the keyword in the document, in increasing order, if the index records positions
+     * (null otherwise). The first frequency entries are in use, the array may be larger.
+     */
+    int[] positions;
+
+    /**
+     * Initializes this occurrence with the given document,frequency pair.
+     *
+     * @param doc Document name
+     * @param freq Frequency
+     */
+    public Occurrence(String doc, int freq) {
+        document = doc;
+        frequency = freq;
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    public String toString() {
+        return "(" + document + "," + frequency + ")";
+    }
+}
+
@@ -0,0 +1,20 @@
+package pse;
+
+import java.io.IOException;
+
+/**
+ * An OCR backend: turns the image of a page into text. Implementations must be safe to call from several
+ * threads at once, because OcrScheduler runs page jobs concurrently.
+ */
+public interface OcrEngine {
+
+    /**
+     * Recognizes the text in an image.
+     *
+     * @param name Name of the image, e.g. its file name. Used to label the image at the backend and in errors.
+     * @param image Encoded image (PNG, JPEG, BMP, ...)
+     * @return Recognized text
+     * @throws IOException If recognition failed. OcrScheduler retries the image.
+     */
+    String recognize(String name, byte[] image) throws IOException;
+}
@@ -0,0 +1,263 @@
+package pse;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs OCR page jobs concurrently against an OcrEngine.
+ *
+ * OCR backends are remote services (or slow native code), so a document's pages are recognized in parallel
+ * on a pool of at most maxInFlight threads, which is also the limit on concurrent requests to the backend
+ * across all callers. Each call also produces at most maxInFlight pages ahead of the ones whose text was
+ * consumed, so memory stays bounded however many pages a document has. A page that fails with an IOException is
+ * retried, up to maxAttempts attempts, after a backoff that doubles from initialBackoffMillis (with some
+ * random jitter, so failed pages do not retry in lockstep). Results are returned in page order.
+ *
+ * The pool threads are daemon threads that exit when idle, so a scheduler does not need to be shut down.
+ *
+ * Every attempt is recorded in the ocr stage of the scheduler's Metrics, with the retries and failed pages.
+ */
+public class OcrScheduler {
+
+    private static final long MAX_BACKOFF_MILLIS = 30000;
+
+    private static final Runnable NOTHING = new Runnable() {
+        public void run() {
+        }
+    };
+
+    private final OcrEngine engine;
+
+    private final int maxInFlight;
+
+    private final int maxAttempts;
+
+    private final long initialBackoffMillis;
+
+    private final ThreadPoolExecutor pool;
+
+    private final Metrics metrics;
+
+    /**
+     * @param engine OCR backend
+     * @param maxInFlight Maximum number of pages being recognized at the same time
+     * @param maxAttempts Maximum number of attempts per page, 1 for no retries
+     * @param initialBackoffMillis Wait before the first retry of a page
+     */
+    public OcrScheduler(OcrEngine engine, int maxInFlight, int maxAttempts, long initialBackoffMillis) {
+        this(engine, maxInFlight, maxAttempts, initialBackoffMillis, new Metrics());
+    }
+
+    /**
+     * @param engine OCR backend
+     * @param maxInFlight Maximum number of pages being recognized at the same time
+     * @param maxAttempts Maximum number of attempts per page, 1 for no retries
+     * @param initialBackoffMillis Wait before the first retry of a page
+     * @param metrics Metrics the pages are recorded in
+     */
+    public OcrScheduler(OcrEngine engine, int maxInFlight, int maxAttempts, long initialBackoffMillis,
+                        Metrics metrics) {
+        if (maxInFlight < 1 || maxAttempts < 1 || initialBackoffMillis < 0) {
+            throw new IllegalArgumentException("Invalid OCR scheduler settings");
+        }
+        this.engine = engine;
+        this.maxInFlight = maxInFlight;
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.metrics = metrics;
+        final AtomicInteger threads = new AtomicInteger();
+        pool = new ThreadPoolExecutor(maxInFlight, maxInFlight, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "ocr-" + threads.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Pages of a document, produced on demand in page order by the thread that calls recognize. A page
+     * either has text already (e.g. a PDF page with a text layer), or is an image that needs OCR.
+     */
+    public interface Pages {
+
+        /**
+         * @return Number of pages
+         */
+        int count();
+
+        /**
+         * @param page Page index
+         * @return Name of the page, used in errors and by the OCR backend
+         */
+        String name(int page);
+
+        /**
+         * @param page Page index
+         * @return Text of the page, or null if the page needs OCR
+         * @throws IOException If the page cannot be read
+         */
+        String text(int page) throws IOException;
+
+        /**
+         * Called for pages without text.
+         *
+         * @param page Page index
+         * @return Encoded image of the page
+         * @throws IOException If the page cannot be read or rendered
+         */
+        byte[] image(int page) throws IOException;
+    }
+
+    /**
+     * Receives the text of a document's pages, in page order.
+     */
+    public interface PageConsumer {
+
+        /**
+         * @param text Text of the next page
+         * @throws IOException If the text cannot be consumed. The remaining pages are then cancelled.
+         */
+        void accept(String text) throws IOException;
+    }
+
+    /**
+     * Recognizes image files, e.g. the rendered pages of a PDF.
+     *
+     * @param imageFiles Image file names, in page order
+     * @return Recognized text of every image, in the same order
+     * @throws IOException If an image cannot be read, or a page still fails after the last attempt. The
+     *         remaining pages are then cancelled.
+     */
+    public List<String> recognizeFiles(final List<String> imageFiles) throws IOException {
+        final ArrayList<String> texts = new ArrayList<String>(imageFiles.size());
+        recognize(new Pages() {
+            public int count() {
+                return imageFiles.size();
+            }
+
+            public String name(int page) {
+                return imageFiles.get(page);
+            }
+
+            public String text(int page) {
+                return null;
+            }
+
+            public byte[] image(int page) throws IOException {
+                return Files.readAllBytes(new File(imageFiles.get(page)).toPath());
+            }
+        }, new PageConsumer() {
+            public void accept(String text) {
+                texts.add(text);
+            }
+        });
+        return texts;
+    }
+
+    /**
+     * Streams a document through OCR. Pages are produced (e.g. rendered) in the calling thread while the
+     * pages before them are being recognized in the pool, and their text is handed to the consumer, also in
+     * the calling thread, as soon as it and the text of all pages before it are available. At most
+     * maxInFlight pages are between being produced and being consumed, so no more than that many page
+     * images are held in memory however many pages the document has.
+     *
+     * @param pages Pages of the document
+     * @param consumer Consumer of the page texts
+     * @throws IOException If a page cannot be produced or consumed, or still fails after the last attempt.
+     *         The remaining pages are then cancelled.
+     */
+    public void recognize(Pages pages, PageConsumer consumer) throws IOException {
+        ArrayDeque<Future<String>> window = new ArrayDeque<Future<String>>(maxInFlight);
+        try {
+            for (int page = 0; page < pages.count(); page++) {
+                // backpressure: the next page is only produced once there is room in the window
+                while (window.size() >= maxInFlight || (!window.isEmpty() && window.peek().isDone())) {
+                    consumer.accept(await(window.poll()));
+                }
+                String text = pages.text(page);
+                if (text != null) {
+                    FutureTask<String> done = new FutureTask<String>(NOTHING, text);
+                    done.run();
+                    window.add(done);
+                } else {
+                    final String name = pages.name(page);
+                    final byte[] image = pages.image(page);
+                    window.add(pool.submit(new Callable<String>() {
+                        public String call() throws IOException, InterruptedException {
+                            return recognize(name, image);
+                        }
+                    }));
+                }
+            }
+            while (!window.isEmpty()) {
+                consumer.accept(await(window.poll()));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for OCR");
+        } finally {
+            // stops the remaining pages if a page failed
+            for (Future<String> page : window) {
+                page.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Recognizes one image in the calling thread, retrying failures with backoff.
+     *
+     * @param name Name of the image
+     * @param image Encoded image
+     * @return Recognized text
+     * @throws IOException If the last attempt failed
+     * @throws InterruptedException If interrupted while backing off
+     */
+    public String recognize(String name, byte[] image) throws IOException, InterruptedException {
+        long backoff = initialBackoffMillis;
+        for (int attempt = 1; ; attempt++) {
+            long start = System.nanoTime();
+            try {
+                String text = engine.recognize(name, image);
+                metrics.ocr.record(System.nanoTime() - start, 1, image.length);
+                return text;
+            } catch (IOException e) {
+                metrics.ocr.record(System.nanoTime() - start, 0, 0);
+                if (attempt >= maxAttempts) {
+                    metrics.ocrFailures.increment();
+                    throw new IOException("OCR of " + name + " failed after " + attempt + " attempts", e);
+                }
+                metrics.ocrRetries.increment();
+            }
+            Thread.sleep(backoff + ThreadLocalRandom.current().nextLong(backoff / 2 + 1));
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+        }
+    }
+
+    private static String await(Future<String> page) throws IOException, InterruptedException {
+        try {
+            return page.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package pse;
+
+import java.util.ArrayList;
+
+/**
+ * Top-K list of one part of an index that is split over several PersonalSearchEngine instances (shards, or
+ * segments), and the merge of such lists into the top-K list of the whole index.
+ *
+ * Every document is given its place in the whole index as base + local id * stride, so that ties in score
+ * are broken in favor of the document that was indexed first, as in a single index.
+ */
+final class PartialResults {
+
+    private final long[] order;
+
+    private final double[] scores;
+
+    private final String[] names;
+
+    /**
+     * Runs an evaluator on one part.
+     *
+     * @param part Index the evaluator reads
+     * @param evaluator Evaluator of the query on that part
+     * @param base Place of the part's first document in the whole index
+     * @param stride Distance in the whole index between consecutive documents of the part
+     */
+    PartialResults(PersonalSearchEngine part, QueryEvaluator evaluator, long base, long stride) {
+        int[] docIds = evaluator.evaluate();
+        scores = evaluator.scores();
+        order = new long[docIds.length];
+        names = new String[docIds.length];
+        for (int i = 0; i < docIds.length; i++) {
+            order[i] = base + docIds[i] * stride;
+            names[i] = part.documentName(docIds[i]);
+        }
+    }
+
+    /**
+     * Merges the lists of all parts into search results.
+     *
+     * @param parts Lists of the parts, null for parts without results
+     * @param k Number of results wanted
+     * @return Up to k best results of all parts, best first
+     */
+    static ArrayList<SearchResult> results(PartialResults[] parts, int k) {
+        ArrayList<SearchResult> results = new ArrayList<SearchResult>(Math.min(k, count(parts)));
+        int[] next = new int[parts.length];
+        int p;
+        while (results.size() < k && (p = best(parts, next)) >= 0) {
+            results.add(new SearchResult(parts[p].names[next[p]], parts[p].scores[next[p]]));
+            next[p]++;
+        }
+        return results;
+    }
+
+    /**
+     * Merges the lists of all parts into document names.
+     *
+     * @param parts Lists of the parts, null for parts without results
+     * @param k Number of results wanted
+     * @return Up to k best documents of all parts, best first
+     */
+    static ArrayList<String> names(PartialResults[] parts, int k) {
+        ArrayList<String> results = new ArrayList<String>(Math.min(k, count(parts)));
+        int[] next = new int[parts.length];
+        int p;
+        while (results.size() < k && (p = best(parts, next)) >= 0) {
+            results.add(parts[p].names[next[p]]);
+            next[p]++;
+        }
+        return results;
+    }
+
+    /**
+     * @return Number of results of all parts
+     */
+    private static int count(PartialResults[] parts) {
+        int count = 0;
+        for (PartialResults part : parts) {
+            if (part != null) {
+                count += part.order.length;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Picks the part whose next result is the best: the highest score, ties going to the document that is
+     * first in the whole index.
+     *
+     * @return Part, or -1 if all results have been taken
+     */
+    private static int best(PartialResults[] parts, int[] next) {
+        int best = -1;
+        for (int p = 0; p < parts.length; p++) {
+            if (parts[p] == null || next[p] == parts[p].order.length) {
+                continue;
+            }
+            if (best < 0) {
+                best = p;
+                continue;
+            }
+            double score = parts[p].scores[next[p]];
+            double bestScore = parts[best].scores[next[best]];
+            if (score > bestScore
+                    || (score == bestScore && parts[p].order[next[p]] < parts[best].order[next[best]])) {
+                best = p;
+            }
+        }
+        return best;
+    }
+}
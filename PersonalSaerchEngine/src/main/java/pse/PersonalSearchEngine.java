@@ -1,362 +1,1807 @@
-package pse;
-import java.io.*;
-import java.util.*;
-
-
-/**
- * This class builds an index of keywords. Each keyword maps to a set of pages in
- * which it occurs, with frequency of occurrence in each page.
- *
- */
-public class PersonalSearchEngine {
-
-    /**
-     * This is a hash table of all keywords. The key is the actual keyword, and the associated value is
-     * an array list of all occurrences of the keyword in documents. The array list is maintained in 
-     * descending order of frequencies.
-     */
-    HashMap<String,ArrayList<Occurrence>> keywordsIndex;
-
-    /**
-     * The hash set of all noise words.
-     */
-    HashSet<String> noiseWords;
-
-    /**
-     * Creates the keyWordsIndex and noiseWords hash tables.
-     */
-    public PersonalSearchEngine() {
-        keywordsIndex = new HashMap<String,ArrayList<Occurrence>>(1000,2.0f);
-        noiseWords = new HashSet<String>(100,2.0f);
-    }
-
-    /**
-     * Scans a document, and loads all keywords found into a hash table of keyword occurrences
-     * in the document. Uses the getKeyWord method to separate keywords from other words.
-     *
-     * @param docFile Name of the document file to be scanned and loaded
-     * @return Hash table of keywords in the given document, each associated with an pse.Occurrence object
-     * @throws FileNotFoundException If the document file is not found on disk
-     */
-    public HashMap<String,Occurrence> loadKeywordsFromDocument(String docFile)
-            throws FileNotFoundException {
-
-        if (docFile == null ){
-            throw new FileNotFoundException("File missing");
-        }
-        if (docFile.length() == 0){
-            throw new FileNotFoundException("No docs declared");
-        }
-
-        HashMap<String, Occurrence> map = new HashMap<String, Occurrence>(500);
-
-        // reads docFile
-        Scanner sc = new Scanner(new FileReader(docFile));
-        String wordCandidate;
-        while(sc.hasNext()){
-            wordCandidate = sc.next();
-            String revision = getKeyword(wordCandidate);
-            if (revision != null && revision.length() > 0) {
-                if (map.containsKey(revision)) {
-                    map.get(revision).frequency++;
-                } else {
-                    map.put(revision, new Occurrence(docFile, 1));
-                }
-            }
-        }
-
-
-        return map;
-    }
-
-    /**
-     * Merges the keywords for a single document into the master keywordsIndex
-     * hash table. For each keyword, its pse.Occurrence in the current document
-     * must be inserted in the correct place (according to descending order of
-     * frequency) in the same keyword's pse.Occurrence list in the master hash table.
-     * This is done by calling the insertLastOccurrence method.
-     *
-     * @param kws Keywords hash table for a document
-     */
-    public void mergeKeywords(HashMap<String,Occurrence> kws) {
-
-        if(!kws.isEmpty()) {
-
-
-            for(String key : kws.keySet()){
-                if (keywordsIndex.containsKey(key)) {
-                    keywordsIndex.get(key).add(kws.get(key));
-                    //System.out.println(key);
-                    insertLastOccurrence(keywordsIndex.get(key));
-                } else {
-
-                    if(keywordsIndex.isEmpty()){
-                        ArrayList<Occurrence> b1 = new ArrayList<Occurrence>();
-                        b1.add(kws.get(key));
-                        keywordsIndex.put(key, b1);
-                    }
-                    ArrayList<Occurrence> al = new ArrayList<Occurrence>();
-                    al.add(kws.get(key));
-                    keywordsIndex.put(key, al);
-
-                }
-            }
-        }
-    }
-
-    /**
-     * Given a word, returns it as a keyword if it passes the keyword test,
-     * otherwise returns null. A keyword is any word that, after being stripped of any
-     * trailing punctuation, consists only of alphabetic letters, and is not
-     * a noise word. All words are treated in a case-INsensitive manner.
-     *
-     * Punctuation characters are the following: '.', ',', '?', ':', ';' and '!'
-     *
-     * @param word Candidate word
-     * @return Keyword (word without trailing punctuation, LOWER CASE)
-     */
-
-    private static boolean suffixMatch (String word){
-
-        if (word.endsWith(".") ||
-                word.endsWith(",") ||
-                word.endsWith("?") ||
-                word.endsWith(":") ||
-                word.endsWith(";") ||
-                word.endsWith("!")) { return  true;}
-        return false;
-    }
-
-    public String getKeyword(String word) {
-
-
-        word = word.toLowerCase();
-
-        while(word.length() > 0 &&
-                !(Character.isLetter(word.charAt(word.length()-1))) &&
-                !(Character.isDigit(word.charAt(word.length()-1)))){
-            if (suffixMatch(word)){
-                word = word.substring(0, word.length()-1);
-            }
-
-            else {
-                return null;
-            }
-
-        }
-        // checks if noise word
-        if (noiseWords.contains(word)){
-            return null;
-        }
-        // checks remaining letters for other characters
-        int n = 0;
-        while ( n < word.length()){
-            if (!(Character.isLetter(word.charAt(n)))) {
-                return null;
-            }
-            n++;
-        }
-
-        if (noiseWords.contains(word)){
-            return null;
-        }
-
-        return word;
-
-
-    }
-
-    /**
-     * Inserts the last occurrence in the parameter list in the correct position in the
-     * list, based on ordering occurrences on descending frequencies. The elements
-     * 0..n-2 in the list are already in the correct order. Insertion is done by
-     * first finding the correct spot using binary search, then inserting at that spot.
-     *
-     * @param occs List of Occurrences
-     * @return Sequence of mid point indexes in the input list checked by the binary search process,
-     *         null if the size of the input list is 1. This returned array list is only used to test
-     *         your code - it is not used elsewhere in the program.
-     */
-    private static ArrayList<Integer> finalOccurrence(ArrayList<Occurrence> occs){
-        ArrayList<Integer>index = new ArrayList<Integer>(occs.size());
-        int high = 0;
-        int low = occs.size()-2;
-        int lastO = occs.get(occs.size()-1).frequency;
-        int termination = 0;
-// binary search
-        while(low >= high && termination == 0){
-            int mid = (low + high)/2;
-            if(lastO == occs.get(mid).frequency){
-                index.add(mid);
-                termination = 1;
-            }
-            else if(lastO > occs.get(mid).frequency){
-                low = mid-1;
-                index.add(mid);
-            }
-            else{
-                high = mid+1;
-                index.add(mid);
-            }
-        }
-        Occurrence last=occs.get(occs.size()-1);
-        occs.add(index.get(index.size()-1),last);
-        return index;
-    }
-
-
-    public ArrayList<Integer> insertLastOccurrence(ArrayList<Occurrence> occs) {
-
-
-        return finalOccurrence(occs);
-
-
-    }
-
-    /**
-     * This method indexes all keywords found in all the input documents. When this
-     * method is done, the keywordsIndex hash table will be filled with all keywords,
-     * each of which is associated with an array list of pse.Occurrence objects, arranged
-     * in decreasing frequencies of occurrence.
-     *
-     * @param docsFile Name of file that has a list of all the document file names, one name per line
-     * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
-     * @throws FileNotFoundException If there is a problem locating any of the input files on disk
-     */
-    public void makeIndex(String docsFile, String noiseWordsFile) throws FileNotFoundException
-    {
-        // load noise words to hash table
-        Scanner sc = new Scanner(new File(noiseWordsFile));
-        OCRManager ocr = new OCRManager();
-
-        while (sc.hasNext()) {
-            String word = sc.next();
-            noiseWords.add(word);
-        }
-
-        // index all keywords
-        sc = new Scanner(new File(docsFile));
-        while (sc.hasNext()) {
-            String docFile = sc.next();
-            String type = docFile.substring( docFile.length() - 4, docFile.length());
-            if(!type.equals(".txt")) {
-                String filename = docFile.substring(0, docFile.length() -4) + ".txt";
-                if(type.equals(".pdf")){
-//                    File gradeList = new File(docFile);
-//                    if (!gradeList.exists()) {
-//                        System.out.println(docFile);
-//                        throw new FileNotFoundException("Failed to find file: " +
-//                                gradeList.getAbsolutePath());
-//                    } // testing code
-                        ocr.manage(ocr.convertPDFtoImages(docFile), filename);
-                }
-                else if (type.equals(".png") || type.equals("jpg") || type.equals(".img") || type.equals(".bmp")) {
-                    ocr.manage(docFile);
-                }
-                else {
-                    throw new FileNotFoundException(type);
-                }
-                docFile = filename;
-            }
-            // ocr nd pdf functionality use load, then pdf handler
-            HashMap<String,Occurrence> kws = loadKeywordsFromDocument(docFile);
-            mergeKeywords(kws);
-        }
-        sc.close();
-    }
-
-    /**
-     * Search result for "kw1 or kw2". A document is in the result set if kw1 or kw2 occurs in that
-     * document. Result set is arranged in descending order of document frequencies. (Note that a
-     * matching document will only appear once in the result.) Ties in frequency values are broken
-     * in favor of the first keyword. (That is, if kw1 is in doc1 with frequency f1, and kw2 is in doc2
-     * also with the same frequency f1, then doc1 will take precedence over doc2 in the result. 
-     * The result set is limited to 5 entries. If there are no matches at all, result is null.
-     *
-     * @param kw1 First keyword
-     * @param kw1 Second keyword
-     * @return List of documents in which either kw1 or kw2 occurs, arranged in descending order of
-     *         frequencies. The result size is limited to 5 documents. If there are no matches, returns null.
-     */
-
-    private ArrayList<String> topSearch (String kw1, String kw2){
-        if(keywordsIndex.get(kw1) == null && keywordsIndex.get(kw2) == null){
-            return null;
-        }
-        HashMap<String, Double> compareMap = new HashMap<String, Double>(500);
-        if(keywordsIndex.get(kw1) != null){
-            for(Occurrence occ : keywordsIndex.get(kw1)){
-                if(!compareMap.containsKey(occ.document)){
-                    compareMap.put(occ.document, (occ.frequency + 0.5) );
-                }
-                if(compareMap.containsKey(occ.document) && ((occ.frequency + 0.5) > compareMap.get(occ.document))){
-                    compareMap.put(occ.document, (occ.frequency + 0.5) );
-                }
-            }
-        }
-        if(keywordsIndex.get(kw2) != null){
-            for(Occurrence occ : keywordsIndex.get(kw2)){
-                if(!compareMap.containsKey(occ.document)){
-                    compareMap.put(occ.document, ( (double)occ.frequency ) );
-                }
-                if(compareMap.containsKey(occ.document) && (( (double )occ.frequency) > compareMap.get(occ.document))){
-                    compareMap.put(occ.document, ((double )occ.frequency) );
-                }
-            }
-        }
-
-
-        ArrayList<String> result = new ArrayList<String>(10);
-        TreeMap<Double, ArrayList<String>> compareTree = new TreeMap<Double, ArrayList<String>>();
-
-        ArrayList<String> listOfKeys = new ArrayList<String>(compareMap.keySet());
-        for(String key : listOfKeys){
-
-            if(!compareTree.containsKey(compareMap.get(key))){
-                ArrayList<String> list = new ArrayList<String>();
-                list.add(key);
-                compareTree.put(compareMap.get(key), list);
-
-
-            }else{
-                ArrayList<String> listOfFiles = compareTree.get(compareMap.get(key));
-                listOfFiles.add(key);
-            }
-        }
-
-
-@Deprecated
-@SuppressWarnings("deprecation")
-        Map<Double, ArrayList<String>> compareTree2 = compareTree.descendingMap();
-
-
-        ArrayList<Double> listOfKeys2 = new ArrayList<Double>(compareTree2.keySet());
-        int count = 0;
-        outerloop:
-        for(Double key: listOfKeys2){
-
-            ArrayList<String> l = compareTree.get(key);
-            for(String s: l){
-                count++;
-                // System.out.println(s + ": " + key);
-                result.add(s);
-
-                if(count == 5){
-                    break outerloop;
-                }
-            }
-
-        }
-
-
-
-        return result;
-    }
-
-    public ArrayList<String> top5search(String kw1, String kw2) {
-
-
-        return topSearch(kw1, kw2);
-
-    }
-}
\ No newline at end of file
+package pse;
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+
+/**
+ * This class builds an index of keywords. Each keyword maps to a set of pages in
+ * which it occurs, with frequency of occurrence in each page.
+ *
+ */
+public class PersonalSearchEngine {
+
+    /**
+     * This is a table of all keywords. Each keyword has a term id in the table's dictionary, which maps to
+     * the posting list of all occurrences of the keyword in documents. The posting list is maintained in
+     * descending order of frequencies.
+     */
+    TermIndex keywordsIndex;
+
+    /**
+     * Dictionary of all indexed documents, posting lists refer to documents by their id in this table.
+     */
+    DocumentTable documents;
+
+    /**
+     * Memory-mapped index segment that searches are served from after openIndex, null while the index is
+     * built in memory.
+     */
+    IndexSegment segment;
+
+    /**
+     * The hash set of all noise words.
+     */
+    HashSet<String> noiseWords;
+
+    /**
+     * Relevance scorer of search, BM25 unless set otherwise.
+     */
+    Scorer scorer = Scorer.BM25;
+
+    /**
+     * OCR backend for PDFs and images, null for OCRManager's default.
+     */
+    OcrEngine ocrEngine;
+
+    /**
+     * Charset text documents are read in, UTF-8 unless set otherwise.
+     */
+    Charset charset = StandardCharsets.UTF_8;
+
+    /**
+     * Whether the index records the word positions of keywords, for phrase and proximity queries.
+     */
+    boolean positional;
+
+    /**
+     * Cache of search results, null for none.
+     */
+    QueryCache queryCache;
+
+    /**
+     * File the text of indexed documents is stored in for search result snippets, null if it is not stored.
+     */
+    File storeFile;
+
+    /**
+     * Store that search results take their snippets from, null if there is none.
+     */
+    DocumentStore store;
+
+    /**
+     * Writer of the document store while documents are indexed, null otherwise.
+     */
+    private DocumentStore.Writer storeWriter;
+
+    /**
+     * Version of the index, changed whenever documents are indexed or another index is opened, so that
+     * cached search results of an older version are not used.
+     */
+    long version;
+
+    /**
+     * Indexing and search metrics, always recorded. Shared with other engines when this one is a part of a
+     * larger index, whose owner then takes the index gauges.
+     */
+    final Metrics metrics;
+
+    /**
+     * Index gauges of the metrics, taken at the end of the last bulk change of the index, null before.
+     */
+    volatile Metrics.IndexSample indexSample;
+
+    /**
+     * Estimated heap size of a keyword in the term index, without its chars: its dictionary slots, hash,
+     * offset and String reference, and its posting list reference.
+     */
+    private static final int TERM_BYTES = 32;
+
+    /**
+     * Estimated heap size of a new posting list with its first arrays, see PostingList.heapBytes.
+     */
+    private static final int LIST_BYTES = 128;
+
+    /**
+     * Estimated heap size of a posting appended to a list: a document id and a frequency, plus the room the
+     * arrays keep for growing, half again as much on average.
+     */
+    private static final int POSTING_BYTES = 12;
+
+    /**
+     * Estimated heap size of the positions of a posting, on top of their encoded bytes: the array and the
+     * reference to it.
+     */
+    private static final int POSITIONS_BYTES = 28;
+
+    /**
+     * Estimated heap size of a document table entry, on top of the chars of its name, see
+     * DocumentTable.heapBytes.
+     */
+    private static final int DOCUMENT_BYTES = 176;
+
+    /**
+     * Number of documents each worker thread scans per batch in the parallel build. Keeps the per-document
+     * keyword tables that wait for the merge stage bounded, regardless of corpus size.
+     */
+    private static final int PARALLEL_BATCH_PER_THREAD = 16;
+
+    /**
+     * Posting lists of at least one in this many documents are left unpacked by finishPostings. Such lists
+     * are read by most queries, nearly in full, since almost every block of them holds candidates, and
+     * decoding them costs more time than their plain arrays cost memory.
+     */
+    private static final int DENSE_LIST_FRACTION = 4;
+
+    /**
+     * Creates the keyWordsIndex and noiseWords hash tables.
+     */
+    public PersonalSearchEngine() {
+        this(new Metrics());
+        metrics.index(new Metrics.IndexGauges() {
+            public Metrics.IndexSample sample() {
+                return indexSample;
+            }
+        });
+    }
+
+    /**
+     * Creates an engine that is a part of a larger index, such as a shard or a segment, and records into
+     * the metrics of the whole. Its index gauges are not taken: the owner of the metrics sums up the parts'
+     * indexSample.
+     *
+     * @param metrics Metrics of the whole index
+     */
+    PersonalSearchEngine(Metrics metrics) {
+        keywordsIndex = new TermIndex();
+        documents = new DocumentTable();
+        noiseWords = new HashSet<String>(100,2.0f);
+        this.metrics = metrics;
+    }
+
+    /**
+     * Scans a document, and loads all keywords found into a hash table of keyword occurrences
+     * in the document. Keywords are separated from other words by a KeywordTokenizer, which
+     * applies the same rules as the getKeyword method while the file is streamed through a
+     * DocumentReader, in the engine's charset.
+     * If the index is positional, the occurrences record the word positions of their keyword too.
+     *
+     * @param docFile Name of the document file to be scanned and loaded
+     * @return Hash table of keywords in the given document, each associated with an pse.Occurrence object
+     * @throws FileNotFoundException If the document file is not found on disk
+     */
+    public HashMap<String,Occurrence> loadKeywordsFromDocument(String docFile)
+            throws FileNotFoundException {
+
+        if (docFile == null ){
+            throw new FileNotFoundException("File missing");
+        }
+        if (docFile.length() == 0){
+            throw new FileNotFoundException("No docs declared");
+        }
+
+        TermCounts counts = new TermCounts(new KeywordTokenizer(noiseWords), positional);
+        scanText(docFile, counts);
+        return counts.occurrences(docFile);
+    }
+
+    /**
+     * Counts the keywords of a text document. The file is streamed, so its size does not matter.
+     *
+     * @param docFile Name of the document file
+     * @param counts Counts to add to
+     * @throws FileNotFoundException If the document file is not found on disk
+     */
+    private void scanText(String docFile, TermCounts counts) throws FileNotFoundException {
+        // reads docFile
+        Reader reader = new DocumentReader(docFile, charset);
+        try {
+            addKeywords(counts, reader, 0);
+            metrics.tokenize.record(0, 1, 0);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read " + docFile, e);
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                // nothing was written, nothing to lose
+            }
+        }
+    }
+
+    /**
+     * Counts the keywords of a text, by term id, and records their positions if the index is positional.
+     *
+     * @param counts Keyword counts of the document so far, with the tokenizer to split the text with
+     * @param in Text
+     * @param firstPosition Position of the text's first word in the document
+     * @return Number of words in the text
+     * @throws IOException If the text cannot be read
+     */
+    private int addKeywords(TermCounts counts, Reader in, int firstPosition) throws IOException {
+        long start = System.nanoTime();
+        KeywordTokenizer tokenizer = counts.tokenizer;
+        tokenizer.reset(in);
+        int id;
+        while ((id = tokenizer.nextTerm()) >= 0) {
+            counts.add(id, firstPosition + tokenizer.wordCount() - 1);
+        }
+        metrics.tokenize.record(System.nanoTime() - start, 0, tokenizer.charCount());
+        return tokenizer.wordCount();
+    }
+
+    /**
+     * Counts of keywords by the term ids of a dictionary, with a tokenizer that skips the noise words and
+     * records positions if the index is positional.
+     *
+     * @param terms Dictionary, keywordsIndex.terms() for counts that are appended to this index right away
+     */
+    private TermCounts termCounts(TermDictionary terms) {
+        KeywordTokenizer tokenizer = new KeywordTokenizer(noiseWords, terms);
+        if (storeWriter != null) {
+            tokenizer.text = new DocumentStore.Text();
+        }
+        return new TermCounts(tokenizer, positional);
+    }
+
+    /**
+     * Merges the keywords for a single document into the master keywordsIndex
+     * hash table. The document is registered in the document table, and for each
+     * keyword, its posting for the current document is inserted in the correct place
+     * (according to descending order of frequency) in the same keyword's posting list
+     * in the master hash table.
+     *
+     * @param kws Keywords hash table for a document
+     */
+    public void mergeKeywords(HashMap<String,Occurrence> kws) {
+
+        checkWritable();
+
+        if(!kws.isEmpty()) {
+
+            long start = System.nanoTime();
+            version++;
+
+            int docId = documents.add(kws.values().iterator().next().document);
+            documents.setLength(docId, lengthOf(kws));
+            for(String key : kws.keySet()){
+                PostingList postings = keywordsIndex.getOrAdd(key);
+                postings.add(docId, kws.get(key).frequency, encodedPositions(kws.get(key)));
+            }
+            metrics.merge.record(System.nanoTime() - start, 1, 0);
+        }
+    }
+
+    /**
+     * Bulk build version of mergeKeywords: appends the document's postings to the end of the keywords'
+     * posting lists without ordering them. The index is unusable until finishPostings has been called.
+     *
+     * @param index Index to append to
+     * @param counts Keyword counts of a document, by the term ids of the index's dictionary
+     * @param docId Id of the document
+     * @return Estimated number of bytes the index grew by on the heap
+     */
+    private static long appendKeywords(TermIndex index, TermCounts counts, int docId) {
+        long bytes = 0;
+        for (int i = 0; i < counts.size(); i++) {
+            int id = counts.id(i);
+            PostingList postings = index.get(id);
+            if (postings == null) {
+                postings = index.getOrAdd(id);
+                bytes += TERM_BYTES + LIST_BYTES + 2L * index.terms().length(id);
+            }
+            byte[] positions = counts.encodedPositions(id);
+            postings.append(docId, counts.frequency(id), positions);
+            bytes += POSTING_BYTES + (positions == null ? 0 : POSITIONS_BYTES + positions.length);
+        }
+        return bytes;
+    }
+
+    private static byte[] encodedPositions(Occurrence occ) {
+        return occ.positions == null ? null : PostingList.encodePositions(occ.positions, occ.frequency);
+    }
+
+    /**
+     * Length of a document in keywords, counting repeats, for relevance scoring.
+     */
+    private static int lengthOf(Map<String,Occurrence> kws) {
+        int length = 0;
+        for (Occurrence occurrence : kws.values()) {
+            length += occurrence.frequency;
+        }
+        return length;
+    }
+
+    /**
+     * Ends a bulk build: sorts the postings appended to every list into descending order of frequency,
+     * exactly as if each had been inserted by mergeKeywords, and packs the lists into compressed blocks,
+     * except for dense lists (see DENSE_LIST_FRACTION), which are only trimmed. Lists that were not changed
+     * are still packed, and cost nothing.
+     *
+     * @param index Index (or index shard) to finish
+     * @param denseSize Number of postings from which a list is left unpacked
+     */
+    private static void finishPostings(TermIndex index, int denseSize) {
+        for (int id = 0; id < index.idLimit(); id++) {
+            PostingList postings = index.get(id);
+            if (postings == null) {
+                continue;
+            }
+            if (postings.size() >= denseSize) {
+                postings.sort();
+                postings.trim();
+            } else {
+                postings.pack();
+            }
+        }
+    }
+
+    /**
+     * @return Number of postings from which a list of this index is left unpacked, see finishPostings
+     */
+    private int denseSize() {
+        return Math.max(1, documents.size() / DENSE_LIST_FRACTION);
+    }
+
+    /**
+     * Ends a bulk build of this index, see finishPostings(index, denseSize), and takes the index gauges.
+     */
+    private void finishPostings() {
+        long start = System.nanoTime();
+        finishPostings(keywordsIndex, denseSize());
+        metrics.merge.record(System.nanoTime() - start, 0, 0);
+        sampleIndex();
+    }
+
+    /**
+     * Takes the index gauges of the metrics: the size of the index and the lengths of its posting lists.
+     * Only called at the end of a bulk change, never while the index changes, so that the gauges can be read
+     * by other threads. mergeKeywords does not take them.
+     */
+    private void sampleIndex() {
+        Metrics.IndexSample sample = new Metrics.IndexSample();
+        if (segment != null) {
+            segment.sample(sample);
+        } else {
+            sample.documents = documents.size();
+            sample.heapBytes = documents.heapBytes();
+            for (int id = 0; id < keywordsIndex.idLimit(); id++) {
+                PostingList postings = keywordsIndex.get(id);
+                if (postings == null) {
+                    continue;
+                }
+                sample.terms++;
+                sample.postings += postings.size();
+                sample.heapBytes += TERM_BYTES + 2L * keywordsIndex.term(id).length() + postings.heapBytes();
+                sample.postingListLengths.record(postings.size());
+            }
+        }
+        indexSample = sample;
+    }
+
+    /**
+     * Returns the occurrences of a keyword as pse.Occurrence objects, in descending order of frequency.
+     * The index itself does not hold Occurrence objects, they are created on demand by this method.
+     *
+     * @param keyword Keyword (lower case)
+     * @return List of occurrences of the keyword, or null if the keyword is not in the index
+     */
+    public ArrayList<Occurrence> getOccurrences(String keyword) {
+        PostingList postings = postingsOf(keyword);
+        if (postings == null) {
+            return null;
+        }
+        ArrayList<Occurrence> occs = new ArrayList<Occurrence>(postings.size());
+        for (int i = 0; i < postings.size(); i++) {
+            occs.add(new Occurrence(documentName(postings.docId(i)), postings.frequency(i)));
+        }
+        return occs;
+    }
+
+    /**
+     * Writes the index built by makeIndex to a segment file, see IndexSegment for the file layout.
+     *
+     * @param indexFile Name of the segment file to write
+     * @throws IOException If the file cannot be written
+     */
+    public void saveIndex(String indexFile) throws IOException {
+        checkWritable();
+        IndexSegment.write(new File(indexFile), keywordsIndex, documents);
+    }
+
+    /**
+     * Opens a segment file written by saveIndex and serves all further searches from it. The file is
+     * memory-mapped, so only the term dictionary entries and posting lists touched by a search are read,
+     * and the index is never loaded onto the heap as a whole. Any index built in memory is discarded.
+     *
+     * @param indexFile Name of the segment file to open
+     * @throws IOException If the file cannot be read or is not a segment of a supported version
+     */
+    public void openIndex(String indexFile) throws IOException {
+        IndexSegment opened = IndexSegment.open(new File(indexFile));
+        if (segment != null) {
+            segment.close();
+        }
+        segment = opened;
+        keywordsIndex.clear();
+        documents = new DocumentTable();
+        version++;
+        sampleIndex();
+    }
+
+    /**
+     * Reads a segment file written by saveIndex fully onto the heap, replacing the index built in memory, so
+     * that it can be brought up to date with updateIndex and saved again. Use openIndex instead for read-only
+     * searching. The index is positional if the segment has positions.
+     *
+     * @param indexFile Name of the segment file to load
+     * @throws IOException If the file cannot be read or is not a segment of a supported version
+     */
+    public void loadIndex(String indexFile) throws IOException {
+        IndexSegment loaded = IndexSegment.open(new File(indexFile));
+        try {
+            if (segment != null) {
+                segment.close();
+                segment = null;
+            }
+            keywordsIndex.clear();
+            documents = new DocumentTable();
+            loaded.copyTo(keywordsIndex, documents);
+            positional = loaded.hasPositions();
+        } finally {
+            version++;
+            loaded.close();
+            sampleIndex();
+        }
+    }
+
+    /**
+     * Looks up a keyword's posting list in the open segment, or in the in-memory index if there is none.
+     */
+    private PostingList postingsOf(String keyword) {
+        return segment != null ? segment.postings(keyword) : keywordsIndex.get(keyword);
+    }
+
+    /**
+     * Looks up the posting list of an expanded query keyword: the list of its only keyword, or the union of
+     * the lists of its keywords.
+     *
+     * @return Posting list, or null if none of the keywords is in the index
+     */
+    private PostingList postingsOf(String[] terms) {
+        if (terms.length == 1) {
+            return postingsOf(terms[0]);
+        }
+        PostingList[] lists = postingsOfEach(terms);
+        if (lists.length == 0) {
+            return null;
+        }
+        return lists.length == 1 ? lists[0] : PostingList.union(lists);
+    }
+
+    /**
+     * @return Posting lists of the keywords that are in the index
+     */
+    private PostingList[] postingsOfEach(String[] terms) {
+        ArrayList<PostingList> lists = new ArrayList<PostingList>(terms.length);
+        for (String term : terms) {
+            PostingList postings = postingsOf(term);
+            if (postings != null) {
+                lists.add(postings);
+            }
+        }
+        return lists.toArray(new PostingList[lists.size()]);
+    }
+
+    /**
+     * Expands query keywords on this index, see expand(PersonalSearchEngine[], String...).
+     */
+    String[][] expand(String... keywords) {
+        return expand(new PersonalSearchEngine[] {this}, keywords);
+    }
+
+    /**
+     * Expands query keywords over the indexes of one collection, such as the shards of a ShardedSearchEngine.
+     * A plain keyword stands for itself. A KeywordPattern (wor*, w?rd, word~) stands for the keywords it
+     * matches in any of the indexes, at most KeywordPattern.MAX_EXPANSIONS of them, the same ones for every
+     * index, so that a sharded search ranks like a search of a single index. Expansion walks the sorted
+     * keywords of every index (see SortedTerms) rather than all of them.
+     *
+     * @param engines Indexes of the collection
+     * @param keywords Query keywords (lower case)
+     * @return Keywords every query keyword stands for, none for a pattern that matches nothing
+     * @throws IllegalArgumentException For a malformed keyword pattern
+     */
+    static String[][] expand(PersonalSearchEngine[] engines, String... keywords) {
+        String[][] terms = new String[keywords.length][];
+        for (int i = 0; i < keywords.length; i++) {
+            KeywordPattern pattern = KeywordPattern.parse(keywords[i]);
+            if (pattern == null) {
+                terms[i] = new String[] {keywords[i]};
+                continue;
+            }
+            KeywordPattern.Matches matches = new KeywordPattern.Matches();
+            for (PersonalSearchEngine engine : engines) {
+                engine.sortedTerms().expand(pattern, matches);
+            }
+            terms[i] = matches.select();
+        }
+        return terms;
+    }
+
+    /**
+     * Keywords of the open segment, or of the in-memory index if there is none, in sorted order.
+     */
+    SortedTerms sortedTerms() {
+        return segment != null ? segment.sortedTerms() : keywordsIndex.sortedTerms();
+    }
+
+    /**
+     * Looks up a document name in the open segment, or in the in-memory document table if there is none.
+     */
+    String documentName(int docId) {
+        return segment != null ? segment.documentName(docId) : documents.name(docId);
+    }
+
+    int documentCount() {
+        return segment != null ? segment.documentCount() : documents.size();
+    }
+
+    DocumentStamp documentStamp(int docId) {
+        return segment != null ? segment.documentStamp(docId) : documents.stamp(docId);
+    }
+
+    /**
+     * Number of indexed documents that contain a keyword, without reading its postings from a segment.
+     */
+    int documentFrequency(String keyword) {
+        if (segment != null) {
+            return segment.documentFrequency(keyword);
+        }
+        PostingList postings = keywordsIndex.get(keyword);
+        return postings == null ? 0 : postings.size();
+    }
+
+    /**
+     * Number of indexed documents that contain any of the keywords of an expanded query keyword.
+     */
+    int documentFrequency(String[] terms) {
+        if (terms.length == 1) {
+            return documentFrequency(terms[0]);
+        }
+        return PostingList.unionSize(postingsOfEach(terms));
+    }
+
+    int[] documentLengths() {
+        return segment != null ? segment.documentLengths() : documents.lengths();
+    }
+
+    int shortestDocumentLength() {
+        return segment != null ? segment.shortestDocumentLength() : documents.shortestLength();
+    }
+
+    boolean duplicatePostings() {
+        return segment != null ? segment.duplicatePostings() : documents.duplicatePostings();
+    }
+
+    long totalDocumentLength() {
+        return segment != null ? segment.totalDocumentLength() : documents.totalLength();
+    }
+
+    private void checkWritable() {
+        if (segment != null) {
+            throw new IllegalStateException("Index is opened read-only from a segment file");
+        }
+    }
+
+    /**
+     * Given a word, returns it as a keyword if it passes the keyword test,
+     * otherwise returns null. A keyword is any word that, after being stripped of any
+     * trailing punctuation, consists only of alphabetic letters, and is not
+     * a noise word. All words are treated in a case-INsensitive manner.
+     *
+     * Punctuation characters are the following: '.', ',', '?', ':', ';' and '!'
+     *
+     * @param word Candidate word
+     * @return Keyword (word without trailing punctuation, LOWER CASE)
+     */
+
+    public String getKeyword(String word) {
+        return KeywordTokenizer.keyword(word, noiseWords);
+    }
+
+    /**
+     * Inserts the last occurrence in the parameter list in the correct position in the
+     * list, based on ordering occurrences on descending frequencies. The elements
+     * 0..n-2 in the list are already in the correct order. Insertion is done by
+     * first finding the correct spot using binary search, then inserting at that spot.
+     *
+     * @param occs List of Occurrences
+     * @return Sequence of mid point indexes in the input list checked by the binary search process,
+     *         null if the size of the input list is 1. This returned array list is only used to test
+     *         your code - it is not used elsewhere in the program.
+     */
+    private static ArrayList<Integer> finalOccurrence(ArrayList<Occurrence> occs){
+        if (occs.size() < 2) {
+            return null;
+        }
+        ArrayList<Integer>index = new ArrayList<Integer>(occs.size());
+        int high = 0;
+        int low = occs.size()-2;
+        int lastO = occs.get(occs.size()-1).frequency;
+        int termination = 0;
+        int spot = 0;
+// binary search
+        while(low >= high && termination == 0){
+            int mid = (low + high)/2;
+            if(lastO == occs.get(mid).frequency){
+                index.add(mid);
+                spot = mid;
+                termination = 1;
+            }
+            else if(lastO > occs.get(mid).frequency){
+                low = mid-1;
+                index.add(mid);
+                spot = mid;
+            }
+            else{
+                high = mid+1;
+                index.add(mid);
+                spot = mid+1;
+            }
+        }
+        Occurrence last=occs.remove(occs.size()-1);
+        occs.add(spot,last);
+        return index;
+    }
+
+
+    public ArrayList<Integer> insertLastOccurrence(ArrayList<Occurrence> occs) {
+
+
+        return finalOccurrence(occs);
+
+
+    }
+
+    /**
+     * This method indexes all keywords found in all the input documents. When this
+     * method is done, the keywordsIndex hash table will be filled with all keywords,
+     * each of which is associated with a posting list of (document id, frequency) pairs,
+     * arranged in decreasing frequencies of occurrence.
+     *
+     * @param docsFile Name of file that has a list of all the document file names, one name per line
+     * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+     * @throws FileNotFoundException If there is a problem locating any of the input files on disk
+     */
+    public void makeIndex(String docsFile, String noiseWordsFile) throws FileNotFoundException
+    {
+        makeIndex(readDocumentList(docsFile), noiseWordsFile);
+    }
+
+    /**
+     * Serial build from a list of document file names, see makeIndex(docsFile, noiseWordsFile).
+     */
+    void makeIndex(List<String> docs, String noiseWordsFile) throws FileNotFoundException
+    {
+        checkWritable();
+        // load noise words to hash table
+        loadNoiseWords(noiseWordsFile);
+        indexDocuments(docs);
+    }
+
+    /**
+     * Indexes documents after the ones already in the index, with the noise words already loaded.
+     */
+    void indexDocuments(List<String> docs) throws FileNotFoundException
+    {
+        indexDocuments(docs, null);
+    }
+
+    /**
+     * Indexes documents whose types are told already, see indexDocuments(docs).
+     *
+     * @param types Types of the documents, in the same order, or null to tell them from the documents
+     */
+    void indexDocuments(List<String> docs, List<DocumentType> types) throws FileNotFoundException
+    {
+        checkWritable();
+        OCRManager ocr = newOcrManager();
+        startStore();
+        // keywords are counted by their term ids in the index
+        TermCounts counts = termCounts(keywordsIndex.terms());
+        version++;
+
+        // index all keywords, postings are ordered once at the end
+        Iterator<DocumentType> typeIterator = types == null ? null : types.iterator();
+        try {
+            for (String docFile : docs) {
+                DocumentType type = typeIterator == null ? DocumentType.of(docFile) : typeIterator.next();
+                // ocr nd pdf functionality use load, then pdf handler
+                loadKeywords(docFile, type, ocr, counts);
+                DocumentStamp stamp = stampOf(docFile);
+                long start = System.nanoTime();
+                String name = DocumentType.textName(docFile, type);
+                storeText(name, counts);
+                int docId = documents.add(name);
+                documents.setLength(docId, counts.length());
+                appendKeywords(keywordsIndex, counts, docId);
+                documents.setStamp(docId, stamp);
+                metrics.merge.record(System.nanoTime() - start, 1, stamp == null ? 0 : stamp.size);
+            }
+        } finally {
+            finishPostings();
+            finishStore();
+        }
+    }
+
+    /**
+     * Appends all documents of another in-memory index after the documents of this one, in their order, as if
+     * they had been indexed here. No document may be in both indexes. The other index is only read.
+     *
+     * @param other Index to append
+     */
+    void appendIndex(PersonalSearchEngine other) {
+        appendIndex(other, new BitSet());
+    }
+
+    /**
+     * Appends the documents of another in-memory index except some, as if the others had been indexed here
+     * in their order, see appendIndex(other).
+     *
+     * @param other Index to append
+     * @param skipped Ids of the documents of the other index to leave out
+     */
+    void appendIndex(PersonalSearchEngine other, BitSet skipped) {
+        checkWritable();
+        long start = System.nanoTime();
+        version++;
+        int base = documents.size();
+        int[] ids = new int[other.documents.size()];
+        for (int docId = 0; docId < ids.length; docId++) {
+            if (skipped.get(docId)) {
+                ids[docId] = -1;
+                continue;
+            }
+            int id = documents.add(other.documents.name(docId));
+            documents.setLength(id, other.documents.length(docId));
+            documents.setStamp(id, other.documents.stamp(docId));
+            ids[docId] = id;
+        }
+        TermIndex from = other.keywordsIndex;
+        for (int term = 0; term < from.idLimit(); term++) {
+            PostingList list = from.get(term);
+            if (list == null) {
+                continue;
+            }
+            PostingList postings = null;
+            for (int i = 0; i < list.size(); i++) {
+                int id = ids[list.docId(i)];
+                if (id < 0) {
+                    continue;
+                }
+                if (postings == null) {
+                    postings = keywordsIndex.getOrAdd(from.term(term));
+                }
+                postings.append(id, list.frequency(i), list.encodedPositions(i));
+            }
+        }
+        metrics.merge.record(System.nanoTime() - start, documents.size() - base, 0);
+        finishPostings();
+    }
+
+    /**
+     * Parallel version of makeIndex. Documents are OCR'd and scanned into per-document keyword tables on a
+     * pool of worker threads, one batch at a time. Each batch is then merged into the index by a sharded merge
+     * stage: keywords are partitioned by hash, and every shard is merged by its own thread, visiting the batch
+     * in the order the documents are listed in docsFile. Because every keyword's occurrence list sees the
+     * documents in the same order as the serial build, the resulting index (and therefore every search result)
+     * is exactly the same as the one built by makeIndex(docsFile, noiseWordsFile). The final ordering of the
+     * posting lists is done by the shard threads as well.
+     *
+     * @param docsFile Name of file that has a list of all the document file names, one name per line
+     * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+     * @param threads Number of worker threads, values below 2 fall back to the serial build
+     * @throws FileNotFoundException If there is a problem locating any of the input files on disk
+     */
+    public void makeIndex(String docsFile, String noiseWordsFile, int threads) throws FileNotFoundException
+    {
+        makeIndex(readDocumentList(docsFile), noiseWordsFile, threads);
+    }
+
+    /**
+     * Parallel build from a list of document file names, such as the ones a DocumentCrawler found, see
+     * makeIndex(docsFile, noiseWordsFile, threads).
+     *
+     * @param docs Names of the document files, in the order they are to be numbered
+     * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+     * @param threads Number of worker threads, values below 2 fall back to the serial build
+     * @throws FileNotFoundException If there is a problem locating any of the input files on disk
+     */
+    public void makeIndex(List<String> docs, String noiseWordsFile, int threads) throws FileNotFoundException
+    {
+        if (threads < 2) {
+            makeIndex(docs, noiseWordsFile);
+            return;
+        }
+        checkWritable();
+
+        loadNoiseWords(noiseWordsFile);
+        final OCRManager ocr = newOcrManager();
+        version++;
+        startStore();
+
+        // every shard owns a disjoint set of keywords, so shards can be merged without locking
+        final ArrayList<TermIndex> shards = new ArrayList<TermIndex>(threads);
+        for (int i = 0; i < threads; i++) {
+            shards.add(new TermIndex());
+        }
+        for (int id = 0; id < keywordsIndex.idLimit(); id++) {
+            PostingList postings = keywordsIndex.get(id);
+            if (postings != null) {
+                String keyword = keywordsIndex.term(id);
+                shards.get(shardOf(keyword, threads)).put(keyword, postings);
+            }
+        }
+        // every worker counts keywords by the term ids of its own dictionary, and hands frozen copies on
+        final ThreadLocal<TermCounts> workerCounts = new ThreadLocal<TermCounts>() {
+            protected TermCounts initialValue() {
+                return termCounts(new TermDictionary());
+            }
+        };
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            int batchSize = threads * PARALLEL_BATCH_PER_THREAD;
+            for (int start = 0; start < docs.size(); start += batchSize) {
+                List<String> batch = docs.subList(start, Math.min(start + batchSize, docs.size()));
+
+                ArrayList<Future<TermCounts.Frozen>> loads = new ArrayList<Future<TermCounts.Frozen>>(batch.size());
+                ArrayList<Future<DocumentStamp>> stamps = new ArrayList<Future<DocumentStamp>>(batch.size());
+                // written by the loads, read once they are done
+                final String[] names = new String[batch.size()];
+                for (int i = 0; i < batch.size(); i++) {
+                    final String doc = batch.get(i);
+                    final int at = i;
+                    loads.add(pool.submit(new Callable<TermCounts.Frozen>() {
+                        public TermCounts.Frozen call() throws FileNotFoundException {
+                            TermCounts counts = workerCounts.get();
+                            DocumentType type = DocumentType.of(doc);
+                            names[at] = DocumentType.textName(doc, type);
+                            loadKeywords(doc, type, ocr, counts);
+                            return counts.freeze();
+                        }
+                    }));
+                    stamps.add(pool.submit(new Callable<DocumentStamp>() {
+                        public DocumentStamp call() {
+                            return stampOf(doc);
+                        }
+                    }));
+                }
+                final ArrayList<TermCounts.Frozen> kwsList = new ArrayList<TermCounts.Frozen>(batch.size());
+                for (Future<TermCounts.Frozen> load : loads) {
+                    kwsList.add(await(load));
+                }
+                // document ids are handed out in list order, exactly as the serial build does
+                final int[] docIds = new int[kwsList.size()];
+                long bytes = 0;
+                for (int i = 0; i < docIds.length; i++) {
+                    DocumentStamp stamp = await(stamps.get(i));
+                    storeText(names[i], kwsList.get(i).text);
+                    docIds[i] = documents.add(names[i]);
+                    documents.setLength(docIds[i], kwsList.get(i).length);
+                    documents.setStamp(docIds[i], stamp);
+                    bytes += stamp == null ? 0 : stamp.size;
+                }
+                metrics.merge.record(0, docIds.length, bytes);
+
+                ArrayList<Future<Object>> merges = new ArrayList<Future<Object>>(threads);
+                for (int i = 0; i < threads; i++) {
+                    final int shard = i;
+                    merges.add(pool.submit(new Callable<Object>() {
+                        public Object call() {
+                            long start = System.nanoTime();
+                            mergeShard(kwsList, docIds, shards.get(shard), shard, shards.size());
+                            metrics.merge.record(System.nanoTime() - start, 0, 0);
+                            return null;
+                        }
+                    }));
+                }
+                for (Future<Object> merge : merges) {
+                    await(merge);
+                }
+            }
+
+            ArrayList<Future<Object>> sorts = new ArrayList<Future<Object>>(threads);
+            for (final TermIndex shard : shards) {
+                sorts.add(pool.submit(new Callable<Object>() {
+                    public Object call() {
+                        long start = System.nanoTime();
+                        finishPostings(shard, denseSize());
+                        metrics.merge.record(System.nanoTime() - start, 0, 0);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Object> sort : sorts) {
+                await(sort);
+            }
+        } finally {
+            pool.shutdownNow();
+            try {
+                pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            keywordsIndex.clear();
+            for (TermIndex shard : shards) {
+                // a no-op unless the build failed before the shard threads got to it
+                finishPostings(shard, denseSize());
+                for (int id = 0; id < shard.idLimit(); id++) {
+                    PostingList postings = shard.get(id);
+                    if (postings != null) {
+                        keywordsIndex.put(shard.term(id), postings);
+                    }
+                }
+            }
+            finishStore();
+            sampleIndex();
+        }
+    }
+
+    /**
+     * Builds the index of a corpus that need not fit on the heap, in single-pass in-memory indexing (SPIMI)
+     * style, into a segment file, and opens that file as with openIndex. Documents are indexed one at a
+     * time into an in-memory index of their own, as makeIndex does, until its estimated heap size reaches
+     * the memory budget. That run is then written to a temporary segment file next to indexFile, and
+     * indexing goes on into a new, empty one. Finally IndexSegment.merge merges all runs k ways into
+     * indexFile, streaming, and the runs are deleted.
+     *
+     * The heap thus holds at most about memoryBudget bytes of index at any time, plus the postings of one
+     * keyword during the merge, whatever the size of the corpus. What does grow with the number of documents,
+     * but not with their size, is the list of document names itself, which the caller holds, 24 to 48 bytes
+     * per document to recognize names listed more than once (see FingerprintSet), and, with a document store
+     * (see setDocumentStore), the store's directory entry of every document until the store is written. The
+     * disk needs room for the runs and the merged file at once, and the merged file must not be larger than
+     * 2GB (see IndexSegment.merge). The merged index is exactly the one that makeIndex builds from the same
+     * list, except that a document listed more than once is only indexed the first time.
+     *
+     * @param docsFile Name of file that has a list of all the document file names, one name per line
+     * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+     * @param indexFile Name of the segment file to write
+     * @param memoryBudget Estimated heap bytes a run may take before it is written to disk
+     * @throws FileNotFoundException If there is a problem locating any of the input files on disk
+     * @throws IOException If a run or the segment file cannot be written, or the segment would be larger
+     *         than 2GB
+     */
+    public void makeIndex(String docsFile, String noiseWordsFile, String indexFile, long memoryBudget)
+            throws IOException
+    {
+        makeIndex(readDocumentList(docsFile), noiseWordsFile, indexFile, memoryBudget);
+    }
+
+    /**
+     * Memory-bounded build from a list of document file names, see makeIndex(docsFile, noiseWordsFile,
+     * indexFile, memoryBudget).
+     */
+    public void makeIndex(List<String> docs, String noiseWordsFile, String indexFile, long memoryBudget)
+            throws IOException
+    {
+        checkWritable();
+        loadNoiseWords(noiseWordsFile);
+        OCRManager ocr = newOcrManager();
+        version++;
+
+        if (!(docs instanceof RandomAccess)) {
+            docs = new ArrayList<String>(docs);
+        }
+        ArrayList<File> runFiles = new ArrayList<File>();
+        IndexSegment[] runs = new IndexSegment[0];
+        // the names seen so far, and the few whose fingerprint is the same as another name's
+        FingerprintSet names = new FingerprintSet();
+        HashSet<String> collidingNames = new HashSet<String>();
+        startStore();
+        try {
+            TermIndex run = new TermIndex();
+            DocumentTable runDocuments = new DocumentTable();
+            TermCounts counts = termCounts(run.terms());
+            long bytes = 0;
+            for (int d = 0; d < docs.size(); d++) {
+                String docFile = docs.get(d);
+                DocumentType type = DocumentType.of(docFile);
+                String name = DocumentType.textName(docFile, type);
+                int seen = names.add(name, d);
+                if (seen >= 0 && (docs.get(seen).equals(docFile) || textName(docs.get(seen)).equals(name)
+                        || !collidingNames.add(name))) {
+                    continue;
+                }
+                loadKeywords(docFile, type, ocr, counts);
+                DocumentStamp stamp = stampOf(docFile);
+                long start = System.nanoTime();
+                storeText(name, counts);
+                int docId = runDocuments.add(name);
+                runDocuments.setLength(docId, counts.length());
+                runDocuments.setStamp(docId, stamp);
+                bytes += DOCUMENT_BYTES + 2L * name.length() + appendKeywords(run, counts, docId);
+                metrics.merge.record(System.nanoTime() - start, 1, stamp == null ? 0 : stamp.size);
+                if (bytes >= memoryBudget) {
+                    runFiles.add(writeRun(run, runDocuments, indexFile, runFiles.size()));
+                    run = new TermIndex();
+                    runDocuments = new DocumentTable();
+                    counts = termCounts(run.terms());
+                    bytes = 0;
+                }
+            }
+            if (runDocuments.size() > 0 || runFiles.isEmpty()) {
+                runFiles.add(writeRun(run, runDocuments, indexFile, runFiles.size()));
+            }
+
+            long start = System.nanoTime();
+            runs = new IndexSegment[runFiles.size()];
+            for (int r = 0; r < runs.length; r++) {
+                runs[r] = IndexSegment.open(runFiles.get(r));
+            }
+            IndexSegment.merge(new File(indexFile), runs);
+            metrics.merge.record(System.nanoTime() - start, 0, new File(indexFile).length());
+        } finally {
+            for (IndexSegment run : runs) {
+                if (run != null) {
+                    run.close();
+                }
+            }
+            for (File runFile : runFiles) {
+                runFile.delete();
+            }
+            finishStore();
+        }
+        openIndex(indexFile);
+    }
+
+    /**
+     * Writes a run of the memory-bounded build to a temporary segment file.
+     *
+     * @return The run file
+     */
+    private File writeRun(TermIndex run, DocumentTable runDocuments, String indexFile, int number)
+            throws IOException {
+        long start = System.nanoTime();
+        // the run is only written out, so every list is packed
+        finishPostings(run, Integer.MAX_VALUE);
+        File file = new File(indexFile + ".run" + number);
+        IndexSegment.write(file, run, runDocuments);
+        metrics.merge.record(System.nanoTime() - start, 0, file.length());
+        return file;
+    }
+
+    /**
+     * Appends the keywords of a batch of documents that belong to one shard to that shard, in batch order.
+     */
+    private static void mergeShard(List<TermCounts.Frozen> kwsList, int[] docIds, TermIndex index, int shard,
+                                   int shardCount) {
+        for (int i = 0; i < docIds.length; i++) {
+            TermCounts.Frozen kws = kwsList.get(i);
+            for (int k = 0; k < kws.keywords.length; k++) {
+                if (shardOf(kws.keywords[k], shardCount) == shard) {
+                    index.getOrAdd(kws.keywords[k]).append(docIds[i], kws.frequencies[k],
+                            kws.positions == null ? null : kws.positions[k]);
+                }
+            }
+        }
+    }
+
+    private static int shardOf(String key, int shardCount) {
+        return (key.hashCode() & 0x7fffffff) % shardCount;
+    }
+
+    /**
+     * Waits for a worker task, rethrowing the FileNotFoundException (or runtime failure) it ended with.
+     */
+    static <T> T await(Future<T> task) throws FileNotFoundException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Indexing interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof FileNotFoundException) {
+                throw (FileNotFoundException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Brings the index up to date with the documents listed in docsFile, doing only the work that changed.
+     * Documents that are new, or whose source file changed since it was indexed, are (re-)indexed. Documents
+     * that are no longer listed are dropped from the index. A document counts as changed when its size and
+     * modification time differ from the ones recorded when it was indexed, and its content hash differs too,
+     * so a file that was merely touched is not re-indexed.
+     *
+     * Removing documents takes one pass over the in-memory posting lists, which drops their postings and
+     * renumbers the remaining documents. No unchanged document is read again, except to hash the ones whose
+     * modification time changed.
+     *
+     * @param docsFile Name of file that has a list of all the document file names, one name per line
+     * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+     * @return Whether any document was added, re-indexed or removed
+     * @throws FileNotFoundException If there is a problem locating any of the input files on disk
+     */
+    public boolean updateIndex(String docsFile, String noiseWordsFile) throws FileNotFoundException {
+        return updateIndex(readDocumentList(docsFile), noiseWordsFile);
+    }
+
+    /**
+     * Brings the index up to date with a list of document file names, such as the ones a DocumentCrawler
+     * found, see updateIndex(docsFile, noiseWordsFile).
+     *
+     * @param docs Names of all the document files the index is to have
+     * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+     * @return Whether any document was added, re-indexed or removed
+     * @throws FileNotFoundException If there is a problem locating any of the input files on disk
+     */
+    public boolean updateIndex(List<String> docs, String noiseWordsFile) throws FileNotFoundException {
+        checkWritable();
+        loadNoiseWords(noiseWordsFile);
+
+        HashSet<String> listed = new HashSet<String>();
+        ArrayList<String> pending = new ArrayList<String>();
+        ArrayList<DocumentType> pendingTypes = new ArrayList<DocumentType>();
+        ArrayList<DocumentStamp> pendingStamps = new ArrayList<DocumentStamp>();
+        BitSet removed = new BitSet(documents.size());
+        for (String docFile : docs) {
+            DocumentType type = DocumentType.of(docFile);
+            String name = DocumentType.textName(docFile, type);
+            listed.add(name);
+            int docId = documents.idOf(name);
+            DocumentStamp stored = docId < 0 ? null : documents.stamp(docId);
+            if (stored != null && stored.sameAttributes(new File(docFile))) {
+                continue;
+            }
+            DocumentStamp current = stampOf(docFile);
+            if (stored != null && current != null && stored.hash == current.hash) {
+                documents.setStamp(docId, current);
+                continue;
+            }
+            if (docId >= 0) {
+                removed.set(docId);
+            }
+            pending.add(docFile);
+            pendingTypes.add(type);
+            pendingStamps.add(current);
+        }
+        for (int docId = 0; docId < documents.size(); docId++) {
+            if (!listed.contains(documents.name(docId))) {
+                removed.set(docId);
+            }
+        }
+
+        if (!removed.isEmpty() || !pending.isEmpty()) {
+            version++;
+            startStore();
+        }
+        if (!removed.isEmpty()) {
+            long start = System.nanoTime();
+            for (int docId = removed.nextSetBit(0); docId >= 0; docId = removed.nextSetBit(docId + 1)) {
+                removeText(documents.name(docId));
+            }
+            int[] remap = documents.remove(removed);
+            for (int id = 0; id < keywordsIndex.idLimit(); id++) {
+                PostingList postings = keywordsIndex.get(id);
+                if (postings == null) {
+                    continue;
+                }
+                postings.remap(remap);
+                if (postings.size() == 0) {
+                    keywordsIndex.remove(id);
+                }
+            }
+            metrics.merge.record(System.nanoTime() - start, 0, 0);
+        }
+
+        OCRManager ocr = pending.isEmpty() ? null : newOcrManager();
+        TermCounts counts = pending.isEmpty() ? null : termCounts(keywordsIndex.terms());
+        try {
+            for (int i = 0; i < pending.size(); i++) {
+                String docFile = pending.get(i);
+                DocumentType type = pendingTypes.get(i);
+                loadKeywords(docFile, type, ocr, counts);
+                DocumentStamp stamp = pendingStamps.get(i);
+                long start = System.nanoTime();
+                String name = DocumentType.textName(docFile, type);
+                storeText(name, counts);
+                int docId = documents.add(name);
+                documents.setLength(docId, counts.length());
+                appendKeywords(keywordsIndex, counts, docId);
+                documents.setStamp(docId, stamp);
+                metrics.merge.record(System.nanoTime() - start, 1, stamp == null ? 0 : stamp.size);
+            }
+        } finally {
+            finishPostings();
+            finishStore();
+        }
+        return !removed.isEmpty() || !pending.isEmpty();
+    }
+
+    /**
+     * Tells whether updateIndex would change anything, without changing the index. It works on a segment
+     * opened with openIndex as well, reading only its document names and stamps, so that an index whose
+     * documents did not change is served mapped and never loaded onto the heap.
+     *
+     * @param docs Names of all the document files the index is to have
+     * @return Whether every listed document is indexed and unchanged, and no other document is indexed
+     */
+    public boolean isIndexCurrent(List<String> docs) {
+        int count = documentCount();
+        HashMap<String, Integer> ids = new HashMap<String, Integer>(count * 2);
+        for (int docId = 0; docId < count; docId++) {
+            ids.put(documentName(docId), docId);
+        }
+        HashSet<String> listed = new HashSet<String>();
+        for (String docFile : docs) {
+            String name = DocumentType.textName(docFile, DocumentType.of(docFile));
+            listed.add(name);
+            Integer docId = ids.get(name);
+            if (docId == null) {
+                return false;
+            }
+            DocumentStamp stored = documentStamp(docId);
+            if (stored != null && stored.sameAttributes(new File(docFile))) {
+                continue;
+            }
+            DocumentStamp current = stampOf(docFile);
+            if (stored == null || current == null || stored.hash != current.hash) {
+                return false;
+            }
+        }
+        return listed.size() == count;
+    }
+
+    /**
+     * Reads the docs file, one document name per line.
+     */
+    static ArrayList<String> readDocumentList(String docsFile) throws FileNotFoundException {
+        ArrayList<String> docs = new ArrayList<String>();
+        Scanner sc = new Scanner(new File(docsFile));
+        while (sc.hasNext()) {
+            docs.add(sc.next());
+        }
+        sc.close();
+        return docs;
+    }
+
+    /**
+     * Stamps a document's source file, or returns null if it cannot be read. A document without a stamp is
+     * simply re-indexed by the next updateIndex.
+     */
+    private static DocumentStamp stampOf(String docFile) {
+        try {
+            return DocumentStamp.of(new File(docFile));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Loads the noise words file into the noiseWords hash set.
+     *
+     * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+     * @throws FileNotFoundException If the noise words file is not found on disk
+     */
+    private void loadNoiseWords(String noiseWordsFile) throws FileNotFoundException {
+        Scanner sc = new Scanner(new File(noiseWordsFile));
+        while (sc.hasNext()) {
+            String word = sc.next();
+            noiseWords.add(word);
+        }
+        sc.close();
+    }
+
+    private OCRManager newOcrManager() {
+        return new OCRManager(ocrEngine != null ? ocrEngine : OCRManager.algorithmiaEngine(),
+                OCRManager.DEFAULT_IN_FLIGHT, metrics);
+    }
+
+    /**
+     * Scans a document listed in the docs file for keywords. Text documents are read from disk. The text of
+     * PDFs and images is tokenized page by page as OCR (or PDF text extraction) produces it, without reading
+     * it back from the .txt file that OCRManager writes next to them.
+     *
+     * @param docFile Document name as listed in the docs file
+     * @param type Type of the document, see DocumentType.of, or null if it is not supported
+     * @param ocr OCR manager used for non-text documents
+     * @param counts Counts to count the document's keywords in, cleared first
+     * @throws FileNotFoundException If the document is not found, or its type is not supported
+     */
+    private void loadKeywords(String docFile, DocumentType type, OCRManager ocr, TermCounts counts)
+            throws FileNotFoundException {
+        long start = System.nanoTime();
+        counts.clear();
+        scanDocument(docFile, type, ocr, counts);
+        metrics.documents.record(System.nanoTime() - start);
+    }
+
+    private void scanDocument(String docFile, DocumentType type, OCRManager ocr, final TermCounts counts)
+            throws FileNotFoundException {
+        if (type == DocumentType.TEXT) {
+            scanText(docFile, counts);
+            return;
+        }
+        if (type == null) {
+            throw new FileNotFoundException(new File(docFile).isFile() ? "Unsupported document type: " + docFile
+                    : "Failed to find file: " + docFile);
+        }
+        try {
+            ocr.manage(docFile, new OcrScheduler.PageConsumer() {
+                // positions continue from page to page
+                int words;
+
+                public void accept(String text) throws IOException {
+                    words += addKeywords(counts, new StringReader(text), words);
+                }
+            });
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to OCR " + docFile, e);
+        }
+        metrics.tokenize.record(0, 1, 0);
+    }
+
+    /**
+     * Name of the text document a listed document is indexed from: the document itself for text files,
+     * otherwise the .txt file its OCR output is written to. This is the name the document table uses.
+     * The type is told by the extension, or by the content for names without a known one, see DocumentType,
+     * so callers that go on to index the document tell it once with DocumentType.of instead.
+     */
+    static String textName(String docFile) {
+        return DocumentType.textName(docFile, DocumentType.of(docFile));
+    }
+
+    /**
+     * Search result for "kw1 or kw2". A document is in the result set if kw1 or kw2 occurs in that
+     * document. Result set is arranged in descending order of document frequencies. (Note that a
+     * matching document will only appear once in the result.) Ties in frequency values are broken
+     * in favor of the first keyword. (That is, if kw1 is in doc1 with frequency f1, and kw2 is in doc2
+     * also with the same frequency f1, then doc1 will take precedence over doc2 in the result. Remaining
+     * ties go to the document that was indexed first.) The result set is limited to 5 entries. If there are no matches at all, result is null.
+     * Either keyword can be a keyword pattern (wor*, w?rd, word~, see Query), whose frequency in a document
+     * is the sum of the frequencies of the keywords it matches there.
+     *
+     * @param kw1 First keyword
+     * @param kw1 Second keyword
+     * @return List of documents in which either kw1 or kw2 occurs, arranged in descending order of
+     *         frequencies. The result size is limited to 5 documents. If there are no matches, returns null.
+     */
+
+    private ArrayList<String> topSearch (String kw1, String kw2){
+        QueryEvaluator evaluator = topEvaluator(kw1, kw2);
+        if(evaluator == null){
+            return null;
+        }
+        int[] docIds = evaluator.evaluate();
+        ArrayList<String> result = new ArrayList<String>(docIds.length);
+        for (int docId : docIds) {
+            result.add(documentName(docId));
+        }
+        return result;
+    }
+
+    /**
+     * Prepares the evaluation of top5search.
+     *
+     * @return Evaluator, or null if neither keyword is in the index
+     * @throws IllegalArgumentException For a malformed keyword pattern
+     */
+    QueryEvaluator topEvaluator(String kw1, String kw2) {
+        return topEvaluator(expand(kw1, kw2));
+    }
+
+    /**
+     * Prepares the evaluation of top5search for keywords that are already expanded, see expand.
+     *
+     * @return Evaluator, or null if neither keyword is in the index
+     */
+    QueryEvaluator topEvaluator(String[][] terms) {
+        PostingList postings1 = postingsOf(terms[0]);
+        PostingList postings2 = postingsOf(terms[1]);
+        if (postings1 == null && postings2 == null) {
+            return null;
+        }
+        // a document scores its highest keyword frequency, and kw1 frequencies count half a point more so
+        // that they win ties
+        return new QueryEvaluator(new PostingList[] {postings1, postings2},
+                documentCount(), new double[] {0.5, 0}, 5, false, false);
+    }
+
+    public ArrayList<String> top5search(String kw1, String kw2) {
+        long start = System.nanoTime();
+        try {
+            if (queryCache != null) {
+                ArrayList<String> cached = queryCache.top5search(this, kw1, kw2, version);
+                if (cached != null) {
+                    return cached.isEmpty() ? null : cached;
+                }
+            }
+
+            ArrayList<String> results = topSearch(kw1, kw2);
+            if (queryCache != null) {
+                queryCache.putTop5search(this, kw1, kw2, version, results);
+            }
+            return results;
+        } finally {
+            metrics.top5search.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Top-K search for any number of keywords. With the OR operator a document matches if it contains any
+     * of the keywords, with AND only if it contains all of them. A matching document scores the sum of the
+     * relevance scores of the query keywords in it, as computed by the scorer (BM25 by default, see
+     * setScorer). Results are in descending order of score, ties are broken in favor of the document that was
+     * indexed first.
+     *
+     * Scoring only needs the posting lists, the document lengths and the document frequencies (the posting
+     * list sizes), which are all part of the index, so it is a single arithmetic pass over the postings of the
+     * query keywords, and the K best documents are kept in a bounded heap (see QueryEvaluator).
+     *
+     * PHRASE and NEAR queries need a positional index (see setPositional). They are evaluated like AND
+     * queries, and only the documents that contain every keyword have their positions read. A document then
+     * scores its number of phrase occurrences (or proximity windows) as if it were the frequency of a
+     * keyword, so documents where the keywords occur together more often rank higher.
+     *
+     * @param query Keywords, operator and number of results
+     * @return Up to K best matching documents with their scores, best first. Empty if nothing matches.
+     * @throws IllegalStateException For a PHRASE or NEAR query on an index without positions
+     */
+    public ArrayList<SearchResult> search(Query query) {
+        long start = System.nanoTime();
+        try {
+            return evaluate(query);
+        } finally {
+            metrics.search.record(System.nanoTime() - start);
+        }
+    }
+
+    private ArrayList<SearchResult> evaluate(Query query) {
+        if (queryCache != null) {
+            ArrayList<SearchResult> cached = queryCache.search(this, query, scorer, version);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        return evaluate(query, evaluator(query));
+    }
+
+    /**
+     * Scores and evaluates a prepared query, and caches its results.
+     */
+    private ArrayList<SearchResult> evaluate(Query query, QueryEvaluator evaluator) {
+        if (segment != null) {
+            evaluator.scoreWith(scorer, segment.documentLengths(), segment.averageDocumentLength());
+        } else {
+            evaluator.scoreWith(scorer, documents.lengths(), documents.averageLength());
+        }
+        int[] docIds = evaluator.evaluate();
+        double[] scores = evaluator.scores();
+        ArrayList<SearchResult> results = new ArrayList<SearchResult>(docIds.length);
+        for (int i = 0; i < docIds.length; i++) {
+            results.add(new SearchResult(documentName(docIds[i]), scores[i]));
+        }
+        if (store != null) {
+            addSnippets(results, query.keywords);
+        }
+        if (queryCache != null) {
+            queryCache.putSearch(this, query, scorer, version, results);
+        }
+        return results;
+    }
+
+    /**
+     * Runs a batch of queries, with the results search would return for each of them, but sharing the work
+     * they have in common: every distinct keyword (or keyword pattern) of the batch is expanded and looked up
+     * once, and the posting list of a keyword that several queries share is decoded once into plain arrays
+     * (see PostingList.decoded) that all of them read, instead of every query decoding its blocks again.
+     * Queries whose results are cached are answered from the cache. The batch as a whole is timed in the
+     * searchBatch metric.
+     *
+     * @param queries Queries
+     * @return Results of every query, in the order of the queries
+     * @throws IllegalStateException For a PHRASE or NEAR query on an index without positions
+     * @throws IllegalArgumentException For a malformed keyword pattern
+     */
+    public ArrayList<ArrayList<SearchResult>> search(List<Query> queries) {
+        long start = System.nanoTime();
+        try {
+            HashMap<String,Integer> uses = new HashMap<String,Integer>();
+            for (Query query : queries) {
+                for (String keyword : query.keywords) {
+                    Integer count = uses.get(keyword);
+                    uses.put(keyword, count == null ? 1 : count + 1);
+                }
+            }
+            HashMap<String,PostingList> postings = new HashMap<String,PostingList>();
+            ArrayList<ArrayList<SearchResult>> results = new ArrayList<ArrayList<SearchResult>>(queries.size());
+            for (Query query : queries) {
+                ArrayList<SearchResult> cached = queryCache != null
+                        ? queryCache.search(this, query, scorer, version) : null;
+                if (cached != null) {
+                    results.add(cached);
+                    continue;
+                }
+                PostingList[] lists = new PostingList[query.keywords.length];
+                for (int i = 0; i < lists.length; i++) {
+                    String keyword = query.keywords[i];
+                    if (!postings.containsKey(keyword)) {
+                        PostingList list = postingsOf(expand(keyword)[0]);
+                        postings.put(keyword, list != null && uses.get(keyword) > 1 ? list.decoded() : list);
+                    }
+                    lists[i] = postings.get(keyword);
+                }
+                results.add(evaluate(query, evaluator(query, lists)));
+            }
+            return results;
+        } finally {
+            metrics.searchBatch.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Prepares the evaluation of a query on this index, up to its scoring.
+     *
+     * @throws IllegalStateException For a PHRASE or NEAR query on an index without positions
+     * @throws IllegalArgumentException For a malformed keyword pattern
+     */
+    QueryEvaluator evaluator(Query query) {
+        return evaluator(query, expand(query.keywords));
+    }
+
+    /**
+     * Prepares the evaluation of a query whose keywords are already expanded, see expand. A keyword that
+     * expands to several keywords is searched for as the union of their posting lists.
+     *
+     * @throws IllegalStateException For a PHRASE or NEAR query on an index without positions
+     */
+    QueryEvaluator evaluator(Query query, String[][] terms) {
+        PostingList[] lists = new PostingList[query.keywords.length];
+        for (int i = 0; i < lists.length; i++) {
+            lists[i] = postingsOf(terms[i]);
+        }
+        return evaluator(query, lists);
+    }
+
+    /**
+     * Prepares the evaluation of a query whose posting lists are already looked up.
+     *
+     * @param lists Posting lists of the query keywords, null for keywords that are not in the index
+     * @throws IllegalStateException For a PHRASE or NEAR query on an index without positions
+     */
+    private QueryEvaluator evaluator(Query query, PostingList[] lists) {
+        boolean positions = query.operator == Query.Operator.PHRASE || query.operator == Query.Operator.NEAR;
+        for (int i = 0; i < lists.length; i++) {
+            if (positions && lists[i] != null && !lists[i].hasPositions()) {
+                throw new IllegalStateException("Index has no positions for " + query.operator + " queries");
+            }
+        }
+        QueryEvaluator evaluator = new QueryEvaluator(lists, documentCount(), null, query.k,
+                query.operator != Query.Operator.OR, true);
+        evaluator.shortestLength(shortestDocumentLength());
+        evaluator.duplicatePostings(duplicatePostings());
+        if (positions) {
+            evaluator.matchPositions(query.operator == Query.Operator.PHRASE, query.distance);
+        }
+        return evaluator;
+    }
+
+    /**
+     * Gives search results snippets of their documents' stored text, see snippet.
+     */
+    private void addSnippets(ArrayList<SearchResult> results, String[] keywords) {
+        if (results.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        String[] terms = flatten(expand(keywords));
+        for (SearchResult result : results) {
+            result.snippet = store.snippet(result.document, terms);
+        }
+        metrics.snippets.record(System.nanoTime() - start, results.size(), 0);
+    }
+
+    /**
+     * Cuts a snippet of a document's stored text around the keywords of a query, with the keywords
+     * highlighted, see DocumentStore.snippet. search gives its results such snippets as soon as a document
+     * store is set, this is for documents found otherwise.
+     *
+     * @param document Document name, as search results have it
+     * @param keywords Query keywords (lower case), keyword patterns stand for the keywords they expand to
+     * @return Snippet, or null if there is no document store or the document is not in it
+     * @throws IllegalArgumentException For a malformed keyword pattern
+     */
+    public Snippet snippet(String document, String... keywords) {
+        if (store == null) {
+            return null;
+        }
+        long start = System.nanoTime();
+        Snippet snippet = store.snippet(document, flatten(expand(keywords)));
+        metrics.snippets.record(System.nanoTime() - start, 1, 0);
+        return snippet;
+    }
+
+    private static String[] flatten(String[][] terms) {
+        if (terms.length == 1) {
+            return terms[0];
+        }
+        ArrayList<String> all = new ArrayList<String>();
+        for (String[] keywordTerms : terms) {
+            Collections.addAll(all, keywordTerms);
+        }
+        return all.toArray(new String[all.size()]);
+    }
+
+    /**
+     * Stores the normalized text of documents in a file as they are indexed, with the offsets of their
+     * keywords, so that search results come with snippets of their documents that highlight the query
+     * keywords (see Snippet and DocumentStore), without the documents being read again. Every makeIndex and
+     * updateIndex from now on writes the text of the documents it indexes to the file, and drops the ones it
+     * removes: into a new file when the index starts out empty, otherwise added to the existing one. The file
+     * is memory-mapped like a segment, and kept next to the index, e.g. as index.pse.docs, so that it is
+     * opened along with a saved index, whose snippets then work right away.
+     *
+     * Storing costs about the size of the text documents on disk, and a copy of the words of every document
+     * while it is indexed. The file can not grow past 2GB (see DocumentStore.MAX_SIZE): once the text of a
+     * document would take it over, that document is still indexed, but not stored, and its results come
+     * without a snippet.
+     *
+     * @param storeFile Name of the store file, opened if it exists, or null to store no text and stop giving
+     *                  results snippets
+     * @throws IOException If the file exists but cannot be read or is not a document store
+     */
+    public void setDocumentStore(String storeFile) throws IOException {
+        DocumentStore opened = null;
+        if (storeFile != null && new File(storeFile).isFile()) {
+            opened = DocumentStore.open(new File(storeFile));
+        }
+        if (store != null) {
+            store.close();
+        }
+        store = opened;
+        this.storeFile = storeFile == null ? null : new File(storeFile);
+        // cached results have other snippets
+        version++;
+    }
+
+    /**
+     * Starts writing the document store, if there is one, before documents are indexed. The store that
+     * snippets are taken from is closed until finishStore.
+     */
+    private void startStore() {
+        if (storeFile == null) {
+            return;
+        }
+        try {
+            if (store != null) {
+                store.close();
+                store = null;
+            }
+            storeWriter = new DocumentStore.Writer(storeFile, documentCount() > 0);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open " + storeFile, e);
+        }
+    }
+
+    /**
+     * Stores the text a tokenizer read for a document, see setDocumentStore.
+     */
+    private void storeText(String name, TermCounts counts) {
+        if (storeWriter != null) {
+            storeText(name, counts.tokenizer.text.record());
+        }
+    }
+
+    private void storeText(String name, byte[] text) {
+        if (storeWriter == null) {
+            return;
+        }
+        try {
+            storeWriter.add(name, text);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write " + storeFile, e);
+        }
+    }
+
+    private void removeText(String name) {
+        if (storeWriter != null) {
+            storeWriter.remove(name);
+        }
+    }
+
+    /**
+     * Writes the directory of the document store and opens it for snippets.
+     */
+    private void finishStore() {
+        if (storeWriter == null) {
+            return;
+        }
+        try {
+            storeWriter.close();
+            store = DocumentStore.open(storeFile);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write " + storeFile, e);
+        } finally {
+            storeWriter = null;
+        }
+    }
+
+    /**
+     * Sets the relevance scorer used by search, e.g. Scorer.BM25 (the default), Scorer.TF_IDF or
+     * Scorer.FREQUENCY. top5search always ranks by frequency.
+     *
+     * @param scorer Scorer
+     */
+    public void setScorer(Scorer scorer) {
+        this.scorer = scorer;
+    }
+
+    /**
+     * Makes makeIndex and updateIndex record the word positions of every keyword occurrence, which PHRASE
+     * and NEAR queries need. Positions count every word of a document, including noise words and other words
+     * that are not keywords, so a phrase only matches words that really are next to each other. They are
+     * stored compressed, and a segment only reads them for phrase and proximity queries, so plain keyword
+     * queries cost the same as on an index without positions. Off by default. loadIndex sets it to whether
+     * the loaded index has positions.
+     *
+     * @param positional Whether to record positions
+     */
+    public void setPositional(boolean positional) {
+        this.positional = positional;
+    }
+
+    /**
+     * Puts a cache of search results in front of search and top5search. Results are cached for the current
+     * version of the index, so cached results are never stale: indexing documents or opening another index
+     * makes the cache miss until the queries are run again.
+     *
+     * @param queryCache Cache, or null for none
+     */
+    public void setQueryCache(QueryCache queryCache) {
+        this.queryCache = queryCache;
+    }
+
+    /**
+     * Metrics of this engine: docs and bytes per second of every indexing stage, per-document load times,
+     * posting list lengths and index size, and search and top5search latencies. They can be registered with
+     * JMX, or reported periodically, see Metrics.
+     *
+     * @return Metrics, recorded from the start
+     */
+    public Metrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets the OCR backend that PDFs and images are recognized with by makeIndex and updateIndex, e.g. a
+     * TesseractOcrEngine, or a CachingOcrEngine so that unchanged pages are not recognized again.
+     *
+     * @param ocrEngine OCR backend, or null for OCRManager's default
+     */
+    public void setOcrEngine(OcrEngine ocrEngine) {
+        this.ocrEngine = ocrEngine;
+    }
+
+    /**
+     * Sets the charset that makeIndex, updateIndex and loadKeywordsFromDocument read text documents in. It
+     * does not depend on the platform: UTF-8, which OCRManager writes the text of PDFs and images in, unless
+     * set otherwise. Bytes that are not valid in the charset are read as U+FFFD, which is not a keyword.
+     *
+     * @param charset Charset of the text documents
+     */
+    public void setCharset(Charset charset) {
+        this.charset = charset;
+    }
+}
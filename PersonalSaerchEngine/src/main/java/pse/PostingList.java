@@ -0,0 +1,1042 @@
+package pse;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Compact list of the occurrences of one keyword. Instead of one pse.Occurrence object per document, the
+ * list holds two parallel int arrays: the ids of the documents (see DocumentTable) and the frequency of the
+ * keyword in each of them. That is 8 bytes per posting, with no object header and no document name reference.
+ *
+ * Postings are kept in descending order of frequency. Postings with equal frequencies stay in the order
+ * they were added, which is the order the documents were indexed in.
+ *
+ * Inserting every posting in place with add costs a shift of the rest of the list, which makes building the
+ * list of a term that occurs in N documents O(N^2). Bulk builds use append instead, which just adds the
+ * posting at the end, and call sort once the batch is in: the appended tail is sorted and merged into the
+ * ordered head in O(n log n), with exactly the order a sequence of add calls would have produced. The
+ * accessors must not be used while the list has an unsorted tail.
+ *
+ * A list can also hold the word positions of the keyword in every document, for phrase and proximity
+ * queries. They are stored per posting as the gaps between consecutive positions, in a variable length
+ * byte encoding (7 bits per byte, high bit set on all but the last byte), which takes one byte for most
+ * gaps. A list only has positions if every posting was added with them. Lists read from an index segment
+ * leave their positions in the segment, and decode them from the mapped file only when they are asked for.
+ *
+ * Once a list is complete, pack encodes its postings into blocks of BLOCK_SIZE, which is how the lists of a
+ * built index are kept on the heap, apart from the densest ones (see PersonalSearchEngine.finishPostings),
+ * and stored in index segments. A block starts with the frequency of its
+ * first posting, which is the highest in the block, and its lowest document id. Every posting is then a
+ * variable length int (see encodePositions) holding a flag in its low bit: clear if the posting has the
+ * same frequency as the one before it and a higher document id, the rest of the value being the gap between
+ * the two ids minus 1, set otherwise, the rest of the value being the document id minus the block's lowest,
+ * followed by the drop in frequency. Postings of equal frequency are in the order their documents were
+ * indexed, so nearly every posting is a small gap with the flag clear, one or two bytes instead of eight.
+ * Lists of more than one block are preceded by a skip table with a 16 byte entry per block: the offset of
+ * the block after the table, its highest frequency, and its lowest and highest document ids. Queries decode
+ * a list one block at a time (see decodeBlock), and use the skip table to leave out blocks whose postings
+ * can not make it into the results. The other accessors decode the block they need, and keep the last one.
+ * Packed lists go back to plain arrays the first time they are changed.
+ */
+public class PostingList {
+
+    /**
+     * Number of postings per block of a packed list.
+     */
+    static final int BLOCK_SIZE = 128;
+
+    private static final int SKIP_ENTRY_SIZE = 16;
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    /**
+     * Document ids, parallel to frequencies, null while the list is packed.
+     */
+    private int[] docIds;
+
+    /**
+     * Keyword frequencies, in descending order.
+     */
+    private int[] frequencies;
+
+    /**
+     * Number of postings in use, the arrays may be larger.
+     */
+    private int size;
+
+    /**
+     * Number of leading postings that are in order, postings after it have been appended but not sorted yet.
+     */
+    private int sortedSize;
+
+    /**
+     * Encoded word positions, parallel to docIds, or null if the list has no positions on the heap.
+     */
+    private byte[][] positions;
+
+    /**
+     * Segment and term table position the positions of a list read from a segment are decoded from, null
+     * for lists built on the heap.
+     */
+    private IndexSegment segment;
+
+    private int term;
+
+    /**
+     * Encoded postings of a list packed on the heap, null otherwise.
+     */
+    private byte[] packed;
+
+    /**
+     * Mapped segment file and offset of the encoded postings of a list read from a segment, null otherwise.
+     */
+    private ByteBuffer mapped;
+
+    private int mappedOffset;
+
+    /**
+     * Last block decoded by docId or frequency.
+     */
+    private volatile Block decoded;
+
+    public PostingList() {
+        docIds = new int[INITIAL_CAPACITY];
+        frequencies = new int[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Wraps postings that are already in descending order of frequency, such as postings read back from an
+     * index segment. The arrays are used as is, not copied.
+     *
+     * @param docIds Document ids
+     * @param frequencies Frequencies, parallel to docIds
+     */
+    PostingList(int[] docIds, int[] frequencies) {
+        this.docIds = docIds;
+        this.frequencies = frequencies;
+        this.size = docIds.length;
+        this.sortedSize = size;
+    }
+
+    /**
+     * Wraps postings read back from an index segment, with positions that stay in the segment.
+     *
+     * @param docIds Document ids
+     * @param frequencies Frequencies, parallel to docIds
+     * @param segment Segment the positions are read from
+     * @param term Position of the keyword in the segment's term table
+     */
+    PostingList(int[] docIds, int[] frequencies, IndexSegment segment, int term) {
+        this(docIds, frequencies);
+        this.segment = segment;
+        this.term = term;
+    }
+
+    /**
+     * Wraps postings that are already in descending order of frequency, with their encoded positions.
+     *
+     * @param docIds Document ids
+     * @param frequencies Frequencies, parallel to docIds
+     * @param positions Encoded positions (see encodePositions), parallel to docIds
+     */
+    PostingList(int[] docIds, int[] frequencies, byte[][] positions) {
+        this(docIds, frequencies);
+        this.positions = positions;
+    }
+
+    /**
+     * Wraps packed postings (see pack) with their encoded positions, such as postings copied from an index
+     * segment. The array is used as is, not copied.
+     *
+     * @param size Number of postings
+     * @param packed Encoded postings
+     * @param positions Encoded positions (see encodePositions), parallel to the postings, or null for none
+     */
+    PostingList(int size, byte[] packed, byte[][] positions) {
+        this.size = size;
+        this.sortedSize = size;
+        this.packed = packed;
+        this.positions = positions;
+    }
+
+    /**
+     * Wraps packed postings in a mapped index segment, with positions that stay in the segment too.
+     *
+     * @param size Number of postings
+     * @param mapped Mapped segment file
+     * @param offset Offset of the encoded postings in the file
+     * @param segment Segment the positions are read from
+     * @param term Position of the keyword in the segment's term table
+     */
+    PostingList(int size, ByteBuffer mapped, int offset, IndexSegment segment, int term) {
+        this.size = size;
+        this.sortedSize = size;
+        this.mapped = mapped;
+        this.mappedOffset = offset;
+        this.segment = segment;
+        this.term = term;
+    }
+
+    /**
+     * Inserts a posting in the correct position, based on ordering postings on descending frequencies.
+     * The spot is found with binary search, after any postings that have the same frequency.
+     *
+     * @param docId Document id
+     * @param frequency Frequency of the keyword in the document
+     */
+    public void add(int docId, int frequency) {
+        add(docId, frequency, null);
+    }
+
+    /**
+     * Inserts a posting with the positions of the keyword in the document, see add(int, int).
+     *
+     * @param docId Document id
+     * @param frequency Frequency of the keyword in the document
+     * @param positions Encoded positions (see encodePositions), or null if they are not known
+     */
+    public void add(int docId, int frequency, byte[] positions) {
+        unpack();
+        sort();
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (frequencies[mid] >= frequency) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        ensureCapacity(size + 1);
+        System.arraycopy(docIds, low, docIds, low + 1, size - low);
+        System.arraycopy(frequencies, low, frequencies, low + 1, size - low);
+        docIds[low] = docId;
+        frequencies[low] = frequency;
+        if (keepPositions(positions)) {
+            System.arraycopy(this.positions, low, this.positions, low + 1, size - low);
+            this.positions[low] = positions;
+        }
+        size++;
+        sortedSize = size;
+    }
+
+    /**
+     * Adds a posting at the end of the list, without ordering it. Call sort before the list is read.
+     *
+     * @param docId Document id
+     * @param frequency Frequency of the keyword in the document
+     */
+    public void append(int docId, int frequency) {
+        append(docId, frequency, null);
+    }
+
+    /**
+     * Adds a posting with the positions of the keyword in the document at the end of the list, see
+     * append(int, int).
+     *
+     * @param docId Document id
+     * @param frequency Frequency of the keyword in the document
+     * @param positions Encoded positions (see encodePositions), or null if they are not known
+     */
+    public void append(int docId, int frequency, byte[] positions) {
+        unpack();
+        ensureCapacity(size + 1);
+        docIds[size] = docId;
+        frequencies[size] = frequency;
+        if (keepPositions(positions)) {
+            this.positions[size] = positions;
+        }
+        size++;
+    }
+
+    /**
+     * Decides whether the list keeps positions once a posting with the given positions is added: only if it
+     * has positions for all postings so far, and the new one has them too. Allocates the positions array
+     * for the first posting.
+     */
+    private boolean keepPositions(byte[] added) {
+        if (added == null || (positions == null && size > 0)) {
+            positions = null;
+            return false;
+        }
+        if (positions == null) {
+            positions = new byte[docIds.length][];
+        } else if (positions.length < docIds.length) {
+            positions = Arrays.copyOf(positions, docIds.length);
+        }
+        return true;
+    }
+
+    /**
+     * Puts postings added by append in their place. The appended postings are sorted on descending frequency,
+     * keeping the order they were appended in for equal frequencies, and then merged from the back into the
+     * postings that were already in order, which go first among equal frequencies.
+     */
+    public void sort() {
+        int tail = size - sortedSize;
+        if (tail == 0) {
+            return;
+        }
+        // sort key: descending frequency in the high half, position in the tail (for stability) in the low half
+        long[] keys = new long[tail];
+        for (int i = 0; i < tail; i++) {
+            keys[i] = ((long) (Integer.MAX_VALUE - frequencies[sortedSize + i]) << 32) | i;
+        }
+        Arrays.sort(keys);
+        int[] tailDocIds = new int[tail];
+        int[] tailFrequencies = new int[tail];
+        byte[][] tailPositions = positions != null ? new byte[tail][] : null;
+        for (int i = 0; i < tail; i++) {
+            int from = sortedSize + (int) keys[i];
+            tailDocIds[i] = docIds[from];
+            tailFrequencies[i] = frequencies[from];
+            if (positions != null) {
+                tailPositions[i] = positions[from];
+            }
+        }
+
+        int head = sortedSize - 1;
+        int next = tail - 1;
+        for (int to = size - 1; next >= 0; to--) {
+            if (head < 0 || tailFrequencies[next] <= frequencies[head]) {
+                docIds[to] = tailDocIds[next];
+                frequencies[to] = tailFrequencies[next];
+                if (positions != null) {
+                    positions[to] = tailPositions[next];
+                }
+                next--;
+            } else {
+                docIds[to] = docIds[head];
+                frequencies[to] = frequencies[head];
+                if (positions != null) {
+                    positions[to] = positions[head];
+                }
+                head--;
+            }
+        }
+        sortedSize = size;
+    }
+
+    /**
+     * Merges the lists of several keywords into the list of a single keyword that occurs wherever any of
+     * them does, such as the keywords a KeywordPattern expands to. A document's frequency in the merged list
+     * is the sum of its frequencies in the lists, and its positions the union of its positions in them, if
+     * every list has positions.
+     *
+     * The postings of all lists are sorted on document id in one pass, so merging is O(n log n) in the total
+     * number of postings, whatever the number of lists.
+     *
+     * @param lists Posting lists, not changed
+     * @return Merged list, in descending order of frequency and with no positions on a segment
+     */
+    static PostingList union(PostingList[] lists) {
+        int total = 0;
+        boolean withPositions = true;
+        for (PostingList list : lists) {
+            total += list.size();
+            withPositions &= list.hasPositions();
+        }
+        // sort key: document id in the high half, index into the concatenated lists in the low half
+        long[] keys = new long[total];
+        int[] listFrequencies = new int[total];
+        int[] starts = new int[lists.length + 1];
+        int[] blockDocIds = new int[BLOCK_SIZE];
+        int[] blockFrequencies = new int[BLOCK_SIZE];
+        int n = 0;
+        for (int l = 0; l < lists.length; l++) {
+            starts[l] = n;
+            for (int b = 0; b < lists[l].blockCount(); b++) {
+                int count = lists[l].decodeBlock(b, blockDocIds, blockFrequencies);
+                for (int i = 0; i < count; i++, n++) {
+                    keys[n] = (long) blockDocIds[i] << 32 | n;
+                    listFrequencies[n] = blockFrequencies[i];
+                }
+            }
+        }
+        starts[lists.length] = n;
+        Arrays.sort(keys);
+
+        PostingList union = new PostingList();
+        int[] merged = null;
+        int[] reuse = null;
+        for (int k = 0; k < total; ) {
+            int docId = (int) (keys[k] >>> 32);
+            int end = k;
+            int frequency = 0;
+            while (end < total && (int) (keys[end] >>> 32) == docId) {
+                frequency += listFrequencies[(int) keys[end]];
+                end++;
+            }
+            byte[] positions = null;
+            if (withPositions) {
+                if (merged == null || merged.length < frequency) {
+                    merged = new int[Math.max(frequency, 16)];
+                }
+                int count = 0;
+                for (int m = k; m < end; m++) {
+                    int at = (int) keys[m];
+                    int l = 0;
+                    while (starts[l + 1] <= at) {
+                        l++;
+                    }
+                    reuse = lists[l].positions(at - starts[l], listFrequencies[at], reuse);
+                    System.arraycopy(reuse, 0, merged, count, listFrequencies[at]);
+                    count += listFrequencies[at];
+                }
+                // different keywords never share a word position, so the union is just the sorted positions
+                Arrays.sort(merged, 0, count);
+                positions = encodePositions(merged, count);
+            }
+            union.append(docId, frequency, positions);
+            k = end;
+        }
+        union.sort();
+        return union;
+    }
+
+    /**
+     * Counts the documents that are in any of several lists, the size of their union, without merging them.
+     *
+     * @param lists Posting lists, not changed
+     * @return Number of distinct document ids in the lists
+     */
+    static int unionSize(PostingList[] lists) {
+        if (lists.length == 1) {
+            return lists[0].size();
+        }
+        int total = 0;
+        for (PostingList list : lists) {
+            total += list.size();
+        }
+        int[] all = new int[total];
+        int[] blockDocIds = new int[BLOCK_SIZE];
+        int[] blockFrequencies = new int[BLOCK_SIZE];
+        int n = 0;
+        for (PostingList list : lists) {
+            for (int b = 0; b < list.blockCount(); b++) {
+                int count = list.decodeBlock(b, blockDocIds, blockFrequencies);
+                System.arraycopy(blockDocIds, 0, all, n, count);
+                n += count;
+            }
+        }
+        Arrays.sort(all);
+        int distinct = 0;
+        for (int i = 0; i < total; i++) {
+            if (i == 0 || all[i] != all[i - 1]) {
+                distinct++;
+            }
+        }
+        return distinct;
+    }
+
+    /**
+     * @return Number of postings in the list
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param i Position in the list
+     * @return Id of the document at the given position
+     */
+    public int docId(int i) {
+        return docIds != null ? docIds[i] : block(i / BLOCK_SIZE).docIds[i % BLOCK_SIZE];
+    }
+
+    /**
+     * @param i Position in the list
+     * @return Frequency of the keyword in the document at the given position
+     */
+    public int frequency(int i) {
+        return frequencies != null ? frequencies[i] : block(i / BLOCK_SIZE).frequencies[i % BLOCK_SIZE];
+    }
+
+    /**
+     * @return Number of blocks of BLOCK_SIZE postings, the last one may be shorter
+     */
+    int blockCount() {
+        return (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    }
+
+    /**
+     * @param b Block number
+     * @return Highest frequency in the block, the frequency of its first posting
+     */
+    int blockMaxFrequency(int b) {
+        if (docIds != null) {
+            return frequencies[b * BLOCK_SIZE];
+        }
+        if (blockCount() > 1) {
+            return intAt(b * SKIP_ENTRY_SIZE + 4);
+        }
+        return (int) (packed != null ? readVarInt(packed, 0) : readVarInt(mapped, mappedOffset));
+    }
+
+    /**
+     * @param b Block number
+     * @return Lowest document id of the block, or a lower bound of it (0) if the list has no skip table
+     */
+    int blockMinDocId(int b) {
+        return docIds == null && blockCount() > 1 ? intAt(b * SKIP_ENTRY_SIZE + 8) : 0;
+    }
+
+    /**
+     * @param b Block number
+     * @return Highest document id of the block, or an upper bound of it if the list has no skip table
+     */
+    int blockMaxDocId(int b) {
+        return docIds == null && blockCount() > 1 ? intAt(b * SKIP_ENTRY_SIZE + 12) : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Decodes a block of postings.
+     *
+     * @param b Block number
+     * @param blockDocIds Array of at least BLOCK_SIZE entries, gets the document ids
+     * @param blockFrequencies Array of at least BLOCK_SIZE entries, gets the frequencies
+     * @return Number of postings in the block
+     */
+    int decodeBlock(int b, int[] blockDocIds, int[] blockFrequencies) {
+        int start = b * BLOCK_SIZE;
+        int count = Math.min(BLOCK_SIZE, size - start);
+        if (docIds != null) {
+            System.arraycopy(docIds, start, blockDocIds, 0, count);
+            System.arraycopy(frequencies, start, blockFrequencies, 0, count);
+        } else {
+            decode(blockOffset(b), count, blockDocIds, blockFrequencies, 0);
+        }
+        return count;
+    }
+
+    /**
+     * @return Whether the list has the word positions of its postings
+     */
+    public boolean hasPositions() {
+        return segment != null ? segment.hasPositions() : positions != null || size == 0;
+    }
+
+    /**
+     * Decodes the word positions of the keyword in the document at the given position of the list.
+     *
+     * @param i Position in the list
+     * @param reuse Array to decode into if it is large enough, may be null
+     * @return Array with the frequency(i) positions, in increasing order, in its first entries
+     * @throws IllegalStateException If the list has no positions
+     */
+    public int[] positions(int i, int[] reuse) {
+        return positions(i, frequency(i), reuse);
+    }
+
+    /**
+     * Decodes the word positions of the keyword in the document at the given position of the list, whose
+     * frequency is already known.
+     *
+     * @see #positions(int, int[])
+     */
+    int[] positions(int i, int frequency, int[] reuse) {
+        int[] decoded = reuse != null && reuse.length >= frequency ? reuse : new int[frequency];
+        if (segment != null) {
+            segment.decodePositions(term, i, frequency, decoded);
+        } else if (positions != null) {
+            decodePositions(positions[i], decoded, frequency);
+        } else {
+            throw new IllegalStateException("Posting list has no positions");
+        }
+        return decoded;
+    }
+
+    /**
+     * @param i Position in the list
+     * @return Encoded positions of the posting, null if the list has no positions on the heap
+     */
+    byte[] encodedPositions(int i) {
+        return positions != null ? positions[i] : null;
+    }
+
+    /**
+     * Encodes word positions as variable length gaps.
+     *
+     * @param positions Positions in increasing order
+     * @param count Number of positions to encode
+     * @return Encoded positions
+     */
+    static byte[] encodePositions(int[] positions, int count) {
+        byte[] bytes = new byte[5 * count];
+        int length = 0;
+        int previous = 0;
+        for (int i = 0; i < count; i++) {
+            int gap = positions[i] - previous;
+            previous = positions[i];
+            while ((gap & ~0x7F) != 0) {
+                bytes[length++] = (byte) (gap | 0x80);
+                gap >>>= 7;
+            }
+            bytes[length++] = (byte) gap;
+        }
+        return Arrays.copyOf(bytes, length);
+    }
+
+    private static void decodePositions(byte[] bytes, int[] decoded, int count) {
+        int position = 0;
+        int at = 0;
+        for (int i = 0; i < count; i++) {
+            int gap = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = bytes[at++];
+                gap |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    break;
+                }
+            }
+            position += gap;
+            decoded[i] = position;
+        }
+    }
+
+    /**
+     * Drops the postings of removed documents and renumbers the remaining ones, in a single pass that keeps
+     * the order of the list.
+     *
+     * @param remap Old document id to new document id mapping, -1 for removed documents
+     *              (see DocumentTable.remove)
+     */
+    public void remap(int[] remap) {
+        unpack();
+        int kept = 0;
+        int keptSorted = 0;
+        for (int i = 0; i < size; i++) {
+            int docId = remap[docIds[i]];
+            if (docId >= 0) {
+                docIds[kept] = docId;
+                frequencies[kept] = frequencies[i];
+                if (positions != null) {
+                    positions[kept] = positions[i];
+                }
+                kept++;
+            }
+            if (i == sortedSize - 1) {
+                keptSorted = kept;
+            }
+        }
+        if (positions != null) {
+            Arrays.fill(positions, kept, size, null);
+        }
+        size = kept;
+        sortedSize = keptSorted;
+    }
+
+    /**
+     * Releases unused capacity once the list is not going to grow anymore.
+     */
+    public void trim() {
+        if (docIds != null && docIds.length != size) {
+            docIds = Arrays.copyOf(docIds, size);
+            frequencies = Arrays.copyOf(frequencies, size);
+            if (positions != null) {
+                positions = Arrays.copyOf(positions, size);
+            }
+        }
+    }
+
+    /**
+     * Encodes the list into packed blocks, see the class comment, once it is not going to change anymore. The
+     * postings appended to it are sorted first.
+     */
+    public void pack() {
+        if (docIds == null) {
+            return;
+        }
+        sort();
+        packed = encode(docIds, frequencies, size);
+        docIds = null;
+        frequencies = null;
+        if (positions != null && positions.length != size) {
+            positions = Arrays.copyOf(positions, size);
+        }
+    }
+
+    /**
+     * Decodes a packed list into plain arrays once, for a list that is going to be read in full several
+     * times, such as the list of a keyword that many queries of a batch share.
+     *
+     * @return The list itself if it is not packed, otherwise an unpacked copy with the same positions
+     */
+    PostingList decoded() {
+        if (docIds != null) {
+            return this;
+        }
+        int[] listDocIds = new int[size];
+        int[] listFrequencies = new int[size];
+        for (int b = 0; b < blockCount(); b++) {
+            decode(blockOffset(b), Math.min(BLOCK_SIZE, size - b * BLOCK_SIZE), listDocIds, listFrequencies,
+                    b * BLOCK_SIZE);
+        }
+        PostingList list = new PostingList(listDocIds, listFrequencies, positions);
+        list.segment = segment;
+        list.term = term;
+        return list;
+    }
+
+    /**
+     * @return Whether the list is packed
+     */
+    boolean isPacked() {
+        return docIds == null;
+    }
+
+    /**
+     * @return The postings of the list in packed form, as pack encodes them
+     */
+    byte[] packed() {
+        if (packed != null) {
+            return packed;
+        }
+        if (docIds != null) {
+            sort();
+            return encode(docIds, frequencies, size);
+        }
+        int[] listDocIds = new int[size];
+        int[] listFrequencies = new int[size];
+        for (int b = 0; b < blockCount(); b++) {
+            decode(mapped, blockOffset(b), Math.min(BLOCK_SIZE, size - b * BLOCK_SIZE), listDocIds,
+                    listFrequencies, b * BLOCK_SIZE);
+        }
+        return encode(listDocIds, listFrequencies, size);
+    }
+
+    /**
+     * Turns a packed list back into plain arrays, so that it can be changed.
+     */
+    private void unpack() {
+        if (docIds != null) {
+            return;
+        }
+        int[] listDocIds = new int[Math.max(INITIAL_CAPACITY, size)];
+        int[] listFrequencies = new int[listDocIds.length];
+        for (int b = 0; b < blockCount(); b++) {
+            decode(blockOffset(b), Math.min(BLOCK_SIZE, size - b * BLOCK_SIZE), listDocIds, listFrequencies,
+                    b * BLOCK_SIZE);
+        }
+        docIds = listDocIds;
+        frequencies = listFrequencies;
+        packed = null;
+        mapped = null;
+        decoded = null;
+    }
+
+    /**
+     * Encodes postings that are in descending order of frequency into packed blocks.
+     */
+    static byte[] encode(int[] docIds, int[] frequencies, int size) {
+        int blocks = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int skipTable = blocks > 1 ? SKIP_ENTRY_SIZE * blocks : 0;
+        // sizes first, so the array is allocated once and exactly
+        int length = skipTable;
+        for (int start = 0; start < size; start += BLOCK_SIZE) {
+            length += encodeBlock(docIds, frequencies, start, Math.min(size, start + BLOCK_SIZE), null, 0);
+        }
+        byte[] bytes = new byte[length];
+        int at = skipTable;
+        for (int b = 0; b < blocks; b++) {
+            int start = b * BLOCK_SIZE;
+            int end = Math.min(size, start + BLOCK_SIZE);
+            if (blocks > 1) {
+                int minDocId = Integer.MAX_VALUE;
+                int maxDocId = Integer.MIN_VALUE;
+                for (int i = start; i < end; i++) {
+                    minDocId = Math.min(minDocId, docIds[i]);
+                    maxDocId = Math.max(maxDocId, docIds[i]);
+                }
+                putInt(bytes, b * SKIP_ENTRY_SIZE, at - skipTable);
+                putInt(bytes, b * SKIP_ENTRY_SIZE + 4, frequencies[start]);
+                putInt(bytes, b * SKIP_ENTRY_SIZE + 8, minDocId);
+                putInt(bytes, b * SKIP_ENTRY_SIZE + 12, maxDocId);
+            }
+            at += encodeBlock(docIds, frequencies, start, end, bytes, at);
+        }
+        return bytes;
+    }
+
+    /**
+     * Encodes one block, or only measures it if bytes is null.
+     *
+     * @return Number of bytes of the encoded block
+     */
+    private static int encodeBlock(int[] docIds, int[] frequencies, int start, int end, byte[] bytes, int at) {
+        int minDocId = Integer.MAX_VALUE;
+        for (int i = start; i < end; i++) {
+            minDocId = Math.min(minDocId, docIds[i]);
+        }
+        int from = at;
+        at = putVarInt(bytes, at, frequencies[start]);
+        at = putVarInt(bytes, at, minDocId);
+        int previousDocId = minDocId - 1;
+        int previousFrequency = frequencies[start];
+        for (int i = start; i < end; i++) {
+            int docId = docIds[i];
+            int frequency = frequencies[i];
+            if (frequency == previousFrequency && docId > previousDocId) {
+                at = putVarInt(bytes, at, (docId - previousDocId - 1) << 1);
+            } else {
+                at = putVarInt(bytes, at, ((docId - minDocId) << 1) | 1);
+                at = putVarInt(bytes, at, previousFrequency - frequency);
+            }
+            previousDocId = docId;
+            previousFrequency = frequency;
+        }
+        return at - from;
+    }
+
+    /**
+     * Decodes a block of the packed list.
+     *
+     * @param at Position of the block in the list's buffer
+     * @param count Number of postings in the block
+     * @param to Index of the arrays the first posting is decoded to
+     */
+    private void decode(int at, int count, int[] docIds, int[] frequencies, int to) {
+        if (packed != null) {
+            decode(packed, at, count, docIds, frequencies, to);
+        } else {
+            decode(mapped, at, count, docIds, frequencies, to);
+        }
+    }
+
+    /**
+     * Decodes a block of a packed list on the heap. The same as decode(ByteBuffer, ...), but reads the array
+     * directly, as the heap lists of a built index are decoded for every query.
+     */
+    private static void decode(byte[] in, int at, int count, int[] docIds, int[] frequencies, int to) {
+        long read = readVarInt(in, at);
+        int frequency = (int) read;
+        read = readVarInt(in, (int) (read >>> 32));
+        int minDocId = (int) read;
+        at = (int) (read >>> 32);
+        int docId = minDocId - 1;
+        for (int end = to + count; to < end; to++) {
+            int value = in[at];
+            if ((value & 0x81) == 0) {
+                // a one byte gap, nearly every posting
+                at++;
+                docId += 1 + (value >> 1);
+            } else {
+                if (value < 0) {
+                    read = readVarInt(in, at);
+                    value = (int) read;
+                    at = (int) (read >>> 32);
+                } else {
+                    at++;
+                }
+                if ((value & 1) == 0) {
+                    docId += 1 + (value >>> 1);
+                } else {
+                    docId = minDocId + (value >>> 1);
+                    read = readVarInt(in, at);
+                    frequency -= (int) read;
+                    at = (int) (read >>> 32);
+                }
+            }
+            docIds[to] = docId;
+            frequencies[to] = frequency;
+        }
+    }
+
+    /**
+     * Decodes a block of a packed list in a buffer.
+     *
+     * @param in Buffer the list is in
+     * @param at Position of the block in the buffer
+     * @param count Number of postings in the block
+     * @param to Index of the arrays the first posting is decoded to
+     */
+    private static void decode(ByteBuffer in, int at, int count, int[] docIds, int[] frequencies, int to) {
+        long read = readVarInt(in, at);
+        int frequency = (int) read;
+        read = readVarInt(in, (int) (read >>> 32));
+        int minDocId = (int) read;
+        at = (int) (read >>> 32);
+        int docId = minDocId - 1;
+        for (int end = to + count; to < end; to++) {
+            int value = in.get(at);
+            if ((value & 0x81) == 0) {
+                // a one byte gap, nearly every posting
+                at++;
+                docId += 1 + (value >> 1);
+            } else {
+                if (value < 0) {
+                    read = readVarInt(in, at);
+                    value = (int) read;
+                    at = (int) (read >>> 32);
+                } else {
+                    at++;
+                }
+                if ((value & 1) == 0) {
+                    docId += 1 + (value >>> 1);
+                } else {
+                    docId = minDocId + (value >>> 1);
+                    read = readVarInt(in, at);
+                    frequency -= (int) read;
+                    at = (int) (read >>> 32);
+                }
+            }
+            docIds[to] = docId;
+            frequencies[to] = frequency;
+        }
+    }
+
+    /**
+     * Reads a variable length unsigned int.
+     *
+     * @return The value in the low 32 bits, the position after it in the high 32 bits
+     */
+    private static long readVarInt(byte[] in, int at) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in[at++];
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return ((long) at << 32) | (value & 0xFFFFFFFFL);
+            }
+        }
+    }
+
+    /**
+     * @see #readVarInt(byte[], int)
+     */
+    static long readVarInt(ByteBuffer in, int at) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get(at++);
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return ((long) at << 32) | (value & 0xFFFFFFFFL);
+            }
+        }
+    }
+
+    /**
+     * Writes a variable length unsigned int, or only measures it if bytes is null.
+     *
+     * @return Position after the value
+     */
+    static int putVarInt(byte[] bytes, int at, int value) {
+        while ((value & ~0x7F) != 0) {
+            if (bytes != null) {
+                bytes[at] = (byte) (value | 0x80);
+            }
+            at++;
+            value >>>= 7;
+        }
+        if (bytes != null) {
+            bytes[at] = (byte) value;
+        }
+        return at + 1;
+    }
+
+    private static void putInt(byte[] bytes, int at, int value) {
+        bytes[at] = (byte) (value >>> 24);
+        bytes[at + 1] = (byte) (value >>> 16);
+        bytes[at + 2] = (byte) (value >>> 8);
+        bytes[at + 3] = (byte) value;
+    }
+
+    /**
+     * @return Position of the packed postings in their buffer
+     */
+    private int base() {
+        return packed != null ? 0 : mappedOffset;
+    }
+
+    /**
+     * Reads an int of the skip table.
+     */
+    private int intAt(int at) {
+        if (packed != null) {
+            return (packed[at] << 24) | ((packed[at + 1] & 0xFF) << 16) | ((packed[at + 2] & 0xFF) << 8)
+                    | (packed[at + 3] & 0xFF);
+        }
+        return mapped.getInt(mappedOffset + at);
+    }
+
+    /**
+     * @return Position of a block of the packed list in its buffer
+     */
+    private int blockOffset(int b) {
+        int blocks = blockCount();
+        return blocks > 1 ? base() + SKIP_ENTRY_SIZE * blocks + intAt(b * SKIP_ENTRY_SIZE) : base();
+    }
+
+    /**
+     * Returns a block of the packed list decoded, the last one decoded if it is the same.
+     */
+    private Block block(int b) {
+        Block block = decoded;
+        if (block == null || block.index != b) {
+            int count = Math.min(BLOCK_SIZE, size - b * BLOCK_SIZE);
+            block = new Block(b, new int[count], new int[count]);
+            decode(blockOffset(b), count, block.docIds, block.frequencies, 0);
+            decoded = block;
+        }
+        return block;
+    }
+
+    /**
+     * Decoded block of a packed list. Never changed once decoded, so threads that read the same list can
+     * share it.
+     */
+    private static final class Block {
+
+        final int index;
+
+        final int[] docIds;
+
+        final int[] frequencies;
+
+        Block(int index, int[] docIds, int[] frequencies) {
+            this.index = index;
+            this.docIds = docIds;
+            this.frequencies = frequencies;
+        }
+    }
+
+    /**
+     * Estimated heap size of the list, for the index gauges of Metrics.
+     */
+    long heapBytes() {
+        long bytes = docIds != null ? 64 + 2 * (16 + 4L * docIds.length)
+                : 64 + (packed != null ? 16 + packed.length : 0);
+        if (positions != null) {
+            bytes += 16 + 8L * positions.length;
+            for (int i = 0; i < size; i++) {
+                if (positions[i] != null) {
+                    bytes += 16 + positions[i].length;
+                }
+            }
+        }
+        return bytes;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > docIds.length) {
+            int grown = Math.max(capacity, docIds.length + (docIds.length >> 1));
+            docIds = Arrays.copyOf(docIds, grown);
+            frequencies = Arrays.copyOf(frequencies, grown);
+            if (positions != null) {
+                positions = Arrays.copyOf(positions, grown);
+            }
+        }
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append("(").append(docId(i)).append(",").append(frequency(i)).append(")");
+        }
+        return sb.append("]").toString();
+    }
+}
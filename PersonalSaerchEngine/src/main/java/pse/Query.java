@@ -0,0 +1,115 @@
+package pse;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+
+/**
+ * A keyword query: the keywords to look for, whether a document must contain all of them or any of them,
+ * and the number of results wanted. Phrase and proximity queries also constrain where the keywords occur,
+ * and need an index with word positions (see PersonalSearchEngine.setPositional).
+ *
+ * A keyword can be a pattern that stands for the keywords of the index it matches (see KeywordPattern):
+ * a prefix (wor*), a wildcard (w?rd, '?' for one letter, '*' for any number of them), or a fuzzy keyword
+ * (word~, or word~2) that also matches keywords one (or two) letters off, such as OCR misreadings. A
+ * document containing any of the matching keywords counts as containing the pattern.
+ */
+public class Query {
+
+    /**
+     * How the keywords of a query are combined.
+     */
+    public enum Operator {
+        /** Documents must contain every keyword. */
+        AND,
+        /** Documents must contain at least one keyword. */
+        OR,
+        /** Documents must contain the keywords as consecutive words, in query order. */
+        PHRASE,
+        /** Documents must contain all keywords, in any order, within a window of a given number of words. */
+        NEAR
+    }
+
+    /**
+     * Keywords in the order they were given, without duplicates except in phrases.
+     */
+    final String[] keywords;
+
+    final Operator operator;
+
+    /**
+     * Maximum number of results.
+     */
+    final int k;
+
+    /**
+     * Maximum distance in words between the first and the last keyword of a NEAR match.
+     */
+    final int distance;
+
+    /**
+     * @param operator AND, OR or PHRASE (use near for NEAR queries)
+     * @param k Maximum number of results
+     * @param keywords Keywords, as they are in the index (lower case), or keyword patterns
+     * @throws IllegalArgumentException For a malformed keyword pattern
+     */
+    public Query(Operator operator, int k, String... keywords) {
+        this(operator, k, Math.max(keywords.length - 1, 0), keywords);
+        if (operator == Operator.NEAR) {
+            throw new IllegalArgumentException("NEAR queries need a distance, see Query.near");
+        }
+    }
+
+    private Query(Operator operator, int k, int distance, String[] keywords) {
+        if (k < 0) {
+            throw new IllegalArgumentException("Negative result count " + k);
+        }
+        if (distance < 0) {
+            throw new IllegalArgumentException("Negative distance " + distance);
+        }
+        for (String keyword : keywords) {
+            // fails early on a malformed pattern
+            KeywordPattern.parse(keyword);
+        }
+        if (operator == Operator.PHRASE) {
+            this.keywords = keywords.clone();
+        } else {
+            LinkedHashSet<String> distinct = new LinkedHashSet<String>(Arrays.asList(keywords));
+            this.keywords = distinct.toArray(new String[distinct.size()]);
+        }
+        this.operator = operator;
+        this.k = k;
+        this.distance = distance;
+    }
+
+    /**
+     * Creates a proximity query: documents that contain all keywords within a window of distance + 1 words,
+     * e.g. distance 1 for two keywords that are next to each other, in either order. The number of windows
+     * in a document is its frequency for scoring, like a phrase's number of occurrences.
+     *
+     * @param distance Maximum distance in words between the first and the last keyword of a match
+     * @param k Maximum number of results
+     * @param keywords Keywords, as they are in the index (lower case), or keyword patterns
+     * @return Query
+     */
+    public static Query near(int distance, int k, String... keywords) {
+        return new Query(Operator.NEAR, k, distance, keywords);
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        if (operator == Operator.PHRASE) {
+            sb.append('"');
+            for (String keyword : keywords) {
+                sb.append(sb.length() > 1 ? " " : "").append(keyword);
+            }
+            return sb.append("\" top ").append(k).toString();
+        }
+        for (String keyword : keywords) {
+            if (sb.length() > 0) {
+                sb.append(' ').append(operator).append(operator == Operator.NEAR ? "/" + distance : "").append(' ');
+            }
+            sb.append(keyword);
+        }
+        return sb.append(" top ").append(k).toString();
+    }
+}
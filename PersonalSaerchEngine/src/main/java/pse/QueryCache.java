@@ -0,0 +1,321 @@
+package pse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Bounded cache of search results, for workloads that repeat a few hot queries. An engine with a cache (see
+ * PersonalSearchEngine.setQueryCache) looks every search and top5search up in it first, and stores the
+ * results of the ones it had to evaluate.
+ *
+ * Entries are keyed on the engine, the keywords as the Query holds them, the operator (and NEAR distance)
+ * and the scorer. Keywords are not reordered: scores are sums in keyword order, so another order can differ
+ * in the last bits. The results of a query are kept for the largest K it was run with, and a query with a
+ * smaller K is served the first K of them, which are exactly its results.
+ *
+ * Every entry records the version of the index it was computed on. The engines change their version
+ * whenever documents are indexed or another index is opened, and an entry of an older version is dropped
+ * when it is looked up, so a cache never returns stale results. Which entries are evicted is decided by
+ * least recent use, when there are more than maxEntries entries, or their estimated size is more than
+ * maxBytes.
+ *
+ * A cache is thread-safe, and can be shared by several engines.
+ */
+public class QueryCache {
+
+    /**
+     * Estimated heap size of an entry without its keywords and results: the map entry, key and value objects.
+     */
+    private static final int ENTRY_BYTES = 128;
+
+    /**
+     * Estimated heap size of a String, without its chars.
+     */
+    private static final int STRING_BYTES = 48;
+
+    /**
+     * Estimated heap size of a result in a list: the reference and the SearchResult.
+     */
+    private static final int RESULT_BYTES = 32;
+
+    /**
+     * Estimated heap size of a result's snippet, without its text and highlights: the Snippet and the
+     * highlights array.
+     */
+    private static final int SNIPPET_BYTES = 40;
+
+    private final int maxEntries;
+
+    private final long maxBytes;
+
+    /**
+     * Entries in access order, least recently used first.
+     */
+    private final LinkedHashMap<Key,Entry> entries = new LinkedHashMap<Key,Entry>(64, 0.75f, true);
+
+    private long bytes;
+
+    private long hits;
+
+    private long misses;
+
+    private long evictions;
+
+    private long invalidations;
+
+    /**
+     * @param maxEntries Maximum number of entries
+     * @param maxBytes Maximum estimated heap size of the entries
+     */
+    public QueryCache(int maxEntries, long maxBytes) {
+        if (maxEntries < 1 || maxBytes < 1) {
+            throw new IllegalArgumentException("Cache must have room for an entry");
+        }
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Looks up the results of a search.
+     *
+     * @return Copy of the results, or null if they are not in the cache
+     */
+    synchronized ArrayList<SearchResult> search(Object engine, Query query, Scorer scorer, long version) {
+        Entry entry = lookup(new Key(engine, query, scorer), version);
+        if (entry == null || (entry.k < query.k && entry.results.size() == entry.k)) {
+            // a smaller K does not tell which documents come after its results
+            misses++;
+            return null;
+        }
+        hits++;
+        ArrayList<SearchResult> results = new ArrayList<SearchResult>(Math.min(query.k, entry.results.size()));
+        for (int i = 0; i < query.k && i < entry.results.size(); i++) {
+            results.add((SearchResult) entry.results.get(i));
+        }
+        return results;
+    }
+
+    /**
+     * Stores the results of a search, unless results for a larger K are stored already.
+     */
+    synchronized void putSearch(Object engine, Query query, Scorer scorer, long version,
+                                ArrayList<SearchResult> results) {
+        Key key = new Key(engine, query, scorer);
+        Entry stored = entries.get(key);
+        if (stored == null || stored.version != version || stored.k < query.k) {
+            long size = ENTRY_BYTES + keywordBytes(key.keywords);
+            for (SearchResult result : results) {
+                size += RESULT_BYTES + STRING_BYTES + 2L * result.document.length();
+                if (result.snippet != null) {
+                    size += SNIPPET_BYTES + STRING_BYTES + 2L * result.snippet.text.length()
+                            + 4L * result.snippet.highlights.length;
+                }
+            }
+            put(key, new Entry(version, query.k, new ArrayList<Object>(results), size));
+        }
+    }
+
+    /**
+     * Looks up the results of a top5search. top5search never returns an empty list, so an empty list stands
+     * for a null result.
+     *
+     * @return Copy of the results, an empty list for null results, or null if they are not in the cache
+     */
+    synchronized ArrayList<String> top5search(Object engine, String kw1, String kw2, long version) {
+        Entry entry = lookup(new Key(engine, kw1, kw2), version);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        ArrayList<String> results = new ArrayList<String>(entry.results.size());
+        for (Object result : entry.results) {
+            results.add((String) result);
+        }
+        return results;
+    }
+
+    /**
+     * Stores the results of a top5search.
+     *
+     * @param results Results, may be null
+     */
+    synchronized void putTop5search(Object engine, String kw1, String kw2, long version, ArrayList<String> results) {
+        Key key = new Key(engine, kw1, kw2);
+        long size = ENTRY_BYTES + keywordBytes(key.keywords);
+        ArrayList<Object> stored = new ArrayList<Object>(5);
+        if (results != null) {
+            for (String result : results) {
+                stored.add(result);
+                size += 8 + STRING_BYTES + 2L * result.length();
+            }
+        }
+        put(key, new Entry(version, 5, stored, size));
+    }
+
+    private Entry lookup(Key key, long version) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.version != version) {
+            entries.remove(key);
+            bytes -= entry.bytes;
+            invalidations++;
+            return null;
+        }
+        return entry;
+    }
+
+    private void put(Key key, Entry entry) {
+        Entry replaced = entries.put(key, entry);
+        if (replaced != null) {
+            bytes -= replaced.bytes;
+        }
+        bytes += entry.bytes;
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (entries.size() > maxEntries || (bytes > maxBytes && eldest.hasNext())) {
+            bytes -= eldest.next().bytes;
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    private static long keywordBytes(String[] keywords) {
+        long size = 8L * keywords.length;
+        for (String keyword : keywords) {
+            size += keyword == null ? 0 : STRING_BYTES + 2L * keyword.length();
+        }
+        return size;
+    }
+
+    /**
+     * Drops all entries. Counters are kept.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    /**
+     * @return Number of lookups that were answered from the cache
+     */
+    public synchronized long hits() {
+        return hits;
+    }
+
+    /**
+     * @return Number of lookups that were not, and had to be evaluated
+     */
+    public synchronized long misses() {
+        return misses;
+    }
+
+    /**
+     * @return Number of entries dropped to make room for new ones
+     */
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    /**
+     * @return Number of entries dropped because the index changed since they were computed
+     */
+    public synchronized long invalidations() {
+        return invalidations;
+    }
+
+    /**
+     * @return Number of entries
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return Estimated heap size of the entries
+     */
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    public synchronized String toString() {
+        return "QueryCache[entries=" + entries.size() + ", bytes=" + bytes + ", hits=" + hits + ", misses=" + misses
+                + ", evictions=" + evictions + ", invalidations=" + invalidations + "]";
+    }
+
+    private static final class Key {
+
+        final Object engine;
+
+        /**
+         * Operator of a search, null for top5search.
+         */
+        final Query.Operator operator;
+
+        final int distance;
+
+        final String[] keywords;
+
+        final Scorer scorer;
+
+        final int hash;
+
+        Key(Object engine, Query query, Scorer scorer) {
+            this(engine, query.operator, query.operator == Query.Operator.NEAR ? query.distance : 0,
+                    query.keywords, scorer);
+        }
+
+        Key(Object engine, String kw1, String kw2) {
+            this(engine, null, 0, new String[] {kw1, kw2}, null);
+        }
+
+        private Key(Object engine, Query.Operator operator, int distance, String[] keywords, Scorer scorer) {
+            this.engine = engine;
+            this.operator = operator;
+            this.distance = distance;
+            this.keywords = keywords;
+            this.scorer = scorer;
+            int h = System.identityHashCode(engine);
+            h = 31 * h + (operator == null ? 0 : operator.hashCode());
+            h = 31 * h + distance;
+            h = 31 * h + Arrays.hashCode(keywords);
+            h = 31 * h + System.identityHashCode(scorer);
+            hash = h;
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return engine == other.engine && operator == other.operator && distance == other.distance
+                    && scorer == other.scorer && Arrays.equals(keywords, other.keywords);
+        }
+    }
+
+    private static final class Entry {
+
+        final long version;
+
+        /**
+         * K the results were computed for. If there are fewer results, they are all the matches.
+         */
+        final int k;
+
+        final List<Object> results;
+
+        final long bytes;
+
+        Entry(long version, int k, List<Object> results, long bytes) {
+            this.version = version;
+            this.k = k;
+            this.results = results;
+            this.bytes = bytes;
+        }
+    }
+}
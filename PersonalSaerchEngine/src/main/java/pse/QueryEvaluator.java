@@ -0,0 +1,758 @@
+package pse;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Top-K evaluation of a multi-keyword query over posting lists that are in descending order of frequency.
+ *
+ * A document's score combines the contributions of the query keywords it contains, either as their sum or
+ * as their maximum, and the K best documents are kept in a bounded heap. Ties in score are broken in favor
+ * of the lower document id, so results are deterministic. A contribution is the keyword's frequency in the
+ * document by default, or its relevance score by a Scorer.
+ *
+ * With frequency contributions, the maximum and OR semantics, the lists are merged in descending order of contribution. The first
+ * contribution seen for a document is then its highest, so its score is final, and the evaluation stops as
+ * soon as the K-th best score beats the next contribution of every list - usually after little more than K
+ * postings, however long the lists are. Lists are decoded one block at a time (see PostingList.pack), and a
+ * block is only decoded once its highest frequency, which the skip table has, is the next contribution.
+ *
+ * Otherwise a document's score is only known once every list has been read (there is no lookup of a
+ * document in a list), so the lists are read one after the other into per-document accumulators. With AND
+ * semantics documents are only admitted from the shortest list, and have to be found in all the others;
+ * blocks of the others whose range of document ids holds no candidate are skipped without being decoded.
+ * With OR semantics and sums, the lists are read in descending order of the highest contribution they can
+ * make, which the scorer bounds (see Scorer.maxScore) from the highest frequency of a block and the shortest
+ * document. Once the K-th best score so far beats what a document that has not been seen could still get
+ * from the rest of the lists, no new documents are admitted, candidates that can not catch up anymore are
+ * dropped, and once no more than a block's worth of candidates is left, the remaining blocks are skipped
+ * unless they may hold one. The scores are added up in query order at the end, so they are the same however
+ * the lists were read.
+ *
+ * Phrase and proximity queries are AND queries whose candidates then have their word positions checked.
+ * Positions are only decoded for documents that contain every keyword. A document's number of phrase
+ * occurrences (or proximity windows) is its frequency for the scorer, weighted by the sum of the keyword
+ * weights, since a phrase is rarer than any of its words.
+ *
+ * The keyword weights come from the document frequencies of the keywords and the number of documents, which
+ * are those of the lists by default. When the lists are one shard of a larger collection, the statistics of
+ * the whole collection can be set instead, so that every shard scores its documents exactly as a single index
+ * of the collection would.
+ *
+ * An evaluator is used for a single query, and is not thread-safe.
+ */
+class QueryEvaluator {
+
+    /**
+     * Candidate tables that are not in use, cleared, so a query does not allocate (and zero) a table the size
+     * of the index. Shared rather than kept per thread, since the server runs every request in a new thread.
+     * Tables beyond the capacity, and tables too small for an index, are left to the garbage collector.
+     */
+    private static final ArrayBlockingQueue<int[]> CANDIDATE_TABLES =
+            new ArrayBlockingQueue<int[]>(2 * Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Slack on the bounds of scores, for the rounding of sums that are added up in different orders.
+     */
+    private static final double BOUND_SLACK = 1 + 1e-9;
+
+    private final PostingList[] lists;
+
+    private final int documentCount;
+
+    private final double[] bonus;
+
+    private final int k;
+
+    private final boolean matchAll;
+
+    private final boolean sum;
+
+    private int collectionSize;
+
+    private int[] documentFrequencies;
+
+    private Scorer scorer = Scorer.FREQUENCY;
+
+    private int[] lengths;
+
+    private double averageLength;
+
+    private int shortestLength;
+
+    /**
+     * Whether a document can have more than one posting in a list, whose contributions then add up beyond
+     * the bounds of the list.
+     */
+    private boolean duplicatePostings;
+
+    private boolean positional;
+
+    private boolean ordered;
+
+    private int distance;
+
+    /**
+     * Candidate index plus one of every document id, 0 for documents that are not candidates.
+     */
+    private int[] table;
+
+    /**
+     * Candidate documents: their document ids, scores and bit masks of the keywords seen.
+     */
+    private int[] docs = new int[64];
+
+    private double[] scores = new double[64];
+
+    private long[] masks = new long[64];
+
+    /**
+     * For phrase and proximity queries, the position of every candidate in every list, lists.length entries
+     * per candidate.
+     */
+    private int[] postings;
+
+    /**
+     * For phrase and proximity queries, the frequencies of the postings in postings.
+     */
+    private int[] postingFrequencies;
+
+    /**
+     * For OR queries whose lists are not read in query order, the contribution of every list to every
+     * candidate, lists.length entries per candidate.
+     */
+    private double[] contributions;
+
+    private int count;
+
+    /**
+     * Bounded min-heap of the best candidates, with the worst of them on top.
+     */
+    private int[] heap;
+
+    private int heapSize;
+
+    private double[] resultScores = new double[0];
+
+    /**
+     * @param lists Posting lists of the query keywords, null for keywords that are not in the index
+     * @param documentCount Number of documents in the index, document ids are below it
+     * @param bonus Amount added to each contribution of a keyword, or null for none
+     * @param k Number of results wanted, of which no more than documentCount are kept room for
+     * @param matchAll Whether documents must contain every keyword (AND) or any keyword (OR)
+     * @param sum Whether scores are the sum (true) or the maximum (false) of the keyword contributions
+     */
+    QueryEvaluator(PostingList[] lists, int documentCount, double[] bonus, int k, boolean matchAll, boolean sum) {
+        if (lists.length > 64) {
+            throw new IllegalArgumentException("At most 64 keywords per query");
+        }
+        this.lists = lists;
+        this.documentCount = documentCount;
+        this.bonus = bonus != null ? bonus : new double[lists.length];
+        // there are no more results than documents, however many are asked for
+        this.k = Math.min(k, documentCount);
+        this.matchAll = matchAll;
+        this.sum = sum;
+        this.collectionSize = documentCount;
+    }
+
+    /**
+     * Weights the keywords by the statistics of a whole collection that the lists are one shard of, instead of
+     * by the lists themselves. With AND semantics the keyword that is rarest in the collection admits the
+     * candidates, as it would in a single index, so that scores are summed in the same order.
+     *
+     * @param collectionSize Number of documents in the collection
+     * @param documentFrequencies Number of documents in the collection that contain each keyword
+     */
+    void collectionStatistics(int collectionSize, int[] documentFrequencies) {
+        this.collectionSize = collectionSize;
+        this.documentFrequencies = documentFrequencies;
+    }
+
+    /**
+     * Scores postings with a relevance scorer instead of by frequency.
+     *
+     * @param scorer Scorer
+     * @param lengths Document lengths, indexed by document id
+     * @param averageLength Average document length
+     */
+    void scoreWith(Scorer scorer, int[] lengths, double averageLength) {
+        this.scorer = scorer;
+        this.lengths = lengths;
+        this.averageLength = averageLength;
+    }
+
+    /**
+     * Sets the length of the shortest document, which bounds the scores of postings that have not been read.
+     * 0, the default, is always safe, but lets the bounds of some scorers skip less.
+     *
+     * @param length Length of the shortest document in keywords
+     */
+    void shortestLength(int length) {
+        this.shortestLength = length;
+    }
+
+    /**
+     * Sets whether a document can have more than one posting in a list, as it does in an index that
+     * indexed the same document twice. Nothing is pruned then, since the lists' bounds do not hold.
+     *
+     * @param duplicatePostings Whether lists may hold more than one posting of a document
+     */
+    void duplicatePostings(boolean duplicatePostings) {
+        this.duplicatePostings = duplicatePostings;
+    }
+
+    /**
+     * Makes this a phrase or proximity query: documents must contain every keyword (the AND semantics), at
+     * matching word positions. All lists must have positions.
+     *
+     * @param ordered Whether the keywords must be consecutive words in list order (a phrase), or may be in
+     *                any order within the distance
+     * @param distance Maximum distance in words between the first and the last keyword, for unordered
+     *                 matches
+     */
+    void matchPositions(boolean ordered, int distance) {
+        if (!matchAll) {
+            throw new IllegalStateException("Position matches need AND semantics");
+        }
+        this.positional = true;
+        this.ordered = ordered;
+        this.distance = distance;
+        postings = new int[docs.length * lists.length];
+        postingFrequencies = new int[postings.length];
+    }
+
+    /**
+     * Runs the query.
+     *
+     * @return Ids of the top documents, best first, at most k of them
+     */
+    int[] evaluate() {
+        if (k <= 0) {
+            return new int[0];
+        }
+        for (PostingList list : lists) {
+            if (matchAll && (list == null || list.size() == 0)) {
+                return new int[0];
+            }
+        }
+        table = CANDIDATE_TABLES.poll();
+        if (table == null || table.length < documentCount) {
+            table = new int[documentCount];
+        }
+        heap = new int[k];
+        try {
+            if (sum || matchAll || scorer != Scorer.FREQUENCY) {
+                accumulate();
+                if (positional) {
+                    checkPositions();
+                }
+                for (int c = 0; c < count; c++) {
+                    offer(c);
+                }
+            } else {
+                merge();
+            }
+            int[] result = new int[heapSize];
+            resultScores = new double[heapSize];
+            for (int i = heapSize - 1; i >= 0; i--) {
+                result[i] = docs[heap[0]];
+                resultScores[i] = scores[heap[0]];
+                heap[0] = heap[i];
+                siftDown(i);
+            }
+            return result;
+        } finally {
+            for (int c = 0; c < count; c++) {
+                table[docs[c]] = 0;
+            }
+            CANDIDATE_TABLES.offer(table);
+            table = null;
+        }
+    }
+
+    /**
+     * @return Scores of the documents returned by evaluate, in the same order
+     */
+    double[] scores() {
+        return resultScores;
+    }
+
+    /**
+     * Merges the lists in descending order of contribution, offering every document the first time it is
+     * seen, until no remaining posting can beat the K-th best score.
+     */
+    private void merge() {
+        int[] block = new int[lists.length];
+        int[] cursor = new int[lists.length];
+        int[] decoded = new int[lists.length];
+        int[][] blockDocIds = new int[lists.length][];
+        int[][] blockFrequencies = new int[lists.length][];
+        while (true) {
+            int best = -1;
+            double bestContribution = 0;
+            for (int t = 0; t < lists.length; t++) {
+                PostingList list = lists[t];
+                int frequency;
+                if (list == null) {
+                    continue;
+                } else if (cursor[t] < decoded[t]) {
+                    frequency = blockFrequencies[t][cursor[t]];
+                } else if (block[t] < list.blockCount()) {
+                    // the first posting of the next block, which has the block's highest frequency
+                    frequency = list.blockMaxFrequency(block[t]);
+                } else {
+                    continue;
+                }
+                double contribution = frequency + bonus[t];
+                if (best < 0 || contribution > bestContribution) {
+                    best = t;
+                    bestContribution = contribution;
+                }
+            }
+            if (best < 0 || (heapSize == k && scores[heap[0]] > bestContribution)) {
+                return;
+            }
+            if (cursor[best] == decoded[best]) {
+                if (blockDocIds[best] == null) {
+                    blockDocIds[best] = new int[PostingList.BLOCK_SIZE];
+                    blockFrequencies[best] = new int[PostingList.BLOCK_SIZE];
+                }
+                decoded[best] = lists[best].decodeBlock(block[best]++, blockDocIds[best], blockFrequencies[best]);
+                cursor[best] = 0;
+            }
+            int docId = blockDocIds[best][cursor[best]++];
+            if (table[docId] == 0) {
+                int c = insert(docId);
+                scores[c] = bestContribution;
+                offer(c);
+            }
+        }
+    }
+
+    /**
+     * Reads the lists into the candidate accumulators. With AND, only the shortest list admits candidates,
+     * and candidates missing from any other list are dropped. With OR and sums, lists are read in order of
+     * their bounds, and documents stop being admitted once they can not make it into the top K anymore.
+     */
+    private void accumulate() {
+        int first = 0;
+        for (int t = 1; t < lists.length && matchAll; t++) {
+            if (documentFrequency(t) < documentFrequency(first)) {
+                first = t;
+            }
+        }
+        double[] weights = new double[lists.length];
+        for (int t = 0; t < lists.length; t++) {
+            if (lists[t] != null) {
+                weights[t] = scorer.weight(documentFrequency(t), collectionSize);
+            }
+        }
+        double[] bounds = sum && !matchAll && !duplicatePostings ? bounds(weights) : null;
+        int[] order = new int[lists.length];
+        // after[n]: bound of what the lists read after the n-th one can add to a score
+        double[] after = new double[lists.length];
+        if (bounds != null) {
+            for (int n = 0; n < lists.length; n++) {
+                int t = n;
+                while (t > 0 && bounds[order[t - 1]] < bounds[n]) {
+                    order[t] = order[t - 1];
+                    t--;
+                }
+                order[t] = n;
+            }
+            for (int n = lists.length - 2; n >= 0; n--) {
+                after[n] = after[n + 1] + bounds[order[n + 1]];
+            }
+            contributions = new double[docs.length * lists.length];
+        } else {
+            for (int n = 0; n < lists.length; n++) {
+                // the first list first, then the others in query order
+                order[n] = n == 0 ? first : (n == first ? 0 : n);
+            }
+        }
+
+        int[] blockDocIds = new int[PostingList.BLOCK_SIZE];
+        int[] blockFrequencies = new int[PostingList.BLOCK_SIZE];
+        boolean admit = true;
+        // ids of the candidates in increasing order, once no more documents are admitted and there are few of them
+        int[] candidates = null;
+        double threshold = Double.NEGATIVE_INFINITY;
+        int read = 0;
+        for (int n = 0; n < lists.length; n++) {
+            int t = order[n];
+            PostingList list = lists[t];
+            if (list == null) {
+                continue;
+            }
+            if (matchAll && n == 1) {
+                admit = false;
+                candidates = sortedCandidates();
+            }
+            long bit = 1L << t;
+            double weight = weights[t];
+            boolean frequency = scorer == Scorer.FREQUENCY;
+            for (int b = 0; b < list.blockCount(); b++) {
+                if (bounds != null && (admit || b == 0)) {
+                    double remaining = bound(list, b, t, weight) + after[n];
+                    // the K-th best score only grows, so it is recomputed once its cost is paid for by postings read
+                    if (!admit || read >= count) {
+                        threshold = Math.max(threshold, kthScore());
+                        read = 0;
+                    }
+                    if (!admit || threshold > remaining * BOUND_SLACK) {
+                        if (admit) {
+                            admit = false;
+                            drop(threshold, remaining);
+                            candidates = count <= PostingList.BLOCK_SIZE ? sortedCandidates() : null;
+                        } else if (drop(threshold, remaining)) {
+                            candidates = candidates != null ? retainedCandidates(candidates)
+                                    : count <= PostingList.BLOCK_SIZE ? sortedCandidates() : null;
+                        }
+                    }
+                }
+                if (candidates != null && !hasCandidate(candidates, list.blockMinDocId(b), list.blockMaxDocId(b))) {
+                    continue;
+                }
+                int size = list.decodeBlock(b, blockDocIds, blockFrequencies);
+                read += size;
+                for (int j = 0; j < size; j++) {
+                    int docId = blockDocIds[j];
+                    int c = table[docId] - 1;
+                    if (c < 0) {
+                        if (!admit) {
+                            continue;
+                        }
+                        c = insert(docId);
+                        scores[c] = sum ? 0 : Double.NEGATIVE_INFINITY;
+                    }
+                    if (positional) {
+                        postings[c * lists.length + t] = b * PostingList.BLOCK_SIZE + j;
+                        postingFrequencies[c * lists.length + t] = blockFrequencies[j];
+                    } else {
+                        double contribution = (frequency ? blockFrequencies[j]
+                                : scorer.score(weight, blockFrequencies[j], lengths[docId], averageLength)) + bonus[t];
+                        scores[c] = sum ? scores[c] + contribution : Math.max(scores[c], contribution);
+                        if (contributions != null) {
+                            contributions[c * lists.length + t] += contribution;
+                        }
+                    }
+                    masks[c] |= bit;
+                }
+            }
+        }
+        if (contributions != null) {
+            for (int c = 0; c < count; c++) {
+                double score = 0;
+                for (int t = 0; t < lists.length; t++) {
+                    if ((masks[c] & (1L << t)) != 0) {
+                        score += contributions[c * lists.length + t];
+                    }
+                }
+                scores[c] = score;
+            }
+        }
+        if (matchAll) {
+            long all = lists.length == 64 ? -1L : (1L << lists.length) - 1;
+            int kept = 0;
+            for (int c = 0; c < count; c++) {
+                if (masks[c] == all) {
+                    docs[kept] = docs[c];
+                    scores[kept] = scores[c];
+                    if (positional) {
+                        System.arraycopy(postings, c * lists.length, postings, kept * lists.length, lists.length);
+                        System.arraycopy(postingFrequencies, c * lists.length, postingFrequencies,
+                                kept * lists.length, lists.length);
+                    }
+                    kept++;
+                } else {
+                    table[docs[c]] = 0;
+                }
+            }
+            count = kept;
+        }
+    }
+
+    /**
+     * Bounds the contribution of every list for pruning, see accumulate.
+     *
+     * @return Highest contribution of every list, 0 for missing lists, or null if the scorer has no bounds
+     */
+    private double[] bounds(double[] weights) {
+        double[] bounds = new double[lists.length];
+        for (int t = 0; t < lists.length; t++) {
+            if (bonus[t] < 0) {
+                return null;
+            }
+            if (lists[t] != null && lists[t].size() > 0) {
+                bounds[t] = bound(lists[t], 0, t, weights[t]);
+                if (Double.isInfinite(bounds[t]) || Double.isNaN(bounds[t])) {
+                    return null;
+                }
+            }
+        }
+        return bounds;
+    }
+
+    /**
+     * @return Upper bound of the contributions of a block and the blocks after it
+     */
+    private double bound(PostingList list, int b, int t, double weight) {
+        return scorer.maxScore(weight, list.blockMaxFrequency(b), shortestLength, averageLength) + bonus[t];
+    }
+
+    /**
+     * @return K-th best score of the candidates, or negative infinity if there are fewer than K
+     */
+    private double kthScore() {
+        if (count < k) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        // min-heap of the K best scores
+        double[] best = new double[k];
+        for (int c = 0; c < count; c++) {
+            double score = scores[c];
+            int i;
+            if (c < k) {
+                i = c;
+                while (i > 0 && best[(i - 1) >>> 1] > score) {
+                    best[i] = best[(i - 1) >>> 1];
+                    i = (i - 1) >>> 1;
+                }
+            } else if (score > best[0]) {
+                i = 0;
+                while (true) {
+                    int child = 2 * i + 1;
+                    if (child >= k) {
+                        break;
+                    }
+                    if (child + 1 < k && best[child + 1] < best[child]) {
+                        child++;
+                    }
+                    if (best[child] >= score) {
+                        break;
+                    }
+                    best[i] = best[child];
+                    i = child;
+                }
+            } else {
+                continue;
+            }
+            best[i] = score;
+        }
+        return best[0];
+    }
+
+    /**
+     * Drops the candidates that can not reach the threshold anymore, whatever the rest of the lists add.
+     *
+     * @return Whether any candidate was dropped
+     */
+    private boolean drop(double threshold, double remaining) {
+        int kept = 0;
+        for (int c = 0; c < count; c++) {
+            if ((scores[c] + remaining) * BOUND_SLACK < threshold) {
+                table[docs[c]] = 0;
+                continue;
+            }
+            docs[kept] = docs[c];
+            scores[kept] = scores[c];
+            masks[kept] = masks[c];
+            System.arraycopy(contributions, c * lists.length, contributions, kept * lists.length, lists.length);
+            table[docs[kept]] = kept + 1;
+            kept++;
+        }
+        boolean dropped = kept < count;
+        count = kept;
+        return dropped;
+    }
+
+    private int[] sortedCandidates() {
+        int[] sorted = Arrays.copyOf(docs, count);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * @return The ids of the sorted candidates that were not dropped since, still sorted
+     */
+    private int[] retainedCandidates(int[] candidates) {
+        int[] retained = new int[count];
+        int kept = 0;
+        for (int docId : candidates) {
+            if (table[docId] != 0) {
+                retained[kept++] = docId;
+            }
+        }
+        return retained;
+    }
+
+    /**
+     * @return Whether any of the candidates, in increasing order, is in the range of document ids
+     */
+    private static boolean hasCandidate(int[] candidates, int minDocId, int maxDocId) {
+        int i = Arrays.binarySearch(candidates, minDocId);
+        if (i >= 0) {
+            return true;
+        }
+        i = -i - 1;
+        return i < candidates.length && candidates[i] <= maxDocId;
+    }
+
+    /**
+     * Checks the positions of the candidates, which contain every keyword, keeping the ones with at least one
+     * match and scoring them by their number of matches.
+     */
+    private void checkPositions() {
+        double weight = 0;
+        for (int t = 0; t < lists.length; t++) {
+            weight += scorer.weight(documentFrequency(t), collectionSize);
+        }
+        int[][] positions = new int[lists.length][];
+        int[] frequencies = new int[lists.length];
+        int[] cursors = new int[lists.length];
+        int kept = 0;
+        for (int c = 0; c < count; c++) {
+            int docId = docs[c];
+            for (int t = 0; t < lists.length; t++) {
+                int i = postings[c * lists.length + t];
+                frequencies[t] = postingFrequencies[c * lists.length + t];
+                positions[t] = lists[t].positions(i, frequencies[t], positions[t]);
+            }
+            int matches = ordered ? phraseMatches(positions, frequencies, cursors)
+                    : windowMatches(positions, frequencies, cursors, distance);
+            if (matches == 0) {
+                table[docId] = 0;
+                continue;
+            }
+            docs[kept] = docId;
+            scores[kept] = scorer == Scorer.FREQUENCY ? matches
+                    : scorer.score(weight, matches, lengths[docId], averageLength);
+            table[docId] = kept + 1;
+            kept++;
+        }
+        count = kept;
+    }
+
+    private int documentFrequency(int t) {
+        return documentFrequencies != null ? documentFrequencies[t] : lists[t].size();
+    }
+
+    /**
+     * Counts the positions at which the keywords occur as consecutive words, in list order.
+     */
+    private static int phraseMatches(int[][] positions, int[] frequencies, int[] cursors) {
+        Arrays.fill(cursors, 0);
+        int matches = 0;
+        next:
+        for (int n = 0; n < frequencies[0]; n++) {
+            int start = positions[0][n];
+            for (int t = 1; t < positions.length; t++) {
+                int wanted = start + t;
+                while (cursors[t] < frequencies[t] && positions[t][cursors[t]] < wanted) {
+                    cursors[t]++;
+                }
+                if (cursors[t] == frequencies[t]) {
+                    break next;
+                }
+                if (positions[t][cursors[t]] != wanted) {
+                    continue next;
+                }
+            }
+            matches++;
+        }
+        return matches;
+    }
+
+    /**
+     * Counts the windows of at most distance + 1 words that contain every keyword: walks all position lists
+     * at once, always advancing the one at the lowest position, and counts a window whenever the current
+     * positions span at most distance words.
+     */
+    private static int windowMatches(int[][] positions, int[] frequencies, int[] cursors, int distance) {
+        Arrays.fill(cursors, 0);
+        int matches = 0;
+        while (true) {
+            int lowest = 0;
+            int min = Integer.MAX_VALUE;
+            int max = Integer.MIN_VALUE;
+            for (int t = 0; t < positions.length; t++) {
+                int position = positions[t][cursors[t]];
+                if (position < min) {
+                    min = position;
+                    lowest = t;
+                }
+                max = Math.max(max, position);
+            }
+            if (max - min <= distance) {
+                matches++;
+            }
+            if (++cursors[lowest] == frequencies[lowest]) {
+                return matches;
+            }
+        }
+    }
+
+    private int insert(int docId) {
+        if (count == docs.length) {
+            docs = Arrays.copyOf(docs, count * 2);
+            scores = Arrays.copyOf(scores, count * 2);
+            masks = Arrays.copyOf(masks, count * 2);
+            if (positional) {
+                postings = Arrays.copyOf(postings, count * 2 * lists.length);
+                postingFrequencies = Arrays.copyOf(postingFrequencies, count * 2 * lists.length);
+            }
+            if (contributions != null) {
+                contributions = Arrays.copyOf(contributions, count * 2 * lists.length);
+            }
+        }
+        docs[count] = docId;
+        table[docId] = count + 1;
+        return count++;
+    }
+
+    /**
+     * Offers a candidate to the bounded heap.
+     */
+    private void offer(int c) {
+        if (heapSize < k) {
+            int i = heapSize++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!better(heap[parent], c)) {
+                    break;
+                }
+                heap[i] = heap[parent];
+                i = parent;
+            }
+            heap[i] = c;
+        } else if (better(c, heap[0])) {
+            heap[0] = c;
+            siftDown(heapSize);
+        }
+    }
+
+    private void siftDown(int size) {
+        int i = 0;
+        int c = heap[0];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && better(heap[child], heap[child + 1])) {
+                child++;
+            }
+            if (!better(c, heap[child])) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = c;
+    }
+
+    private boolean better(int a, int b) {
+        return scores[a] > scores[b] || (scores[a] == scores[b] && docs[a] < docs[b]);
+    }
+}
@@ -0,0 +1,133 @@
+package pse;
+
+/**
+ * Relevance scoring of the postings of a query keyword. A posting's score is computed from the keyword's
+ * frequency in the document, the document's length and a weight of the keyword that only depends on the
+ * number of documents it occurs in, which is computed once per query keyword. Document lengths are stored
+ * with the index and document frequencies are the posting list sizes, so scoring never reads documents.
+ *
+ * A scorer can also bound the score of the postings it has not seen yet (see maxScore), which lets queries
+ * skip the blocks of a posting list that can not change their results.
+ */
+public abstract class Scorer {
+
+    /**
+     * Raw keyword frequency, the score of top5search.
+     */
+    public static final Scorer FREQUENCY = new Scorer() {
+        public double weight(int documentFrequency, int documentCount) {
+            return 1;
+        }
+
+        public double score(double weight, int frequency, int documentLength, double averageDocumentLength) {
+            return frequency;
+        }
+
+        public double maxScore(double weight, int frequency, int shortestDocumentLength,
+                               double averageDocumentLength) {
+            return frequency;
+        }
+
+        public String toString() {
+            return "frequency";
+        }
+    };
+
+    /**
+     * TF-IDF: the square root of the frequency, times the inverse document frequency 1 + ln(N / (df + 1)),
+     * divided by the square root of the document length so long documents do not win on length alone.
+     */
+    public static final Scorer TF_IDF = new Scorer() {
+        public double weight(int documentFrequency, int documentCount) {
+            return 1 + Math.log((double) documentCount / (documentFrequency + 1));
+        }
+
+        public double score(double weight, int frequency, int documentLength, double averageDocumentLength) {
+            return weight * Math.sqrt((double) frequency / documentLength);
+        }
+
+        public double maxScore(double weight, int frequency, int shortestDocumentLength,
+                               double averageDocumentLength) {
+            return score(weight, frequency, shortestDocumentLength, averageDocumentLength);
+        }
+
+        public String toString() {
+            return "tf-idf";
+        }
+    };
+
+    /**
+     * Okapi BM25 with the usual parameters k1 = 1.2 and b = 0.75.
+     */
+    public static final Scorer BM25 = bm25(1.2, 0.75);
+
+    /**
+     * Okapi BM25. The frequency saturates (controlled by k1), and is normalized by the document length
+     * relative to the average (controlled by b). The keyword weight is the inverse document frequency
+     * ln(1 + (N - df + 0.5) / (df + 0.5)).
+     *
+     * @param k1 Frequency saturation, 0 ignores the frequency
+     * @param b Length normalization, from 0 (none) to 1 (full)
+     * @return BM25 scorer
+     */
+    public static Scorer bm25(final double k1, final double b) {
+        return new Scorer() {
+            public double weight(int documentFrequency, int documentCount) {
+                return Math.log(1 + (documentCount - documentFrequency + 0.5) / (documentFrequency + 0.5));
+            }
+
+            public double score(double weight, int frequency, int documentLength, double averageDocumentLength) {
+                double norm = averageDocumentLength > 0 ? documentLength / averageDocumentLength : 1;
+                return weight * frequency * (k1 + 1) / (frequency + k1 * (1 - b + b * norm));
+            }
+
+            public double maxScore(double weight, int frequency, int shortestDocumentLength,
+                                   double averageDocumentLength) {
+                if (k1 < 0 || b < 0 || b > 1) {
+                    return Double.POSITIVE_INFINITY;
+                }
+                return score(weight, frequency, shortestDocumentLength, averageDocumentLength);
+            }
+
+            public String toString() {
+                return "bm25(" + k1 + "," + b + ")";
+            }
+        };
+    }
+
+    /**
+     * Weight of a query keyword.
+     *
+     * @param documentFrequency Number of documents the keyword occurs in
+     * @param documentCount Number of documents in the index
+     * @return Weight, passed to score for every posting of the keyword
+     */
+    public abstract double weight(int documentFrequency, int documentCount);
+
+    /**
+     * Score of one posting.
+     *
+     * @param weight Weight of the keyword
+     * @param frequency Frequency of the keyword in the document
+     * @param documentLength Length of the document in keywords
+     * @param averageDocumentLength Average document length in the index
+     * @return Score contribution of the keyword to the document
+     */
+    public abstract double score(double weight, int frequency, int documentLength, double averageDocumentLength);
+
+    /**
+     * Upper bound of the score of any posting with at most the given frequency, in a document no shorter than
+     * the given length. Queries only use it if scores are never negative. The default is infinity, which never
+     * skips anything; the scores of the scorers above grow with the frequency and drop with the document
+     * length, so their bound is the score of the most frequent posting in the shortest document.
+     *
+     * @param weight Weight of the keyword
+     * @param frequency Highest frequency of the postings
+     * @param shortestDocumentLength Length of the shortest document in the index
+     * @param averageDocumentLength Average document length in the index
+     * @return Upper bound of the score contributions of the postings
+     */
+    public double maxScore(double weight, int frequency, int shortestDocumentLength, double averageDocumentLength) {
+        return Double.POSITIVE_INFINITY;
+    }
+}
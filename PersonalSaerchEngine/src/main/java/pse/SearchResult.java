@@ -0,0 +1,36 @@
+package pse;
+
+/**
+ * A document matched by a query, with its score.
+ */
+public class SearchResult {
+
+    /**
+     * Name of the matching document.
+     */
+    String document;
+
+    /**
+     * Score of the document for the query, higher is better.
+     */
+    double score;
+
+    /**
+     * Passage of the document around the query keywords, null unless the engine has a document store, see
+     * PersonalSearchEngine.setDocumentStore.
+     */
+    Snippet snippet;
+
+    /**
+     * @param doc Document name
+     * @param score Score
+     */
+    public SearchResult(String doc, double score) {
+        document = doc;
+        this.score = score;
+    }
+
+    public String toString() {
+        return "(" + document + "," + score + ")";
+    }
+}
@@ -0,0 +1,369 @@
+package pse;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HTTP/JSON query server over an index that is built or loaded once, so that a long-running process can
+ * answer queries without rebuilding anything (see Driver's --serve mode). Endpoints:
+ *
+ *   GET  /top5search?kw1=die&kw2=world
+ *        {"results": ["doc1.txt", ...]}, results null if neither keyword is in the index
+ *   GET  /search?q=alice+rabbit&operator=AND&k=10&distance=3
+ *        {"results": [{"document": "doc1.txt", "score": 4.2}, ...]}; operator is OR (the default), AND,
+ *        PHRASE or NEAR, which needs a distance; k is 10 by default, and at most 1000. If the engine has a
+ *        document store (see PersonalSearchEngine.setDocumentStore), every result has a "snippet" of its
+ *        document too, and "highlights", the [start, end] char offsets of the query keywords in the snippet
+ *   POST /search/batch
+ *        with {"queries": [{"keywords": ["alice", "rabbit"], "operator": "AND", "k": 10}, ...]}
+ *        {"results": [[...], ...]}, the results of every query in order, see
+ *        PersonalSearchEngine.search(List)
+ *   GET  /metrics
+ *        the engine's metrics snapshot, see Metrics
+ *
+ * Keywords are lower-cased, and can be keyword patterns (see Query). Malformed requests and queries the
+ * index can not answer get a 400 with {"error": message}.
+ *
+ * Every request runs in a thread of its own: a virtual thread on JVMs that have them (Java 21 and later),
+ * where a blocked request costs next to nothing, otherwise a thread of a cached pool. Searches of a built
+ * index do not lock, so requests run in parallel up to the number of cores.
+ *
+ * The JDK's server writes the headers and the body of a response separately, so without TCP_NODELAY the body
+ * waits for the client's delayed ACK of the headers, 40 ms on Linux, on every kept-alive request. The server
+ * leaves that to the process, since it is a JVM-wide setting: run it with -Dsun.net.httpserver.nodelay=true,
+ * as Driver's --serve mode does.
+ */
+public class SearchServer {
+
+    /**
+     * Largest request body accepted, a batch of many thousands of queries.
+     */
+    private static final int MAX_BODY = 16 << 20;
+
+    private static final int DEFAULT_K = 10;
+
+    /**
+     * Largest number of results a query may ask for.
+     */
+    static final int MAX_K = 1000;
+
+    private final PersonalSearchEngine engine;
+
+    private final HttpServer server;
+
+    private final ExecutorService executor;
+
+    /**
+     * Creates a server, which only accepts connections once started.
+     *
+     * @param engine Engine with its index built or opened, which is not changed while the server runs
+     * @param address Address to listen on, e.g. new InetSocketAddress("localhost", 8080)
+     * @throws IOException If the address can not be bound
+     */
+    public SearchServer(PersonalSearchEngine engine, InetSocketAddress address) throws IOException {
+        this.engine = engine;
+        server = HttpServer.create(address, 1024);
+        executor = requestExecutor();
+        server.setExecutor(executor);
+        server.createContext("/", new Handler("GET") {
+            String respond(HttpExchange exchange) {
+                return "{\"endpoints\":[\"/top5search\",\"/search\",\"/search/batch\",\"/metrics\"]}";
+            }
+        });
+        server.createContext("/top5search", new Handler("GET") {
+            String respond(HttpExchange exchange) {
+                Map<String,String> parameters = parameters(exchange);
+                return top5search(required(parameters, "kw1"), required(parameters, "kw2"));
+            }
+        });
+        server.createContext("/search", new Handler("GET") {
+            String respond(HttpExchange exchange) {
+                Map<String,String> parameters = parameters(exchange);
+                String q = required(parameters, "q").trim();
+                Query query = query(q.isEmpty() ? new String[0] : q.split("\\s+"), parameters.get("operator"),
+                        number(parameters.get("k"), DEFAULT_K), number(parameters.get("distance"), -1));
+                StringBuilder json = new StringBuilder("{\"results\":");
+                return appendResults(json, engine.search(query)).append('}').toString();
+            }
+        });
+        server.createContext("/search/batch", new Handler("POST") {
+            String respond(HttpExchange exchange) throws IOException {
+                return batch(body(exchange));
+            }
+        });
+        server.createContext("/metrics", new Handler("GET") {
+            String respond(HttpExchange exchange) {
+                StringBuilder json = new StringBuilder("{");
+                for (Map.Entry<String,Number> metric : engine.metrics().snapshot().entrySet()) {
+                    Json.quote(json.append(json.length() > 1 ? "," : ""), metric.getKey()).append(':')
+                            .append(metric.getValue());
+                }
+                return json.append('}').toString();
+            }
+        });
+    }
+
+    /**
+     * @return Executor that runs every request in a new virtual thread if the JVM has them, otherwise in a
+     *         cached pool of daemon threads
+     */
+    static ExecutorService requestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(new ThreadFactory() {
+                private int count;
+
+                public synchronized Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "pse-request-" + count++);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops accepting requests, and waits for the ones being answered.
+     *
+     * @param delay Longest time to wait, in seconds
+     */
+    public void stop(int delay) {
+        server.stop(delay);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(delay, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return Address the server listens on, with the actual port if it was created with port 0
+     */
+    public InetSocketAddress address() {
+        return server.getAddress();
+    }
+
+    private String top5search(String kw1, String kw2) {
+        ArrayList<String> results = engine.top5search(kw1.toLowerCase(), kw2.toLowerCase());
+        StringBuilder json = new StringBuilder("{\"results\":");
+        if (results == null) {
+            json.append("null");
+        } else {
+            json.append('[');
+            for (int i = 0; i < results.size(); i++) {
+                Json.quote(json.append(i > 0 ? "," : ""), results.get(i));
+            }
+            json.append(']');
+        }
+        return json.append('}').toString();
+    }
+
+    private String batch(String body) {
+        Object request = Json.parse(body);
+        Object list = request instanceof Map ? ((Map<?,?>) request).get("queries") : null;
+        if (!(list instanceof List)) {
+            throw new IllegalArgumentException("Expected {\"queries\": [...]}");
+        }
+        ArrayList<Query> queries = new ArrayList<Query>();
+        for (Object item : (List<?>) list) {
+            if (!(item instanceof Map) || !(((Map<?,?>) item).get("keywords") instanceof List)) {
+                throw new IllegalArgumentException("Expected {\"keywords\": [...]} for every query");
+            }
+            Map<?,?> query = (Map<?,?>) item;
+            List<?> keywords = (List<?>) query.get("keywords");
+            String[] words = new String[keywords.size()];
+            for (int i = 0; i < words.length; i++) {
+                if (!(keywords.get(i) instanceof String)) {
+                    throw new IllegalArgumentException("Keywords must be strings");
+                }
+                words[i] = (String) keywords.get(i);
+            }
+            Object operator = query.get("operator");
+            queries.add(query(words, operator != null ? operator.toString() : null,
+                    number(query.get("k"), DEFAULT_K), number(query.get("distance"), -1)));
+        }
+        StringBuilder json = new StringBuilder("{\"results\":[");
+        ArrayList<ArrayList<SearchResult>> results = engine.search(queries);
+        for (int q = 0; q < results.size(); q++) {
+            appendResults(json.append(q > 0 ? "," : ""), results.get(q));
+        }
+        return json.append("]}").toString();
+    }
+
+    private static Query query(String[] keywords, String operator, int k, int distance) {
+        if (keywords.length == 0) {
+            throw new IllegalArgumentException("No keywords");
+        }
+        if (k > MAX_K) {
+            throw new IllegalArgumentException("k must be at most " + MAX_K);
+        }
+        for (int i = 0; i < keywords.length; i++) {
+            keywords[i] = keywords[i].toLowerCase();
+        }
+        Query.Operator op;
+        try {
+            op = operator == null ? Query.Operator.OR : Query.Operator.valueOf(operator.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown operator " + operator + ", use OR, AND, PHRASE or NEAR");
+        }
+        if (op == Query.Operator.NEAR) {
+            if (distance < 0) {
+                throw new IllegalArgumentException("NEAR queries need a distance");
+            }
+            return Query.near(distance, k, keywords);
+        }
+        return new Query(op, k, keywords);
+    }
+
+    private static StringBuilder appendResults(StringBuilder json, List<SearchResult> results) {
+        json.append('[');
+        for (int i = 0; i < results.size(); i++) {
+            SearchResult result = results.get(i);
+            Json.quote(json.append(i > 0 ? ",{\"document\":" : "{\"document\":"), result.document)
+                    .append(",\"score\":").append(result.score);
+            if (result.snippet != null) {
+                Json.quote(json.append(",\"snippet\":"), result.snippet.text).append(",\"highlights\":[");
+                int[] highlights = result.snippet.highlights;
+                for (int h = 0; h < highlights.length; h += 2) {
+                    json.append(h > 0 ? ",[" : "[").append(highlights[h]).append(',').append(highlights[h + 1])
+                            .append(']');
+                }
+                json.append(']');
+            }
+            json.append('}');
+        }
+        return json.append(']');
+    }
+
+    private static Map<String,String> parameters(HttpExchange exchange) {
+        HashMap<String,String> parameters = new HashMap<String,String>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return parameters;
+        }
+        try {
+            for (String parameter : query.split("&")) {
+                int equals = parameter.indexOf('=');
+                if (equals > 0) {
+                    parameters.put(URLDecoder.decode(parameter.substring(0, equals), "UTF-8"),
+                            URLDecoder.decode(parameter.substring(equals + 1), "UTF-8"));
+                }
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        return parameters;
+    }
+
+    private static String required(Map<String,String> parameters, String name) {
+        String value = parameters.get(name);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing parameter " + name);
+        }
+        return value;
+    }
+
+    /**
+     * @return A number parameter or member as an int, or the default if it is absent
+     */
+    private static int number(Object value, int defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            double number = value instanceof Number
+                    ? ((Number) value).doubleValue() : Double.parseDouble(value.toString());
+            if (number != Math.rint(number) || Math.abs(number) > Integer.MAX_VALUE) {
+                throw new NumberFormatException();
+            }
+            return (int) number;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not an integer: " + value);
+        }
+    }
+
+    private static String body(HttpExchange exchange) throws IOException {
+        InputStream in = exchange.getRequestBody();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (int read; (read = in.read(buffer)) > 0; ) {
+            body.write(buffer, 0, read);
+            if (body.size() > MAX_BODY) {
+                throw new IllegalArgumentException("Request body larger than " + MAX_BODY + " bytes");
+            }
+        }
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Handler of one endpoint: checks the method, and writes the JSON the endpoint returns, or the error.
+     */
+    private abstract static class Handler implements HttpHandler {
+
+        private final String method;
+
+        Handler(String method) {
+            this.method = method;
+        }
+
+        /**
+         * @return JSON response
+         */
+        abstract String respond(HttpExchange exchange) throws IOException;
+
+        public void handle(HttpExchange exchange) throws IOException {
+            int status = 200;
+            String response;
+            try {
+                if (!exchange.getRequestMethod().equals(method)) {
+                    status = 405;
+                    response = error("Use " + method);
+                } else if (!exchange.getRequestURI().getPath().equals(exchange.getHttpContext().getPath())) {
+                    status = 404;
+                    response = error("Unknown endpoint");
+                } else {
+                    response = respond(exchange);
+                }
+            } catch (IllegalArgumentException e) {
+                status = 400;
+                response = error(e.getMessage());
+            } catch (IllegalStateException e) {
+                status = 400;
+                response = error(e.getMessage());
+            } catch (RuntimeException e) {
+                status = 500;
+                response = error(e.toString());
+            }
+            byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(status, bytes.length);
+            OutputStream out = exchange.getResponseBody();
+            try {
+                out.write(bytes);
+            } finally {
+                out.close();
+            }
+        }
+
+        private static String error(String message) {
+            return Json.quote(new StringBuilder("{\"error\":"), String.valueOf(message)).append('}').toString();
+        }
+    }
+}
@@ -0,0 +1,412 @@
+package pse;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Search engine over several PersonalSearchEngine shards, each indexing a part of the documents. Shards are
+ * built in parallel, and a query is evaluated on all of them at once, one thread per shard, after which
+ * their top-K lists are merged. A query then reads every posting once, like a single index does, but spread
+ * over as many cores as there are shards.
+ *
+ * Documents are dealt to the shards round robin in the order they are listed in the docs file, so document
+ * i is document i / N of shard i % N, and every shard gets its share of large and small documents. The
+ * order of the list is kept across shards to break ties, and the shards score their documents with the
+ * document frequencies, document count and average document length of the whole collection. Search results
+ * are therefore exactly the same as those of a single PersonalSearchEngine that indexed the same docs file,
+ * provided no document is listed in it more than once. A single engine indexes a repeated document again,
+ * under the same document id, so its postings of that document add up; the shards index it only once, at
+ * its first place in the list, like the memory-bounded PersonalSearchEngine.makeIndex does.
+ *
+ * An index is saved as one segment file per shard, and can only be opened by an engine with the same number
+ * of shards. The shard index is built from scratch: updates need a new makeIndex.
+ */
+public class ShardedSearchEngine {
+
+    private final PersonalSearchEngine[] shards;
+
+    /**
+     * Runs the shard builds, and the queries of all shards but the first, which the calling thread runs
+     * itself.
+     */
+    private final ThreadPoolExecutor pool;
+
+    private Scorer scorer = Scorer.BM25;
+
+    /**
+     * Statistics of the whole collection, updated whenever the shards change.
+     */
+    private int documentCount;
+
+    private double averageLength;
+
+    private QueryCache queryCache;
+
+    /**
+     * Version of the index for the query cache, see PersonalSearchEngine.version.
+     */
+    private long version;
+
+    /**
+     * Metrics of the whole engine, which the shards record their indexing in.
+     */
+    private final Metrics metrics = new Metrics();
+
+    /**
+     * @param shardCount Number of shards, usually the number of cores
+     */
+    public ShardedSearchEngine(int shardCount) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("At least one shard is needed");
+        }
+        shards = new PersonalSearchEngine[shardCount];
+        for (int s = 0; s < shardCount; s++) {
+            shards[s] = new PersonalSearchEngine(metrics);
+        }
+        metrics.index(new Metrics.IndexGauges() {
+            public Metrics.IndexSample sample() {
+                Metrics.IndexSample sample = new Metrics.IndexSample();
+                for (PersonalSearchEngine shard : shards) {
+                    Metrics.IndexSample shardSample = shard.indexSample;
+                    if (shardSample != null) {
+                        sample.add(shardSample);
+                    }
+                }
+                return sample;
+            }
+        });
+        final AtomicInteger threads = new AtomicInteger();
+        pool = new ThreadPoolExecutor(shardCount, shardCount, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "shard-" + threads.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Indexes all documents listed in docsFile, every shard its part of them, all shards at the same time.
+     * A document that is listed more than once is indexed once, at its first place in the list.
+     *
+     * @param docsFile Name of file that has a list of all the document file names, one name per line
+     * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+     * @throws FileNotFoundException If there is a problem locating any of the input files on disk
+     */
+    public void makeIndex(String docsFile, String noiseWordsFile) throws FileNotFoundException {
+        makeIndex(PersonalSearchEngine.readDocumentList(docsFile), noiseWordsFile);
+    }
+
+    /**
+     * Parallel build from a list of document file names, see makeIndex(docsFile, noiseWordsFile).
+     */
+    void makeIndex(List<String> docs, final String noiseWordsFile) throws FileNotFoundException {
+        final ArrayList<List<String>> parts = new ArrayList<List<String>>(shards.length);
+        for (int s = 0; s < shards.length; s++) {
+            parts.add(new ArrayList<String>());
+        }
+        int n = 0;
+        for (String doc : new LinkedHashSet<String>(docs)) {
+            parts.get(n++ % shards.length).add(doc);
+        }
+        ArrayList<Future<Object>> builds = new ArrayList<Future<Object>>(shards.length);
+        for (int s = 0; s < shards.length; s++) {
+            final int shard = s;
+            builds.add(pool.submit(new Callable<Object>() {
+                public Object call() throws FileNotFoundException {
+                    shards[shard].makeIndex(parts.get(shard), noiseWordsFile);
+                    return null;
+                }
+            }));
+        }
+        try {
+            for (Future<Object> build : builds) {
+                PersonalSearchEngine.await(build);
+            }
+        } finally {
+            for (Future<Object> build : builds) {
+                build.cancel(true);
+            }
+            updateStatistics();
+        }
+    }
+
+    /**
+     * Writes every shard to its own segment file, named after indexFile with the shard number appended
+     * (index.pse.0, index.pse.1, ...). The file after the last shard is deleted, in case an index with more
+     * shards was saved under the same name before.
+     *
+     * @param indexFile Name of the segment files to write
+     * @throws IOException If a file cannot be written
+     */
+    public void saveIndex(String indexFile) throws IOException {
+        for (int s = 0; s < shards.length; s++) {
+            shards[s].saveIndex(shardFile(indexFile, s));
+        }
+        File stale = new File(shardFile(indexFile, shards.length));
+        if (stale.exists() && !stale.delete()) {
+            throw new IOException("Cannot delete " + stale);
+        }
+    }
+
+    /**
+     * Opens the segment files written by saveIndex, memory-mapped, see PersonalSearchEngine.openIndex.
+     *
+     * @param indexFile Name the segment files were saved under
+     * @throws IOException If a file cannot be read, or the index was saved with a different number of shards
+     */
+    public void openIndex(String indexFile) throws IOException {
+        if (!new File(shardFile(indexFile, shards.length - 1)).exists()
+                || new File(shardFile(indexFile, shards.length)).exists()) {
+            throw new IOException(indexFile + " is not an index of " + shards.length + " shards");
+        }
+        try {
+            for (int s = 0; s < shards.length; s++) {
+                shards[s].openIndex(shardFile(indexFile, s));
+            }
+        } finally {
+            updateStatistics();
+        }
+    }
+
+    private static String shardFile(String indexFile, int shard) {
+        return indexFile + "." + shard;
+    }
+
+    private void updateStatistics() {
+        version++;
+        documentCount = 0;
+        long totalLength = 0;
+        for (PersonalSearchEngine shard : shards) {
+            documentCount += shard.documentCount();
+            totalLength += shard.totalDocumentLength();
+        }
+        averageLength = documentCount == 0 ? 0 : (double) totalLength / documentCount;
+    }
+
+    /**
+     * Top-K search on all shards, see PersonalSearchEngine.search.
+     *
+     * @param query Keywords, operator and number of results
+     * @return Up to K best matching documents with their scores, best first. Empty if nothing matches.
+     * @throws IllegalStateException For a PHRASE or NEAR query on an index without positions
+     */
+    public ArrayList<SearchResult> search(Query query) {
+        long start = System.nanoTime();
+        try {
+            return evaluate(query);
+        } finally {
+            metrics.search.record(System.nanoTime() - start);
+        }
+    }
+
+    private ArrayList<SearchResult> evaluate(final Query query) {
+        if (queryCache != null) {
+            ArrayList<SearchResult> cached = queryCache.search(this, query, scorer, version);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        // keyword patterns expand to the same keywords on every shard
+        final String[][] terms = PersonalSearchEngine.expand(shards, query.keywords);
+        // collection statistics are cheap to gather up front: a term table lookup per shard and keyword
+        final int[] documentFrequencies = new int[query.keywords.length];
+        for (PersonalSearchEngine shard : shards) {
+            for (int t = 0; t < documentFrequencies.length; t++) {
+                documentFrequencies[t] += shard.documentFrequency(terms[t]);
+            }
+        }
+        final Scorer scorer = this.scorer;
+        final int documentCount = this.documentCount;
+        final double averageLength = this.averageLength;
+        ArrayList<SearchResult> results = PartialResults.results(scatter(new ShardQuery() {
+            public QueryEvaluator evaluator(PersonalSearchEngine shard) {
+                QueryEvaluator evaluator = shard.evaluator(query, terms);
+                evaluator.collectionStatistics(documentCount, documentFrequencies);
+                evaluator.scoreWith(scorer, shard.documentLengths(), averageLength);
+                return evaluator;
+            }
+        }), query.k);
+        if (queryCache != null) {
+            queryCache.putSearch(this, query, scorer, version, results);
+        }
+        return results;
+    }
+
+    /**
+     * top5search on all shards, see PersonalSearchEngine.top5search.
+     *
+     * @param kw1 First keyword
+     * @param kw2 Second keyword
+     * @return Up to 5 documents in which either kw1 or kw2 occurs, or null if neither is in the index
+     */
+    public ArrayList<String> top5search(String kw1, String kw2) {
+        long start = System.nanoTime();
+        try {
+            return topSearch(kw1, kw2);
+        } finally {
+            metrics.top5search.record(System.nanoTime() - start);
+        }
+    }
+
+    private ArrayList<String> topSearch(final String kw1, final String kw2) {
+        if (queryCache != null) {
+            ArrayList<String> cached = queryCache.top5search(this, kw1, kw2, version);
+            if (cached != null) {
+                return cached.isEmpty() ? null : cached;
+            }
+        }
+        final String[][] terms = PersonalSearchEngine.expand(shards, kw1, kw2);
+        PartialResults[] results = scatter(new ShardQuery() {
+            public QueryEvaluator evaluator(PersonalSearchEngine shard) {
+                return shard.topEvaluator(terms);
+            }
+        });
+        ArrayList<String> names = null;
+        for (PartialResults shardResults : results) {
+            if (shardResults != null) {
+                names = PartialResults.names(results, 5);
+                break;
+            }
+        }
+        if (queryCache != null) {
+            queryCache.putTop5search(this, kw1, kw2, version, names);
+        }
+        return names;
+    }
+
+    /**
+     * Runs a query on every shard, the first one in the calling thread.
+     */
+    private PartialResults[] scatter(final ShardQuery query) {
+        ArrayList<Future<PartialResults>> tasks = new ArrayList<Future<PartialResults>>(shards.length - 1);
+        for (int s = 1; s < shards.length; s++) {
+            final int shard = s;
+            tasks.add(pool.submit(new Callable<PartialResults>() {
+                public PartialResults call() {
+                    return run(query, shard);
+                }
+            }));
+        }
+        PartialResults[] results = new PartialResults[shards.length];
+        try {
+            results[0] = run(query, 0);
+            for (int s = 1; s < shards.length; s++) {
+                results[s] = gather(tasks.get(s - 1));
+            }
+        } finally {
+            for (Future<PartialResults> task : tasks) {
+                task.cancel(false);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Runs a query on one shard. Document i of shard s is document i * shards + s of the docs file.
+     */
+    private PartialResults run(ShardQuery query, int shard) {
+        QueryEvaluator evaluator = query.evaluator(shards[shard]);
+        return evaluator == null ? null : new PartialResults(shards[shard], evaluator, shard, shards.length);
+    }
+
+    private static PartialResults gather(Future<PartialResults> task) {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Search interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Sets the relevance scorer used by search, see PersonalSearchEngine.setScorer.
+     *
+     * @param scorer Scorer
+     */
+    public void setScorer(Scorer scorer) {
+        this.scorer = scorer;
+    }
+
+    /**
+     * Puts a cache of search results in front of search and top5search, see
+     * PersonalSearchEngine.setQueryCache.
+     *
+     * @param queryCache Cache, or null for none
+     */
+    public void setQueryCache(QueryCache queryCache) {
+        this.queryCache = queryCache;
+    }
+
+    /**
+     * Makes makeIndex record word positions, see PersonalSearchEngine.setPositional.
+     *
+     * @param positional Whether to record positions
+     */
+    public void setPositional(boolean positional) {
+        for (PersonalSearchEngine shard : shards) {
+            shard.setPositional(positional);
+        }
+    }
+
+    /**
+     * Sets the OCR backend of all shards, see PersonalSearchEngine.setOcrEngine. The shards share it.
+     *
+     * @param ocrEngine OCR backend, or null for OCRManager's default
+     */
+    public void setOcrEngine(OcrEngine ocrEngine) {
+        for (PersonalSearchEngine shard : shards) {
+            shard.setOcrEngine(ocrEngine);
+        }
+    }
+
+    /**
+     * Sets the charset all shards read text documents in, see PersonalSearchEngine.setCharset.
+     *
+     * @param charset Charset of the text documents
+     */
+    public void setCharset(Charset charset) {
+        for (PersonalSearchEngine shard : shards) {
+            shard.setCharset(charset);
+        }
+    }
+
+    /**
+     * Metrics of the engine, see PersonalSearchEngine.metrics. Indexing stages add up the work of all
+     * shards, and the index gauges sum up the shards as of their last build or open.
+     *
+     * @return Metrics, recorded from the start
+     */
+    public Metrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * @return Number of shards
+     */
+    public int shardCount() {
+        return shards.length;
+    }
+
+    private interface ShardQuery {
+
+        /**
+         * @return Evaluator of the query on the shard, or null if the shard has no results
+         */
+        QueryEvaluator evaluator(PersonalSearchEngine shard);
+    }
+}
@@ -0,0 +1,65 @@
+package pse;
+
+/**
+ * A short passage of a matching document around the query keywords it contains, as DocumentStore cuts it
+ * from the stored text of the document, with the places of those keywords in it.
+ */
+public class Snippet {
+
+    /**
+     * Text of the passage, with "..." where it was cut from a longer text.
+     */
+    final String text;
+
+    /**
+     * Char offsets of the query keywords in text, the start and the end of each keyword in turn, in text
+     * order.
+     */
+    final int[] highlights;
+
+    /**
+     * @param text Text of the passage
+     * @param highlights Start and end char offsets of the keywords in the text, in text order
+     */
+    public Snippet(String text, int[] highlights) {
+        this.text = text;
+        this.highlights = highlights;
+    }
+
+    /**
+     * @return Text of the passage
+     */
+    public String text() {
+        return text;
+    }
+
+    /**
+     * @return Number of highlighted keywords
+     */
+    public int highlightCount() {
+        return highlights.length / 2;
+    }
+
+    /**
+     * Marks the keywords in the text, e.g. with "&lt;b&gt;" and "&lt;/b&gt;".
+     *
+     * @param before Inserted before every keyword
+     * @param after Inserted after every keyword
+     * @return The text with the keywords marked
+     */
+    public String highlight(String before, String after) {
+        StringBuilder marked = new StringBuilder(text.length() + highlights.length / 2
+                * (before.length() + after.length()));
+        int at = 0;
+        for (int i = 0; i < highlights.length; i += 2) {
+            marked.append(text, at, highlights[i]).append(before)
+                    .append(text, highlights[i], highlights[i + 1]).append(after);
+            at = highlights[i + 1];
+        }
+        return marked.append(text, at, text.length()).toString();
+    }
+
+    public String toString() {
+        return highlight("[", "]");
+    }
+}
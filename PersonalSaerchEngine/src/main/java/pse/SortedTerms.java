@@ -0,0 +1,104 @@
+package pse;
+
+import java.util.Arrays;
+
+/**
+ * The keywords of an index in sorted order, with their document frequencies, for expanding KeywordPatterns.
+ *
+ * Any order in which the keywords that start with the same chars are next to each other will do, such as
+ * the UTF-8 byte order of an IndexSegment's term table, or the String order of a TermIndex. The sorted list
+ * is then an implicit trie: the keywords under a trie node are a range of the list, which expand walks
+ * depth first, and skips as a whole once the pattern can no longer match below the node.
+ */
+abstract class SortedTerms {
+
+    /**
+     * @return Number of keywords
+     */
+    abstract int size();
+
+    /**
+     * @return Keyword at a position of the sorted order
+     */
+    abstract String term(int i);
+
+    /**
+     * @return Number of documents that contain the keyword at a position of the sorted order
+     */
+    abstract int documentFrequency(int i);
+
+    /**
+     * Adds the keywords that match a pattern to a set of matches.
+     *
+     * Every keyword reuses the automaton rows of the prefix it shares with the keyword before it, so a row is
+     * only computed for the chars where a keyword differs from its predecessor. When a prefix is dead, the
+     * keywords that start with it are skipped with a galloping search, which costs the logarithm of their
+     * number.
+     */
+    void expand(KeywordPattern pattern, KeywordPattern.Matches matches) {
+        int size = size();
+        int[][] rows = new int[16][];
+        rows[0] = pattern.start();
+        String previous = "";
+        // rows[0..depth] are the rows of the first depth chars of previous
+        int depth = 0;
+        int i = 0;
+        while (i < size) {
+            String term = term(i);
+            int common = 0;
+            int limit = Math.min(depth, term.length());
+            while (common < limit && term.charAt(common) == previous.charAt(common)) {
+                common++;
+            }
+            depth = common;
+            boolean dead = false;
+            while (!dead && depth < term.length()) {
+                if (depth + 1 == rows.length) {
+                    rows = Arrays.copyOf(rows, rows.length * 2);
+                }
+                if (rows[depth + 1] == null) {
+                    rows[depth + 1] = new int[rows[0].length];
+                }
+                dead = pattern.step(rows[depth], term.charAt(depth), rows[depth + 1]);
+                depth++;
+            }
+            previous = term;
+            if (dead) {
+                i = skip(i, term, depth);
+            } else {
+                int distance = pattern.distance(rows[depth]);
+                int documentFrequency = distance >= 0 ? documentFrequency(i) : 0;
+                if (documentFrequency > 0) {
+                    matches.add(term, distance, documentFrequency);
+                }
+                i++;
+            }
+        }
+    }
+
+    /**
+     * @param i Position of a keyword
+     * @param term The keyword
+     * @param length Length of a prefix of the keyword
+     * @return Position of the first keyword after i that does not start with the prefix
+     */
+    private int skip(int i, String term, int length) {
+        int size = size();
+        // term(low) has the prefix, term(high) does not, or high is the end
+        int low = i;
+        int high = i + 1;
+        for (int step = 2; high < size && term(high).regionMatches(0, term, 0, length); step <<= 1) {
+            low = high;
+            high = (int) Math.min(size, (long) i + step);
+        }
+        while (high - low > 1) {
+            int mid = (low + high) >>> 1;
+            if (term(mid).regionMatches(0, term, 0, length)) {
+                low = mid;
+            } else {
+                high = mid;
+            }
+        }
+        return high;
+    }
+}
@@ -0,0 +1,205 @@
+package pse;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Keyword counts of one document, kept in int arrays indexed by the term ids of a KeywordTokenizer's
+ * dictionary. Counting a keyword is an array increment, and clear() only resets the keywords of the last
+ * document, so one instance counts any number of documents without allocating per word or per keyword.
+ * Word positions are recorded into per-term buffers that are reused the same way.
+ *
+ * Counts only live until the next clear(). freeze() copies them into a compact Frozen form that does not
+ * depend on the dictionary, for documents that are merged into the index later, or on another thread.
+ */
+final class TermCounts {
+
+    /**
+     * Tokenizer whose term ids are counted.
+     */
+    final KeywordTokenizer tokenizer;
+
+    private final boolean positional;
+
+    /**
+     * Frequency of every term in the document, by term id, 0 for terms it does not have.
+     */
+    private int[] frequencies = new int[1024];
+
+    /**
+     * Word positions of every term in the document, by term id, if positions are recorded. The first
+     * frequency entries are in use.
+     */
+    private int[][] positions;
+
+    /**
+     * Ids of the document's terms, in the order they first occur.
+     */
+    private int[] ids = new int[256];
+
+    private int size;
+
+    private int length;
+
+    /**
+     * @param tokenizer Tokenizer whose term ids are counted
+     * @param positional Whether to record word positions
+     */
+    TermCounts(KeywordTokenizer tokenizer, boolean positional) {
+        this.tokenizer = tokenizer;
+        this.positional = positional;
+        if (positional) {
+            positions = new int[frequencies.length][];
+        }
+    }
+
+    /**
+     * Counts an occurrence of a keyword.
+     *
+     * @param id Term id of the keyword
+     * @param position Word position of the occurrence, ignored unless positions are recorded
+     */
+    void add(int id, int position) {
+        if (id >= frequencies.length) {
+            int grown = Math.max(id + 1, frequencies.length * 2);
+            frequencies = Arrays.copyOf(frequencies, grown);
+            if (positional) {
+                positions = Arrays.copyOf(positions, grown);
+            }
+        }
+        int frequency = ++frequencies[id];
+        if (frequency == 1) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+        length++;
+        if (positional) {
+            int[] termPositions = positions[id];
+            if (termPositions == null) {
+                termPositions = new int[4];
+                positions[id] = termPositions;
+            } else if (frequency > termPositions.length) {
+                termPositions = Arrays.copyOf(termPositions, termPositions.length * 2);
+                positions[id] = termPositions;
+            }
+            termPositions[frequency - 1] = position;
+        }
+    }
+
+    /**
+     * @return Number of distinct keywords in the document
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param i Index, from 0 to size() - 1
+     * @return Term id of the i-th distinct keyword of the document
+     */
+    int id(int i) {
+        return ids[i];
+    }
+
+    int frequency(int id) {
+        return frequencies[id];
+    }
+
+    /**
+     * @return Word positions of a keyword of the document, encoded for a posting list, or null if positions
+     *         are not recorded
+     */
+    byte[] encodedPositions(int id) {
+        return positional ? PostingList.encodePositions(positions[id], frequencies[id]) : null;
+    }
+
+    /**
+     * @return Length of the document in keywords, counting repeats
+     */
+    int length() {
+        return length;
+    }
+
+    /**
+     * Forgets the counts of the document, to count the next one.
+     */
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            frequencies[ids[i]] = 0;
+        }
+        size = 0;
+        length = 0;
+        if (tokenizer.text != null) {
+            tokenizer.text.clear();
+        }
+    }
+
+    /**
+     * @return Copy of the counts that does not change when these are cleared
+     */
+    Frozen freeze() {
+        TermDictionary terms = tokenizer.terms();
+        String[] keywords = new String[size];
+        int[] keywordFrequencies = new int[size];
+        byte[][] keywordPositions = positional ? new byte[size][] : null;
+        for (int i = 0; i < size; i++) {
+            keywords[i] = terms.term(ids[i]);
+            keywordFrequencies[i] = frequencies[ids[i]];
+            if (positional) {
+                keywordPositions[i] = encodedPositions(ids[i]);
+            }
+        }
+        return new Frozen(keywords, keywordFrequencies, keywordPositions, length,
+                tokenizer.text != null ? tokenizer.text.record() : null);
+    }
+
+    /**
+     * @param document Document name
+     * @return The counts as a table of keyword occurrences, as loadKeywordsFromDocument returns them
+     */
+    HashMap<String,Occurrence> occurrences(String document) {
+        TermDictionary terms = tokenizer.terms();
+        HashMap<String,Occurrence> map = new HashMap<String,Occurrence>(Math.max(16, 2 * size));
+        for (int i = 0; i < size; i++) {
+            int id = ids[i];
+            Occurrence occ = new Occurrence(document, frequencies[id]);
+            if (positional) {
+                occ.positions = Arrays.copyOf(positions[id], frequencies[id]);
+            }
+            map.put(terms.term(id), occ);
+        }
+        return map;
+    }
+
+    /**
+     * Keyword counts of a document, with encoded positions if they were recorded.
+     */
+    static final class Frozen {
+
+        final String[] keywords;
+
+        final int[] frequencies;
+
+        /**
+         * Encoded positions, parallel to keywords, or null if positions were not recorded.
+         */
+        final byte[][] positions;
+
+        final int length;
+
+        /**
+         * The document's text as a DocumentStore record, or null if the text is not stored.
+         */
+        final byte[] text;
+
+        Frozen(String[] keywords, int[] frequencies, byte[][] positions, int length, byte[] text) {
+            this.keywords = keywords;
+            this.frequencies = frequencies;
+            this.positions = positions;
+            this.length = length;
+            this.text = text;
+        }
+    }
+}
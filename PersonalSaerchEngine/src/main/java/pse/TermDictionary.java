@@ -0,0 +1,248 @@
+package pse;
+
+import java.util.Arrays;
+
+/**
+ * Dictionary that gives every distinct term an int id, counting from 0 in the order the terms are added.
+ *
+ * The chars of all terms are stored one after the other in a single char array, and the table is open
+ * addressing (linear probing) over the term ids, so adding or finding a term walks no chains and allocates
+ * nothing, and the dictionary as a whole is a handful of arrays however many terms it holds. A term only
+ * gets a String when term(id) is first asked for it. Terms are hashed like String.hashCode, so a String
+ * whose hash is cached is not hashed again.
+ *
+ * A dictionary is not thread-safe while terms are added. Once it is no longer changed it can be read by
+ * any number of threads.
+ */
+final class TermDictionary {
+
+    private static final int INITIAL_TERMS = 1024;
+
+    /**
+     * Open-addressing table of term id + 1, 0 for an empty slot. At most half full.
+     */
+    private int[] slots;
+
+    /**
+     * Hash of every term, by term id.
+     */
+    private int[] hashes;
+
+    /**
+     * Offset of every term's chars in the arena, by term id, and the end of the last term after them.
+     */
+    private int[] offsets;
+
+    private char[] arena;
+
+    /**
+     * String of every term, by term id, created on demand.
+     */
+    private String[] strings;
+
+    private int size;
+
+    TermDictionary() {
+        slots = new int[2 * INITIAL_TERMS];
+        hashes = new int[INITIAL_TERMS];
+        offsets = new int[INITIAL_TERMS + 1];
+        arena = new char[8 * INITIAL_TERMS];
+        strings = new String[INITIAL_TERMS];
+    }
+
+    /**
+     * Finds a term, adding it if it is new.
+     *
+     * @param chars Array that holds the term
+     * @param length Length of the term, which starts at index 0 of chars
+     * @return Id of the term
+     */
+    int add(char[] chars, int length) {
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + chars[i];
+        }
+        int mask = slots.length - 1;
+        int slot = mix(hash) & mask;
+        for (int id; (id = slots[slot] - 1) >= 0; slot = (slot + 1) & mask) {
+            if (hashes[id] == hash && matches(id, chars, length)) {
+                return id;
+            }
+        }
+        int id = append(chars, length, hash);
+        slots[slot] = id + 1;
+        if (2 * size > slots.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    /**
+     * Finds a term, adding it if it is new.
+     *
+     * @return Id of the term
+     */
+    int add(String term) {
+        int id = find(term);
+        if (id >= 0) {
+            return id;
+        }
+        char[] chars = term.toCharArray();
+        id = add(chars, chars.length);
+        strings[id] = term;
+        return id;
+    }
+
+    /**
+     * @return Id of the term, or -1 if it is not in the dictionary
+     */
+    int find(String term) {
+        int hash = term.hashCode();
+        int length = term.length();
+        int mask = slots.length - 1;
+        for (int slot = mix(hash) & mask, id; (id = slots[slot] - 1) >= 0; slot = (slot + 1) & mask) {
+            if (hashes[id] == hash && offsets[id + 1] - offsets[id] == length) {
+                int offset = offsets[id];
+                int i = 0;
+                while (i < length && arena[offset + i] == term.charAt(i)) {
+                    i++;
+                }
+                if (i == length) {
+                    return id;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param id Term id
+     * @return The term
+     */
+    String term(int id) {
+        String term = strings[id];
+        if (term == null) {
+            term = new String(arena, offsets[id], offsets[id + 1] - offsets[id]);
+            strings[id] = term;
+        }
+        return term;
+    }
+
+    /**
+     * @return Length of a term
+     */
+    int length(int id) {
+        return offsets[id + 1] - offsets[id];
+    }
+
+    /**
+     * Copies the chars of a term.
+     *
+     * @param id Term id
+     * @param chars Array to copy to
+     * @param at Index of chars to copy the first char to
+     */
+    void getChars(int id, char[] chars, int at) {
+        System.arraycopy(arena, offsets[id], chars, at, offsets[id + 1] - offsets[id]);
+    }
+
+    /**
+     * @return Number of terms, which is also the first id that is not in use
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Sorts term ids in the String order of their terms, comparing the terms in place in the arena.
+     *
+     * @param ids Term ids, sorted in place
+     */
+    void sort(int[] ids) {
+        mergeSort(ids.clone(), ids, 0, ids.length);
+    }
+
+    /**
+     * Sorts the ids of a range into another array that holds the same ids in that range, using the first as
+     * scratch space on the way.
+     */
+    private void mergeSort(int[] from, int[] to, int low, int high) {
+        if (high - low < 2) {
+            return;
+        }
+        int mid = (low + high) >>> 1;
+        mergeSort(to, from, low, mid);
+        mergeSort(to, from, mid, high);
+        for (int i = low, p = low, q = mid; i < high; i++) {
+            if (q >= high || (p < mid && compare(from[p], from[q]) <= 0)) {
+                to[i] = from[p++];
+            } else {
+                to[i] = from[q++];
+            }
+        }
+    }
+
+    private int compare(int a, int b) {
+        int offsetA = offsets[a];
+        int offsetB = offsets[b];
+        int lengthA = offsets[a + 1] - offsetA;
+        int lengthB = offsets[b + 1] - offsetB;
+        int n = Math.min(lengthA, lengthB);
+        for (int i = 0; i < n; i++) {
+            int c = arena[offsetA + i] - arena[offsetB + i];
+            if (c != 0) {
+                return c;
+            }
+        }
+        return lengthA - lengthB;
+    }
+
+    private boolean matches(int id, char[] chars, int length) {
+        int offset = offsets[id];
+        if (offsets[id + 1] - offset != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (arena[offset + i] != chars[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int append(char[] chars, int length, int hash) {
+        if (size == hashes.length) {
+            hashes = Arrays.copyOf(hashes, size * 2);
+            offsets = Arrays.copyOf(offsets, size * 2 + 1);
+            strings = Arrays.copyOf(strings, size * 2);
+        }
+        int offset = offsets[size];
+        if (offset + length > arena.length) {
+            arena = Arrays.copyOf(arena, Math.max(offset + length, arena.length * 2));
+        }
+        System.arraycopy(chars, 0, arena, offset, length);
+        hashes[size] = hash;
+        offsets[size + 1] = offset + length;
+        return size++;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = mix(hashes[id]) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = id + 1;
+        }
+    }
+
+    /**
+     * Spreads String hash codes, which are weak in their low bits for short words.
+     */
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
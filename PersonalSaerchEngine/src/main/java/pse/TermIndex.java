@@ -0,0 +1,182 @@
+package pse;
+
+import java.util.Arrays;
+
+/**
+ * Keyword to posting list table of an index on the heap: a TermDictionary, and an array of posting lists
+ * indexed by term id. A keyword is looked up in the dictionary, and a tokenizer that shares the dictionary
+ * (see KeywordTokenizer) hands out the term ids of the index itself, so the bulk build appends a posting
+ * with an array access, without looking the keyword up at all.
+ *
+ * Terms can be in the dictionary without a posting list, e.g. the noise words a tokenizer adds, or keywords
+ * whose documents were all removed. They do not count as keywords of the index. Iterate over the keywords
+ * with an id from 0 to idLimit(), skipping the ids that get(id) returns null for.
+ */
+final class TermIndex {
+
+    private TermDictionary terms = new TermDictionary();
+
+    private PostingList[] postings = new PostingList[1024];
+
+    private int size;
+
+    /**
+     * Keywords in sorted order, built on demand, null whenever keywords have been added or removed since.
+     */
+    private volatile SortedTerms sorted;
+
+    /**
+     * @return Dictionary of the term ids
+     */
+    TermDictionary terms() {
+        return terms;
+    }
+
+    /**
+     * @return Posting list of a keyword, or null if it is not in the index
+     */
+    PostingList get(String keyword) {
+        int id = terms.find(keyword);
+        return id < 0 || id >= postings.length ? null : postings[id];
+    }
+
+    /**
+     * @return Posting list of a term id, or null if the term has none
+     */
+    PostingList get(int id) {
+        return id < postings.length ? postings[id] : null;
+    }
+
+    /**
+     * @return Posting list of a term id, an empty one added if the term has none yet
+     */
+    PostingList getOrAdd(int id) {
+        if (id >= postings.length) {
+            postings = Arrays.copyOf(postings, Math.max(id + 1, postings.length * 2));
+        }
+        PostingList list = postings[id];
+        if (list == null) {
+            list = new PostingList();
+            postings[id] = list;
+            size++;
+            sorted = null;
+        }
+        return list;
+    }
+
+    /**
+     * @return Posting list of a keyword, an empty one added if it has none yet
+     */
+    PostingList getOrAdd(String keyword) {
+        return getOrAdd(terms.add(keyword));
+    }
+
+    /**
+     * Sets the posting list of a keyword, replacing the one it had.
+     */
+    void put(String keyword, PostingList list) {
+        int id = terms.add(keyword);
+        if (id >= postings.length) {
+            postings = Arrays.copyOf(postings, Math.max(id + 1, postings.length * 2));
+        }
+        if (postings[id] == null) {
+            size++;
+        }
+        postings[id] = list;
+        sorted = null;
+    }
+
+    /**
+     * Drops the posting list of a term id. The term stays in the dictionary.
+     */
+    void remove(int id) {
+        if (id < postings.length && postings[id] != null) {
+            postings[id] = null;
+            size--;
+            sorted = null;
+        }
+    }
+
+    /**
+     * @return Keyword of a term id
+     */
+    String term(int id) {
+        return terms.term(id);
+    }
+
+    /**
+     * @return Upper bound of the term ids that have posting lists
+     */
+    int idLimit() {
+        return Math.min(terms.size(), postings.length);
+    }
+
+    /**
+     * @return Number of keywords, the terms that have posting lists
+     */
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Drops all keywords, and starts a new dictionary.
+     */
+    void clear() {
+        terms = new TermDictionary();
+        postings = new PostingList[1024];
+        size = 0;
+        sorted = null;
+    }
+
+    /**
+     * Returns the keywords in sorted order, for expanding keyword patterns. They are sorted on the first call
+     * after the keywords changed, in O(n log n) on the term ids, and their chars copied in sorted order into
+     * one array, so that expansion reads them sequentially rather than all over the dictionary; an index
+     * that is no longer changed sorts them once. Like the rest of the index, they must not be asked for while
+     * the index changes.
+     *
+     * @return Keywords that have posting lists, in String order
+     */
+    SortedTerms sortedTerms() {
+        SortedTerms sortedTerms = sorted;
+        if (sortedTerms == null) {
+            final int[] ids = new int[size];
+            int count = 0;
+            long length = 0;
+            for (int id = 0; id < idLimit(); id++) {
+                if (postings[id] != null) {
+                    ids[count++] = id;
+                    length += terms.length(id);
+                }
+            }
+            terms.sort(ids);
+            final char[] chars = new char[(int) length];
+            final int[] offsets = new int[count + 1];
+            final PostingList[] lists = new PostingList[count];
+            for (int i = 0; i < count; i++) {
+                terms.getChars(ids[i], chars, offsets[i]);
+                offsets[i + 1] = offsets[i] + terms.length(ids[i]);
+                lists[i] = postings[ids[i]];
+            }
+            sortedTerms = new SortedTerms() {
+                int size() {
+                    return lists.length;
+                }
+
+                String term(int i) {
+                    return new String(chars, offsets[i], offsets[i + 1] - offsets[i]);
+                }
+
+                int documentFrequency(int i) {
+                    return lists[i].size();
+                }
+            };
+            sorted = sortedTerms;
+        }
+        return sortedTerms;
+    }
+}
@@ -0,0 +1,148 @@
+package pse;
+
+import com.sun.jna.Pointer;
+import net.sourceforge.tess4j.ITessAPI.TessBaseAPI;
+import net.sourceforge.tess4j.TessAPI;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * In-process OCR with the Tesseract engine, through its tess4j JNA binding. Needs the Tesseract native
+ * library and the trained data of the language.
+ *
+ * tess4j's Tesseract class loads the language model again for every image. This engine keeps initialized
+ * Tesseract handles instead, and lends one to each recognize call, so the model is loaded once per handle
+ * and there are never more handles than concurrent calls. Images are handed to Tesseract as 8-bit gray
+ * scale, which is what it binarizes anyway.
+ */
+public class TesseractOcrEngine implements OcrEngine, Closeable {
+
+    /**
+     * Resolution Tesseract is told the images have. OCRManager renders PDF pages at 300 DPI.
+     */
+    private static final int RESOLUTION = 300;
+
+    private final TessAPI api = TessAPI.INSTANCE;
+
+    private final String dataPath;
+
+    private final String language;
+
+    private final ConcurrentLinkedQueue<TessBaseAPI> idle = new ConcurrentLinkedQueue<TessBaseAPI>();
+
+    /**
+     * Guards creating and freeing handles against close.
+     */
+    private final Object lock = new Object();
+
+    private boolean closed;
+
+    /**
+     * @param dataPath Directory with the trained data (the tessdata directory)
+     * @param language Language of the text, e.g. "eng"
+     */
+    public TesseractOcrEngine(String dataPath, String language) {
+        this.dataPath = dataPath;
+        this.language = language;
+    }
+
+    public String recognize(String name, byte[] image) throws IOException {
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(image));
+        if (decoded == null) {
+            throw new IOException("Unsupported image format: " + name);
+        }
+        BufferedImage gray = toGray(decoded);
+        byte[] pixels = ((DataBufferByte) gray.getRaster().getDataBuffer()).getData();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(pixels.length);
+        buffer.put(pixels).flip();
+
+        TessBaseAPI handle = borrow();
+        try {
+            api.TessBaseAPISetImage(handle, buffer, gray.getWidth(), gray.getHeight(), 1, gray.getWidth());
+            api.TessBaseAPISetSourceResolution(handle, RESOLUTION);
+            Pointer text = api.TessBaseAPIGetUTF8Text(handle);
+            if (text == null) {
+                throw new IOException("Tesseract failed to recognize " + name);
+            }
+            try {
+                return text.getString(0, "UTF-8");
+            } finally {
+                api.TessDeleteText(text);
+            }
+        } finally {
+            api.TessBaseAPIClear(handle);
+            release(handle);
+        }
+    }
+
+    /**
+     * Frees the Tesseract handles. Calls that are still running free theirs when they return.
+     */
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            TessBaseAPI handle;
+            while ((handle = idle.poll()) != null) {
+                free(handle);
+            }
+        }
+    }
+
+    /**
+     * Takes an idle handle, or creates and initializes a new one if all are in use.
+     */
+    private TessBaseAPI borrow() throws IOException {
+        TessBaseAPI handle = idle.poll();
+        if (handle != null) {
+            return handle;
+        }
+        synchronized (lock) {
+            if (closed) {
+                throw new IOException("Tesseract engine is closed");
+            }
+            handle = api.TessBaseAPICreate();
+            if (api.TessBaseAPIInit3(handle, dataPath, language) != 0) {
+                api.TessBaseAPIDelete(handle);
+                throw new IOException("Failed to load Tesseract data for " + language + " from " + dataPath);
+            }
+            return handle;
+        }
+    }
+
+    private void release(TessBaseAPI handle) {
+        synchronized (lock) {
+            if (closed) {
+                free(handle);
+            } else {
+                idle.add(handle);
+            }
+        }
+    }
+
+    private void free(TessBaseAPI handle) {
+        api.TessBaseAPIEnd(handle);
+        api.TessBaseAPIDelete(handle);
+    }
+
+    private static BufferedImage toGray(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_BYTE_GRAY) {
+            return image;
+        }
+        BufferedImage gray = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = gray.createGraphics();
+        try {
+            g.drawImage(image, 0, 0, null);
+        } finally {
+            g.dispose();
+        }
+        return gray;
+    }
+}
@@ -0,0 +1,108 @@
+package pse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * The crawler must find every document of a tree once, in path order: not the OCR output next to a PDF or an
+ * image, only the first of the documents that share a text name, and nothing hidden or excluded.
+ */
+public class DocumentCrawlerTest {
+
+    private static final byte[] PNG = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+
+    private TestCorpus corpus;
+
+    @Before
+    public void setUp() throws IOException {
+        corpus = new TestCorpus();
+    }
+
+    @After
+    public void tearDown() {
+        corpus.delete();
+    }
+
+    @Test
+    public void skipsOcrOutputAndDuplicateTextNames() throws IOException {
+        List<String> expected = new ArrayList<String>();
+        expected.add(write("a/plain.txt", "text"));
+        // OCR output of a PDF, of an image with an upper case extension, and of an image without one
+        expected.add(write("a/report.pdf", "%PDF-1.4"));
+        write("a/report.txt", "the text of report.pdf");
+        expected.add(write("a/photo.PNG", PNG));
+        write("a/photo.txt", "the text of photo.PNG");
+        expected.add(write("a/scan", PNG));
+        write("a/scan.txt", "the text of scan");
+        // a PDF and an image that would both be indexed as b/twice.txt: the first in path order is kept
+        expected.add(write("b/twice.jpg", new byte[] {(byte) 0xff, (byte) 0xd8, (byte) 0xff}));
+        write("b/twice.pdf", "%PDF-1.4");
+        write("b/twice.tiff", new byte[] {'I', 'I', 0x2a, 0});
+        // files without a known extension are told by their content: text is a document, binary data is not
+        expected.add(write("b/notes", "no extension"));
+        expected.add(write("b/page.html", "<p>text</p>"));
+        write("b/data.bin", new byte[] {1, 0, 2});
+        // hidden and excluded files and directories are skipped
+        write("b/.hidden.txt", "hidden");
+        write(".git/config.txt", "hidden directory");
+        write("cache/page.txt", "excluded");
+        expected.add(write("c/d/e/deep.txt", "deep"));
+
+        DocumentCrawler crawler = new DocumentCrawler(3);
+        crawler.exclude(corpus.path("cache"));
+        Collections.sort(expected);
+        assertEquals(expected, crawler.crawl(corpus.directory.getPath()));
+
+        // roots that are files are taken as they are, and the same rules apply to them
+        assertEquals(Arrays.asList(corpus.path("a/plain.txt"), corpus.path("a/report.pdf")),
+                crawler.crawl(corpus.path("a/report.txt"), corpus.path("a/report.pdf"), corpus.path("a/plain.txt"),
+                        corpus.path("b/data.bin")));
+
+        // a text file is a document again once its PDF is gone
+        assertTrue(new File(corpus.path("a/report.pdf")).delete());
+        expected.remove(corpus.path("a/report.pdf"));
+        expected.add(corpus.path("a/report.txt"));
+        Collections.sort(expected);
+        assertEquals(expected, crawler.crawl(corpus.directory.getPath()));
+    }
+
+    @Test
+    public void sameDocumentsWhateverTheThreads() throws IOException {
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 200; i++) {
+            expected.add(write("d" + i % 7 + "/e" + i % 3 + "/f" + i + ".txt", "file " + i));
+        }
+        Collections.sort(expected);
+        for (int threads : new int[] {1, 2, 8}) {
+            assertEquals("threads " + threads, expected,
+                    new DocumentCrawler(threads).crawl(corpus.directory.getPath()));
+        }
+    }
+
+    private String write(String name, String text) throws IOException {
+        return write(name, text.getBytes("UTF-8"));
+    }
+
+    private String write(String name, byte[] content) throws IOException {
+        File file = new File(corpus.path(name));
+        file.getParentFile().mkdirs();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+        return file.getPath();
+    }
+}
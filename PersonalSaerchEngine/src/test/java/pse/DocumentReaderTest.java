@@ -0,0 +1,114 @@
+package pse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Reading a document in reads of any size must give exactly the chars of the whole file decoded at once,
+ * also where a read only has room for half of a surrogate pair, and where a char straddles two reads from the
+ * file.
+ */
+public class DocumentReaderTest {
+
+    // one, two, three and four byte chars, the last a surrogate pair
+    private static final String[] CHARS = {"a", " ", "\u00e9", "\u65e5", "\ud834\udd1e", "\ud83d\ude00"};
+
+    private TestCorpus corpus;
+
+    @Before
+    public void setUp() throws IOException {
+        corpus = new TestCorpus();
+    }
+
+    @After
+    public void tearDown() {
+        corpus.delete();
+    }
+
+    @Test
+    public void readsOfAnySizeDecodeTheWholeFile() throws IOException {
+        Random random = new Random(7);
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 5000) {
+            text.append(CHARS[random.nextInt(CHARS.length)]);
+        }
+        String file = write("small.txt", text.toString().getBytes(StandardCharsets.UTF_8));
+        for (int size : new int[] {1, 2, 3, 7, 8191}) {
+            assertEquals("reads of " + size, text.toString(), read(file, size, null));
+        }
+        assertEquals("random reads", text.toString(), read(file, 0, new Random(8)));
+    }
+
+    @Test
+    public void charsStraddleFileReads() throws IOException {
+        // four byte chars after a one byte one, so that every read from the file ends inside a char
+        StringBuilder text = new StringBuilder("a");
+        while (text.length() < 2 * DocumentReader.BUFFER_SIZE) {
+            text.append("\ud834\udd1e");
+        }
+        String file = write("large.txt", text.toString().getBytes(StandardCharsets.UTF_8));
+        assertEquals(text.toString(), read(file, 1, null));
+        assertEquals(text.toString(), read(file, 4099, null));
+        assertEquals(text.toString(), read(file, 0, new Random(9)));
+    }
+
+    @Test
+    public void malformedInputIsReplaced() throws IOException {
+        byte[] bytes = ("ab\ud834\udd1ec").getBytes(StandardCharsets.UTF_8);
+        byte[] malformed = new byte[bytes.length + 6];
+        System.arraycopy(bytes, 0, malformed, 0, bytes.length);
+        // a lone continuation byte, a pair cut short, and a four byte char cut short at the end
+        malformed[bytes.length] = (byte) 0x80;
+        malformed[bytes.length + 1] = (byte) 0xc3;
+        malformed[bytes.length + 2] = 'd';
+        malformed[bytes.length + 3] = (byte) 0xf0;
+        malformed[bytes.length + 4] = (byte) 0x9d;
+        malformed[bytes.length + 5] = (byte) 0x84;
+        String file = write("malformed.txt", malformed);
+        String expected = new String(malformed, StandardCharsets.UTF_8);
+        for (int size : new int[] {1, 2, 3, 100}) {
+            assertEquals("reads of " + size, expected, read(file, size, null));
+        }
+        assertEquals("", read(write("empty.txt", new byte[0]), 1, null));
+    }
+
+    private String write(String name, byte[] bytes) throws IOException {
+        String file = corpus.path(name);
+        Files.write(Paths.get(file), bytes);
+        return file;
+    }
+
+    /**
+     * Reads a file to the end into a buffer, at an offset that moves, in reads of a size, or of random sizes.
+     */
+    private static String read(String file, int size, Random random) throws IOException {
+        StringBuilder text = new StringBuilder();
+        char[] chars = new char[8192 + 5];
+        DocumentReader reader = new DocumentReader(file, StandardCharsets.UTF_8);
+        try {
+            for (int reads = 0; ; reads++) {
+                int length = random == null ? size : 1 + random.nextInt(random.nextBoolean() ? 3 : 8192);
+                int offset = reads % 5;
+                int read = reader.read(chars, offset, length);
+                if (read < 0) {
+                    break;
+                }
+                assertTrue(read > 0 && read <= length);
+                text.append(chars, offset, read);
+            }
+            assertEquals(-1, reader.read(chars, 0, 1));
+        } finally {
+            reader.close();
+        }
+        return text.toString();
+    }
+}
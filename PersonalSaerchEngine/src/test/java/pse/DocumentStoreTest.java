@@ -0,0 +1,380 @@
+package pse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Snippets must be whole words of the stored text, with every keyword occurrence in them highlighted, checked
+ * against a brute force scan of the words. A store written in several rounds must keep the last text of every
+ * live document, however its records were appended and compacted.
+ */
+public class DocumentStoreTest {
+
+    private static final Set<String> NOISE_WORDS = new HashSet<String>(Arrays.asList("the", "of", "and"));
+
+    // two, three and four byte chars, so that windows start and end in the middle of chars
+    private static final String[] WORDS = {
+            "alpha", "Beta", "gamma,", "delta.", "epsilon!", "the", "of", "and", "zeta;", "Eta?", "theta",
+            "caf\u00e9", "Na\u00efve", "stra\u00dfe", "\u65e5\u672c\u8a9e", "\u6587\u66f8:",
+            "\ud834\udd1e\ud834\udd1e", "x\ud83d\ude00y", "--", "iota", "KAPPA", "lambda,"};
+
+    private TestCorpus corpus;
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        corpus = new TestCorpus();
+        directory = corpus.directory;
+    }
+
+    @After
+    public void tearDown() {
+        corpus.delete();
+    }
+
+    @Test
+    public void snippetsMatchBruteForce() throws IOException {
+        Random random = new Random(5);
+        LinkedHashMap<String,String> documents = new LinkedHashMap<String,String>();
+        for (int i = 0; i < 200; i++) {
+            documents.put("doc" + i, randomText(random, 1 + random.nextInt(i % 4 == 0 ? 20 : 300)));
+        }
+        DocumentStore store = write(documents);
+        try {
+            for (Map.Entry<String,String> document : documents.entrySet()) {
+                assertEquals(document.getValue(), store.text(document.getKey()));
+                for (int q = 0; q < 5; q++) {
+                    String[] keywords = new String[1 + random.nextInt(3)];
+                    for (int k = 0; k < keywords.length; k++) {
+                        keywords[k] = keyword(WORDS[random.nextInt(WORDS.length)]);
+                    }
+                    assertSnippet(document.getKey() + " " + Arrays.toString(keywords), document.getValue(),
+                            keywords, store.snippet(document.getKey(), keywords));
+                }
+            }
+            assertNull(store.snippet("missing", "alpha"));
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void snippetsCutAtCharsAndWords() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 60; i++) {
+            text.append(i % 3 == 0 ? "\u65e5\u672c\u8a9e " : i % 3 == 1 ? "\ud834\udd1e\ud834\udd1e " : "caf\u00e9 ");
+        }
+        String wide = text + "Alpha, " + text.toString().trim();
+        String plain = text.toString().trim();
+        String late = plain + " the end of the text and then Zeta;";
+        LinkedHashMap<String,String> documents = new LinkedHashMap<String,String>();
+        documents.put("wide", wide);
+        documents.put("plain", plain);
+        documents.put("late", late);
+        documents.put("short", "alpha beta");
+        DocumentStore store = write(documents);
+        try {
+            // a keyword far from the start, after a run of multi-byte chars on both sides
+            Snippet snippet = store.snippet("wide", "alpha");
+            assertSnippet("wide", wide, new String[] {"alpha"}, snippet);
+            assertTrue(snippet.text(), snippet.text().startsWith("...") && snippet.text().endsWith("..."));
+            assertEquals(1, snippet.highlightCount());
+            assertEquals("Alpha", snippet.text().substring(snippet.highlights[0], snippet.highlights[1]));
+
+            // no match: the start of the text, cut before a char that does not fit
+            snippet = store.snippet("plain", "alpha");
+            assertSnippet("plain", plain, new String[] {"alpha"}, snippet);
+            assertEquals(0, snippet.highlightCount());
+            assertTrue(snippet.text(), plain.startsWith(snippet.text().substring(0, snippet.text().length() - 3)));
+            assertTrue(snippet.text(), snippet.text().endsWith("..."));
+
+            // the last word, without its punctuation
+            snippet = store.snippet("late", "zeta", "text");
+            assertSnippet("late", late, new String[] {"zeta", "text"}, snippet);
+            assertTrue(snippet.text(), snippet.text().startsWith("...") && !snippet.text().endsWith("..."));
+            assertEquals("Zeta;", snippet.text().substring(snippet.highlights[2]));
+            assertEquals("Zeta", snippet.text().substring(snippet.highlights[2], snippet.highlights[3]));
+
+            snippet = store.snippet("short", "gamma");
+            assertEquals("alpha beta", snippet.text());
+            assertEquals(0, snippet.highlightCount());
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void appendingKeepsEveryLiveRecord() throws IOException {
+        Random random = new Random(6);
+        File file = new File(directory, "store");
+        LinkedHashMap<String,String> expected = new LinkedHashMap<String,String>();
+        DocumentStore.Writer writer = new DocumentStore.Writer(file, true);
+        for (int i = 0; i < 50; i++) {
+            expected.put("doc" + i, add(writer, "doc" + i, randomText(random, 1 + random.nextInt(50))));
+        }
+        writer.close();
+        assertStore(file, expected);
+
+        // a few changes are appended, the dead records stay behind
+        long before = file.length();
+        writer = new DocumentStore.Writer(file, true);
+        for (int i = 0; i < 5; i++) {
+            expected.put("doc" + i, add(writer, "doc" + i, randomText(random, 1 + random.nextInt(50))));
+            writer.remove("doc" + (10 + i));
+            expected.remove("doc" + (10 + i));
+            expected.put("new" + i, add(writer, "new" + i, randomText(random, 1 + random.nextInt(50))));
+        }
+        writer.remove("missing");
+        writer.close();
+        assertStore(file, expected);
+        assertTrue(file.length() > before);
+        assertTrue(file.length() > compactSize(expected));
+
+        // once the dead records take more room than the live ones, the store is rewritten without them
+        for (int round = 0; round < 3; round++) {
+            writer = new DocumentStore.Writer(file, true);
+            // every record replaced twice, so that the dead ones take more room whatever the new lengths
+            for (int times = 0; times < 2; times++) {
+                for (String name : new ArrayList<String>(expected.keySet())) {
+                    expected.put(name, add(writer, name, randomText(random, 1 + random.nextInt(50))));
+                }
+            }
+            writer.close();
+            assertStore(file, expected);
+        }
+        assertEquals(compactSize(expected), file.length());
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+        assertFalse(new File(file.getPath() + ".compact").exists());
+
+        // a new store drops everything that was there
+        writer = new DocumentStore.Writer(file, false);
+        expected.clear();
+        expected.put("only", add(writer, "only", "alpha beta"));
+        writer.close();
+        assertStore(file, expected);
+    }
+
+    @Test
+    public void recordsBeyondMaxSizeAreNotWritten() throws IOException {
+        File file = new File(directory, "store");
+        String text = "alpha beta gamma delta epsilon zeta eta theta iota kappa";
+        DocumentStore.Text record = new DocumentStore.Text();
+        int recordBytes = record(record, text).length;
+        // header, three records, and three directory entries with their four byte names
+        long maxSize = 24 + 3 * recordBytes + 4 + 3 * (16 + 4);
+        LinkedHashMap<String,String> expected = new LinkedHashMap<String,String>();
+        DocumentStore.Writer writer = new DocumentStore.Writer(file, false, maxSize);
+        for (int i = 0; i < 5; i++) {
+            boolean added = writer.add("doc" + i, record(record, text));
+            assertEquals("doc" + i, i < 3, added);
+            if (added) {
+                expected.put("doc" + i, text);
+            }
+        }
+        writer.close();
+        assertStore(file, expected);
+        assertEquals(maxSize, file.length());
+
+        // replacing a document past the limit drops its old text rather than keeping it
+        writer = new DocumentStore.Writer(file, true, maxSize);
+        assertFalse(writer.add("doc0", record(record, text + " more")));
+        expected.remove("doc0");
+        writer.close();
+        assertStore(file, expected);
+
+        // the room a removed document took is there again once the store is compacted
+        writer = new DocumentStore.Writer(file, true, maxSize);
+        writer.remove("doc1");
+        writer.close();
+        expected.remove("doc1");
+        writer = new DocumentStore.Writer(file, true, maxSize);
+        assertTrue(writer.add("doc6", record(record, text)));
+        expected.put("doc6", text);
+        writer.close();
+        assertStore(file, expected);
+        assertTrue(file.length() <= maxSize);
+    }
+
+    private DocumentStore write(Map<String,String> documents) throws IOException {
+        File file = new File(directory, "store" + directory.list().length);
+        DocumentStore.Writer writer = new DocumentStore.Writer(file, false);
+        for (Map.Entry<String,String> document : documents.entrySet()) {
+            add(writer, document.getKey(), document.getValue());
+        }
+        writer.close();
+        return DocumentStore.open(file);
+    }
+
+    private static String add(DocumentStore.Writer writer, String name, String text) throws IOException {
+        assertTrue(name, writer.add(name, record(new DocumentStore.Text(), text)));
+        return text;
+    }
+
+    /**
+     * Builds the record of a normalized text the way the tokenizer does: every word that is not a noise word
+     * and has a letter is a keyword occurrence.
+     */
+    private static byte[] record(DocumentStore.Text record, String text) {
+        record.clear();
+        for (String word : text.split(" ")) {
+            record.word(word.toCharArray(), word.length());
+            if (!keyword(word).isEmpty() && !NOISE_WORDS.contains(keyword(word))) {
+                record.keyword();
+            }
+        }
+        return record.record();
+    }
+
+    private static void assertStore(File file, Map<String,String> expected) throws IOException {
+        DocumentStore store = DocumentStore.open(file);
+        try {
+            assertEquals(expected.size(), store.documentCount());
+            for (Map.Entry<String,String> document : expected.entrySet()) {
+                assertEquals(document.getKey(), document.getValue(), store.text(document.getKey()));
+            }
+            for (int i = 0; i < 60; i++) {
+                if (!expected.containsKey("doc" + i)) {
+                    assertNull("doc" + i, store.text("doc" + i));
+                }
+            }
+        } finally {
+            store.close();
+        }
+    }
+
+    /**
+     * @return Size of a store with only the records of the documents
+     */
+    private static long compactSize(Map<String,String> documents) {
+        long size = 24 + 4;
+        DocumentStore.Text record = new DocumentStore.Text();
+        for (Map.Entry<String,String> document : documents.entrySet()) {
+            size += record(record, document.getValue()).length + 16 + document.getKey().length();
+        }
+        return size;
+    }
+
+    /**
+     * Checks a snippet against the words of the text: it shows whole words of the text, with "..." where it
+     * was cut, every occurrence of a keyword in it is highlighted, and it has as many distinct keywords as the
+     * best window of SNIPPET_BYTES.
+     */
+    private static void assertSnippet(String message, String text, String[] keywords, Snippet snippet) {
+        message += ": " + snippet.text();
+        String shown = snippet.text();
+        boolean cutBefore = shown.startsWith("...");
+        boolean cutAfter = shown.endsWith("...") && shown.length() > (cutBefore ? 3 : 0);
+        String body = shown.substring(cutBefore ? 3 : 0, shown.length() - (cutAfter ? 3 : 0));
+        assertFalse(message, body.isEmpty() || body.indexOf('\ufffd') >= 0);
+        int at = cutBefore ? text.indexOf(body, 1) : 0;
+        assertTrue(message, at >= 0 && text.startsWith(body, at));
+        assertEquals(message, cutBefore, at > 0);
+        assertEquals(message, cutAfter, at + body.length() < text.length());
+        assertTrue(message, at == 0 || text.charAt(at - 1) == ' ');
+        assertTrue(message, at + body.length() == text.length() || text.charAt(at + body.length()) == ' ');
+        String words = body.substring(0, body.length() - trailingPunctuation(body));
+        assertTrue(message, words.getBytes(StandardCharsets.UTF_8).length <= DocumentStore.SNIPPET_BYTES);
+
+        // every keyword occurrence of the text, as char and byte offsets
+        Set<String> wanted = new HashSet<String>(Arrays.asList(keywords));
+        List<int[]> occurrences = new ArrayList<int[]>();
+        List<String> matched = new ArrayList<String>();
+        int start = 0;
+        for (String word : text.split(" ")) {
+            String keyword = keyword(word);
+            if (!keyword.isEmpty() && wanted.contains(keyword) && !NOISE_WORDS.contains(keyword)) {
+                int byteStart = text.substring(0, start).getBytes(StandardCharsets.UTF_8).length;
+                int length = word.length() - trailingPunctuation(word);
+                occurrences.add(new int[] {start, start + length, byteStart,
+                        byteStart + word.substring(0, length).getBytes(StandardCharsets.UTF_8).length});
+                matched.add(keyword);
+            }
+            start += word.length() + 1;
+        }
+        ArrayList<Integer> expected = new ArrayList<Integer>();
+        HashSet<String> shownKeywords = new HashSet<String>();
+        for (int i = 0; i < occurrences.size(); i++) {
+            int[] occurrence = occurrences.get(i);
+            if (occurrence[0] >= at && occurrence[1] <= at + body.length()) {
+                expected.add(occurrence[0] - at + (cutBefore ? 3 : 0));
+                expected.add(occurrence[1] - at + (cutBefore ? 3 : 0));
+                shownKeywords.add(matched.get(i));
+            }
+        }
+        int[] highlights = new int[expected.size()];
+        for (int i = 0; i < highlights.length; i++) {
+            highlights[i] = expected.get(i);
+        }
+        assertArrayEquals(message, highlights, snippet.highlights);
+
+        // the best window: the most distinct keywords, then the most occurrences
+        int bestDistinct = 0;
+        int bestCount = 0;
+        for (int first = 0; first < occurrences.size(); first++) {
+            HashSet<String> distinct = new HashSet<String>();
+            for (int last = first; last < occurrences.size()
+                    && occurrences.get(last)[3] - occurrences.get(first)[2] <= DocumentStore.SNIPPET_BYTES; last++) {
+                distinct.add(matched.get(last));
+                if (distinct.size() > bestDistinct
+                        || distinct.size() == bestDistinct && last - first + 1 > bestCount) {
+                    bestDistinct = distinct.size();
+                    bestCount = last - first + 1;
+                }
+            }
+        }
+        assertEquals(message, bestDistinct, shownKeywords.size());
+        assertTrue(message, highlights.length / 2 >= bestCount);
+        if (occurrences.isEmpty()) {
+            assertEquals(message, 0, at);
+        }
+    }
+
+    private static String randomText(Random random, int words) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                text.append(' ');
+            }
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return The keyword a word is highlighted for: lower case, without trailing punctuation, empty if the
+     * word has no letter
+     */
+    private static String keyword(String word) {
+        String keyword = word.substring(0, word.length() - trailingPunctuation(word)).toLowerCase();
+        for (int i = 0; i < keyword.length(); i++) {
+            if (Character.isLetter(keyword.charAt(i))) {
+                return keyword;
+            }
+        }
+        return "";
+    }
+
+    private static int trailingPunctuation(String word) {
+        int n = 0;
+        while (n < word.length() && ".,?:;!".indexOf(word.charAt(word.length() - 1 - n)) >= 0) {
+            n++;
+        }
+        return n;
+    }
+}
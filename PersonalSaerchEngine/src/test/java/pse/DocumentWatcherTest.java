@@ -0,0 +1,195 @@
+package pse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * The watcher must keep a live engine searching exactly the documents of a tree as files and directories are
+ * created, changed and deleted, index a document once however many events it gets, and leave out the OCR
+ * output next to an image and the documents whose text name another document has.
+ */
+public class DocumentWatcherTest {
+
+    /**
+     * Milliseconds to wait at most for a change to be searchable.
+     */
+    private static final long TIMEOUT_MILLIS = 20000;
+
+    private TestCorpus corpus;
+
+    private LiveSearchEngine engine;
+
+    private DocumentWatcher watcher;
+
+    private final List<String> failed = Collections.synchronizedList(new ArrayList<String>());
+
+    @Before
+    public void setUp() throws IOException {
+        corpus = new TestCorpus();
+        corpus.noiseWordsFile = corpus.write("noisewords.txt", "the\n");
+        engine = new LiveSearchEngine(corpus.noiseWordsFile);
+        // the "image" is its text
+        engine.setOcrEngine(new OcrEngine() {
+            public String recognize(String name, byte[] image) {
+                return new String(image, StandardCharsets.UTF_8);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (watcher != null) {
+            watcher.close();
+        }
+        corpus.delete();
+    }
+
+    @Test
+    public void followsCreatesChangesAndDeletes() throws Exception {
+        String one = write("docs/a/one.txt", "common alpha");
+        String two = write("docs/a/b/two.txt", "common beta");
+        String bad = write("docs/bad.pdf", "common, but not a PDF");
+        start();
+        assertEquals(sorted(one, two), search("common"));
+        assertEquals(Collections.singletonList(bad), failed);
+        assertEquals(1, watcher.failures());
+        assertEquals(2, watcher.documentCount());
+
+        String three = write("docs/a/three.txt", "common gamma");
+        awaitResults("common", one, three, two);
+
+        write("docs/a/one.txt", "common delta");
+        awaitResults("delta", one);
+        assertEquals(Collections.<String>emptyList(), search("alpha"));
+
+        assertTrue(new File(two).delete());
+        awaitResults("common", one, three);
+
+        // a new directory is crawled and watched
+        String four = write("docs/c/d/four.txt", "common epsilon");
+        awaitResults("common", one, three, four);
+        String five = write("docs/c/d/five.txt", "common zeta");
+        awaitResults("common", one, three, five, four);
+
+        // a deleted directory drops everything under it
+        delete(new File(corpus.path("docs/c")));
+        awaitResults("common", one, three);
+        assertEquals(2, watcher.documentCount());
+
+        // a burst of writes to one file is indexed as its last version
+        for (int i = 0; i < 20; i++) {
+            write("docs/a/three.txt", "common version" + (char) ('a' + i));
+        }
+        awaitResults("versiont", three);
+        assertEquals(Collections.<String>emptyList(), search("versions"));
+        assertEquals(2, engine.documentCount());
+        assertEquals(1, watcher.failures());
+    }
+
+    @Test
+    public void skipsOcrOutputAndDuplicateTextNames() throws Exception {
+        write("docs/photo.png", "common photo");
+        String photo = corpus.path("docs/photo.txt");
+        start();
+        // indexed under the name of its OCR output, which is written next to it but is not a document itself
+        assertEquals(Collections.singletonList(photo), search("common"));
+        assertTrue(new File(photo).isFile());
+        awaitIdle();
+        assertEquals(1, engine.documentCount());
+
+        // an image with the same text name is left out while the first one is there
+        write("docs/photo.jpg", "common other");
+        String text = write("docs/text.txt", "common text");
+        awaitResults("common", photo, text);
+        assertEquals(Collections.<String>emptyList(), search("other"));
+
+        // so is an edit of the OCR output
+        write("docs/photo.txt", "common edited");
+        awaitIdle();
+        assertEquals(Collections.<String>emptyList(), search("edited"));
+        assertEquals(Collections.singletonList(photo), search("photo"));
+
+        // a new image is recognized, and its OCR output skipped
+        String scan = corpus.path("docs/scan.txt");
+        write("docs/scan.png", "common scanned");
+        awaitResults("common", photo, scan, text);
+        awaitIdle();
+        assertEquals(3, engine.documentCount());
+        assertEquals(0, watcher.failures());
+        assertTrue(failed.isEmpty());
+    }
+
+    private void start() throws IOException {
+        watcher = new DocumentWatcher(engine, 2, corpus.path("docs")) {
+            void failed(String doc, Exception e) {
+                failed.add(doc);
+            }
+        };
+        watcher.start();
+    }
+
+    /**
+     * Waits until a search finds exactly some documents, letting the watcher index every batch of changes.
+     */
+    private void awaitResults(String keyword, String... documents) throws InterruptedException {
+        List<String> expected = sorted(documents);
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!search(keyword).equals(expected) && System.currentTimeMillis() < deadline) {
+            watcher.awaitIdle(TIMEOUT_MILLIS);
+            Thread.sleep(10);
+        }
+        assertEquals(keyword, expected, search(keyword));
+    }
+
+    /**
+     * Waits for the events of the last changes, and until they are indexed.
+     */
+    private void awaitIdle() throws InterruptedException {
+        Thread.sleep(DocumentWatcher.QUIET_MILLIS);
+        assertTrue(watcher.awaitIdle(TIMEOUT_MILLIS));
+    }
+
+    /**
+     * @return Names of the documents with the keyword, sorted
+     */
+    private List<String> search(String keyword) {
+        List<String> documents = new ArrayList<String>();
+        for (SearchResult result : engine.search(new Query(Query.Operator.OR, 1000, keyword))) {
+            documents.add(result.document);
+        }
+        Collections.sort(documents);
+        return documents;
+    }
+
+    private static List<String> sorted(String... documents) {
+        List<String> sorted = new ArrayList<String>(Arrays.asList(documents));
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    private String write(String name, String text) throws IOException {
+        new File(corpus.path(name)).getParentFile().mkdirs();
+        return corpus.write(name, text);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        assertTrue(file.getPath(), file.delete());
+    }
+}
@@ -0,0 +1,201 @@
+package pse;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+/**
+ * Expanding a keyword pattern over the sorted keywords must find exactly the keywords a linear scan of all
+ * of them matches: a regular expression for wildcard patterns, the Levenshtein distance for fuzzy ones.
+ */
+public class KeywordPatternTest {
+
+    /**
+     * Few letters, so that keywords share long prefixes and fuzzy patterns have many near misses.
+     */
+    private static final String LETTERS = "abcde\u00e9";
+
+    @Test
+    public void sameMatchesAsLinearScan() {
+        Random random = new Random(1);
+        final String[] terms = randomTerms(random, 4000);
+        final int[] documentFrequencies = new int[terms.length];
+        for (int i = 0; i < terms.length; i++) {
+            // keywords of removed documents stay in the dictionary with no documents
+            documentFrequencies[i] = random.nextInt(10) == 0 ? 0 : 1 + random.nextInt(20);
+        }
+        SortedTerms sorted = new SortedTerms() {
+            int size() {
+                return terms.length;
+            }
+
+            String term(int i) {
+                return terms[i];
+            }
+
+            int documentFrequency(int i) {
+                return documentFrequencies[i];
+            }
+        };
+
+        for (int p = 0; p < 3000; p++) {
+            String keyword = randomPattern(random, terms);
+            KeywordPattern pattern = KeywordPattern.parse(keyword);
+            assertNotNull(keyword, pattern);
+            KeywordPattern.Matches matches = new KeywordPattern.Matches();
+            sorted.expand(pattern, matches);
+            assertArrayEquals(keyword, linearScan(keyword, sorted), matches.select());
+        }
+    }
+
+    @Test
+    public void sameMatchesInMemoryAndInSegment() throws Exception {
+        TestCorpus corpus = new TestCorpus();
+        try {
+            List<String> docs = corpus.generate(80, 150, 3000, 6);
+            PersonalSearchEngine built = new PersonalSearchEngine();
+            built.makeIndex(docs, corpus.noiseWordsFile);
+            String indexFile = corpus.path("index.pse");
+            built.saveIndex(indexFile);
+            PersonalSearchEngine opened = new PersonalSearchEngine();
+            opened.openIndex(indexFile);
+
+            Random random = new Random(7);
+            for (int p = 0; p < 500; p++) {
+                String keyword = randomPattern(random, corpus.words);
+                String[] expected = linearScan(keyword, built.sortedTerms());
+                assertArrayEquals(keyword, expected,
+                        PersonalSearchEngine.expand(new PersonalSearchEngine[] {built}, keyword)[0]);
+                assertArrayEquals(keyword, expected,
+                        PersonalSearchEngine.expand(new PersonalSearchEngine[] {opened}, keyword)[0]);
+            }
+        } finally {
+            corpus.delete();
+        }
+    }
+
+    @Test
+    public void parsesPatterns() {
+        assertNull(KeywordPattern.parse("word"));
+        assertNotNull(KeywordPattern.parse("wor*"));
+        assertNotNull(KeywordPattern.parse("w?rd"));
+        assertNotNull(KeywordPattern.parse("word~"));
+        assertNotNull(KeywordPattern.parse("word~0"));
+        assertNotNull(KeywordPattern.parse("word~" + KeywordPattern.MAX_EDITS));
+        for (String malformed : new String[] {"word~" + (KeywordPattern.MAX_EDITS + 1), "word~12", "word~x",
+                "w*rd~", "w?rd~1", "wo~rd~"}) {
+            try {
+                KeywordPattern.parse(malformed);
+                fail("Parsed " + malformed);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    /**
+     * @return Distinct keywords in sorted order, many of them prefixes of others
+     */
+    private static String[] randomTerms(Random random, int count) {
+        TreeSet<String> terms = new TreeSet<String>();
+        while (terms.size() < count) {
+            StringBuilder term = new StringBuilder();
+            int length = 1 + random.nextInt(8);
+            for (int i = 0; i < length; i++) {
+                term.append(LETTERS.charAt(random.nextInt(LETTERS.length())));
+            }
+            terms.add(term.toString());
+        }
+        return terms.toArray(new String[terms.size()]);
+    }
+
+    /**
+     * @return A prefix, wildcard or fuzzy pattern, made from a keyword or from random letters
+     */
+    private static String randomPattern(Random random, String[] terms) {
+        String word = terms[random.nextInt(terms.length)];
+        if (random.nextInt(4) == 0) {
+            word = randomTerms(random, 1)[0];
+        }
+        switch (random.nextInt(3)) {
+            case 0:
+                return word.substring(0, 1 + random.nextInt(Math.min(3, word.length()))) + "*";
+            case 1:
+                StringBuilder wildcard = new StringBuilder(word);
+                for (int n = 1 + random.nextInt(2); n > 0; n--) {
+                    int at = random.nextInt(wildcard.length() + 1);
+                    if (random.nextBoolean() && at < wildcard.length()) {
+                        wildcard.setCharAt(at, '?');
+                    } else {
+                        wildcard.insert(at, '*');
+                    }
+                }
+                return wildcard.toString();
+            default:
+                int edits = random.nextInt(KeywordPattern.MAX_EDITS + 2);
+                return word + (edits > KeywordPattern.MAX_EDITS ? "~" : "~" + edits);
+        }
+    }
+
+    /**
+     * Matches a pattern against every keyword, and selects the matches as KeywordPattern.Matches does.
+     */
+    private static String[] linearScan(String keyword, SortedTerms terms) {
+        KeywordPattern.Matches matches = new KeywordPattern.Matches();
+        int tilde = keyword.lastIndexOf('~');
+        Pattern wildcard = tilde > 0 ? null : wildcard(keyword);
+        for (int i = 0; i < terms.size(); i++) {
+            if (terms.documentFrequency(i) == 0) {
+                continue;
+            }
+            String term = terms.term(i);
+            if (tilde > 0) {
+                int edits = tilde == keyword.length() - 1 ? 1 : keyword.charAt(tilde + 1) - '0';
+                int distance = levenshtein(keyword.substring(0, tilde), term);
+                if (distance <= edits) {
+                    matches.add(term, distance, terms.documentFrequency(i));
+                }
+            } else if (wildcard.matcher(term).matches()) {
+                matches.add(term, 0, terms.documentFrequency(i));
+            }
+        }
+        return matches.select();
+    }
+
+    private static Pattern wildcard(String keyword) {
+        StringBuilder regex = new StringBuilder();
+        for (char c : keyword.toCharArray()) {
+            if (c == '*') {
+                regex.append(".*");
+            } else if (c == '?') {
+                regex.append('.');
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    private static int levenshtein(String a, String b) {
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int substitution = previous[j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1);
+                current[j] = Math.min(substitution, Math.min(previous[j], current[j - 1]) + 1);
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length()];
+    }
+}
@@ -0,0 +1,147 @@
+package pse;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * The tokenizer must find exactly the keywords that scanning the text with java.util.Scanner and applying the
+ * original getKeyword rules to every word finds, whatever the chars, the punctuation and the default locale.
+ */
+public class KeywordTokenizerTest {
+
+    private static final Set<String> NOISE_WORDS = new HashSet<String>(Arrays.asList("the", "and", "is", "of"));
+
+    /**
+     * Letters of both cases, digits, punctuation that is stripped and that is not, all kinds of whitespace
+     * (the no-break space is not one), and letters whose lower case depends on the locale or has another
+     * length: the Turkish dotted and dotless i, sharp s, final sigma, a four byte letter.
+     */
+    private static final String[] PIECES = {
+            "a", "b", "z", "A", "B", "Z", "I", "i", "the", "THE", "Is", "and", "of", "word", "Word", "WORD",
+            "0", "7", ".", ",", "?", ":", ";", "!", "-", "'", "\"", "(", ")", "...", "?!", ".,;",
+            " ", " ", " ", "\t", "\n", "\r\n", "\u000b", "\u2003", "\u2028", "\u3000", "\u00a0",
+            "\u00e9", "\u00c9", "\u00df", "\u0130", "\u0131", "\u03a3", "\u039f\u0394\u039f\u03a3", "\u65e5\u672c",
+            "\u00fc", "\u00dc", "\u0301", "\ud835\udc00", "\u0663", "\u216b"};
+
+    @Test
+    public void sameKeywordsAsScanner() throws IOException {
+        assertSameKeywords(new Random(21));
+    }
+
+    @Test
+    public void sameKeywordsInTurkishLocale() throws IOException {
+        Locale locale = Locale.getDefault();
+        try {
+            // the tokenizer was used before the locale changed, as in a running application
+            Locale.setDefault(Locale.ENGLISH);
+            KeywordTokenizer tokenizer = new KeywordTokenizer(NOISE_WORDS);
+            assertEquals(Arrays.asList("istanbul"), tokenize(tokenizer, "ISTANBUL"));
+            Locale.setDefault(new Locale("tr", "TR"));
+            assertEquals(Arrays.asList("\u0131stanbul"), baseline("ISTANBUL"));
+            assertEquals(Arrays.asList("\u0131stanbul"), tokenize(tokenizer, "ISTANBUL"));
+            assertSameKeywords(new Random(22));
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+
+    @Test
+    public void longWordsAndChunks() throws IOException {
+        StringBuilder text = new StringBuilder();
+        Random random = new Random(23);
+        while (text.length() < 300000) {
+            // words longer than the word buffer, and words across chunk boundaries
+            int length = 1 + random.nextInt(random.nextInt(10) == 0 ? 500 : 12);
+            for (int i = 0; i < length; i++) {
+                text.append((char) ((random.nextBoolean() ? 'a' : 'A') + random.nextInt(26)));
+            }
+            text.append(random.nextInt(5) == 0 ? "., " : " ");
+        }
+        KeywordTokenizer tokenizer = new KeywordTokenizer(NOISE_WORDS);
+        assertEquals(baseline(text.toString()), tokenize(tokenizer, text.toString()));
+        int words = 0;
+        for (Scanner sc = new Scanner(text.toString()); sc.hasNext(); sc.next()) {
+            words++;
+        }
+        assertEquals(words, tokenizer.wordCount());
+    }
+
+    private static void assertSameKeywords(Random random) throws IOException {
+        // one tokenizer for all texts, as for the documents of an index
+        KeywordTokenizer tokenizer = new KeywordTokenizer(NOISE_WORDS);
+        for (int n = 0; n < 2000; n++) {
+            StringBuilder text = new StringBuilder();
+            int pieces = random.nextInt(30);
+            for (int i = 0; i < pieces; i++) {
+                text.append(PIECES[random.nextInt(PIECES.length)]);
+            }
+            List<String> expected = baseline(text.toString());
+            assertEquals(text.toString(), expected, tokenize(tokenizer, text.toString()));
+            for (String word : text.toString().split("\\p{javaWhitespace}+")) {
+                String keyword = word.isEmpty() ? null : baselineKeyword(word);
+                assertEquals(word, keyword, word.isEmpty() ? null : KeywordTokenizer.keyword(word, NOISE_WORDS));
+            }
+        }
+    }
+
+    private static List<String> tokenize(KeywordTokenizer tokenizer, String text) throws IOException {
+        List<String> keywords = new ArrayList<String>();
+        tokenizer.reset(new StringReader(text));
+        for (String keyword; (keyword = tokenizer.next()) != null; ) {
+            keywords.add(keyword);
+        }
+        return keywords;
+    }
+
+    /**
+     * Keywords of a text the way the original loadKeywords found them.
+     */
+    private static List<String> baseline(String text) {
+        List<String> keywords = new ArrayList<String>();
+        Scanner sc = new Scanner(new StringReader(text));
+        while (sc.hasNext()) {
+            String revision = baselineKeyword(sc.next());
+            if (revision != null && revision.length() > 0) {
+                keywords.add(revision);
+            }
+        }
+        return keywords;
+    }
+
+    /**
+     * The original getKeyword.
+     */
+    private static String baselineKeyword(String word) {
+        word = word.toLowerCase();
+        while (word.length() > 0 && !(Character.isLetter(word.charAt(word.length() - 1)))
+                && !(Character.isDigit(word.charAt(word.length() - 1)))) {
+            if (word.endsWith(".") || word.endsWith(",") || word.endsWith("?") || word.endsWith(":")
+                    || word.endsWith(";") || word.endsWith("!")) {
+                word = word.substring(0, word.length() - 1);
+            } else {
+                return null;
+            }
+        }
+        if (NOISE_WORDS.contains(word)) {
+            return null;
+        }
+        for (int n = 0; n < word.length(); n++) {
+            if (!(Character.isLetter(word.charAt(n)))) {
+                return null;
+            }
+        }
+        return word;
+    }
+}
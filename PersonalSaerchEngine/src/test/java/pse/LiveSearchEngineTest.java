@@ -0,0 +1,131 @@
+package pse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * A live engine must return exactly the results of one engine that indexed the same documents in the same
+ * order, whatever its segments look like.
+ */
+public class LiveSearchEngineTest {
+
+    private TestCorpus corpus;
+
+    private List<String> docs;
+
+    @Before
+    public void setUp() throws Exception {
+        corpus = new TestCorpus();
+        docs = corpus.generate(120, 120, 2000, 3);
+    }
+
+    @After
+    public void tearDown() {
+        corpus.delete();
+    }
+
+    @Test
+    public void sameResultsAsOneIndexWhileAdding() throws Exception {
+        LiveSearchEngine live = new LiveSearchEngine(corpus.noiseWordsFile);
+        int[] batches = {1, 1, 3, 1, 1, 7, 2, 20, 1, 1, 1, 1, 40, 5, 35};
+        int added = 0;
+        for (int batch : batches) {
+            live.addDocuments(docs.subList(added, added + batch));
+            added += batch;
+            // whether or not the background merges are done
+            assertSameResults("added=" + added, oneIndex(docs.subList(0, added)), live);
+        }
+        assertEquals(docs.size(), added);
+        live.awaitMerges();
+        assertTrue("segments=" + live.segmentCount(), live.segmentCount() < batches.length);
+        PersonalSearchEngine single = oneIndex(docs);
+        assertSameResults("merged", single, live);
+
+        String singleFile = corpus.path("single.pse");
+        single.saveIndex(singleFile);
+        String liveFile = corpus.path("live.pse");
+        live.saveIndex(liveFile);
+        assertArrayEquals(TestCorpus.read(singleFile), TestCorpus.read(liveFile));
+    }
+
+    @Test
+    public void addingDocumentAgainDoesNothing() throws Exception {
+        LiveSearchEngine live = new LiveSearchEngine(corpus.noiseWordsFile);
+        live.addDocuments(docs.subList(0, 30));
+        live.addDocuments(docs.subList(20, 40));
+        live.addDocument(docs.get(3));
+        assertEquals(40, live.documentCount());
+        assertSameResults("repeated", oneIndex(docs.subList(0, 40)), live);
+    }
+
+    @Test
+    public void updatedDocumentsMoveToTheEnd() throws Exception {
+        LiveSearchEngine live = new LiveSearchEngine(corpus.noiseWordsFile);
+        for (int start = 0; start < 80; start += 10) {
+            live.addDocuments(docs.subList(start, start + 10));
+        }
+        live.awaitMerges();
+        // documents 5 and 42 change to the text of documents 100 and 101, 80 is new, 17 and 63 are removed
+        corpus.write("doc5.txt", new String(TestCorpus.read(docs.get(100)), "UTF-8"));
+        corpus.write("doc42.txt", new String(TestCorpus.read(docs.get(101)), "UTF-8"));
+        List<String> changed = Arrays.asList(docs.get(5), docs.get(42), docs.get(80));
+        List<String> removed = Arrays.asList(docs.get(17), docs.get(63), corpus.path("unknown.txt"));
+
+        live.updateDocuments(changed, removed);
+
+        List<String> expected = new ArrayList<String>(docs.subList(0, 80));
+        expected.removeAll(changed);
+        expected.removeAll(removed);
+        expected.addAll(changed);
+        assertEquals(expected.size(), live.documentCount());
+        assertSameResults("updated", oneIndex(expected), live);
+        live.awaitMerges();
+        assertSameResults("updated and merged", oneIndex(expected), live);
+
+        live.removeDocuments(Collections.singletonList(docs.get(5)));
+        expected.remove(docs.get(5));
+        assertSameResults("removed", oneIndex(expected), live);
+    }
+
+    @Test
+    public void deletedTextWithoutExtensionKeepsItsName() throws Exception {
+        LiveSearchEngine live = new LiveSearchEngine(corpus.noiseWordsFile);
+        live.addDocuments(docs.subList(0, 10));
+        String notes = corpus.write("notes", corpus.words[3] + " " + corpus.words[7] + " " + corpus.words[9]);
+        live.addDocument(notes);
+        assertEquals(notes, PersonalSearchEngine.textName(notes));
+        assertTrue(new File(notes).delete());
+        assertEquals(notes, PersonalSearchEngine.textName(notes));
+        live.removeDocuments(Collections.singletonList(PersonalSearchEngine.textName(notes)));
+        assertEquals(10, live.documentCount());
+        assertSameResults("removed", oneIndex(docs.subList(0, 10)), live);
+    }
+
+    private PersonalSearchEngine oneIndex(List<String> docs) throws Exception {
+        PersonalSearchEngine single = new PersonalSearchEngine();
+        single.makeIndex(docs, corpus.noiseWordsFile);
+        return single;
+    }
+
+    private void assertSameResults(String label, PersonalSearchEngine single, LiveSearchEngine live) {
+        for (Query query : corpus.queries(60, 5)) {
+            assertEquals(label + " " + query, TestCorpus.results(single.search(query)),
+                    TestCorpus.results(live.search(query)));
+        }
+        for (Query query : corpus.queries(20, 6)) {
+            String kw1 = query.keywords[0];
+            String kw2 = query.keywords[1];
+            assertEquals(label + " top5search " + kw1 + " " + kw2, single.top5search(kw1, kw2),
+                    live.top5search(kw1, kw2));
+        }
+    }
+}
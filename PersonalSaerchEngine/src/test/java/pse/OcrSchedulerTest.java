@@ -0,0 +1,265 @@
+package pse;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class OcrSchedulerTest {
+
+    /**
+     * Stub backend: fails the first attempts of every image, sleeps for a latency, then echoes the image as
+     * text. Records when every image was attempted and how many images were recognized at the same time.
+     */
+    static class StubOcrEngine implements OcrEngine {
+
+        private final int failuresPerImage;
+
+        private final long latencyMillis;
+
+        private final Map<String,List<Long>> attempts = new HashMap<String,List<Long>>();
+
+        private final AtomicInteger running = new AtomicInteger();
+
+        private final AtomicInteger maxRunning = new AtomicInteger();
+
+        StubOcrEngine(int failuresPerImage, long latencyMillis) {
+            this.failuresPerImage = failuresPerImage;
+            this.latencyMillis = latencyMillis;
+        }
+
+        public String recognize(String name, byte[] image) throws IOException {
+            int attempt;
+            synchronized (attempts) {
+                List<Long> times = attempts.get(name);
+                if (times == null) {
+                    times = new ArrayList<Long>();
+                    attempts.put(name, times);
+                }
+                times.add(System.nanoTime());
+                attempt = times.size();
+            }
+            int now = running.incrementAndGet();
+            while (now > maxRunning.get() && !maxRunning.compareAndSet(maxRunning.get(), now)) {
+            }
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            } finally {
+                running.decrementAndGet();
+            }
+            if (attempt <= failuresPerImage) {
+                throw new IOException("Simulated OCR failure of " + name);
+            }
+            return new String(image, "UTF-8");
+        }
+
+        List<Long> attempts(String name) {
+            synchronized (attempts) {
+                return attempts.get(name);
+            }
+        }
+    }
+
+    /**
+     * Pages of which every third one has a text layer and the others are images. Checks that no more than
+     * maxInFlight pages are produced ahead of the consumer.
+     */
+    static class StubPages implements OcrScheduler.Pages {
+
+        private final int count;
+
+        private final int maxInFlight;
+
+        final List<String> consumed = new ArrayList<String>();
+
+        StubPages(int count, int maxInFlight) {
+            this.count = count;
+            this.maxInFlight = maxInFlight;
+        }
+
+        public int count() {
+            return count;
+        }
+
+        public String name(int page) {
+            return "page-" + page;
+        }
+
+        public String text(int page) {
+            return page % 3 == 0 ? "text of page " + page : null;
+        }
+
+        public byte[] image(int page) throws IOException {
+            assertTrue("page " + page + " produced with " + consumed.size() + " consumed",
+                    page + 1 - consumed.size() <= maxInFlight);
+            return ("text of page " + page).getBytes("UTF-8");
+        }
+
+        OcrScheduler.PageConsumer consumer() {
+            return new OcrScheduler.PageConsumer() {
+                public void accept(String text) {
+                    consumed.add(text);
+                }
+            };
+        }
+    }
+
+    @Test
+    public void retriesWithDoublingBackoff() throws Exception {
+        StubOcrEngine engine = new StubOcrEngine(3, 0);
+        Metrics metrics = new Metrics();
+        OcrScheduler scheduler = new OcrScheduler(engine, 1, 4, 50, metrics);
+
+        assertEquals("hello", scheduler.recognize("image", "hello".getBytes("UTF-8")));
+
+        List<Long> times = engine.attempts("image");
+        assertEquals(4, times.size());
+        long backoff = 50;
+        for (int i = 1; i < times.size(); i++) {
+            long waited = (times.get(i) - times.get(i - 1)) / 1000000;
+            assertTrue("retry " + i + " after " + waited + " ms", waited >= backoff);
+            // at most half the backoff of jitter, and some scheduling delay
+            assertTrue("retry " + i + " after " + waited + " ms", waited <= backoff + backoff / 2 + 100);
+            backoff *= 2;
+        }
+        assertEquals(3L, metrics.snapshot().get("ocr.retries"));
+        assertEquals(0L, metrics.snapshot().get("ocr.failures"));
+        assertEquals(1L, metrics.snapshot().get("ocr.count"));
+    }
+
+    @Test
+    public void failsAfterLastAttempt() throws Exception {
+        StubOcrEngine engine = new StubOcrEngine(Integer.MAX_VALUE, 0);
+        Metrics metrics = new Metrics();
+        OcrScheduler scheduler = new OcrScheduler(engine, 1, 3, 1, metrics);
+
+        try {
+            scheduler.recognize("image", new byte[1]);
+            fail("OCR of an image that always fails succeeded");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("after 3 attempts"));
+            assertTrue(e.getCause().getMessage().contains("Simulated OCR failure"));
+        }
+        assertEquals(3, engine.attempts("image").size());
+        assertEquals(2L, metrics.snapshot().get("ocr.retries"));
+        assertEquals(1L, metrics.snapshot().get("ocr.failures"));
+    }
+
+    @Test
+    public void failedPageFailsDocument() throws Exception {
+        StubOcrEngine engine = new StubOcrEngine(Integer.MAX_VALUE, 0);
+        OcrScheduler scheduler = new OcrScheduler(engine, 4, 2, 1);
+        StubPages pages = new StubPages(12, 4);
+
+        try {
+            scheduler.recognize(pages, pages.consumer());
+            fail("OCR of a document with failing pages succeeded");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("after 2 attempts"));
+        }
+        // only the page with a text layer before the first failing image was consumed
+        assertEquals(1, pages.consumed.size());
+    }
+
+    @Test
+    public void returnsPagesInOrder() throws Exception {
+        // later pages are recognized faster, so they finish before the pages before them
+        OcrEngine engine = new OcrEngine() {
+            public String recognize(String name, byte[] image) throws IOException {
+                try {
+                    Thread.sleep(40 - Integer.parseInt(name.substring("page-".length())));
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+                return new String(image, "UTF-8");
+            }
+        };
+        OcrScheduler scheduler = new OcrScheduler(engine, 6, 1, 0);
+        StubPages pages = new StubPages(30, 6);
+
+        scheduler.recognize(pages, pages.consumer());
+
+        assertEquals(30, pages.consumed.size());
+        for (int page = 0; page < 30; page++) {
+            assertEquals("text of page " + page, pages.consumed.get(page));
+        }
+    }
+
+    @Test
+    public void recognizeFilesKeepsOrder() throws Exception {
+        StubOcrEngine engine = new StubOcrEngine(1, 5);
+        OcrScheduler scheduler = new OcrScheduler(engine, 4, 2, 1);
+        List<String> files = new ArrayList<String>();
+        TestCorpus corpus = new TestCorpus();
+        try {
+            for (int page = 0; page < 10; page++) {
+                files.add(corpus.write("page-" + page + ".png", "text of page " + page));
+            }
+
+            List<String> texts = scheduler.recognizeFiles(files);
+
+            assertEquals(10, texts.size());
+            for (int page = 0; page < 10; page++) {
+                assertEquals("text of page " + page, texts.get(page));
+                assertEquals(2, engine.attempts(files.get(page)).size());
+            }
+        } finally {
+            corpus.delete();
+        }
+    }
+
+    @Test
+    public void limitsPagesInFlight() throws Exception {
+        StubOcrEngine engine = new StubOcrEngine(0, 20);
+        OcrScheduler scheduler = new OcrScheduler(engine, 3, 1, 0);
+        StubPages pages = new StubPages(40, 3);
+
+        scheduler.recognize(pages, pages.consumer());
+
+        assertEquals(40, pages.consumed.size());
+        assertTrue("max in flight " + engine.maxRunning.get(), engine.maxRunning.get() <= 3);
+        // the pages are recognized concurrently at all
+        assertTrue("max in flight " + engine.maxRunning.get(), engine.maxRunning.get() > 1);
+    }
+
+    @Test
+    public void limitsConcurrentCallers() throws Exception {
+        final StubOcrEngine engine = new StubOcrEngine(0, 10);
+        final OcrScheduler scheduler = new OcrScheduler(engine, 2, 1, 0);
+        final AtomicInteger failures = new AtomicInteger();
+        Thread[] callers = new Thread[4];
+        for (int i = 0; i < callers.length; i++) {
+            callers[i] = new Thread() {
+                public void run() {
+                    StubPages pages = new StubPages(15, 2);
+                    try {
+                        scheduler.recognize(pages, pages.consumer());
+                    } catch (IOException | AssertionError e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            };
+            callers[i].start();
+        }
+        for (Thread caller : callers) {
+            caller.join();
+        }
+
+        assertEquals(0, failures.get());
+        assertTrue("max in flight " + engine.maxRunning.get(), engine.maxRunning.get() <= 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidSettings() {
+        new OcrScheduler(new StubOcrEngine(0, 0), 0, 1, 0);
+    }
+}
@@ -0,0 +1,81 @@
+package pse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * The parallel makeIndex must build exactly the index of the serial one.
+ */
+public class ParallelMakeIndexTest {
+
+    private TestCorpus corpus;
+
+    private List<String> docs;
+
+    @Before
+    public void setUp() throws Exception {
+        corpus = new TestCorpus();
+        // more documents than one batch of the parallel build
+        docs = corpus.generate(150, 200, 3000, 1);
+    }
+
+    @After
+    public void tearDown() {
+        corpus.delete();
+    }
+
+    @Test
+    public void sameIndexAsSerialBuild() throws Exception {
+        assertSameIndex(docs, false);
+    }
+
+    @Test
+    public void samePositionalIndexAsSerialBuild() throws Exception {
+        assertSameIndex(docs, true);
+    }
+
+    @Test
+    public void sameIndexWithRepeatedDocuments() throws Exception {
+        List<String> repeated = new ArrayList<String>(docs.subList(0, 60));
+        repeated.addAll(docs.subList(10, 40));
+        assertSameIndex(repeated, false);
+    }
+
+    @Test
+    public void sameIndexWithEmptyDocuments() throws Exception {
+        List<String> withEmpty = new ArrayList<String>(docs.subList(0, 40));
+        withEmpty.add(5, corpus.write("empty.txt", ""));
+        withEmpty.add(corpus.write("noise.txt", corpus.words[1] + " " + corpus.words[4]));
+        assertSameIndex(withEmpty, false);
+    }
+
+    private void assertSameIndex(List<String> docs, boolean positional) throws Exception {
+        PersonalSearchEngine serial = new PersonalSearchEngine();
+        serial.setPositional(positional);
+        serial.makeIndex(docs, corpus.noiseWordsFile);
+        String serialFile = corpus.path("serial.pse");
+        serial.saveIndex(serialFile);
+        String dump = TestCorpus.dump(serial);
+
+        for (int threads = 2; threads <= 5; threads++) {
+            PersonalSearchEngine parallel = new PersonalSearchEngine();
+            parallel.setPositional(positional);
+            parallel.makeIndex(docs, corpus.noiseWordsFile, threads);
+
+            assertEquals("threads=" + threads, dump, TestCorpus.dump(parallel));
+            String parallelFile = corpus.path("parallel" + threads + ".pse");
+            parallel.saveIndex(parallelFile);
+            assertArrayEquals("threads=" + threads, TestCorpus.read(serialFile), TestCorpus.read(parallelFile));
+            for (Query query : corpus.queries(50, threads)) {
+                assertEquals(query.toString(), TestCorpus.results(serial.search(query)),
+                        TestCorpus.results(parallel.search(query)));
+            }
+        }
+    }
+}
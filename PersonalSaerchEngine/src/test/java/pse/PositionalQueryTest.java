@@ -0,0 +1,193 @@
+package pse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * PHRASE and NEAR queries must find the documents, and count the matches, that a brute force scan of the
+ * words of every document finds: a phrase at every position where its keywords follow each other in order, a
+ * NEAR window at every keyword occurrence that is followed by all other keywords within the distance.
+ */
+public class PositionalQueryTest {
+
+    /**
+     * Few words, so that phrases and windows match often. The noise word takes a position, but is no keyword.
+     */
+    private static final String[] WORDS = {"alpha", "beta", "gamma", "delta", "the"};
+
+    private TestCorpus corpus;
+
+    private List<String> docs;
+
+    private List<String[]> texts;
+
+    private PersonalSearchEngine engine;
+
+    @Before
+    public void setUp() throws Exception {
+        corpus = new TestCorpus();
+        Random random = new Random(11);
+        docs = new ArrayList<String>();
+        texts = new ArrayList<String[]>();
+        for (int i = 0; i < 80; i++) {
+            String[] words = new String[1 + random.nextInt(i % 5 == 0 ? 6 : 120)];
+            for (int w = 0; w < words.length; w++) {
+                words[w] = WORDS[random.nextInt(WORDS.length)];
+            }
+            texts.add(words);
+            StringBuilder text = new StringBuilder();
+            for (String word : words) {
+                // any whitespace separates words
+                text.append(word).append(random.nextInt(8) == 0 ? "\n" : " ");
+            }
+            docs.add(corpus.write("doc" + i + ".txt", text.toString()));
+        }
+        corpus.noiseWordsFile = corpus.write("noisewords.txt", "the\n");
+        engine = new PersonalSearchEngine();
+        engine.setPositional(true);
+        engine.setScorer(Scorer.FREQUENCY);
+        engine.makeIndex(docs, corpus.noiseWordsFile);
+    }
+
+    @After
+    public void tearDown() {
+        corpus.delete();
+    }
+
+    @Test
+    public void phrasesMatchBruteForce() throws Exception {
+        List<String[]> phrases = new ArrayList<String[]>();
+        Random random = new Random(12);
+        for (int i = 0; i < 60; i++) {
+            phrases.add(keywords(random, 1 + random.nextInt(4)));
+        }
+        // repeated keywords, next to each other and apart
+        phrases.add(new String[] {"alpha", "alpha"});
+        phrases.add(new String[] {"beta", "beta", "beta"});
+        phrases.add(new String[] {"alpha", "beta", "alpha"});
+        phrases.add(new String[] {"gamma", "delta", "gamma", "delta"});
+        for (String[] phrase : phrases) {
+            assertMatches(new Query(Query.Operator.PHRASE, docs.size(), phrase), phraseCounts(phrase));
+        }
+        engine.saveIndex(corpus.path("index"));
+        engine.openIndex(corpus.path("index"));
+        for (String[] phrase : phrases) {
+            assertMatches(new Query(Query.Operator.PHRASE, docs.size(), phrase), phraseCounts(phrase));
+        }
+    }
+
+    @Test
+    public void windowsMatchBruteForce() throws Exception {
+        List<Query> queries = new ArrayList<Query>();
+        Random random = new Random(13);
+        for (int i = 0; i < 60; i++) {
+            queries.add(Query.near(random.nextInt(6), docs.size(), keywords(random, 1 + random.nextInt(3))));
+        }
+        // distance 0 only fits a single keyword, however often it is repeated
+        queries.add(Query.near(0, docs.size(), "alpha"));
+        queries.add(Query.near(0, docs.size(), "alpha", "alpha"));
+        queries.add(Query.near(0, docs.size(), "alpha", "beta"));
+        queries.add(Query.near(1, docs.size(), "alpha", "beta"));
+        queries.add(Query.near(1, docs.size(), "beta", "alpha", "beta"));
+        queries.add(Query.near(2, docs.size(), "alpha", "beta", "gamma"));
+        queries.add(Query.near(3, docs.size(), "gamma", "gamma", "delta", "alpha"));
+        for (Query query : queries) {
+            assertMatches(query, windowCounts(query.keywords, query.distance));
+        }
+        engine.saveIndex(corpus.path("index"));
+        engine.openIndex(corpus.path("index"));
+        for (Query query : queries) {
+            assertMatches(query, windowCounts(query.keywords, query.distance));
+        }
+        assertTrue(engine.search(Query.near(0, docs.size(), "alpha", "beta")).isEmpty());
+        assertEquals(engine.search(Query.near(0, docs.size(), "alpha")).size(),
+                engine.search(Query.near(4, docs.size(), "alpha", "alpha")).size());
+    }
+
+    /**
+     * Searches, and compares the documents found and their scores, which are their numbers of matches, with
+     * the expected ones.
+     */
+    private void assertMatches(Query query, Map<String,Integer> expected) {
+        TreeMap<String,Integer> found = new TreeMap<String,Integer>();
+        for (SearchResult result : engine.search(query)) {
+            assertNull(query + " " + result.document, found.put(result.document, (int) result.score));
+        }
+        assertEquals(query.toString(), expected, found);
+    }
+
+    /**
+     * @return Number of occurrences of a phrase in every document that has it
+     */
+    private Map<String,Integer> phraseCounts(String[] phrase) {
+        TreeMap<String,Integer> counts = new TreeMap<String,Integer>();
+        for (int d = 0; d < docs.size(); d++) {
+            String[] words = texts.get(d);
+            int count = 0;
+            for (int p = 0; p + phrase.length <= words.length; p++) {
+                int t = 0;
+                while (t < phrase.length && words[p + t].equals(phrase[t])) {
+                    t++;
+                }
+                if (t == phrase.length) {
+                    count++;
+                }
+            }
+            if (count > 0) {
+                counts.put(docs.get(d), count);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * @return Number of keyword occurrences that have every other keyword within the distance after them,
+     * in every document that has one
+     */
+    private Map<String,Integer> windowCounts(String[] keywords, int distance) {
+        List<String> distinct = new ArrayList<String>(new LinkedHashSet<String>(Arrays.asList(keywords)));
+        TreeMap<String,Integer> counts = new TreeMap<String,Integer>();
+        for (int d = 0; d < docs.size(); d++) {
+            String[] words = texts.get(d);
+            int count = 0;
+            for (int p = 0; p < words.length; p++) {
+                if (!distinct.contains(words[p])) {
+                    continue;
+                }
+                LinkedHashSet<String> window = new LinkedHashSet<String>();
+                for (int q = p; q < words.length && q <= p + distance; q++) {
+                    window.add(words[q]);
+                }
+                if (window.containsAll(distinct)) {
+                    count++;
+                }
+            }
+            if (count > 0) {
+                counts.put(docs.get(d), count);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * @return Random keywords, repeats allowed
+     */
+    private static String[] keywords(Random random, int count) {
+        String[] keywords = new String[count];
+        for (int i = 0; i < count; i++) {
+            keywords[i] = WORDS[random.nextInt(WORDS.length - 1)];
+        }
+        return keywords;
+    }
+}
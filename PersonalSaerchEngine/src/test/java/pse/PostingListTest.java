@@ -0,0 +1,323 @@
+package pse;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Packed posting lists must hold exactly the postings of plain ones, checked against a brute force model:
+ * the postings in the order they were added, stably sorted on descending frequency.
+ */
+public class PostingListTest {
+
+    private static final int[] SIZES = {0, 1, 2, 127, 128, 129, 300, 1000, 5000};
+
+    @Test
+    public void packedListsEqualPlainLists() {
+        Random random = new Random(1);
+        for (int size : SIZES) {
+            // dense ids give one byte gaps, sparse ones gaps of several bytes and ids of several bytes
+            List<int[]> model = randomPostings(random, size, size % 3 == 0 ? size * 2 + 1 : 1 << 22);
+            PostingList appended = appended(model);
+            assertPostings("appended " + size, model, appended);
+            if (size <= 1000) {
+                PostingList added = new PostingList();
+                for (int[] posting : model) {
+                    added.add(posting[0], posting[1]);
+                }
+                assertPostings("added " + size, model, added);
+            }
+
+            byte[] encoded = appended.packed();
+            appended.pack();
+            assertTrue(appended.isPacked());
+            assertArrayEquals(encoded, appended.packed());
+            assertPostings("packed " + size, model, appended);
+            assertBlocks("packed " + size, model, appended);
+
+            // the same bytes in a buffer, after other data, as a segment maps them
+            ByteBuffer mapped = ByteBuffer.allocate(encoded.length + 7);
+            mapped.position(7);
+            mapped.put(encoded);
+            PostingList inSegment = new PostingList(model.size(), mapped, 7, null, 0);
+            assertPostings("mapped " + size, model, inSegment);
+            assertBlocks("mapped " + size, model, inSegment);
+            assertArrayEquals(encoded, inSegment.packed());
+        }
+    }
+
+    @Test
+    public void packedListsCanChange() {
+        Random random = new Random(2);
+        for (int size : SIZES) {
+            List<int[]> model = randomPostings(random, size, 1 << 12);
+            PostingList list = appended(model);
+            list.pack();
+
+            // ids above every id in the list, with frequencies that go anywhere in it
+            for (int i = 0; i < 20; i++) {
+                int[] posting = {(1 << 12) + i, 1 + random.nextInt(12)};
+                model.add(posting);
+                if (i % 2 == 0) {
+                    list.add(posting[0], posting[1]);
+                } else {
+                    list.append(posting[0], posting[1]);
+                    list.sort();
+                }
+            }
+            assertFalse(list.isPacked());
+            assertPostings("changed " + size, model, list);
+
+            list.pack();
+            // removes every third document and renumbers the rest in order, as DocumentTable.remove does
+            int[] remap = new int[(1 << 12) + 20];
+            for (int id = 0, next = 0; id < remap.length; id++) {
+                remap[id] = id % 3 == 0 ? -1 : next++;
+            }
+            List<int[]> remapped = new ArrayList<int[]>();
+            for (int[] posting : model) {
+                if (remap[posting[0]] >= 0) {
+                    remapped.add(new int[] {remap[posting[0]], posting[1]});
+                }
+            }
+            list.remap(remap);
+            assertPostings("remapped " + size, remapped, list);
+            list.pack();
+            assertBlocks("remapped " + size, remapped, list);
+        }
+    }
+
+    @Test
+    public void unionEqualsBruteForce() {
+        Random random = new Random(3);
+        for (int round = 0; round < 30; round++) {
+            PostingList[] lists = new PostingList[1 + random.nextInt(5)];
+            Map<Integer, int[]> positions = new HashMap<Integer, int[]>();
+            for (int l = 0; l < lists.length; l++) {
+                List<int[]> model = randomPostings(random, random.nextInt(400), 600);
+                lists[l] = new PostingList();
+                for (int[] posting : model) {
+                    // different keywords never share a word position
+                    int[] listPositions = new int[posting[1]];
+                    for (int p = 0; p < posting[1]; p++) {
+                        listPositions[p] = p * lists.length + l;
+                    }
+                    lists[l].append(posting[0], posting[1],
+                            PostingList.encodePositions(listPositions, listPositions.length));
+                    int[] union = positions.get(posting[0]);
+                    union = union == null ? listPositions : concat(union, listPositions);
+                    positions.put(posting[0], union);
+                }
+                if (random.nextBoolean()) {
+                    lists[l].pack();
+                } else {
+                    lists[l].sort();
+                }
+            }
+
+            // summed frequencies, equal frequencies in document order
+            List<int[]> expected = new ArrayList<int[]>();
+            for (Map.Entry<Integer, int[]> entry : positions.entrySet()) {
+                expected.add(new int[] {entry.getKey(), entry.getValue().length});
+            }
+            Collections.sort(expected, new Comparator<int[]>() {
+                public int compare(int[] a, int[] b) {
+                    return a[0] - b[0];
+                }
+            });
+            Collections.sort(expected, new Comparator<int[]>() {
+                public int compare(int[] a, int[] b) {
+                    return b[1] - a[1];
+                }
+            });
+            PostingList union = PostingList.union(lists);
+            assertPostings("union " + round, expected, union);
+            assertEquals(expected.size(), PostingList.unionSize(lists));
+            assertTrue(union.hasPositions());
+            for (int i = 0; i < union.size(); i++) {
+                int[] merged = positions.get(union.docId(i)).clone();
+                Arrays.sort(merged);
+                assertArrayEquals(merged, Arrays.copyOf(union.positions(i, null), union.frequency(i)));
+            }
+        }
+    }
+
+    @Test
+    public void evaluatorEqualsBruteForce() {
+        Random random = new Random(4);
+        int documentCount = 3000;
+        PostingList[] pool = new PostingList[40];
+        for (int l = 0; l < pool.length; l++) {
+            // long lists as well as short ones, packed or, like the dense lists of an index, not
+            List<int[]> model = randomPostings(random, l < 10 ? 1000 + random.nextInt(2000) : random.nextInt(300),
+                    documentCount);
+            pool[l] = appended(model);
+            if (l % 4 != 0) {
+                pool[l].pack();
+            }
+        }
+        for (int q = 0; q < 2000; q++) {
+            PostingList[] lists = new PostingList[1 + random.nextInt(4)];
+            boolean sum = random.nextInt(3) != 0;
+            double[] bonus = sum ? null : new double[lists.length];
+            for (int t = 0; t < lists.length; t++) {
+                lists[t] = random.nextInt(30) == 0 ? null : pool[random.nextInt(pool.length)];
+                if (bonus != null) {
+                    bonus[t] = (lists.length - 1 - t) / (double) lists.length;
+                }
+            }
+            int k = 1 + random.nextInt(random.nextBoolean() ? 10 : 200);
+            boolean matchAll = random.nextBoolean();
+
+            QueryEvaluator evaluator = new QueryEvaluator(lists, documentCount, bonus, k, matchAll, sum);
+            int[] docIds = evaluator.evaluate();
+            double[] scores = evaluator.scores();
+            List<double[]> expected = bruteForce(lists, bonus, k, matchAll, sum);
+            String label = "query " + q + " k=" + k + " all=" + matchAll + " sum=" + sum;
+            assertEquals(label, expected.size(), docIds.length);
+            for (int i = 0; i < docIds.length; i++) {
+                assertEquals(label, (int) expected.get(i)[0], docIds[i]);
+                assertEquals(label, expected.get(i)[1], scores[i], 1e-9);
+            }
+        }
+    }
+
+    /**
+     * @return Postings in the order they are added: distinct random document ids below idLimit, and
+     *         frequencies that are mostly low, so that there are long runs of equal frequency
+     */
+    private static List<int[]> randomPostings(Random random, int size, int idLimit) {
+        int[] ids = new int[idLimit];
+        for (int id = 0; id < idLimit; id++) {
+            ids[id] = id;
+        }
+        List<int[]> postings = new ArrayList<int[]>(size);
+        for (int i = 0; i < Math.min(size, idLimit); i++) {
+            int j = i + random.nextInt(idLimit - i);
+            int id = ids[j];
+            ids[j] = ids[i];
+            ids[i] = id;
+            int frequency = 1;
+            while (frequency < 50 && random.nextInt(3) == 0) {
+                frequency++;
+            }
+            postings.add(new int[] {id, frequency});
+        }
+        // mostly in increasing document order, as documents are indexed
+        Collections.sort(postings.subList(0, postings.size() * 3 / 4), new Comparator<int[]>() {
+            public int compare(int[] a, int[] b) {
+                return a[0] - b[0];
+            }
+        });
+        return postings;
+    }
+
+    private static PostingList appended(List<int[]> postings) {
+        PostingList list = new PostingList();
+        for (int[] posting : postings) {
+            list.append(posting[0], posting[1]);
+        }
+        list.sort();
+        return list;
+    }
+
+    /**
+     * Compares a list with the postings of a model, in the order they were added, stably sorted on
+     * descending frequency.
+     */
+    private static void assertPostings(String label, List<int[]> model, PostingList list) {
+        List<int[]> expected = new ArrayList<int[]>(model);
+        Collections.sort(expected, new Comparator<int[]>() {
+            public int compare(int[] a, int[] b) {
+                return b[1] - a[1];
+            }
+        });
+        assertEquals(label, expected.size(), list.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(label + " docId " + i, expected.get(i)[0], list.docId(i));
+            assertEquals(label + " frequency " + i, expected.get(i)[1], list.frequency(i));
+        }
+        int[] blockDocIds = new int[PostingList.BLOCK_SIZE];
+        int[] blockFrequencies = new int[PostingList.BLOCK_SIZE];
+        int i = 0;
+        for (int b = 0; b < list.blockCount(); b++) {
+            int count = list.decodeBlock(b, blockDocIds, blockFrequencies);
+            assertEquals(label, Math.min(PostingList.BLOCK_SIZE, expected.size() - i), count);
+            for (int j = 0; j < count; j++, i++) {
+                assertEquals(label + " block docId " + i, expected.get(i)[0], blockDocIds[j]);
+                assertEquals(label + " block frequency " + i, expected.get(i)[1], blockFrequencies[j]);
+            }
+        }
+        assertEquals(label, expected.size(), i);
+    }
+
+    /**
+     * Checks the skip table bounds of every block against its postings.
+     */
+    private static void assertBlocks(String label, List<int[]> model, PostingList list) {
+        int[] blockDocIds = new int[PostingList.BLOCK_SIZE];
+        int[] blockFrequencies = new int[PostingList.BLOCK_SIZE];
+        assertEquals(label, (model.size() + PostingList.BLOCK_SIZE - 1) / PostingList.BLOCK_SIZE, list.blockCount());
+        for (int b = 0; b < list.blockCount(); b++) {
+            int count = list.decodeBlock(b, blockDocIds, blockFrequencies);
+            assertEquals(label + " block " + b, blockFrequencies[0], list.blockMaxFrequency(b));
+            for (int j = 0; j < count; j++) {
+                assertTrue(label + " block " + b, list.blockMinDocId(b) <= blockDocIds[j]);
+                assertTrue(label + " block " + b, list.blockMaxDocId(b) >= blockDocIds[j]);
+            }
+        }
+    }
+
+    /**
+     * @return Top documents of a query, as {document id, score}, best first and equal scores in document
+     *         order
+     */
+    private static List<double[]> bruteForce(PostingList[] lists, double[] bonus, int k, boolean matchAll,
+            boolean sum) {
+        Map<Integer, double[]> documents = new HashMap<Integer, double[]>();
+        for (int t = 0; t < lists.length; t++) {
+            if (lists[t] == null) {
+                continue;
+            }
+            for (int i = 0; i < lists[t].size(); i++) {
+                double contribution = lists[t].frequency(i) + (bonus == null ? 0 : bonus[t]);
+                double[] document = documents.get(lists[t].docId(i));
+                if (document == null) {
+                    document = new double[] {lists[t].docId(i), contribution, 0};
+                    documents.put(lists[t].docId(i), document);
+                } else {
+                    document[1] = sum ? document[1] + contribution : Math.max(document[1], contribution);
+                }
+                document[2] = (long) document[2] | (1L << t);
+            }
+        }
+        List<double[]> results = new ArrayList<double[]>();
+        for (double[] document : documents.values()) {
+            if (!matchAll || (long) document[2] == (1L << lists.length) - 1) {
+                results.add(document);
+            }
+        }
+        Collections.sort(results, new Comparator<double[]>() {
+            public int compare(double[] a, double[] b) {
+                return a[1] != b[1] ? Double.compare(b[1], a[1]) : Double.compare(a[0], b[0]);
+            }
+        });
+        return results.subList(0, Math.min(k, results.size()));
+    }
+
+    private static int[] concat(int[] first, int[] second) {
+        int[] both = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, both, first.length, second.length);
+        return both;
+    }
+}
@@ -0,0 +1,162 @@
+package pse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * An engine with a query cache must return exactly the results of an engine without one, however the index
+ * changes between the searches.
+ */
+public class QueryCacheTest {
+
+    private TestCorpus corpus;
+
+    private List<String> docs;
+
+    @Before
+    public void setUp() throws Exception {
+        corpus = new TestCorpus();
+        docs = corpus.generate(100, 120, 1500, 4);
+    }
+
+    @After
+    public void tearDown() {
+        corpus.delete();
+    }
+
+    @Test
+    public void sameResultsAsWithoutCache() throws Exception {
+        PersonalSearchEngine plain = new PersonalSearchEngine();
+        plain.makeIndex(docs.subList(0, 50), corpus.noiseWordsFile);
+        PersonalSearchEngine cached = new PersonalSearchEngine();
+        QueryCache cache = new QueryCache(1000, 1 << 20);
+        cached.setQueryCache(cache);
+        cached.makeIndex(docs.subList(0, 50), corpus.noiseWordsFile);
+
+        assertSameResults("built", plain, cached);
+        assertTrue(cache.hits() > 0);
+
+        // new documents
+        plain.updateIndex(docs.subList(0, 80), corpus.noiseWordsFile);
+        cached.updateIndex(docs.subList(0, 80), corpus.noiseWordsFile);
+        assertSameResults("added", plain, cached);
+        assertTrue(cache.invalidations() > 0);
+
+        // removed documents
+        plain.updateIndex(docs.subList(10, 80), corpus.noiseWordsFile);
+        cached.updateIndex(docs.subList(10, 80), corpus.noiseWordsFile);
+        assertSameResults("removed", plain, cached);
+
+        // another scorer
+        plain.setScorer(Scorer.TF_IDF);
+        cached.setScorer(Scorer.TF_IDF);
+        assertSameResults("scorer", plain, cached);
+
+        // another index
+        String indexFile = corpus.path("other.pse");
+        PersonalSearchEngine other = new PersonalSearchEngine();
+        other.makeIndex(docs.subList(60, 100), corpus.noiseWordsFile);
+        other.saveIndex(indexFile);
+        plain.openIndex(indexFile);
+        cached.openIndex(indexFile);
+        assertSameResults("opened", plain, cached);
+    }
+
+    @Test
+    public void sharedCacheKeepsEnginesApart() throws Exception {
+        QueryCache cache = new QueryCache(1000, 1 << 20);
+        PersonalSearchEngine first = new PersonalSearchEngine();
+        first.setQueryCache(cache);
+        first.makeIndex(docs.subList(0, 50), corpus.noiseWordsFile);
+        PersonalSearchEngine second = new PersonalSearchEngine();
+        second.setQueryCache(cache);
+        second.makeIndex(docs.subList(50, 100), corpus.noiseWordsFile);
+        PersonalSearchEngine firstPlain = new PersonalSearchEngine();
+        firstPlain.makeIndex(docs.subList(0, 50), corpus.noiseWordsFile);
+        PersonalSearchEngine secondPlain = new PersonalSearchEngine();
+        secondPlain.makeIndex(docs.subList(50, 100), corpus.noiseWordsFile);
+
+        for (Query query : corpus.queries(100, 8)) {
+            assertEquals(TestCorpus.results(firstPlain.search(query)), TestCorpus.results(first.search(query)));
+            assertEquals(TestCorpus.results(secondPlain.search(query)), TestCorpus.results(second.search(query)));
+        }
+    }
+
+    @Test
+    public void sameShardedResultsAsWithoutCache() throws Exception {
+        ShardedSearchEngine plain = new ShardedSearchEngine(3);
+        plain.makeIndex(docs, corpus.noiseWordsFile);
+        ShardedSearchEngine cached = new ShardedSearchEngine(3);
+        QueryCache cache = new QueryCache(1000, 1 << 20);
+        cached.setQueryCache(cache);
+        cached.makeIndex(docs, corpus.noiseWordsFile);
+
+        for (Query query : workload(400, 9)) {
+            assertEquals(query.toString(), TestCorpus.results(plain.search(query)),
+                    TestCorpus.results(cached.search(query)));
+        }
+        assertTrue(cache.hits() > 0);
+    }
+
+    @Test
+    public void staysWithinBounds() throws Exception {
+        PersonalSearchEngine plain = new PersonalSearchEngine();
+        plain.makeIndex(docs, corpus.noiseWordsFile);
+        PersonalSearchEngine cached = new PersonalSearchEngine();
+        QueryCache cache = new QueryCache(20, 8000);
+        cached.setQueryCache(cache);
+        cached.makeIndex(docs, corpus.noiseWordsFile);
+
+        for (Query query : workload(400, 10)) {
+            assertEquals(query.toString(), TestCorpus.results(plain.search(query)),
+                    TestCorpus.results(cached.search(query)));
+            assertTrue("entries " + cache.size(), cache.size() <= 20);
+            assertTrue("bytes " + cache.bytes(), cache.bytes() <= 8000);
+        }
+        assertTrue(cache.evictions() > 0);
+        assertTrue(cache.hits() > 0);
+    }
+
+    /**
+     * Compares searches of a workload that repeats queries with different K, and top5search, including
+     * keywords that are not in the index.
+     */
+    private void assertSameResults(String label, PersonalSearchEngine plain, PersonalSearchEngine cached) {
+        for (Query query : workload(300, label.hashCode())) {
+            assertEquals(label + " " + query, TestCorpus.results(plain.search(query)),
+                    TestCorpus.results(cached.search(query)));
+        }
+        Random random = new Random(label.hashCode());
+        for (int i = 0; i < 100; i++) {
+            String kw1 = corpus.words[random.nextInt(30)];
+            String kw2 = i % 10 == 0 ? "notakeyword" : corpus.words[random.nextInt(corpus.words.length)];
+            if (i % 20 == 0) {
+                kw1 = "notakeyword";
+            }
+            assertEquals(label + " top5search " + kw1 + " " + kw2, plain.top5search(kw1, kw2),
+                    cached.top5search(kw1, kw2));
+        }
+    }
+
+    /**
+     * @return Queries drawn from a small pool, so that most of them repeat, with a K of 3, 10 or 25
+     */
+    private List<Query> workload(int count, long seed) {
+        List<Query> pool = corpus.queries(40, seed);
+        Random random = new Random(seed);
+        int[] ks = {3, 10, 25};
+        List<Query> queries = new ArrayList<Query>(count);
+        for (int i = 0; i < count; i++) {
+            Query query = pool.get(random.nextInt(pool.size()));
+            queries.add(new Query(query.operator, ks[random.nextInt(ks.length)], query.keywords));
+        }
+        return queries;
+    }
+}
@@ -0,0 +1,137 @@
+package pse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * A query that asks for more results than there are documents must get all of them, and the server must
+ * answer a k it does not take with a 400 rather than run out of memory.
+ */
+public class SearchServerTest {
+
+    private TestCorpus corpus;
+
+    private List<String> docs;
+
+    private PersonalSearchEngine engine;
+
+    private SearchServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        corpus = new TestCorpus();
+        docs = corpus.generate(60, 100, 500, 4);
+        engine = new PersonalSearchEngine();
+        engine.makeIndex(docs, corpus.noiseWordsFile);
+        server = new SearchServer(engine, new InetSocketAddress("localhost", 0));
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        corpus.delete();
+    }
+
+    @Test
+    public void hugeKReturnsEveryMatch() throws Exception {
+        for (Query query : corpus.queries(30, 3)) {
+            Query all = new Query(query.operator, docs.size(), query.keywords);
+            Query huge = new Query(query.operator, Integer.MAX_VALUE, query.keywords);
+            assertEquals(query.toString(), TestCorpus.results(engine.search(all)),
+                    TestCorpus.results(engine.search(huge)));
+        }
+
+        ShardedSearchEngine sharded = new ShardedSearchEngine(3);
+        sharded.makeIndex(docs, corpus.noiseWordsFile);
+        LiveSearchEngine live = new LiveSearchEngine(corpus.noiseWordsFile);
+        live.addDocuments(docs.subList(0, 30));
+        live.addDocuments(docs.subList(30, docs.size()));
+        for (Query query : corpus.queries(30, 4)) {
+            Query huge = new Query(query.operator, Integer.MAX_VALUE, query.keywords);
+            String expected = TestCorpus.results(engine.search(new Query(query.operator, docs.size(),
+                    query.keywords)));
+            assertEquals("sharded " + query, expected, TestCorpus.results(sharded.search(huge)));
+            assertEquals("live " + query, expected, TestCorpus.results(live.search(huge)));
+        }
+    }
+
+    @Test
+    public void hugeKIsRejected() throws Exception {
+        String keyword = corpus.words[5];
+        assertEquals(200, get("/search?q=" + keyword + "&k=" + SearchServer.MAX_K).status);
+
+        Response response = get("/search?q=" + keyword + "&k=2000000000");
+        assertEquals(400, response.status);
+        assertTrue(response.body, response.body.contains("\"error\""));
+
+        response = post("/search/batch", "{\"queries\":[{\"keywords\":[\"" + keyword + "\"],\"k\":5},"
+                + "{\"keywords\":[\"" + keyword + "\"],\"k\":2000000000}]}");
+        assertEquals(400, response.status);
+        assertTrue(response.body, response.body.contains("\"error\""));
+
+        // the server still answers
+        assertEquals(200, get("/search?q=" + keyword).status);
+    }
+
+    private Response get(String path) throws Exception {
+        return send((HttpURLConnection) url(path).openConnection());
+    }
+
+    private Response post(String path, String body) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) url(path).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        OutputStream out = connection.getOutputStream();
+        try {
+            out.write(body.getBytes(StandardCharsets.UTF_8));
+        } finally {
+            out.close();
+        }
+        return send(connection);
+    }
+
+    private URL url(String path) throws Exception {
+        return new URL("http://localhost:" + server.address().getPort() + path);
+    }
+
+    private static Response send(HttpURLConnection connection) throws Exception {
+        connection.setReadTimeout(10000);
+        int status = connection.getResponseCode();
+        InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try {
+            byte[] buffer = new byte[8192];
+            for (int read; (read = in.read(buffer)) > 0; ) {
+                body.write(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        return new Response(status, new String(body.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    private static final class Response {
+
+        final int status;
+
+        final String body;
+
+        Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package pse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * A sharded engine must return exactly the results of one engine that indexed the same documents.
+ */
+public class ShardedSearchEngineTest {
+
+    private TestCorpus corpus;
+
+    private List<String> docs;
+
+    @Before
+    public void setUp() throws Exception {
+        corpus = new TestCorpus();
+        docs = corpus.generate(90, 150, 2000, 2);
+    }
+
+    @After
+    public void tearDown() {
+        corpus.delete();
+    }
+
+    @Test
+    public void sameResultsAsOneIndex() throws Exception {
+        PersonalSearchEngine single = new PersonalSearchEngine();
+        single.makeIndex(docs, corpus.noiseWordsFile);
+        for (int shardCount = 1; shardCount <= 4; shardCount++) {
+            ShardedSearchEngine sharded = new ShardedSearchEngine(shardCount);
+            sharded.makeIndex(docs, corpus.noiseWordsFile);
+            assertSameResults("shards=" + shardCount, single, sharded);
+        }
+    }
+
+    @Test
+    public void sameResultsAfterSaveAndOpen() throws Exception {
+        PersonalSearchEngine single = new PersonalSearchEngine();
+        single.makeIndex(docs, corpus.noiseWordsFile);
+        ShardedSearchEngine built = new ShardedSearchEngine(3);
+        built.makeIndex(docs, corpus.noiseWordsFile);
+        String indexFile = corpus.path("sharded.pse");
+        built.saveIndex(indexFile);
+
+        ShardedSearchEngine opened = new ShardedSearchEngine(3);
+        opened.openIndex(indexFile);
+        assertSameResults("opened", single, opened);
+
+        try {
+            new ShardedSearchEngine(2).openIndex(indexFile);
+            fail("An index of 3 shards was opened with 2");
+        } catch (java.io.IOException expected) {
+        }
+    }
+
+    @Test
+    public void metricsSumUpTheShards() throws Exception {
+        PersonalSearchEngine single = new PersonalSearchEngine();
+        single.makeIndex(docs, corpus.noiseWordsFile);
+        ShardedSearchEngine sharded = new ShardedSearchEngine(3);
+        sharded.makeIndex(docs, corpus.noiseWordsFile);
+        for (String gauge : new String[] {"index.documents", "index.postings"}) {
+            assertEquals(gauge, single.metrics().snapshot().get(gauge), sharded.metrics().snapshot().get(gauge));
+        }
+        assertEquals((long) docs.size(), sharded.metrics().snapshot().get("index.documents"));
+    }
+
+    @Test
+    public void samePhraseResultsAsOneIndex() throws Exception {
+        PersonalSearchEngine single = new PersonalSearchEngine();
+        single.setPositional(true);
+        single.makeIndex(docs, corpus.noiseWordsFile);
+        ShardedSearchEngine sharded = new ShardedSearchEngine(3);
+        sharded.setPositional(true);
+        sharded.makeIndex(docs, corpus.noiseWordsFile);
+        for (Query query : corpus.queries(60, 7)) {
+            Query phrase = new Query(Query.Operator.PHRASE, 10, query.keywords);
+            assertEquals(phrase.toString(), TestCorpus.results(single.search(phrase)),
+                    TestCorpus.results(sharded.search(phrase)));
+        }
+    }
+
+    @Test
+    public void repeatedDocumentsAreIndexedOnce() throws Exception {
+        List<String> repeated = new ArrayList<String>(docs);
+        repeated.addAll(docs.subList(5, 25));
+        repeated.add(3, docs.get(40));
+        PersonalSearchEngine single = new PersonalSearchEngine();
+        single.makeIndex(new ArrayList<String>(new LinkedHashSet<String>(repeated)), corpus.noiseWordsFile);
+        ShardedSearchEngine sharded = new ShardedSearchEngine(3);
+        sharded.makeIndex(repeated, corpus.noiseWordsFile);
+        assertSameResults("repeated", single, sharded);
+    }
+
+    private void assertSameResults(String label, PersonalSearchEngine single, ShardedSearchEngine sharded) {
+        for (Query query : corpus.queries(100, 3)) {
+            assertEquals(label + " " + query, TestCorpus.results(single.search(query)),
+                    TestCorpus.results(sharded.search(query)));
+        }
+        for (Query query : corpus.queries(30, 4)) {
+            String kw1 = query.keywords[0];
+            String kw2 = query.keywords[1];
+            assertEquals(label + " top5search " + kw1 + " " + kw2, single.top5search(kw1, kw2),
+                    sharded.top5search(kw1, kw2));
+        }
+    }
+}
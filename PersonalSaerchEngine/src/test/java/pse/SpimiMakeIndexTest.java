@@ -0,0 +1,99 @@
+package pse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * The memory-bounded makeIndex must write exactly the segment that makeIndex and saveIndex write, however
+ * many runs its memory budget splits the corpus into.
+ */
+public class SpimiMakeIndexTest {
+
+    /**
+     * From a run of a few documents to a single run.
+     */
+    private static final long[] BUDGETS = {20000, 200000, Long.MAX_VALUE};
+
+    private TestCorpus corpus;
+
+    private List<String> docs;
+
+    @Before
+    public void setUp() throws Exception {
+        corpus = new TestCorpus();
+        docs = corpus.generate(120, 150, 2500, 5);
+    }
+
+    @After
+    public void tearDown() {
+        corpus.delete();
+    }
+
+    @Test
+    public void sameIndexAsMakeIndex() throws Exception {
+        assertSameIndex(docs, docs, false);
+    }
+
+    @Test
+    public void samePositionalIndexAsMakeIndex() throws Exception {
+        assertSameIndex(docs, docs, true);
+    }
+
+    @Test
+    public void repeatedDocumentsAreIndexedOnce() throws Exception {
+        List<String> repeated = new LinkedList<String>(docs.subList(0, 70));
+        repeated.addAll(docs.subList(20, 50));
+        repeated.add(10, docs.get(60));
+        repeated.add(docs.get(69));
+        assertSameIndex(repeated, new ArrayList<String>(new LinkedHashSet<String>(repeated)), false);
+    }
+
+    @Test
+    public void sameIndexWithEmptyDocuments() throws Exception {
+        List<String> withEmpty = new ArrayList<String>(docs.subList(0, 40));
+        withEmpty.add(0, corpus.write("empty.txt", ""));
+        withEmpty.add(corpus.write("noise.txt", corpus.words[1] + " " + corpus.words[4]));
+        assertSameIndex(withEmpty, withEmpty, false);
+    }
+
+    /**
+     * @param docs Documents the memory-bounded build indexes
+     * @param expectedDocs Documents makeIndex indexes to the same index
+     */
+    private void assertSameIndex(List<String> docs, List<String> expectedDocs, boolean positional)
+            throws Exception {
+        PersonalSearchEngine expected = new PersonalSearchEngine();
+        expected.setPositional(positional);
+        expected.makeIndex(expectedDocs, corpus.noiseWordsFile);
+        String expectedFile = corpus.path("expected.pse");
+        expected.saveIndex(expectedFile);
+
+        for (long budget : BUDGETS) {
+            String label = "budget=" + budget;
+            String indexFile = corpus.path("spimi" + budget + ".pse");
+            PersonalSearchEngine spimi = new PersonalSearchEngine();
+            spimi.setPositional(positional);
+            spimi.makeIndex(docs, corpus.noiseWordsFile, indexFile, budget);
+
+            assertArrayEquals(label, TestCorpus.read(expectedFile), TestCorpus.read(indexFile));
+            assertEquals(label, TestCorpus.dump(expected), TestCorpus.dump(spimi));
+            for (Query query : corpus.queries(40, budget)) {
+                assertEquals(label + " " + query, TestCorpus.results(expected.search(query)),
+                        TestCorpus.results(spimi.search(query)));
+            }
+            // no run file is left behind
+            for (File file : corpus.directory.listFiles()) {
+                assertFalse(label + " " + file, file.getName().contains(".run"));
+            }
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package pse;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Files of a test in a temporary directory, deleted by delete, and a synthetic corpus to index.
+ *
+ * generate writes documents of made-up words with Zipfian frequencies, some capitalized or followed by
+ * punctuation, like the benchmark corpus. The corpus only depends on its parameters and the seed. The
+ * static helpers render indexes and results as text, so that two of them can be compared with assertEquals.
+ */
+class TestCorpus {
+
+    final File directory;
+
+    /**
+     * Vocabulary of the generated corpus, most frequent word first.
+     */
+    String[] words;
+
+    /**
+     * Path of the noise words file, written by generate.
+     */
+    String noiseWordsFile;
+
+    TestCorpus() throws IOException {
+        directory = File.createTempFile("pse-test", "");
+        directory.delete();
+        if (!directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+    }
+
+    /**
+     * @param name File name in the directory
+     * @param text Content of the file
+     * @return Path of the file
+     */
+    String write(String name, String text) throws IOException {
+        File file = new File(directory, name);
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            out.write(text);
+        } finally {
+            out.close();
+        }
+        return file.getPath();
+    }
+
+    /**
+     * @param name File name in the directory
+     * @return Path of the file, which need not exist
+     */
+    String path(String name) {
+        return new File(directory, name).getPath();
+    }
+
+    /**
+     * Writes a synthetic corpus and a noise words file with a few of its most frequent words.
+     *
+     * @param documents Number of documents
+     * @param wordsPerDocument Number of words of every document
+     * @param vocabulary Number of distinct words
+     * @param seed Seed of the corpus
+     * @return Paths of the documents
+     */
+    List<String> generate(int documents, int wordsPerDocument, int vocabulary, long seed) throws IOException {
+        Random random = new Random(seed);
+        words = new String[vocabulary];
+        HashSet<String> seen = new HashSet<String>();
+        for (int i = 0; i < vocabulary; i++) {
+            String word;
+            do {
+                // frequent words are short
+                int length = 2 + Math.min(8, (int) Math.log10(i + 1) * 2 + random.nextInt(3));
+                char[] chars = new char[length];
+                for (int j = 0; j < length; j++) {
+                    chars[j] = (char) ('a' + random.nextInt(26));
+                }
+                word = new String(chars);
+            } while (!seen.add(word));
+            words[i] = word;
+        }
+        double[] cumulative = new double[vocabulary];
+        double sum = 0;
+        for (int i = 0; i < vocabulary; i++) {
+            sum += 1.0 / (i + 1);
+            cumulative[i] = sum;
+        }
+        List<String> docs = new ArrayList<String>(documents);
+        for (int d = 0; d < documents; d++) {
+            StringBuilder text = new StringBuilder();
+            for (int w = 0; w < wordsPerDocument; w++) {
+                int rank = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+                String word = words[rank >= 0 ? rank : Math.min(-rank - 1, vocabulary - 1)];
+                int shape = random.nextInt(20);
+                if (shape == 0) {
+                    word = Character.toUpperCase(word.charAt(0)) + word.substring(1);
+                } else if (shape == 1) {
+                    word = word + ",";
+                } else if (shape == 2) {
+                    word = word + ".";
+                }
+                text.append(word).append(w % 12 == 11 ? '\n' : ' ');
+            }
+            docs.add(write("doc" + d + ".txt", text.toString()));
+        }
+        noiseWordsFile = write("noisewords.txt", words[1] + "\n" + words[4] + "\n" + words[9] + "\n");
+        return docs;
+    }
+
+    /**
+     * @param count Number of queries
+     * @param seed Seed of the queries
+     * @return OR and AND queries of two keywords of the generated vocabulary, one frequent and one of any rank
+     */
+    List<Query> queries(int count, long seed) {
+        Random random = new Random(seed);
+        List<Query> queries = new ArrayList<Query>(count);
+        for (int i = 0; i < count; i++) {
+            String[] keywords = {words[random.nextInt(Math.min(50, words.length))],
+                    words[random.nextInt(words.length)]};
+            queries.add(new Query(i % 2 == 0 ? Query.Operator.OR : Query.Operator.AND, 10, keywords));
+        }
+        return queries;
+    }
+
+    void delete() {
+        delete(directory);
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * @return The keywords of an index with their occurrences, one keyword per line in keyword order, then
+     *         the indexed documents
+     */
+    static String dump(PersonalSearchEngine engine) {
+        TreeSet<String> keywords = new TreeSet<String>();
+        if (engine.segment != null) {
+            for (int term = 0; term < engine.segment.termCount(); term++) {
+                keywords.add(engine.segment.term(term));
+            }
+        } else {
+            for (int id = 0; id < engine.keywordsIndex.idLimit(); id++) {
+                if (engine.keywordsIndex.get(id) != null) {
+                    keywords.add(engine.keywordsIndex.term(id));
+                }
+            }
+        }
+        StringBuilder dump = new StringBuilder();
+        for (String keyword : keywords) {
+            dump.append(keyword).append(' ').append(engine.getOccurrences(keyword)).append('\n');
+        }
+        for (int docId = 0; docId < engine.documentCount(); docId++) {
+            dump.append(engine.documentName(docId)).append('\n');
+        }
+        return dump.toString();
+    }
+
+    /**
+     * @return The documents and exact scores of search results
+     */
+    static String results(List<SearchResult> results) {
+        StringBuilder text = new StringBuilder();
+        for (SearchResult result : results) {
+            text.append(result.document).append(' ').append(Double.doubleToLongBits(result.score)).append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return Content of a file
+     */
+    static byte[] read(String file) throws IOException {
+        return Files.readAllBytes(new File(file).toPath());
+    }
+}
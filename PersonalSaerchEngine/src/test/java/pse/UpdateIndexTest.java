@@ -0,0 +1,129 @@
+package pse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * updateIndex must leave exactly the index that makeIndex builds from the same documents, in the order
+ * updateIndex keeps them in: the documents that did not change in their old order, then the new and changed
+ * ones in list order. isIndexCurrent must tell whether there is anything to update, on a mapped segment too.
+ */
+public class UpdateIndexTest {
+
+    private TestCorpus corpus;
+
+    private List<String> docs;
+
+    @Before
+    public void setUp() throws Exception {
+        corpus = new TestCorpus();
+        docs = corpus.generate(100, 120, 1500, 6);
+    }
+
+    @After
+    public void tearDown() {
+        corpus.delete();
+    }
+
+    @Test
+    public void sameIndexAsMakeIndex() throws Exception {
+        assertUpdates(false);
+    }
+
+    @Test
+    public void samePositionalIndexAsMakeIndex() throws Exception {
+        assertUpdates(true);
+    }
+
+    private void assertUpdates(boolean positional) throws Exception {
+        PersonalSearchEngine engine = new PersonalSearchEngine();
+        engine.setPositional(positional);
+        engine.makeIndex(docs, corpus.noiseWordsFile);
+        assertTrue(engine.isIndexCurrent(docs));
+        assertFalse(engine.updateIndex(docs, corpus.noiseWordsFile));
+
+        // touched without a change: neither re-indexed nor moved
+        touch(docs.get(3));
+        assertTrue(engine.isIndexCurrent(docs));
+        assertFalse(engine.updateIndex(docs, corpus.noiseWordsFile));
+
+        // changed, removed and added documents
+        List<String> listed = new ArrayList<String>();
+        List<String> unchanged = new ArrayList<String>();
+        List<String> pending = new ArrayList<String>();
+        for (int i = 0; i < docs.size(); i++) {
+            String doc = docs.get(i);
+            if (i % 10 == 1) {
+                continue;
+            }
+            if (i % 7 == 2) {
+                corpus.write(new File(doc).getName(), corpus.words[i] + " " + corpus.words[i + 1] + " changed");
+                touch(doc);
+                pending.add(doc);
+            } else {
+                unchanged.add(doc);
+            }
+            listed.add(doc);
+            if (i % 25 == 0) {
+                String added = corpus.write("added" + i + ".txt", corpus.words[i] + " " + corpus.words[2 * i]);
+                listed.add(added);
+                pending.add(added);
+            }
+        }
+        List<String> expectedOrder = new ArrayList<String>(unchanged);
+        expectedOrder.addAll(pending);
+
+        // the way Driver starts: the saved index mapped, loaded only if it is not current
+        String indexFile = corpus.path("index.pse");
+        engine.saveIndex(indexFile);
+        PersonalSearchEngine updated = new PersonalSearchEngine();
+        updated.openIndex(indexFile);
+        assertFalse(updated.isIndexCurrent(listed));
+        assertFalse(updated.isIndexCurrent(docs.subList(0, docs.size() - 1)));
+        assertFalse(updated.isIndexCurrent(docs));
+        updated.loadIndex(indexFile);
+        assertTrue(updated.updateIndex(listed, corpus.noiseWordsFile));
+        assertTrue(updated.isIndexCurrent(listed));
+
+        PersonalSearchEngine expected = new PersonalSearchEngine();
+        expected.setPositional(positional);
+        expected.makeIndex(expectedOrder, corpus.noiseWordsFile);
+        assertSameIndex(expected, updated);
+
+        // and once more on the same engine, back to fewer documents
+        List<String> fewer = new ArrayList<String>(expectedOrder.subList(0, 30));
+        assertTrue(updated.updateIndex(fewer, corpus.noiseWordsFile));
+        expected = new PersonalSearchEngine();
+        expected.setPositional(positional);
+        expected.makeIndex(fewer, corpus.noiseWordsFile);
+        assertSameIndex(expected, updated);
+
+        updated.saveIndex(indexFile);
+        updated.openIndex(indexFile);
+        assertTrue(updated.isIndexCurrent(fewer));
+        assertSameIndex(expected, updated);
+    }
+
+    private void assertSameIndex(PersonalSearchEngine expected, PersonalSearchEngine updated) {
+        assertEquals(TestCorpus.dump(expected), TestCorpus.dump(updated));
+        for (Query query : corpus.queries(40, 7)) {
+            assertEquals(query.toString(), TestCorpus.results(expected.search(query)),
+                    TestCorpus.results(updated.search(query)));
+        }
+    }
+
+    /**
+     * Moves the modification time of a file, so that a change is seen whatever the file system's clock.
+     */
+    private static void touch(String doc) {
+        File file = new File(doc);
+        assertTrue(file.setLastModified(file.lastModified() + 2000));
+    }
+}